@@ -0,0 +1,264 @@
+package jp.ac.ut.csis.pflow.geom;
+
+import java.util.List;
+
+/**
+ * Class for projecting a point onto a polyline without allocation. <br />
+ * coordinates are converted into a local metric frame around the query point once per query,
+ * using the meridian and prime vertical radii of Hubeny formula at the latitude of the query point.
+ * segments are compared by squared planar distance, and the exact(Hubeny) distance is evaluated only for
+ * the nearest segment. <br />
+ * an instance holds the result of the last projection, so reuse it for successive queries in one thread,
+ * but do not share it between threads.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public final class PolylineProjection {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** equator radius in WGS84			*/	private static final double WGS84_EQUATOR_RADIUS = 6378137;
+	/** polar radius in WGS84			*/	private static final double WGS84_POLAR_RADIUS   = 6356752.314245;
+	/** square of eccentricity in WGS84	*/	private static final double WGS84_ECCENTRICITY_2 = (WGS84_EQUATOR_RADIUS * WGS84_EQUATOR_RADIUS -
+																							WGS84_POLAR_RADIUS   * WGS84_POLAR_RADIUS  )
+																							/
+																							(WGS84_EQUATOR_RADIUS*WGS84_EQUATOR_RADIUS);
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** projected polyline(null for segment)	*/	private List<? extends LonLat> _line;
+	/** meters per degree of longitude			*/	private double                 _kx;
+	/** meters per degree of latitude			*/	private double                 _ky;
+	/** index of the nearest segment			*/	private int                    _segment;
+	/** ratio on the nearest segment			*/	private double                 _ratio;
+	/** longitude of the projected point		*/	private double                 _lon;
+	/** latitude of the projected point			*/	private double                 _lat;
+	/** distance to the projected point			*/	private double                 _dist;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create instance
+	 */
+	public PolylineProjection() {
+		_segment = -1;
+		_dist    = Double.NaN;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * project the point onto the line segment
+	 * @param lon0 longitude of start point
+	 * @param lat0 latitude of start point
+	 * @param lon1 longitude of end point
+	 * @param lat1 latitude of end point
+	 * @param lon longitude of the point
+	 * @param lat latitude of the point
+	 * @return this instance
+	 */
+	public PolylineProjection project(double lon0,double lat0,double lon1,double lat1,double lon,double lat) {
+		_line = null;
+		frame(lat);
+		projectSegment(lon0,lat0,lon1,lat1,lon,lat);
+		_segment = 0;
+		return finish(lon,lat);
+	}
+
+	/**
+	 * project the point onto the polyline
+	 * @param line polyline(at least one point)
+	 * @param lon longitude of the point
+	 * @param lat latitude of the point
+	 * @return this instance
+	 */
+	public PolylineProjection project(List<? extends LonLat> line,double lon,double lat) {
+		// case single point //////////////////////////////
+		if( line.size() == 1 ) {
+			_line = line;
+			frame(lat);
+			_segment = 0;
+			_ratio   = 0d;
+			_lon     = line.get(0).getLon();
+			_lat     = line.get(0).getLat();
+			return finish(lon,lat);
+		}
+		return project(line,0,line.size()-1,lon,lat);
+	}
+
+	/**
+	 * project the point onto the indicated segments of the polyline
+	 * @param line polyline(at least two points)
+	 * @param from first segment(inclusive)
+	 * @param to last segment(exclusive). segment i connects point i and i+1
+	 * @param lon longitude of the point
+	 * @param lat latitude of the point
+	 * @return this instance
+	 */
+	public PolylineProjection project(List<? extends LonLat> line,int from,int to,double lon,double lat) {
+		_line = line;
+		frame(lat);
+		// compare squared planar distances ///////////////
+		LonLat p0      = line.get(from);
+		double best    = Double.MAX_VALUE;
+		int    segment = from;
+		double ratio   = 0d;
+		for(int i=from+1;i<=to;i++) {
+			LonLat p1 = line.get(i);
+			double d2 = projectSegment(p0.getLon(),p0.getLat(),p1.getLon(),p1.getLat(),lon,lat);
+			if( d2 < best ) {
+				best    = d2;
+				segment = i - 1;
+				ratio   = _ratio;
+			}
+			p0 = p1;
+		}
+		// evaluate the winner ////////////////////////////
+		LonLat a = line.get(segment);
+		LonLat b = line.get(segment+1);
+		_segment = segment;
+		_ratio   = ratio;
+		_lon     = a.getLon() + ratio * (b.getLon() - a.getLon());
+		_lat     = a.getLat() + ratio * (b.getLat() - a.getLat());
+		return finish(lon,lat);
+	}
+
+	/**
+	 * project the point onto the polyline
+	 * @param line polyline(at least one point)
+	 * @param p point
+	 * @return this instance
+	 */
+	public PolylineProjection project(List<? extends LonLat> line,LonLat p) {
+		return project(line,p.getLon(),p.getLat());
+	}
+
+	/**
+	 * set up local metric frame at the latitude
+	 * @param lat latitude of the query point
+	 */
+	private void frame(double lat) {
+		double rad = Math.toRadians(lat);
+		double sin = Math.sin(rad);
+		double W2  = 1d - WGS84_ECCENTRICITY_2 * sin * sin;
+		double W   = Math.sqrt(W2);
+		double N   = WGS84_EQUATOR_RADIUS / W;
+		double M   = WGS84_EQUATOR_RADIUS * (1d - WGS84_ECCENTRICITY_2) / (W2 * W);
+		_kx = Math.toRadians(N * Math.cos(rad));
+		_ky = Math.toRadians(M);
+	}
+
+	/**
+	 * project the point onto the segment in the local frame. the ratio is kept in the field
+	 * @param lon0 longitude of start point
+	 * @param lat0 latitude of start point
+	 * @param lon1 longitude of end point
+	 * @param lat1 latitude of end point
+	 * @param lon longitude of the point
+	 * @param lat latitude of the point
+	 * @return squared planar distance
+	 */
+	private double projectSegment(double lon0,double lat0,double lon1,double lat1,double lon,double lat) {
+		double dx = (lon1 - lon0) * _kx;
+		double dy = (lat1 - lat0) * _ky;
+		double px = (lon  - lon0) * _kx;
+		double py = (lat  - lat0) * _ky;
+		double a  = dx*dx + dy*dy;
+		double t  = a == 0d ? 0d : (px*dx + py*dy) / a;
+		if( t < 0d )      { t = 0d; }
+		else if( t > 1d ) { t = 1d; }
+		_ratio = t;
+		_lon   = lon0 + t * (lon1 - lon0);
+		_lat   = lat0 + t * (lat1 - lat0);
+		double ex = px - t * dx;
+		double ey = py - t * dy;
+		return ex*ex + ey*ey;
+	}
+
+	/**
+	 * evaluate exact distance of the projected point
+	 * @param lon longitude of the query point
+	 * @param lat latitude of the query point
+	 * @return this instance
+	 */
+	private PolylineProjection finish(double lon,double lat) {
+		_dist = DistanceUtils.distance(lon,lat,_lon,_lat);
+		return this;
+	}
+
+	/**
+	 * get index of the nearest segment
+	 * @return segment index(segment i connects point i and i+1)
+	 */
+	public int getSegment() {
+		return _segment;
+	}
+
+	/**
+	 * get projection ratio on the nearest segment
+	 * @return ratio(0-1)
+	 */
+	public double getSegmentRatio() {
+		return _ratio;
+	}
+
+	/**
+	 * get projection ratio on the whole polyline by length
+	 * @return ratio(0-1). 0 if the polyline has no length
+	 */
+	public double getLineRatio() {
+		if( _line == null ) { return _ratio; }
+		double sum = 0d;
+		double inc = 0d;
+		int    len = _line.size();
+		for(int i=1;i<len;i++) {
+			LonLat p0 = _line.get(i-1);
+			LonLat p1 = _line.get(i);
+			double dx = (p1.getLon() - p0.getLon()) * _kx;
+			double dy = (p1.getLat() - p0.getLat()) * _ky;
+			double d  = Math.sqrt(dx*dx + dy*dy);
+			if( i - 1 <  _segment ) { inc += d; }
+			if( i - 1 == _segment ) { inc += d * _ratio; }
+			sum += d;
+		}
+		return sum > 0d ? inc / sum : 0d;
+	}
+
+	/**
+	 * get longitude of the projected point
+	 * @return longitude
+	 */
+	public double getLon() {
+		return _lon;
+	}
+
+	/**
+	 * get latitude of the projected point
+	 * @return latitude
+	 */
+	public double getLat() {
+		return _lat;
+	}
+
+	/**
+	 * get projected point
+	 * @return new point instance
+	 */
+	public LonLat getPoint() {
+		return new LonLat(_lon,_lat);
+	}
+
+	/**
+	 * get exact distance from the query point to the projected point
+	 * @return distance(m)
+	 */
+	public double getDistance() {
+		return _dist;
+	}
+}
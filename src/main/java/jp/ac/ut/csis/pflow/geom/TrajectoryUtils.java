@@ -44,24 +44,7 @@ public final class TrajectoryUtils {
      * @return interpolation ratio(0-1)
      */
     public static double getLocatePointRatio(List<? extends LonLat> points,LonLat p) {
-		int    len = points.size();
-		LonLat p0  = points.get(0);
-		double dis = Double.MAX_VALUE;
-		double inc =0d;
-		double sum =0d;
-		
-		for(int i=1;i<len;i++) {
-			LonLat p1 = points.get(i);
-			LonLat q  = DistanceUtils.nearestPoint(p0,p1,p);	// get nearest point between line
-			double d  = p.distance(q);							// get distance from the nearest point
-			if( d < dis ) {
-				dis = d;
-				inc = sum + DistanceUtils.distance(p0,q);
-			}
-			sum += DistanceUtils.distance(p0,p1);
-			p0 = p1;
-		}
-		return inc/sum;	// ratio must be between 0 and 1
+		return new PolylineProjection().project(points,p).getLineRatio();	// ratio must be between 0 and 1
 	}
     
     /**
@@ -0,0 +1,148 @@
+package jp.ac.ut.csis.pflow.routing2.assignment;
+
+import java.util.Arrays;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.OsmLink;
+
+/**
+ * Class for BPR volume-delay function by road class. <br />
+ * t = t0 * (1 + alpha * (v / capacity) ^ beta), where capacity is per direction of a link.
+ * parameters are set by {@link OsmLink#getRoadClass()}, and links other than OsmLink use the default parameters.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class BprFunction {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default alpha		*/	public static final double ALPHA    = 0.15d;
+	/** default beta		*/	public static final double BETA     = 4d;
+	/** default capacity	*/	public static final double CAPACITY = 1000d;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** alpha by road class		*/	private double[] _alpha;
+	/** beta by road class		*/	private double[] _beta;
+	/** capacity by road class	*/	private double[] _capacity;
+	/** parameters of others	*/	private double[] _default;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization. all road classes have the default parameters
+	 */
+	public BprFunction() {
+		_alpha    = new double[OsmLink.ROAD_TYPES.length];
+		_beta     = new double[OsmLink.ROAD_TYPES.length];
+		_capacity = new double[OsmLink.ROAD_TYPES.length];
+		_default  = new double[]{ALPHA,BETA,CAPACITY};
+		Arrays.fill(_alpha,ALPHA);
+		Arrays.fill(_beta,BETA);
+		Arrays.fill(_capacity,CAPACITY);
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * set parameters of the road class
+	 * @param clazz road class(0-127)
+	 * @param alpha alpha
+	 * @param beta beta
+	 * @param capacity capacity per direction
+	 * @return this instance
+	 */
+	public BprFunction setParameters(int clazz,double alpha,double beta,double capacity) {
+		validate(alpha,beta,capacity);
+		_alpha[clazz]    = alpha;
+		_beta[clazz]     = beta;
+		_capacity[clazz] = capacity;
+		return this;
+	}
+
+	/**
+	 * set parameters of links other than OsmLink
+	 * @param alpha alpha
+	 * @param beta beta
+	 * @param capacity capacity per direction
+	 * @return this instance
+	 */
+	public BprFunction setDefaultParameters(double alpha,double beta,double capacity) {
+		validate(alpha,beta,capacity);
+		_default = new double[]{alpha,beta,capacity};
+		return this;
+	}
+
+	/**
+	 * get parameters of the link
+	 * @param link link
+	 * @return alpha, beta and capacity
+	 */
+	public double[] getParameters(Link link) {
+		if( !(link instanceof OsmLink) ) { return _default.clone(); }
+		int clazz = OsmLink.class.cast(link).getRoadClass();
+		return new double[]{_alpha[clazz],_beta[clazz],_capacity[clazz]};
+	}
+
+	/**
+	 * expand parameters into edge arrays of the graph
+	 * @param graph compact graph
+	 * @return alpha, beta and capacity indexed by edge index
+	 */
+	protected double[][] compile(CompactGraph graph) {
+		int[]      links  = graph.getEdgeLink();
+		double[][] params = new double[3][links.length];
+		for(int e=0;e<links.length;e++) {
+			double[] p = getParameters(graph.getLink(links[e]));
+			params[0][e] = p[0];
+			params[1][e] = p[1];
+			params[2][e] = p[2];
+		}
+		return params;
+	}
+
+	/**
+	 * calculate travel time
+	 * @param t0 free-flow time
+	 * @param alpha alpha
+	 * @param beta beta
+	 * @param capacity capacity
+	 * @param volume volume
+	 * @return travel time
+	 */
+	public static double time(double t0,double alpha,double beta,double capacity,double volume) {
+		return volume <= 0d ? t0 : t0 * (1d + alpha * Math.pow(volume / capacity,beta));
+	}
+
+	/**
+	 * calculate derivative of travel time by volume
+	 * @param t0 free-flow time
+	 * @param alpha alpha
+	 * @param beta beta
+	 * @param capacity capacity
+	 * @param volume volume
+	 * @return derivative
+	 */
+	public static double derivative(double t0,double alpha,double beta,double capacity,double volume) {
+		return volume <= 0d ? (beta == 1d ? t0 * alpha / capacity : 0d) : t0 * alpha * beta * Math.pow(volume / capacity,beta - 1d) / capacity;
+	}
+
+	/**
+	 * validate parameters
+	 * @param alpha alpha
+	 * @param beta beta
+	 * @param capacity capacity
+	 */
+	private static void validate(double alpha,double beta,double capacity) {
+		if( !(alpha >= 0d) || !(beta >= 1d) || !(capacity > 0d) ) {
+			throw new IllegalArgumentException("unavailable value: " + alpha + "," + beta + "," + capacity);
+		}
+	}
+}
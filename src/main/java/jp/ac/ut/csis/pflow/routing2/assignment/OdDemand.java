@@ -0,0 +1,154 @@
+package jp.ac.ut.csis.pflow.routing2.assignment;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+
+/**
+ * Class for origin-destination demand between nodes of {@link CompactGraph}. <br />
+ * flows are grouped by origin, so assignment runs one shortest path tree per origin.
+ * the same pair can be added more than once, and the flows add up in assignment.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class OdDemand {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph			*/	private CompactGraph         _graph;
+	/** rows by origin			*/	private TreeMap<Integer,Row> _rows;
+	/** total flow				*/	private double               _total;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization
+	 * @param graph compact graph
+	 */
+	public OdDemand(CompactGraph graph) {
+		_graph = graph;
+		_rows  = new TreeMap<Integer,Row>();
+		_total = 0d;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get compact graph
+	 * @return graph
+	 */
+	public CompactGraph getGraph() {
+		return _graph;
+	}
+
+	/**
+	 * add flow between nodes
+	 * @param orgnode origin node
+	 * @param dstnode destination node
+	 * @param flow flow
+	 * @return this instance
+	 */
+	public OdDemand add(Node orgnode,Node dstnode,double flow) {
+		int org = _graph.indexOf(orgnode);
+		int dst = _graph.indexOf(dstnode);
+		if( org < 0 || dst < 0 ) { throw new IllegalArgumentException("node not in graph: " + (org < 0 ? orgnode : dstnode)); }
+		return add(org,dst,flow);
+	}
+
+	/**
+	 * add flow between nodes
+	 * @param org origin node index
+	 * @param dst destination node index
+	 * @param flow flow
+	 * @return this instance
+	 */
+	public OdDemand add(int org,int dst,double flow) {
+		// error handle ///////////////////////////////////
+		if( !(flow >= 0d) || flow == Double.POSITIVE_INFINITY ) { throw new IllegalArgumentException("unavailable value: " + flow); }
+		if( flow == 0d || org == dst ) { return this; }
+
+		Row row = _rows.get(org);
+		if( row == null ) { _rows.put(org,row = new Row()); }
+		row.add(dst,flow);
+		_total += flow;
+		return this;
+	}
+
+	/**
+	 * get the number of origins
+	 * @return the number of origins
+	 */
+	public int numOrigins() {
+		return _rows.size();
+	}
+
+	/**
+	 * get total flow
+	 * @return total flow
+	 */
+	public double getTotal() {
+		return _total;
+	}
+
+	/**
+	 * get origin node indexes
+	 * @return origins in ascending order
+	 */
+	public int[] getOrigins() {
+		int[] origins = new int[_rows.size()];
+		int   i       = 0;
+		for(int org:_rows.keySet()) { origins[i++] = org; }
+		return origins;
+	}
+
+	/**
+	 * get destinations of the origin
+	 * @param org origin node index
+	 * @return destination node indexes. flows of the same pair are not merged
+	 */
+	public int[] getDestinations(int org) {
+		Row row = _rows.get(org);
+		return row == null ? new int[0] : Arrays.copyOf(row.__dsts,row.__size);
+	}
+
+	/**
+	 * get flows of the origin
+	 * @param org origin node index
+	 * @return flows in the order of {@link #getDestinations(int)}
+	 */
+	public double[] getFlows(int org) {
+		Row row = _rows.get(org);
+		return row == null ? new double[0] : Arrays.copyOf(row.__flows,row.__size);
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** destinations and flows of one origin */
+	private static class Row {
+		/** destinations	*/	private int[]    __dsts  = new int[4];
+		/** flows			*/	private double[] __flows = new double[4];
+		/** the number		*/	private int      __size  = 0;
+		/**
+		 * append flow
+		 * @param dst destination node index
+		 * @param flow flow
+		 */
+		private void add(int dst,double flow) {
+			if( __size == __dsts.length ) {
+				__dsts  = Arrays.copyOf(__dsts,__size*2);
+				__flows = Arrays.copyOf(__flows,__size*2);
+			}
+			__dsts[__size]  = dst;
+			__flows[__size] = flow;
+			__size++;
+		}
+	}
+}
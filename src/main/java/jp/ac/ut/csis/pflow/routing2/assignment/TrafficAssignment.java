@@ -0,0 +1,456 @@
+package jp.ac.ut.csis.pflow.routing2.assignment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jp.ac.ut.csis.pflow.routing2.logic.ARoutingLogic;
+import jp.ac.ut.csis.pflow.routing2.logic.IndexedMinHeap;
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+
+/**
+ * Static user equilibrium traffic assignment over {@link CompactGraph}. <br />
+ * free-flow times are taken from a cost profile, and travel times follow {@link BprFunction} of each edge.
+ * all-or-nothing loading builds one shortest path tree per origin with threads; each thread accumulates
+ * edge flows into its own primitive array, and the arrays are summed at the end. equilibrium is searched by
+ * Frank-Wolfe or conjugate Frank-Wolfe with bisection line search, until the relative gap falls below the
+ * target. flows are per edge, so the two directions of a link are loaded separately.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class TrafficAssignment {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** logger							*/	private static final Logger LOGGER      = LogManager.getLogger(TrafficAssignment.class);
+	/** bisection steps of line search	*/	private static final int    LINE_SEARCH = 30;
+	/** upper bound of conjugate weight	*/	private static final double MAX_ALPHA   = 0.99d;
+
+	/** equilibrium method */
+	public enum Method {
+		/** Frank-Wolfe						*/	FRANK_WOLFE,
+		/** conjugate Frank-Wolfe			*/	CONJUGATE_FRANK_WOLFE;
+	}
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph				*/	private CompactGraph _graph;
+	/** free-flow profile			*/	private CostProfile  _profile;
+	/** OD demand					*/	private OdDemand     _demand;
+	/** free-flow time of edge		*/	private double[]     _t0;
+	/** alpha of edge				*/	private double[]     _alpha;
+	/** beta of edge				*/	private double[]     _beta;
+	/** capacity of edge			*/	private double[]     _capacity;
+	/** equilibrium method			*/	private Method       _method;
+	/** the number of threads		*/	private int          _numThreads;
+	/** maximum iterations			*/	private int          _maxIterations;
+	/** target relative gap			*/	private double       _targetGap;
+	/** edge flows					*/	private double[]     _flows;
+	/** relative gap				*/	private double       _gap;
+	/** iterations done				*/	private int          _iterations;
+	/** demand of unreachable pairs	*/	private double       _unassigned;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization
+	 * @param profile cost profile of free-flow travel times
+	 * @param bpr volume-delay function
+	 * @param demand OD demand on the graph of the profile
+	 */
+	public TrafficAssignment(CostProfile profile,BprFunction bpr,OdDemand demand) {
+		if( demand.getGraph() != profile.getGraph() ) { throw new IllegalArgumentException("demand of another graph"); }
+		double[][] params = bpr.compile(profile.getGraph());
+		_graph         = profile.getGraph();
+		_profile       = profile;
+		_demand        = demand;
+		_t0            = profile.getEdgeCosts();
+		_alpha         = params[0];
+		_beta          = params[1];
+		_capacity      = params[2];
+		_method        = Method.CONJUGATE_FRANK_WOLFE;
+		_numThreads    = ARoutingLogic.NUM_THREADS;
+		_maxIterations = 100;
+		_targetGap     = 1e-4;
+		_flows         = new double[_graph.numEdges()];
+		_gap           = Double.POSITIVE_INFINITY;
+		_iterations    = 0;
+		_unassigned    = 0d;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * set equilibrium method
+	 * @param method method
+	 * @return this instance
+	 */
+	public TrafficAssignment setMethod(Method method) {
+		_method = method;
+		return this;
+	}
+
+	/**
+	 * set the number of threads
+	 * @param numThreads the number of threads
+	 * @return this instance
+	 */
+	public TrafficAssignment setNumThreads(int numThreads) {
+		if( numThreads <= 0 ) { throw new IllegalArgumentException("unavailable value: " + numThreads); }
+		_numThreads = numThreads;
+		return this;
+	}
+
+	/**
+	 * set stopping condition
+	 * @param maxIterations maximum iterations
+	 * @param targetGap target relative gap
+	 * @return this instance
+	 */
+	public TrafficAssignment setStoppingCondition(int maxIterations,double targetGap) {
+		if( maxIterations <= 0 || !(targetGap >= 0d) ) { throw new IllegalArgumentException("unavailable value: " + maxIterations + "," + targetGap); }
+		_maxIterations = maxIterations;
+		_targetGap     = targetGap;
+		return this;
+	}
+
+	/**
+	 * get compact graph
+	 * @return graph
+	 */
+	public CompactGraph getGraph() {
+		return _graph;
+	}
+
+	/**
+	 * get edge flows of the last solution
+	 * @return flows indexed by edge index(not copied)
+	 */
+	public double[] getFlows() {
+		return _flows;
+	}
+
+	/**
+	 * get flow of the link in the direction
+	 * @param idx link index
+	 * @param rev true for head to tail direction
+	 * @return flow. 0 if the direction is not traversable
+	 */
+	public double getLinkFlow(int idx,boolean rev) {
+		int e = _graph.getLinkEdge(idx,rev);
+		return e < 0 ? 0d : _flows[e];
+	}
+
+	/**
+	 * get edge travel times at the last solution
+	 * @return travel times indexed by edge index
+	 */
+	public double[] getTimes() {
+		return times(_flows);
+	}
+
+	/**
+	 * get relative gap of the last solution
+	 * @return relative gap
+	 */
+	public double getGap() {
+		return _gap;
+	}
+
+	/**
+	 * get the number of iterations done
+	 * @return iterations
+	 */
+	public int getIterations() {
+		return _iterations;
+	}
+
+	/**
+	 * get demand between unreachable pairs, which is not loaded
+	 * @return flow
+	 */
+	public double getUnassigned() {
+		return _unassigned;
+	}
+
+	/**
+	 * register travel times of the last solution as cost profile of the graph.
+	 * directions that are not traversable keep the cost of the free-flow profile
+	 * @param name profile name
+	 * @return registered profile
+	 */
+	public CostProfile publish(String name) {
+		double[] times    = getTimes();
+		int      M        = _graph.numLinks();
+		double[] costs    = new double[M];
+		double[] revCosts = new double[M];
+		for(int i=0;i<M;i++) {
+			int e0 = _graph.getLinkEdge(i,false);
+			int e1 = _graph.getLinkEdge(i,true);
+			costs[i]    = e0 < 0 ? _profile.getCost(i) : times[e0];
+			revCosts[i] = e1 < 0 ? _profile.getReverseCost(i) : times[e1];
+		}
+		return _graph.addProfile(name,costs,revCosts);
+	}
+
+	/**
+	 * solve user equilibrium
+	 * @return relative gap at the end
+	 */
+	public double solve() {
+		ExecutorService pool = Executors.newFixedThreadPool(_numThreads);
+		try {
+			int      E    = _flows.length;
+			double[] v    = loadAllOrNothing(_t0,pool);	// initial solution by free-flow times
+			double[] s    = null;	// previous target of conjugate direction
+			double[] dir  = new double[E];
+			_gap        = Double.POSITIVE_INFINITY;
+			_iterations = 0;
+			while( _iterations < _maxIterations ) {
+				double[] t = times(v);
+				double[] y = loadAllOrNothing(t,pool);
+				// relative gap ===========================
+				double tv = 0d;
+				double ty = 0d;
+				for(int e=0;e<E;e++) {
+					if( v[e] > 0d ) { tv += t[e] * v[e]; }
+					if( y[e] > 0d ) { ty += t[e] * y[e]; }
+				}
+				_gap = tv <= 0d ? 0d : (tv - ty) / tv;
+				LOGGER.debug("iteration " + _iterations + ": gap=" + _gap);
+				if( _gap <= _targetGap ) { break; }
+				// search direction =======================
+				if( _method == Method.CONJUGATE_FRANK_WOLFE && s != null ) { y = conjugate(v,y,s); }
+				s = y;
+				for(int e=0;e<E;e++) { dir[e] = y[e] - v[e]; }
+				// move along the direction ===============
+				double lambda = lineSearch(v,dir);
+				for(int e=0;e<E;e++) { v[e] += lambda * dir[e]; }
+				_iterations++;
+			}
+			_flows = v;
+			return _gap;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * load all demand on the shortest paths under the travel times
+	 * @param times travel times indexed by edge index
+	 * @return edge flows
+	 */
+	public double[] loadAllOrNothing(double[] times) {
+		ExecutorService pool = Executors.newFixedThreadPool(_numThreads);
+		try {
+			return loadAllOrNothing(times,pool);
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * load all demand on the shortest paths with threads. origins are split into one chunk per thread,
+	 * and each chunk is loaded into its own array
+	 * @param times travel times indexed by edge index
+	 * @param pool thread pool
+	 * @return edge flows
+	 */
+	private double[] loadAllOrNothing(final double[] times,ExecutorService pool) {
+		final int[] origins = _demand.getOrigins();
+		int         T       = Math.max(1,Math.min(_numThreads,origins.length));
+		List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>(T);
+		for(int t=0;t<T;t++) {
+			final int from = (int)((long)origins.length * t / T);
+			final int to   = (int)((long)origins.length * (t+1) / T);
+			tasks.add(new Callable<double[]>() {
+				public double[] call() {
+					Tree     tree  = new Tree(_graph.numNodes());
+					double[] flows = new double[times.length + 1];	// last slot for unassigned demand
+					for(int i=from;i<to;i++) { tree.load(_graph,times,origins[i],_demand,flows); }
+					return flows;
+				}
+			});
+		}
+		try {
+			double[] flows = null;
+			for(Future<double[]> future:pool.invokeAll(tasks)) {
+				double[] part = future.get();
+				if( flows == null ) { flows = part; continue; }
+				for(int e=0;e<part.length;e++) { flows[e] += part[e]; }
+			}
+			_unassigned = flows[times.length];
+			return Arrays.copyOf(flows,times.length);
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("assignment interrupted",exp);
+		}
+		catch(ExecutionException exp) {
+			throw new IllegalStateException("fail to load demand",exp.getCause());
+		}
+	}
+
+	/**
+	 * calculate travel times of edges
+	 * @param flows edge flows
+	 * @return travel times
+	 */
+	private double[] times(double[] flows) {
+		double[] times = new double[flows.length];
+		for(int e=0;e<flows.length;e++) { times[e] = BprFunction.time(_t0[e],_alpha[e],_beta[e],_capacity[e],flows[e]); }
+		return times;
+	}
+
+	/**
+	 * mix the all-or-nothing solution with the previous target to be conjugate on the Hessian of the objective
+	 * @param v current flows
+	 * @param y all-or-nothing flows
+	 * @param s previous target flows
+	 * @return new target flows
+	 */
+	private double[] conjugate(double[] v,double[] y,double[] s) {
+		double num = 0d;
+		double den = 0d;
+		for(int e=0;e<v.length;e++) {
+			if( _t0[e] == Double.POSITIVE_INFINITY ) { continue; }
+			double h  = BprFunction.derivative(_t0[e],_alpha[e],_beta[e],_capacity[e],v[e]);
+			double sv = s[e] - v[e];
+			num += sv * h * (y[e] - v[e]);
+			den += sv * h * (y[e] - s[e]);
+		}
+		double alpha = den == 0d ? 0d : Math.max(0d,Math.min(num / den,MAX_ALPHA));
+		double[] target = new double[v.length];
+		for(int e=0;e<v.length;e++) { target[e] = alpha * s[e] + (1d - alpha) * y[e]; }
+		return target;
+	}
+
+	/**
+	 * find step size minimizing the objective along the direction by bisection on its derivative
+	 * @param v current flows
+	 * @param dir direction
+	 * @return step size in [0,1]
+	 */
+	private double lineSearch(double[] v,double[] dir) {
+		if( slope(v,dir,1d) <= 0d ) { return 1d; }
+		double lo = 0d;
+		double hi = 1d;
+		for(int i=0;i<LINE_SEARCH;i++) {
+			double mid = (lo + hi) / 2d;
+			if( slope(v,dir,mid) < 0d ) { lo = mid; }
+			else { hi = mid; }
+		}
+		return (lo + hi) / 2d;
+	}
+
+	/**
+	 * derivative of the objective along the direction
+	 * @param v current flows
+	 * @param dir direction
+	 * @param lambda step size
+	 * @return derivative
+	 */
+	private double slope(double[] v,double[] dir,double lambda) {
+		double sum = 0d;
+		for(int e=0;e<v.length;e++) {
+			if( dir[e] == 0d ) { continue; }
+			sum += dir[e] * BprFunction.time(_t0[e],_alpha[e],_beta[e],_capacity[e],v[e] + lambda * dir[e]);
+		}
+		return sum;
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** per-thread shortest path tree for all-or-nothing loading */
+	private static class Tree {
+		/** cost from origin		*/	private double[]       __dist;
+		/** last edge of path		*/	private int[]          __parent;
+		/** settled order			*/	private int[]          __order;
+		/** demand to the node		*/	private double[]       __load;
+		/** priority queue			*/	private IndexedMinHeap __heap;
+		/**
+		 * initialization
+		 * @param N the number of nodes
+		 */
+		private Tree(int N) {
+			__dist   = new double[N];
+			__parent = new int[N];
+			__order  = new int[N];
+			__load   = new double[N];
+			__heap   = new IndexedMinHeap(N);
+		}
+		/**
+		 * build the tree from the origin and add its demand onto the edges
+		 * @param graph compact graph
+		 * @param times travel times indexed by edge index
+		 * @param org origin node index
+		 * @param demand OD demand
+		 * @param flows edge flows to add to. the last slot receives unassigned demand
+		 */
+		private void load(CompactGraph graph,double[] times,int org,OdDemand demand,double[] flows) {
+			int[]          start  = graph.getOutStart();
+			int[]          head   = graph.getEdgeHead();
+			int[]          tail   = graph.getEdgeTail();
+			double[]       dist   = __dist;
+			int[]          parent = __parent;
+			double[]       load   = __load;
+			IndexedMinHeap heap   = __heap;
+			// shortest path tree =========================
+			Arrays.fill(dist,Double.POSITIVE_INFINITY);
+			heap.clear();
+			dist[org]   = 0d;
+			parent[org] = -1;
+			heap.push(org,0d);
+			int size = 0;
+			while( !heap.isEmpty() ) {
+				int    u  = heap.poll();
+				double du = dist[u];
+				__order[size++] = u;
+				for(int e=start[u];e<start[u+1];e++) {
+					int    v  = head[e];
+					double dv = du + times[e];
+					if( dv < dist[v] ) {
+						dist[v]   = dv;
+						parent[v] = e;
+						heap.push(v,dv);
+					}
+				}
+			}
+			// accumulate demand from leaves to the root ==
+			int[]    dsts = demand.getDestinations(org);
+			double[] vals = demand.getFlows(org);
+			for(int k=0;k<dsts.length;k++) {
+				if( dist[dsts[k]] == Double.POSITIVE_INFINITY ) { flows[flows.length-1] += vals[k]; }
+				else { load[dsts[k]] += vals[k]; }
+			}
+			for(int k=size-1;k>0;k--) {
+				int v = __order[k];
+				if( load[v] == 0d ) { continue; }
+				int e = parent[v];
+				flows[e]       += load[v];
+				load[tail[e]]  += load[v];
+				load[v]         = 0d;
+			}
+			load[org] = 0d;
+		}
+	}
+}
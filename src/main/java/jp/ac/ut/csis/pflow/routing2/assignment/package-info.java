@@ -0,0 +1,6 @@
+/**
+ * package for static traffic assignment
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+package jp.ac.ut.csis.pflow.routing2.assignment;
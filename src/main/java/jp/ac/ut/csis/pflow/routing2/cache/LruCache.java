@@ -0,0 +1,276 @@
+package jp.ac.ut.csis.pflow.routing2.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class for bounded LRU cache shared between threads. <br />
+ * entries are distributed to lock-striped segments by key hash, and each segment evicts its least recently
+ * used entries when either the number of entries or the total weight exceeds its share of the bounds.
+ * threads accessing different segments never block each other.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LruCache<K,V> {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default the number of segments */	public static final int SEGMENTS = 16;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** segments			*/	private Segment<K,V>[] _segments;
+	/** weight calculator	*/	private Weigher<K,V>   _weigher;
+	/** hit count			*/	private AtomicLong     _hits;
+	/** miss count			*/	private AtomicLong     _misses;
+	/** eviction count		*/	private AtomicLong     _evictions;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create cache bounded by the number of entries
+	 * @param maxSize maximum number of entries
+	 */
+	public LruCache(int maxSize) {
+		this(maxSize,Long.MAX_VALUE,null,SEGMENTS);
+	}
+
+	/**
+	 * create cache bounded by the number of entries and total weight
+	 * @param maxSize maximum number of entries
+	 * @param maxWeight maximum total weight
+	 * @param weigher weight calculator. every entry weighs 1 if null
+	 */
+	public LruCache(int maxSize,long maxWeight,Weigher<K,V> weigher) {
+		this(maxSize,maxWeight,weigher,SEGMENTS);
+	}
+
+	/**
+	 * create cache bounded by the number of entries and total weight
+	 * @param maxSize maximum number of entries
+	 * @param maxWeight maximum total weight
+	 * @param weigher weight calculator. every entry weighs 1 if null
+	 * @param numSegments the number of lock segments
+	 */
+	@SuppressWarnings("unchecked")
+	public LruCache(int maxSize,long maxWeight,Weigher<K,V> weigher,int numSegments) {
+		// error handle ///////////////////////////////////
+		if( maxSize <= 0 || maxWeight <= 0 || numSegments <= 0 ) {
+			throw new IllegalArgumentException("unavailable value: " + maxSize + "," + maxWeight + "," + numSegments);
+		}
+		// initialization /////////////////////////////////
+		int segs  = (int)Math.min(Math.min(numSegments,maxSize),maxWeight);
+		_segments = (Segment<K,V>[])new Segment<?,?>[segs];
+		for(int i=0;i<segs;i++) {	// distribute bounds to segments
+			int  segSize   = maxSize / segs + (i < maxSize % segs ? 1 : 0);
+			long segWeight = maxWeight == Long.MAX_VALUE ? Long.MAX_VALUE : maxWeight / segs + (i < maxWeight % segs ? 1 : 0);
+			_segments[i] = new Segment<K,V>(segSize,segWeight);
+		}
+		_weigher   = weigher;
+		_hits      = new AtomicLong();
+		_misses    = new AtomicLong();
+		_evictions = new AtomicLong();
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get cached value, and mark it as recently used
+	 * @param key key
+	 * @return value if cached, otherwise null
+	 */
+	public V get(K key) {
+		Segment<K,V> seg = segmentOf(key);
+		V            val;
+		synchronized(seg) { val = seg.__map.get(key); }
+		if( val == null ) { _misses.incrementAndGet(); }
+		else {              _hits.incrementAndGet();   }
+		return val;
+	}
+
+	/**
+	 * put value. least recently used entries are evicted when exceeding bounds
+	 * @param key key
+	 * @param value value(not null)
+	 */
+	public void put(K key,V value) {
+		if( value == null ) { throw new IllegalArgumentException("null value"); }
+		long         weight = _weigher == null ? 1L : _weigher.weigh(key,value);
+		Segment<K,V> seg    = segmentOf(key);
+		int          count  = 0;
+		synchronized(seg) {
+			// replace old entry //////////////////////////
+			V old = seg.__map.put(key,value);
+			if( old != null ) { seg.__weight -= _weigher == null ? 1L : _weigher.weigh(key,old); }
+			seg.__weight += weight;
+			// evict least recently used entries //////////
+			Iterator<Map.Entry<K,V>> itr = seg.__map.entrySet().iterator();
+			while( (seg.__map.size() > seg.__maxSize || seg.__weight > seg.__maxWeight) && itr.hasNext() ) {
+				Map.Entry<K,V> eldest = itr.next();
+				if( eldest.getKey().equals(key) && seg.__map.size() == 1 ) { break; }	// keep the newest at least
+				seg.__weight -= _weigher == null ? 1L : _weigher.weigh(eldest.getKey(),eldest.getValue());
+				itr.remove();
+				count++;
+			}
+		}
+		if( count > 0 ) { _evictions.addAndGet(count); }
+	}
+
+	/**
+	 * remove cached value
+	 * @param key key
+	 * @return removed value. null if not cached
+	 */
+	public V remove(K key) {
+		Segment<K,V> seg = segmentOf(key);
+		synchronized(seg) {
+			V old = seg.__map.remove(key);
+			if( old != null ) { seg.__weight -= _weigher == null ? 1L : _weigher.weigh(key,old); }
+			return old;
+		}
+	}
+
+	/**
+	 * remove all entries. statistics are kept
+	 */
+	public void clear() {
+		for(Segment<K,V> seg:_segments) {
+			synchronized(seg) {
+				seg.__map.clear();
+				seg.__weight = 0L;
+			}
+		}
+	}
+
+	/**
+	 * get the number of cached entries
+	 * @return the number of entries
+	 */
+	public int size() {
+		int size = 0;
+		for(Segment<K,V> seg:_segments) {
+			synchronized(seg) { size += seg.__map.size(); }
+		}
+		return size;
+	}
+
+	/**
+	 * get total weight of cached entries
+	 * @return total weight
+	 */
+	public long weight() {
+		long weight = 0L;
+		for(Segment<K,V> seg:_segments) {
+			synchronized(seg) { weight += seg.__weight; }
+		}
+		return weight;
+	}
+
+	/**
+	 * get hit count
+	 * @return hit count
+	 */
+	public long getHitCount() {
+		return _hits.get();
+	}
+
+	/**
+	 * get miss count
+	 * @return miss count
+	 */
+	public long getMissCount() {
+		return _misses.get();
+	}
+
+	/**
+	 * get eviction count
+	 * @return eviction count
+	 */
+	public long getEvictionCount() {
+		return _evictions.get();
+	}
+
+	/**
+	 * get hit rate
+	 * @return hit rate(0-1). NaN if never requested
+	 */
+	public double getHitRate() {
+		long hits  = _hits.get();
+		long total = hits + _misses.get();
+		return total == 0L ? Double.NaN : hits / (double)total;
+	}
+
+	/**
+	 * reset hit/miss/eviction counts
+	 */
+	public void resetStats() {
+		_hits.set(0L);
+		_misses.set(0L);
+		_evictions.set(0L);
+	}
+
+	/**
+	 * get segment of the key
+	 * @param key key
+	 * @return segment
+	 */
+	private Segment<K,V> segmentOf(K key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);	// spread upper bits
+		return _segments[(h & Integer.MAX_VALUE) % _segments.length];
+	}
+
+	/* @see java.lang.Object#toString() */
+	@Override
+	public String toString() {
+		return String.format("size=%d,weight=%d,hits=%d,misses=%d,evictions=%d",size(),weight(),getHitCount(),getMissCount(),getEvictionCount());
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/**
+	 * interface for weight calculation of cache entry
+	 * @param <K> key type
+	 * @param <V> value type
+	 */
+	public static interface Weigher<K,V> {
+		/**
+		 * get weight of the entry
+		 * @param key key
+		 * @param value value
+		 * @return weight(positive)
+		 */
+		public long weigh(K key,V value);
+	}
+
+	/** lock segment holding entries in access order */
+	private static class Segment<K,V> {
+		/** entries in access order	*/	private LinkedHashMap<K,V> __map;
+		/** maximum entries			*/	private int                __maxSize;
+		/** maximum weight			*/	private long               __maxWeight;
+		/** total weight			*/	private long               __weight;
+		/**
+		 * initialization
+		 * @param maxSize maximum entries
+		 * @param maxWeight maximum weight
+		 */
+		private Segment(int maxSize,long maxWeight) {
+			__map       = new LinkedHashMap<K,V>(16,0.75f,true);
+			__maxSize   = maxSize;
+			__maxWeight = maxWeight;
+			__weight    = 0L;
+		}
+	}
+}
@@ -0,0 +1,6 @@
+/**
+ * package for caches of routing and matching results
+ * 
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+package jp.ac.ut.csis.pflow.routing2.cache;
\ No newline at end of file
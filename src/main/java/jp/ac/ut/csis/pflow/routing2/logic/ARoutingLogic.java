@@ -4,9 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import jp.ac.ut.csis.pflow.geom.DistanceUtils;
 import jp.ac.ut.csis.pflow.geom.LonLat;
-import jp.ac.ut.csis.pflow.routing2.loader.INetworkLoader;
 import jp.ac.ut.csis.pflow.routing2.res.Link;
 import jp.ac.ut.csis.pflow.routing2.res.Network;
 import jp.ac.ut.csis.pflow.routing2.res.Node;
@@ -27,8 +25,11 @@ public abstract class ARoutingLogic implements IRoutingLogic {
 	/** default search distance in meter*/	
 	public static final double  MIN_DIST   = Double.parseDouble(System.getProperty("pflow.routing2.logic.min_dist","3000"));	
 	
-	/** approximate 1 km in degree */
-	private static final double APPROX_1KM = INetworkLoader.APPROX_1KM;
+	/** default the number of threads of parallel computation */
+	public static final int     NUM_THREADS = Integer.getInteger("pflow.routing2.num_threads",Runtime.getRuntime().availableProcessors());
+	
+	/** budget monitor of the running query */
+	private static final ThreadLocal<Monitor> MONITOR = new ThreadLocal<Monitor>();
 	
 	
 	/* ==============================================================
@@ -82,6 +83,32 @@ public abstract class ARoutingLogic implements IRoutingLogic {
 	/* ==============================================================
 	 * instance methods
 	 * ============================================================== */
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.IRoutingLogic#searchRoutes(jp.ac.ut.csis.pflow.routing2.res.Network, jp.ac.ut.csis.pflow.routing2.res.Node, jp.ac.ut.csis.pflow.routing2.res.Node, int, jp.ac.ut.csis.pflow.routing2.logic.SearchBudget) */
+	@Override
+	public SearchResult searchRoutes(Network network,Node depnode,Node arrnode,int n,SearchBudget budget) {
+		Monitor monitor = new Monitor(budget == null ? SearchBudget.UNLIMITED : budget);
+		Monitor parent  = MONITOR.get();
+		MONITOR.set(monitor);
+		try {
+			List<Route> routes = depnode == null || arrnode == null || monitor.isExceeded() ? new ArrayList<Route>() : getRoutes(network,depnode,arrnode,n);
+			return monitor.result(routes);
+		}
+		finally {
+			if( parent == null ) { MONITOR.remove(); }
+			else {                 MONITOR.set(parent); }
+		}
+	}
+	
+	/**
+	 * get budget monitor of the running query. route search loops report settled nodes to the monitor, 
+	 * and stop when {@link Monitor#settle(double)} returns false
+	 * @return monitor. an unlimited monitor if the query has no budget
+	 */
+	protected Monitor monitor() {
+		Monitor monitor = MONITOR.get();
+		return monitor == null ? new Monitor(SearchBudget.UNLIMITED) : monitor;
+	}
+	
 	/* @see jp.ac.ut.csis.pflow.routing2.logic.IRoutingLogic#getRoutes(jp.ac.ut.csis.pflow.routing2.res.Network, java.lang.String, java.lang.String, int) */
 	@Override
 	public List<Route> getRoutes(Network network,String depnodeid,String arrnodeid,int n) {
@@ -140,18 +167,7 @@ public abstract class ARoutingLogic implements IRoutingLogic {
 	/* @see jp.ac.ut.csis.pflow.routing2.logic.IRoutingLogic#getNearestNode(jp.ac.ut.csis.pflow.routing2.res.Network, double, double, double) */
 	@Override
 	public Node getNearestNode(Network network, double x, double y,double mindist) {
-		Node   node = null;
-		double dist = mindist;
-		double w    = mindist*APPROX_1KM;
-		double h    = mindist*APPROX_1KM;
-		for(Node n:network.queryNode(x-w,y-h,x+w,y+h)) { 
-			double d = DistanceUtils.distance(x,y,n.getLon(),n.getLat());
-			if( d < dist  ) {
-				node = n;
-				dist = d;
-			}
-		}
-		return node;
+		return network.queryNearestNode(x,y,mindist);
 	}
 	
 	/* @see jp.ac.ut.csis.pflow.routing2.logic.IRoutingLogic#getNearestNode(jp.ac.ut.csis.pflow.routing2.res.Network, double, double) */
@@ -163,19 +179,7 @@ public abstract class ARoutingLogic implements IRoutingLogic {
 	/* @see jp.ac.ut.csis.pflow.routing2.logic.IRoutingLogic#getNearestLink(jp.ac.ut.csis.pflow.routing2.res.Network, double, double, double) */
 	@Override
 	public Link getNearestLink(Network network, double x, double y,double mindist) {
-		Link   link  = null;
-		LonLat point = new LonLat(x,y); 
-		double dist  = mindist;
-		for(Link L:network.listLinks()) {
-			List<LonLat> geom = L.getLineString();
-			double       d    = geom == null ? DistanceUtils.distance(L.getTailNode(),L.getHeadNode(),point) :
-				                               DistanceUtils.distance(geom,point);
-			if( d < dist  ) {
-				link = L;
-				dist = d;
-			}
-		}
-		return link;
+		return network.queryNearestLink(x,y,mindist);
 	}
 	
 	/* @see jp.ac.ut.csis.pflow.routing2.logic.IRoutingLogic#getNearestLink(jp.ac.ut.csis.pflow.routing2.res.Network, double, double) */
@@ -262,6 +266,70 @@ public abstract class ARoutingLogic implements IRoutingLogic {
 	/* ==============================================================
 	 * inner classes 
 	 * ============================================================== */
+	/** work counter of one query checked against the budget */
+	protected static final class Monitor {
+		/* instance fields ---------------------- */
+		/** budget			*/	private SearchBudget        __budget;
+		/** start time(ns)	*/	private long                __start;
+		/** deadline(ns)	*/	private long                __deadline;
+		/** settled nodes	*/	private long                __settled;
+		/** maximum cost	*/	private double              __maxCost;
+		/** stop reason		*/	private SearchResult.Status __status;
+		/* constructors ------------------------- */
+		/**
+		 * initialization
+		 * @param budget budget
+		 */
+		private Monitor(SearchBudget budget) {
+			__budget   = budget;
+			__start    = System.nanoTime();
+			__deadline = budget.getTimeout() >= (Long.MAX_VALUE - Math.max(__start,0L)) / 1000000L ? Long.MAX_VALUE : __start + budget.getTimeout() * 1000000L;
+			__settled  = 0L;
+			__maxCost  = 0d;
+			__status   = budget.getCancelToken() != null && budget.getCancelToken().isCancelled() ? SearchResult.Status.CANCELLED : null;
+		}
+		/* instance methods --------------------- */
+		/**
+		 * count settled node and check the budget. the clock and cancel token are checked every 64 nodes
+		 * @param cost cost of the settled node
+		 * @return false if the search must stop
+		 */
+		protected boolean settle(double cost) {
+			if( __status != null ) { return false; }
+			if( cost > __budget.getMaxCost() ) { 
+				__status = SearchResult.Status.COST_EXCEEDED;
+				return false;
+			}
+			if( ++__settled > __budget.getMaxSettled() ) { 
+				__status = SearchResult.Status.SETTLED_EXCEEDED;
+				return false;
+			}
+			if( cost > __maxCost ) { __maxCost = cost; }
+			if( (__settled & 63L) == 0L ) {
+				CancelToken token = __budget.getCancelToken();
+				if( token != null && token.isCancelled() ) { __status = SearchResult.Status.CANCELLED;         }
+				else if( __deadline != Long.MAX_VALUE && System.nanoTime() - __deadline > 0L ) { __status = SearchResult.Status.DEADLINE_EXCEEDED; }
+			}
+			return __status == null;
+		}
+		/**
+		 * check if the budget is exceeded
+		 * @return result
+		 */
+		protected boolean isExceeded() {
+			return __status != null;
+		}
+		/**
+		 * create result of the query
+		 * @param routes routes found
+		 * @return search result
+		 */
+		private SearchResult result(List<Route> routes) {
+			SearchResult.Status status = __status != null ? __status : routes == null || routes.isEmpty() ? SearchResult.Status.NOT_FOUND : SearchResult.Status.COMPLETED;
+			return new SearchResult(status,routes == null ? new ArrayList<Route>() : routes,__settled,__maxCost,System.nanoTime()-__start);
+		}
+	}
+	
 	/** temporary class for route search */
 	protected class Knot {
 		/* instance fields ---------------------- */
@@ -269,6 +337,7 @@ public abstract class ARoutingLogic implements IRoutingLogic {
 		/** from node	*/	private Knot    __from;
 		/** cost		*/	private double  __cost;
 		/** fixed		*/	private boolean __fixed;
+		/** cost version*/	private long    __version;
 		/* constructors ------------------------- */
 		/**
 		 * initialization
@@ -284,10 +353,11 @@ public abstract class ARoutingLogic implements IRoutingLogic {
 		 * @param cost link cost from the previous knot
 		 */
 		protected Knot(Node node,Knot from,double cost) {
-			__node  = node;
-			__from  = from;
-			__cost  = from == null ? cost : from.getCost() + cost;
-			__fixed = false;
+			__node    = node;
+			__from    = from;
+			__cost    = from == null ? cost : from.getCost() + cost;
+			__fixed   = false;
+			__version = from == null ? getLinkCost().getVersion() : from.__version;	// version at the start of the search
 		}
 		/* instance methods --------------------- */
 		/**
@@ -328,7 +398,7 @@ public abstract class ARoutingLogic implements IRoutingLogic {
 				list.add(0,knot.getNode());
 				knot = knot.getFrom(); 
 			}			
-			return new Route(list,getCost());
+			return new Route(list,getCost(),__version);
 		}
 		/**
 		 * get the previous knot
@@ -0,0 +1,74 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+
+/**
+ * Shortest path search with Dijkstra pruned by {@link ArcFlags}. <br />
+ * only edges flagged for the cell of the destination are relaxed. costs always come from the profile the
+ * flags were built from, not from the latest version of the profile name. one-to-all searches by
+ * {@link #getCosts(jp.ac.ut.csis.pflow.routing2.res.Node, double)} relax all edges.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class ArcFlagDijkstra extends CompiledDijkstra {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** arc-flags	*/	private ArcFlags _flags;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization
+	 * @param flags arc-flags
+	 * @param minDist minimum search distance
+	 */
+	public ArcFlagDijkstra(ArcFlags flags,double minDist) {
+		super(flags.getProfile().getGraph(),flags.getProfile().getName(),minDist);
+		_flags = flags;
+	}
+
+	/**
+	 * initialization
+	 * @param flags arc-flags
+	 */
+	public ArcFlagDijkstra(ArcFlags flags) {
+		this(flags,MIN_DIST);
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.CompiledDijkstra#getName() */
+	@Override
+	public String getName() {
+		return "ArcFlagDijkstra";
+	}
+
+	/**
+	 * get arc-flags
+	 * @return arc-flags
+	 */
+	public ArcFlags getArcFlags() {
+		return _flags;
+	}
+
+	/**
+	 * get cost profile the arc-flags were built from
+	 * @return cost profile
+	 */
+	@Override
+	public CostProfile getProfile() {
+		return _flags.getProfile();
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.CompiledDijkstra#search(jp.ac.ut.csis.pflow.routing2.res.CostProfile, int, int, double, jp.ac.ut.csis.pflow.routing2.logic.CompiledDijkstra.Workspace, jp.ac.ut.csis.pflow.routing2.logic.ARoutingLogic.Monitor) */
+	@Override
+	protected void search(CostProfile profile,int dep,int arr,double maxCost,Workspace ws,Monitor monitor) {
+		if( arr < 0 ) { super.search(profile,dep,arr,maxCost,ws,monitor); }
+		else { search(profile,dep,arr,maxCost,ws,monitor,_flags.getFlags(),_flags.numWords(),_flags.getCell(arr)); }
+	}
+}
@@ -0,0 +1,404 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jp.ac.ut.csis.pflow.geom.Mesh;
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+
+/**
+ * Arc-flags of {@link CompactGraph} over {@link Mesh} partitions. <br />
+ * nodes are partitioned by mesh cells of the indicated level, and each edge keeps a bitset of the target
+ * cells for which the edge lies on some shortest path. flags are built with a backward search from every
+ * boundary node of each cell(node having an in-edge from another cell), and edges inside a cell are always
+ * flagged for the cell. cells are processed by threads. <br />
+ * flags are valid only for the costs of the profile they are built from. {@link ArcFlagDijkstra} keeps the
+ * profile, so costs published later are not used until flags are built again.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class ArcFlags {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** relative tolerance of costs		*/	private static final double EPSILON     = 1e-12;
+	/** file signature					*/	private static final int    MAGIC       = 0x50464146;	// "PFAF"
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** cost profile				*/	private CostProfile _profile;
+	/** mesh level					*/	private int         _level;
+	/** mesh code of each cell		*/	private String[]    _codes;
+	/** cell of each node			*/	private int[]       _cells;
+	/** longs per edge				*/	private int         _words;
+	/** flags(words longs per edge)	*/	private long[]      _flags;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create arc-flags
+	 * @param profile cost profile
+	 * @param level mesh level
+	 * @param codes mesh code of each cell
+	 * @param cells cell of each node
+	 * @param flags flags of edges
+	 */
+	protected ArcFlags(CostProfile profile,int level,String[] codes,int[] cells,long[] flags) {
+		_profile = profile;
+		_level   = level;
+		_codes   = codes;
+		_cells   = cells;
+		_words   = (codes.length + 63) >>> 6;
+		_flags   = flags;
+	}
+
+
+	/* ==============================================================
+	 * static methods
+	 * ============================================================== */
+	/**
+	 * build arc-flags with default threads
+	 * @param profile cost profile
+	 * @param level mesh level
+	 * @return arc-flags
+	 */
+	public static ArcFlags build(CostProfile profile,int level) {
+		return build(profile,level,ARoutingLogic.NUM_THREADS);
+	}
+
+	/**
+	 * build arc-flags
+	 * @param profile cost profile
+	 * @param level mesh level
+	 * @param numThreads the number of threads
+	 * @return arc-flags
+	 */
+	public static ArcFlags build(final CostProfile profile,int level,int numThreads) {
+		// error handle ///////////////////////////////////
+		if( numThreads <= 0 ) { throw new IllegalArgumentException("unavailable value: " + numThreads); }
+
+		// partition nodes by mesh ////////////////////////
+		final CompactGraph graph = profile.getGraph();
+		final int          N     = graph.numNodes();
+		String[]           keys  = new String[N];
+		TreeMap<String,Integer> index = new TreeMap<String,Integer>();
+		for(int i=0;i<N;i++) {
+			Node node = graph.getNode(i);
+			keys[i] = new Mesh(level,node.getLon(),node.getLat()).getCode();
+			index.put(keys[i],null);
+		}
+		String[] codes = index.keySet().toArray(new String[index.size()]);
+		for(int r=0;r<codes.length;r++) { index.put(codes[r],r); }
+		final int[] cells = new int[N];
+		for(int i=0;i<N;i++) { cells[i] = index.get(keys[i]); }
+
+		// boundary nodes of each cell ////////////////////
+		final int[][] boundaries = listBoundaries(graph,cells,codes.length);
+
+		// flag edges cell by cell ////////////////////////
+		final int             R     = codes.length;
+		final int             W     = (R + 63) >>> 6;
+		final AtomicLongArray bits  = new AtomicLongArray(graph.numEdges() * W);
+		final ThreadLocal<BackwardSearch> local = new ThreadLocal<BackwardSearch>() {
+			@Override
+			protected BackwardSearch initialValue() {
+				return new BackwardSearch(N);
+			}
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,Math.min(numThreads,R)));
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(R);
+			for(int r=0;r<R;r++) {
+				final int cell = r;
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						flagCell(profile,cells,cell,boundaries[cell],W,bits,local.get());
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> future:futures) { future.get(); }
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("build interrupted",exp);
+		}
+		catch(ExecutionException exp) {
+			throw new IllegalStateException("fail to build arc-flags",exp.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		long[] flags = new long[bits.length()];
+		for(int i=0;i<flags.length;i++) { flags[i] = bits.get(i); }
+		return new ArcFlags(profile,level,codes,cells,flags);
+	}
+
+	/**
+	 * read arc-flags written by {@link #write(File)}
+	 * @param file input file
+	 * @param profile cost profile the flags were built from
+	 * @return arc-flags
+	 * @throws IOException failed to read, or the file does not fit the graph
+	 */
+	public static ArcFlags read(File file,CostProfile profile) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			CompactGraph graph = profile.getGraph();
+			if( in.readInt() != MAGIC ) { throw new IOException("not arc-flags file: " + file); }
+			int level = in.readInt();
+			int N     = in.readInt();
+			int E     = in.readInt();
+			if( N != graph.numNodes() || E != graph.numEdges() ) { throw new IOException("graph size mismatch: " + N + "," + E); }
+			String[] codes = new String[in.readInt()];
+			for(int r=0;r<codes.length;r++) { codes[r] = in.readUTF(); }
+			int[] cells = new int[N];
+			for(int i=0;i<N;i++) { cells[i] = in.readInt(); }
+			long[] flags = new long[E * ((codes.length + 63) >>> 6)];
+			for(int i=0;i<flags.length;i++) { flags[i] = in.readLong(); }
+			return new ArcFlags(profile,level,codes,cells,flags);
+		}
+	}
+
+	/**
+	 * list boundary nodes of each cell
+	 * @param graph compact graph
+	 * @param cells cell of each node
+	 * @param R the number of cells
+	 * @return node indexes by cell
+	 */
+	private static int[][] listBoundaries(CompactGraph graph,int[] cells,int R) {
+		int[]   tail    = graph.getEdgeTail();
+		int[]   inStart = graph.getInStart();
+		int[]   inEdges = graph.getInEdges();
+		int[]   counts  = new int[R];
+		int[][] nodes   = new int[R][];
+		boolean[] boundary = new boolean[cells.length];
+		for(int v=0;v<cells.length;v++) {
+			for(int k=inStart[v];k<inStart[v+1];k++) {
+				if( cells[tail[inEdges[k]]] != cells[v] ) { boundary[v] = true; counts[cells[v]]++; break; }
+			}
+		}
+		for(int r=0;r<R;r++) { nodes[r] = new int[counts[r]]; }
+		Arrays.fill(counts,0);
+		for(int v=0;v<cells.length;v++) {
+			if( boundary[v] ) { nodes[cells[v]][counts[cells[v]]++] = v; }
+		}
+		return nodes;
+	}
+
+	/**
+	 * flag edges for the cell: edges inside the cell, and edges on shortest paths to its boundary nodes
+	 * @param profile cost profile
+	 * @param cells cell of each node
+	 * @param cell target cell
+	 * @param boundary boundary nodes of the cell
+	 * @param W longs per edge
+	 * @param bits flags
+	 * @param search working arrays
+	 */
+	private static void flagCell(CostProfile profile,int[] cells,int cell,int[] boundary,int W,AtomicLongArray bits,BackwardSearch search) {
+		CompactGraph graph = profile.getGraph();
+		int[]        tail  = graph.getEdgeTail();
+		int[]        head  = graph.getEdgeHead();
+		double[]     cost  = profile.getEdgeCosts();
+		int          word  = cell >>> 6;
+		long         bit   = 1L << (cell & 63);
+		for(int e=0;e<head.length;e++) {
+			if( cells[tail[e]] == cell && cells[head[e]] == cell ) { set(bits,e*W+word,bit); }
+		}
+		for(int b:boundary) {
+			search.run(graph,cost,b);
+			double[] dist = search.__dist;
+			for(int e=0;e<head.length;e++) {
+				double dh = dist[head[e]];
+				double dt = dist[tail[e]];
+				if( dh == Double.POSITIVE_INFINITY || dt == Double.POSITIVE_INFINITY ) { continue; }
+				if( dh + cost[e] <= dt + dt * EPSILON ) { set(bits,e*W+word,bit); }
+			}
+		}
+	}
+
+	/**
+	 * set bit atomically
+	 * @param bits flags
+	 * @param i position
+	 * @param bit bit to set
+	 */
+	private static void set(AtomicLongArray bits,int i,long bit) {
+		long cur;
+		while( ((cur = bits.get(i)) & bit) == 0L ) {
+			if( bits.compareAndSet(i,cur,cur|bit) ) { break; }
+		}
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get cost profile the flags were built from
+	 * @return cost profile
+	 */
+	public CostProfile getProfile() {
+		return _profile;
+	}
+
+	/**
+	 * get mesh level of partition
+	 * @return mesh level
+	 */
+	public int getLevel() {
+		return _level;
+	}
+
+	/**
+	 * get the number of cells
+	 * @return the number of cells
+	 */
+	public int numCells() {
+		return _codes.length;
+	}
+
+	/**
+	 * get mesh code of the cell
+	 * @param cell cell index
+	 * @return mesh code
+	 */
+	public String getCellCode(int cell) {
+		return _codes[cell];
+	}
+
+	/**
+	 * get cell of the node
+	 * @param idx node index
+	 * @return cell index
+	 */
+	public int getCell(int idx) {
+		return _cells[idx];
+	}
+
+	/**
+	 * check if the edge is flagged for the cell
+	 * @param edge edge index
+	 * @param cell cell index
+	 * @return result
+	 */
+	public boolean isFlagged(int edge,int cell) {
+		return (_flags[edge*_words+(cell>>>6)] & (1L << (cell & 63))) != 0L;
+	}
+
+	/**
+	 * get the number of longs per edge
+	 * @return the number of longs
+	 */
+	public int numWords() {
+		return _words;
+	}
+
+	/**
+	 * get flags of all edges. flags of edge e for cell r are at bit (r % 64) of [e * {@link #numWords()} + r / 64]
+	 * @return flags(not copied)
+	 */
+	public long[] getFlags() {
+		return _flags;
+	}
+
+	/**
+	 * get ratio of flagged pairs of edge and cell
+	 * @return ratio in [0,1]
+	 */
+	public double getFlagRatio() {
+		long count = 0L;
+		for(long w:_flags) { count += Long.bitCount(w); }
+		long total = (long)_profile.getGraph().numEdges() * _codes.length;
+		return total == 0L ? 0d : (double)count / total;
+	}
+
+	/**
+	 * write arc-flags to the file
+	 * @param file output file
+	 * @throws IOException failed to write
+	 */
+	public void write(File file) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(_level);
+			out.writeInt(_cells.length);
+			out.writeInt(_profile.getGraph().numEdges());
+			out.writeInt(_codes.length);
+			for(String code:_codes) { out.writeUTF(code); }
+			for(int cell:_cells) { out.writeInt(cell); }
+			for(long w:_flags) { out.writeLong(w); }
+		}
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** per-thread backward Dijkstra over in-edges */
+	private static class BackwardSearch {
+		/** cost to target		*/	private double[]       __dist;
+		/** priority queue		*/	private IndexedMinHeap __heap;
+		/**
+		 * initialization
+		 * @param N the number of nodes
+		 */
+		private BackwardSearch(int N) {
+			__dist = new double[N];
+			__heap = new IndexedMinHeap(N);
+		}
+		/**
+		 * calculate minimum costs from all nodes to the target
+		 * @param graph compact graph
+		 * @param cost edge costs
+		 * @param target target node index
+		 */
+		private void run(CompactGraph graph,double[] cost,int target) {
+			int[]  tail    = graph.getEdgeTail();
+			int[]  inStart = graph.getInStart();
+			int[]  inEdges = graph.getInEdges();
+			double[]       dist = __dist;
+			IndexedMinHeap heap = __heap;
+			Arrays.fill(dist,Double.POSITIVE_INFINITY);
+			heap.clear();
+			dist[target] = 0d;
+			heap.push(target,0d);
+			while( !heap.isEmpty() ) {
+				int    v  = heap.poll();
+				double dv = dist[v];
+				for(int k=inStart[v];k<inStart[v+1];k++) {
+					int    e  = inEdges[k];
+					int    u  = tail[e];
+					double du = dv + cost[e];
+					if( du < dist[u] ) {
+						dist[u] = du;
+						heap.push(u,du);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+
+/**
+ * Brandes' algorithm for shortest path betweenness of nodes and links. <br />
+ * one Dijkstra search from each source counts the shortest paths to all nodes, and the dependencies are
+ * accumulated back along the shortest path DAG, so the exact scores take O(N(M + N log N)) instead of a search
+ * per pair. paths are directed(edges of {@link CompactGraph}) and counted per ordered pair of nodes; the score
+ * of a link is the sum of its two directions. <br />
+ * sources are shared by threads, each of which keeps its own search and dependency arrays and score sums,
+ * reduced at the end. the approximate mode searches from sources sampled uniformly and scales the sums
+ * by N / the number of samples(Brandes and Pich, 2007); see {@link BetweennessResult#getErrorBound(double)}.
+ * edge costs must be strictly positive, so that every predecessor on a shortest path is settled before its
+ * successor; negative or NaN costs are treated as not traversable, and zero costs are rejected.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class Betweenness {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph				*/	private CompactGraph _graph;
+	/** edge costs					*/	private double[]     _costs;
+	/** the number of threads		*/	private int          _numThreads;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization with link costs of the network
+	 * @param network network
+	 * @param linkCost link cost operator
+	 * @throws IllegalArgumentException a link cost is zero
+	 */
+	public Betweenness(Network network,LinkCost linkCost) {
+		this(new CompactGraph(network),linkCost);
+	}
+
+	/**
+	 * initialization
+	 * @param graph compact graph
+	 * @param linkCost link cost operator
+	 * @throws IllegalArgumentException a link cost is zero
+	 */
+	public Betweenness(CompactGraph graph,LinkCost linkCost) {
+		int[]     edgeLink = graph.getEdgeLink();
+		boolean[] edgeRev  = graph.getEdgeReverse();
+		double[]  costs    = new double[edgeLink.length];
+		for(int e=0;e<costs.length;e++) {
+			Link link = graph.getLink(edgeLink[e]);
+			costs[e] = edgeRev[e] ? linkCost.getReverseCost(link) : linkCost.getCost(link);
+		}
+		init(graph,costs);
+	}
+
+	/**
+	 * initialization
+	 * @param profile cost profile
+	 * @throws IllegalArgumentException an edge cost is zero
+	 */
+	public Betweenness(CostProfile profile) {
+		init(profile.getGraph(),profile.getEdgeCosts().clone());
+	}
+
+	/**
+	 * initialize fields
+	 * @param graph compact graph
+	 * @param costs edge costs
+	 */
+	private void init(CompactGraph graph,double[] costs) {
+		for(int e=0;e<costs.length;e++) {
+			if( costs[e] == 0d )    { throw new IllegalArgumentException("unavailable value: costs[" + e + "]=" + costs[e]); }
+			if( !(costs[e] > 0d) )  { costs[e] = Double.POSITIVE_INFINITY; }	// negative or NaN: not traversable
+		}
+		_graph      = graph;
+		_costs      = costs;
+		_numThreads = ARoutingLogic.NUM_THREADS;
+	}
+
+
+	/* ==============================================================
+	 * static methods
+	 * ============================================================== */
+	/**
+	 * get the number of samples for the approximate mode. with the number, every score is within
+	 * epsilon * N(N-1) of the exact one with probability 1 - failure(Hoeffding's inequality)
+	 * @param epsilon error relative to N(N-1)
+	 * @param failure failure probability of each score
+	 * @return the number of samples
+	 */
+	public static int numSamples(double epsilon,double failure) {
+		if( !(0d < epsilon) )                  { throw new IllegalArgumentException("unavailable value: epsilon=" + epsilon); }
+		if( !(0d < failure && failure < 1d) )  { throw new IllegalArgumentException("unavailable value: failure=" + failure); }
+		return (int)Math.min(Integer.MAX_VALUE,Math.ceil(Math.log(2d / failure) / (2d * epsilon * epsilon)));
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * set the number of threads
+	 * @param numThreads the number of threads
+	 * @return this instance
+	 */
+	public Betweenness setNumThreads(int numThreads) {
+		if( numThreads < 1 ) { throw new IllegalArgumentException("unavailable value: numThreads=" + numThreads); }
+		_numThreads = numThreads;
+		return this;
+	}
+
+	/**
+	 * compute exact betweenness from all nodes
+	 * @return result
+	 */
+	public BetweennessResult compute() {
+		int[] sources = new int[_graph.numNodes()];
+		for(int i=0;i<sources.length;i++) { sources[i] = i; }
+		return compute(sources,1d,true);
+	}
+
+	/**
+	 * compute approximate betweenness from sampled sources
+	 * @param numSamples the number of sources. exact if not less than the number of nodes
+	 * @param seed random seed
+	 * @return result
+	 */
+	public BetweennessResult compute(int numSamples,long seed) {
+		int N = _graph.numNodes();
+		if( numSamples < 1 ) { throw new IllegalArgumentException("unavailable value: numSamples=" + numSamples); }
+		if( numSamples >= N ) { return compute(); }
+		// partial Fisher-Yates shuffle ///////////////////
+		int[]  nodes = new int[N];
+		Random rand  = new Random(seed);
+		for(int i=0;i<N;i++) { nodes[i] = i; }
+		for(int i=0;i<numSamples;i++) {
+			int j = i + rand.nextInt(N - i);
+			int t = nodes[i]; nodes[i] = nodes[j]; nodes[j] = t;
+		}
+		return compute(Arrays.copyOf(nodes,numSamples),(double)N / numSamples,false);
+	}
+
+	/**
+	 * compute betweenness from the sources
+	 * @param sources source node indexes
+	 * @param scale factor multiplied to the sums
+	 * @param exact true if sources are all nodes
+	 * @return result
+	 */
+	private BetweennessResult compute(final int[] sources,double scale,boolean exact) {
+		// search sources by threads //////////////////////
+		final int           N       = _graph.numNodes();
+		final int           E       = _costs.length;
+		final AtomicInteger next    = new AtomicInteger(0);
+		int                 T       = Math.max(1,Math.min(_numThreads,sources.length));
+		List<double[][]>    partial = new ArrayList<double[][]>(T);
+		ExecutorService     pool    = Executors.newFixedThreadPool(T);
+		try {
+			List<Future<double[][]>> futures = new ArrayList<Future<double[][]>>(T);
+			for(int t=0;t<T;t++) {
+				futures.add(pool.submit(new Callable<double[][]>() {
+					public double[][] call() {
+						Worker worker = new Worker(N,E);
+						for(int i=next.getAndIncrement();i<sources.length;i=next.getAndIncrement()) { worker.accumulate(sources[i]); }
+						return new double[][]{worker.__nodeScores,worker.__edgeScores};
+					}
+				}));
+			}
+			for(Future<double[][]> future:futures) { partial.add(future.get()); }
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("search interrupted",exp);
+		}
+		catch(ExecutionException exp) {
+			throw new IllegalStateException("fail to compute betweenness",exp.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		// reduce /////////////////////////////////////////
+		double[] nodeScores = partial.get(0)[0];
+		double[] edgeScores = partial.get(0)[1];
+		for(int t=1;t<partial.size();t++) {
+			double[] ns = partial.get(t)[0];
+			double[] es = partial.get(t)[1];
+			for(int i=0;i<N;i++) { nodeScores[i] += ns[i]; }
+			for(int e=0;e<E;e++) { edgeScores[e] += es[e]; }
+		}
+		if( scale != 1d ) {
+			for(int i=0;i<N;i++) { nodeScores[i] *= scale; }
+			for(int e=0;e<E;e++) { edgeScores[e] *= scale; }
+		}
+		return new BetweennessResult(_graph,nodeScores,edgeScores,sources.length,exact);
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/**
+	 * search and dependency arrays of a thread
+	 */
+	private class Worker {
+		/** cost from source			*/	private double[]       __dist;
+		/** the number of paths			*/	private double[]       __sigma;
+		/** dependency of source		*/	private double[]       __delta;
+		/** settled order. -1 if not	*/	private int[]          __order;
+		/** nodes in settled order		*/	private int[]          __stack;
+		/** priority queue				*/	private IndexedMinHeap __heap;
+		/** node score sums				*/	private double[]       __nodeScores;
+		/** edge score sums				*/	private double[]       __edgeScores;
+
+		/**
+		 * allocate arrays
+		 * @param N the number of nodes
+		 * @param E the number of edges
+		 */
+		private Worker(int N,int E) {
+			__dist       = new double[N];
+			__sigma      = new double[N];
+			__delta      = new double[N];
+			__order      = new int[N];
+			__stack      = new int[N];
+			__heap       = new IndexedMinHeap(N);
+			__nodeScores = new double[N];
+			__edgeScores = new double[E];
+			Arrays.fill(__dist,Double.POSITIVE_INFINITY);
+			Arrays.fill(__order,-1);
+		}
+
+		/**
+		 * search from the source and add its dependencies to the sums
+		 * @param s source node index
+		 */
+		private void accumulate(int s) {
+			// local references for the inner loop ////////
+			int[]    start   = _graph.getOutStart();
+			int[]    head    = _graph.getEdgeHead();
+			int[]    tail    = _graph.getEdgeTail();
+			int[]    inStart = _graph.getInStart();
+			int[]    inEdges = _graph.getInEdges();
+			double[] cost    = _costs;
+			double[] dist    = __dist;
+			double[] sigma   = __sigma;
+			double[] delta   = __delta;
+			int[]    order   = __order;
+			int[]    stack   = __stack;
+
+			// count shortest paths ///////////////////////
+			int n = 0;
+			dist[s]  = 0d;
+			sigma[s] = 1d;
+			__heap.push(s,0d);
+			while( !__heap.isEmpty() ) {
+				int    u  = __heap.poll();
+				double du = dist[u];
+				order[u]   = n;
+				stack[n++] = u;
+				for(int e=start[u],end=start[u+1];e<end;e++) {
+					int    v  = head[e];
+					double dv = du + cost[e];
+					if( order[v] >= 0 || dv == Double.POSITIVE_INFINITY ) { continue; }
+					if( dv < dist[v] ) {
+						dist[v]  = dv;
+						sigma[v] = sigma[u];
+						__heap.push(v,dv);
+					}
+					else if( dv == dist[v] ) {
+						sigma[v] += sigma[u];
+					}
+				}
+			}
+			// accumulate dependencies in reverse order ///
+			for(int k=n-1;k>=0;k--) {
+				int    w  = stack[k];
+				double cw = (1d + delta[w]) / sigma[w];
+				for(int p=inStart[w],end=inStart[w+1];p<end;p++) {
+					int e = inEdges[p];
+					int u = tail[e];
+					if( order[u] < 0 || order[u] >= k || dist[u] + cost[e] != dist[w] ) { continue; }	// not on shortest paths
+					double c = sigma[u] * cw;
+					__edgeScores[e] += c;
+					delta[u]        += c;
+				}
+				if( w != s ) { __nodeScores[w] += delta[w]; }
+			}
+			// reset visited nodes ////////////////////////
+			for(int k=0;k<n;k++) {
+				int v = stack[k];
+				dist[v]  = Double.POSITIVE_INFINITY;
+				sigma[v] = 0d;
+				delta[v] = 0d;
+				order[v] = -1;
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+
+/**
+ * Class for result of {@link Betweenness}: shortest path betweenness of every node, edge and link of
+ * {@link CompactGraph}. scores are sums over ordered pairs of nodes, and are estimates scaled to the same
+ * range in the approximate mode.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class BetweennessResult {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph				*/	private CompactGraph _graph;
+	/** node scores					*/	private double[]     _nodeScores;
+	/** edge scores					*/	private double[]     _edgeScores;
+	/** link scores					*/	private double[]     _linkScores;
+	/** the number of sources		*/	private int          _numSources;
+	/** exact or not				*/	private boolean      _exact;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create result
+	 * @param graph compact graph
+	 * @param nodeScores score of each node
+	 * @param edgeScores score of each edge
+	 * @param numSources the number of sources searched
+	 * @param exact true if all nodes were searched
+	 */
+	protected BetweennessResult(CompactGraph graph,double[] nodeScores,double[] edgeScores,int numSources,boolean exact) {
+		int[] edgeLink = graph.getEdgeLink();
+		_graph      = graph;
+		_nodeScores = nodeScores;
+		_edgeScores = edgeScores;
+		_linkScores = new double[graph.numLinks()];
+		_numSources = numSources;
+		_exact      = exact;
+		for(int e=0;e<edgeScores.length;e++) { _linkScores[edgeLink[e]] += edgeScores[e]; }
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get compact graph
+	 * @return graph
+	 */
+	public CompactGraph getGraph() {
+		return _graph;
+	}
+
+	/**
+	 * check if the scores are exact
+	 * @return true if exact, false if estimated from sampled sources
+	 */
+	public boolean isExact() {
+		return _exact;
+	}
+
+	/**
+	 * get the number of sources searched
+	 * @return the number of sources
+	 */
+	public int numSources() {
+		return _numSources;
+	}
+
+	/**
+	 * get betweenness of the node
+	 * @param idx node index
+	 * @return score
+	 */
+	public double getNodeScore(int idx) {
+		return _nodeScores[idx];
+	}
+
+	/**
+	 * get betweenness of the edge
+	 * @param edge edge index
+	 * @return score
+	 */
+	public double getEdgeScore(int edge) {
+		return _edgeScores[edge];
+	}
+
+	/**
+	 * get betweenness of the link, the sum of both directions
+	 * @param idx link index
+	 * @return score
+	 */
+	public double getLinkScore(int idx) {
+		return _linkScores[idx];
+	}
+
+	/**
+	 * get betweenness of the link
+	 * @param link link
+	 * @return score. NaN if the link is not in the graph
+	 */
+	public double getLinkScore(Link link) {
+		int idx = _graph.indexOf(link);
+		return idx < 0 ? Double.NaN : _linkScores[idx];
+	}
+
+	/**
+	 * get betweenness of all nodes
+	 * @return scores indexed by node index(not copied)
+	 */
+	public double[] getNodeScores() {
+		return _nodeScores;
+	}
+
+	/**
+	 * get betweenness of all links
+	 * @return scores indexed by link index(not copied)
+	 */
+	public double[] getLinkScores() {
+		return _linkScores;
+	}
+
+	/**
+	 * get links in descending order of score
+	 * @param n the maximum number of links
+	 * @return links
+	 */
+	public List<Link> listTopLinks(int n) {
+		List<Integer> idx = new ArrayList<Integer>(_linkScores.length);
+		for(int i=0;i<_linkScores.length;i++) { idx.add(i); }
+		Collections.sort(idx,new Comparator<Integer>() {
+			public int compare(Integer a,Integer b) {
+				return Double.compare(_linkScores[b],_linkScores[a]);
+			}
+		});
+		List<Link> links = new ArrayList<Link>(Math.min(n,idx.size()));
+		for(int i=0;i<n && i<idx.size();i++) { links.add(_graph.getLink(idx.get(i))); }
+		return links;
+	}
+
+	/**
+	 * get error bound of a node or edge score of the approximate mode. each score is within the bound of the
+	 * exact one with probability 1 - failure(Hoeffding's inequality on dependencies bounded by N-1). to bound all
+	 * scores at once, divide the failure probability by the number of scores. a link score has twice the bound
+	 * @param failure failure probability
+	 * @return absolute error bound. 0 if exact
+	 */
+	public double getErrorBound(double failure) {
+		if( !(0d < failure && failure < 1d) ) { throw new IllegalArgumentException("unavailable value: failure=" + failure); }
+		if( _exact ) { return 0d; }
+		double N = _graph.numNodes();
+		return N * (N - 1d) * Math.sqrt(Math.log(2d / failure) / (2d * _numSources));
+	}
+
+	/**
+	 * write node scores as CSV(node id, lon, lat, score)
+	 * @param file output file
+	 * @throws IOException failed to write
+	 */
+	public void writeNodes(File file) throws IOException {
+		try(BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
+			bw.write("nodeid,lon,lat,score");
+			bw.newLine();
+			for(int i=0;i<_nodeScores.length;i++) {
+				bw.write(_graph.getNode(i).getNodeID() + "," + _graph.getNode(i).getLon() + "," + _graph.getNode(i).getLat() + "," + _nodeScores[i]);
+				bw.newLine();
+			}
+		}
+	}
+
+	/**
+	 * write link scores as CSV(link id, score, score of tail to head direction, score of head to tail direction)
+	 * @param file output file
+	 * @throws IOException failed to write
+	 */
+	public void writeLinks(File file) throws IOException {
+		try(BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
+			bw.write("linkid,score,forward,reverse");
+			bw.newLine();
+			for(int i=0;i<_linkScores.length;i++) {
+				int fwd = _graph.getLinkEdge(i,false);
+				int rev = _graph.getLinkEdge(i,true);
+				bw.write(_graph.getLink(i).getLinkID() + "," + _linkScores[i] + "," + (fwd < 0 ? 0d : _edgeScores[fwd]) + "," + (rev < 0 ? 0d : _edgeScores[rev]));
+				bw.newLine();
+			}
+		}
+	}
+}
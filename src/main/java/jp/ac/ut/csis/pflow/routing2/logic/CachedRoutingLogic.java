@@ -0,0 +1,252 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.routing2.cache.LruCache;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+
+/**
+ * Class for caching route search results of another routing logic. <br />
+ * results are cached by (departure node, arrival node, route count, link cost instance, link cost version,
+ * {@link jp.ac.ut.csis.pflow.routing2.res.Link#getCostVersion()}),
+ * and evicted in LRU order when the number of entries or the total number of route nodes exceeds the bounds.
+ * the cache is lock-striped, so concurrent readers of different OD pairs do not block each other. <br />
+ * the cache is bound to one network and is cleared when queried with another network instance or when
+ * nodes/links of the network are modified. link costs changed in place by {@link
+ * jp.ac.ut.csis.pflow.routing2.res.Link#setCost(double)} change the key, and so do {@link LinkCost}s that increase
+ * {@link LinkCost#getVersion()}. call {@link #invalidate()} when costs change in any other way.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class CachedRoutingLogic extends ARoutingLogic {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default cache size(entries)		*/	public static final int  CACHE_SIZE   = Integer.getInteger("pflow.routing2.logic.route_cache_size",100000);
+	/** default cache weight(nodes)		*/	public static final long CACHE_WEIGHT = Long.getLong("pflow.routing2.logic.route_cache_weight",10000000L);
+
+	/** weight of cached routes */
+	private static final LruCache.Weigher<Key,List<Route>> WEIGHER = new LruCache.Weigher<Key,List<Route>>() {
+		public long weigh(Key key,List<Route> routes) {
+			long weight = 1L;
+			for(Route route:routes) { weight += route.numNodes(); }
+			return weight;
+		}
+	};
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** routing logic			*/	private IRoutingLogic             _logic;
+	/** route cache				*/	private LruCache<Key,List<Route>> _cache;
+	/** bound network			*/	private volatile Network          _network;
+	/** version of network		*/	private volatile long             _version;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create instance with default cache bounds
+	 * @param logic routing logic to cache
+	 */
+	public CachedRoutingLogic(IRoutingLogic logic) {
+		this(logic,CACHE_SIZE,CACHE_WEIGHT);
+	}
+
+	/**
+	 * create instance with the indicated cache bounds
+	 * @param logic routing logic to cache
+	 * @param maxSize maximum number of cached OD pairs
+	 * @param maxWeight maximum total number of nodes in cached routes
+	 */
+	public CachedRoutingLogic(IRoutingLogic logic,int maxSize,long maxWeight) {
+		super(	logic instanceof ARoutingLogic ? ARoutingLogic.class.cast(logic).getRouteNum()        : ROUTE_NUM,
+				logic instanceof ARoutingLogic ? ARoutingLogic.class.cast(logic).getSearchDistance()  : MIN_DIST,
+				logic instanceof ARoutingLogic ? ARoutingLogic.class.cast(logic).getLinkCost()        : null);
+		_logic   = logic;
+		_cache   = new LruCache<Key,List<Route>>(maxSize,maxWeight,WEIGHER);
+		_network = null;
+		_version = -1L;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.IRoutingLogic#getName() */
+	@Override
+	public String getName() {
+		return _logic.getName();
+	}
+
+	/**
+	 * get cached routing logic
+	 * @return routing logic
+	 */
+	public IRoutingLogic getRoutingLogic() {
+		return _logic;
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.ARoutingLogic#getLinkCost() */
+	@Override
+	public LinkCost getLinkCost() {
+		return _logic instanceof ARoutingLogic ? ARoutingLogic.class.cast(_logic).getLinkCost() : super.getLinkCost();
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.ARoutingLogic#setLinkCost(jp.ac.ut.csis.pflow.routing2.logic.LinkCost) */
+	@Override
+	public void setLinkCost(LinkCost linkcost) {
+		if( _logic instanceof ARoutingLogic ) { ARoutingLogic.class.cast(_logic).setLinkCost(linkcost); }
+		super.setLinkCost(linkcost);
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.IRoutingLogic#getRoutes(jp.ac.ut.csis.pflow.routing2.res.Network, jp.ac.ut.csis.pflow.routing2.res.Node, jp.ac.ut.csis.pflow.routing2.res.Node, int) */
+	@Override
+	public List<Route> getRoutes(Network network,Node depnode,Node arrnode,int n) {
+		// error handle ///////////////////////////////////
+		if( depnode == null || arrnode == null ) { return new ArrayList<Route>(); }
+		bind(network);
+
+		// look up cache //////////////////////////////////
+		LinkCost    linkcost = getLinkCost();
+		Key         key      = new Key(depnode.getNodeID(),arrnode.getNodeID(),n,linkcost,linkcost == null ? 0L : linkcost.getVersion(),Link.getCostVersion());
+		List<Route> routes   = _cache.get(key);
+		if( routes == null ) {
+			Monitor monitor = monitor();
+			routes = _logic.getRoutes(network,depnode,arrnode,n);
+			routes = routes == null ? new ArrayList<Route>() : copy(routes);
+			if( !monitor.isExceeded() ) { _cache.put(key,routes); }	// never cache partial results
+		}
+		// return copies to keep cached routes unchanged ///
+		return copy(routes);
+	}
+
+	/**
+	 * remove all cached routes. call this after changing link costs in place
+	 */
+	public void invalidate() {
+		_cache.clear();
+	}
+
+	/**
+	 * get the number of cached OD pairs
+	 * @return the number of entries
+	 */
+	public int size() {
+		return _cache.size();
+	}
+
+	/**
+	 * get hit count
+	 * @return hit count
+	 */
+	public long getHitCount() {
+		return _cache.getHitCount();
+	}
+
+	/**
+	 * get miss count
+	 * @return miss count
+	 */
+	public long getMissCount() {
+		return _cache.getMissCount();
+	}
+
+	/**
+	 * get eviction count
+	 * @return eviction count
+	 */
+	public long getEvictionCount() {
+		return _cache.getEvictionCount();
+	}
+
+	/**
+	 * get hit rate
+	 * @return hit rate(0-1). NaN if never requested
+	 */
+	public double getHitRate() {
+		return _cache.getHitRate();
+	}
+
+	/**
+	 * bind the cache to the network. cached routes are cleared if the network is replaced or modified
+	 * @param network network data
+	 */
+	private void bind(Network network) {
+		if( _network == network && _version == network.getVersion() ) { return; }
+		synchronized(this) {
+			if( _network != network || _version != network.getVersion() ) {
+				_cache.clear();
+				_version = network.getVersion();
+				_network = network;
+			}
+		}
+	}
+
+	/**
+	 * copy route list
+	 * @param routes routes
+	 * @return copied routes
+	 */
+	private List<Route> copy(List<Route> routes) {
+		List<Route> list = new ArrayList<Route>(routes.size());
+		for(Route route:routes) { list.add(route.clone()); }
+		return list;
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** cache key of OD pair and cost model */
+	private static class Key {
+		/** departure node ID	*/	private String   __dep;
+		/** arrival node ID		*/	private String   __arr;
+		/** route count			*/	private int      __num;
+		/** link cost			*/	private LinkCost __linkcost;
+		/** link cost version	*/	private long     __version;
+		/** cost version of links*/	private long     __costVersion;
+		/**
+		 * initialization
+		 * @param dep departure node ID
+		 * @param arr arrival node ID
+		 * @param num route count
+		 * @param linkcost link cost
+		 * @param version link cost version
+		 * @param costVersion version of link costs changed in place
+		 */
+		private Key(String dep,String arr,int num,LinkCost linkcost,long version,long costVersion) {
+			__dep         = dep;
+			__arr         = arr;
+			__num         = num;
+			__linkcost    = linkcost;
+			__version     = version;
+			__costVersion = costVersion;
+		}
+		/* @see java.lang.Object#hashCode() */
+		@Override
+		public int hashCode() {
+			int h = __dep.hashCode();
+			h = 31 * h + __arr.hashCode();
+			h = 31 * h + __num;
+			h = 31 * h + System.identityHashCode(__linkcost);
+			h = 31 * h + (int)(__version ^ (__version >>> 32));
+			h = 31 * h + (int)(__costVersion ^ (__costVersion >>> 32));
+			return h;
+		}
+		/* @see java.lang.Object#equals(java.lang.Object) */
+		@Override
+		public boolean equals(Object obj) {
+			if( !(obj instanceof Key) ) { return false; }
+			Key key = Key.class.cast(obj);
+			return __num      == key.__num      && __version == key.__version && __costVersion == key.__costVersion &&
+				   __linkcost == key.__linkcost && __dep.equals(key.__dep) && __arr.equals(key.__arr);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+/**
+ * Class for cooperative cancellation of route search. <br />
+ * another thread calls {@link #cancel()}, and searches holding this token stop at their next check.
+ * 
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class CancelToken {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** cancel flag */	private volatile boolean _cancelled = false;
+	
+	
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * request cancellation
+	 */
+	public void cancel() { 
+		_cancelled = true;
+	}
+	
+	/**
+	 * check if cancellation is requested
+	 * @return result
+	 */
+	public boolean isCancelled() { 
+		return _cancelled;
+	}
+}
@@ -0,0 +1,171 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+
+/**
+ * Class for route choice set with path-size logit probabilities. <br />
+ * utility of route i is -theta * cost_i + beta * ln(PS_i), where path-size
+ * PS_i = sum over edges a of route i of (cost_a / cost_i) / (the number of routes using a).
+ * costs are of the base profile. routes are sorted by cost, and the instance is immutable.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class ChoiceSet {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph				*/	private CompactGraph _graph;
+	/** origin node index			*/	private int          _origin;
+	/** edges of routes				*/	private int[][]      _edges;
+	/** route costs					*/	private double[]     _costs;
+	/** path-size of routes			*/	private double[]     _pathSizes;
+	/** choice probabilities		*/	private double[]     _probs;
+	/** cumulative probabilities	*/	private double[]     _cumulative;
+	/** version of cost profile		*/	private long         _version;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create choice set
+	 * @param profile base cost profile
+	 * @param origin origin node index
+	 * @param edges edges of routes sorted by cost
+	 * @param theta cost coefficient
+	 * @param beta path-size coefficient
+	 */
+	protected ChoiceSet(CostProfile profile,int origin,int[][] edges,double theta,double beta) {
+		_graph   = profile.getGraph();
+		_origin  = origin;
+		_edges   = edges;
+		_version = profile.getVersion();
+		_costs   = new double[edges.length];
+		double[] cost = profile.getEdgeCosts();
+		for(int i=0;i<edges.length;i++) {
+			for(int e:edges[i]) { _costs[i] += cost[e]; }
+		}
+		// path-size //////////////////////////////////////
+		Map<Integer,Integer> overlaps = new HashMap<Integer,Integer>();
+		for(int[] route:edges) {
+			for(int e:route) {
+				Integer n = overlaps.get(e);
+				overlaps.put(e,n == null ? 1 : n + 1);
+			}
+		}
+		_pathSizes = new double[edges.length];
+		for(int i=0;i<edges.length;i++) {
+			if( _costs[i] <= 0d ) { _pathSizes[i] = 1d; continue; }
+			for(int e:edges[i]) { _pathSizes[i] += cost[e] / _costs[i] / overlaps.get(e); }
+		}
+		// path-size logit ////////////////////////////////
+		double[] utils = new double[edges.length];
+		double   max   = Double.NEGATIVE_INFINITY;
+		for(int i=0;i<edges.length;i++) {
+			utils[i] = -theta * _costs[i] + beta * Math.log(_pathSizes[i]);
+			max      = Math.max(max,utils[i]);
+		}
+		double sum = 0d;
+		_probs      = new double[edges.length];
+		_cumulative = new double[edges.length];
+		for(int i=0;i<edges.length;i++) { sum += (_probs[i] = Math.exp(utils[i] - max)); }
+		double acc = 0d;
+		for(int i=0;i<edges.length;i++) {
+			_probs[i]     /= sum;
+			_cumulative[i] = (acc += _probs[i]);
+		}
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get the number of routes
+	 * @return the number of routes
+	 */
+	public int numRoutes() {
+		return _edges.length;
+	}
+
+	/**
+	 * get edges of the route
+	 * @param i route index
+	 * @return edge indexes(not copied)
+	 */
+	public int[] getEdges(int i) {
+		return _edges[i];
+	}
+
+	/**
+	 * get cost of the route
+	 * @param i route index
+	 * @return cost under the base profile
+	 */
+	public double getCost(int i) {
+		return _costs[i];
+	}
+
+	/**
+	 * get path-size of the route
+	 * @param i route index
+	 * @return path-size in (0,1]
+	 */
+	public double getPathSize(int i) {
+		return _pathSizes[i];
+	}
+
+	/**
+	 * get choice probability of the route
+	 * @param i route index
+	 * @return probability
+	 */
+	public double getProbability(int i) {
+		return _probs[i];
+	}
+
+	/**
+	 * get the route
+	 * @param i route index
+	 * @return route. the origin node only if the origin is the destination
+	 */
+	public Route getRoute(int i) {
+		int[]      edges = _edges[i];
+		int[]      head  = _graph.getEdgeHead();
+		List<Node> nodes = new ArrayList<Node>(edges.length + 1);
+		nodes.add(_graph.getNode(_origin));
+		for(int e:edges) { nodes.add(_graph.getNode(head[e])); }
+		return new Route(nodes,_costs[i],_version);
+	}
+
+	/**
+	 * get all routes
+	 * @return routes sorted by cost
+	 */
+	public List<Route> listRoutes() {
+		List<Route> routes = new ArrayList<Route>(_edges.length);
+		for(int i=0;i<_edges.length;i++) { routes.add(getRoute(i)); }
+		return routes;
+	}
+
+	/**
+	 * draw route by the choice probabilities
+	 * @param rand random generator
+	 * @return route index. -1 if empty
+	 */
+	public int sample(Random rand) {
+		if( _edges.length == 0 ) { return -1; }
+		int idx = Arrays.binarySearch(_cumulative,rand.nextDouble() * _cumulative[_edges.length-1]);
+		return Math.min(idx < 0 ? -idx-1 : idx,_edges.length-1);
+	}
+}
@@ -0,0 +1,524 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jp.ac.ut.csis.pflow.routing2.cache.LruCache;
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+
+/**
+ * Generator of route choice sets over {@link CompactGraph}. <br />
+ * alternatives are found by searches on a modified graph, run by threads:
+ * <ul>
+ * <li>link elimination: each edge of the shortest path is removed in turn</li>
+ * <li>perturbation: edge costs are multiplied by log-normal factors. factors are derived from the seed,
+ * the OD pair, the draw and the edge, so the result does not depend on thread scheduling</li>
+ * <li>breadth-first link elimination: edges of found routes are removed level by level, adding to the
+ * removed edges of the route</li>
+ * </ul>
+ * duplicated routes are dropped, and the routes are kept up to the maximum in cost order.
+ * choice sets are cached by OD pair. the cost profile is kept by the instance, and the same instance
+ * can be shared between threads. call {@link #shutdown()} when finished.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class ChoiceSetGenerator {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** searches per batch				*/	private static final int BATCH       = 16;	// fixed, so results do not depend on threads
+
+	/** generation method */
+	public enum Method {
+		/** link elimination					*/	LINK_ELIMINATION,
+		/** randomized link cost perturbation	*/	PERTURBATION,
+		/** breadth-first link elimination		*/	BREADTH_FIRST_LINK_ELIMINATION;
+	}
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** base cost profile				*/	private CostProfile              _profile;
+	/** compact graph					*/	private CompactGraph             _graph;
+	/** generation method				*/	private Method                   _method;
+	/** maximum routes					*/	private int                      _maxRoutes;
+	/** perturbation draws				*/	private int                      _draws;
+	/** deviation of log cost factor	*/	private double                   _sigma;
+	/** maximum elimination depth		*/	private int                      _maxDepth;
+	/** random seed						*/	private long                     _seed;
+	/** cost coefficient				*/	private double                   _theta;
+	/** path-size coefficient			*/	private double                   _beta;
+	/** thread pool						*/	private ExecutorService          _pool;
+	/** choice set cache				*/	private LruCache<Long,ChoiceSet> _cache;
+	/** working arrays					*/	private ThreadLocal<Workspace>   _workspace;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization with default threads and cache of 10000 OD pairs
+	 * @param profile base cost profile
+	 * @param method generation method
+	 * @param maxRoutes maximum routes in a choice set
+	 */
+	public ChoiceSetGenerator(CostProfile profile,Method method,int maxRoutes) {
+		this(profile,method,maxRoutes,ARoutingLogic.NUM_THREADS,10000);
+	}
+
+	/**
+	 * initialization
+	 * @param profile base cost profile
+	 * @param method generation method
+	 * @param maxRoutes maximum routes in a choice set
+	 * @param numThreads the number of threads
+	 * @param cacheSize maximum OD pairs in cache. 0 to disable
+	 */
+	public ChoiceSetGenerator(CostProfile profile,Method method,int maxRoutes,int numThreads,int cacheSize) {
+		// error handle ///////////////////////////////////
+		if( maxRoutes <= 0 || numThreads <= 0 || cacheSize < 0 ) {
+			throw new IllegalArgumentException("unavailable value: " + maxRoutes + "," + numThreads + "," + cacheSize);
+		}
+		// initialization /////////////////////////////////
+		_profile    = profile;
+		_graph      = profile.getGraph();
+		_method     = method;
+		_maxRoutes  = maxRoutes;
+		_draws      = 2 * maxRoutes;
+		_sigma      = 0.3d;
+		_maxDepth   = 3;
+		_seed       = 0L;
+		_theta      = 1d;
+		_beta       = 1d;
+		_cache      = cacheSize == 0 ? null : new LruCache<Long,ChoiceSet>(cacheSize);
+		_pool       = numThreads == 1 ? null : Executors.newFixedThreadPool(numThreads,new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r,"choice-set");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		_workspace  = new ThreadLocal<Workspace>() {
+			@Override
+			protected Workspace initialValue() {
+				return new Workspace(_graph.numNodes(),_graph.numEdges());
+			}
+		};
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * set parameters of perturbation. cached choice sets are cleared
+	 * @param draws the number of perturbed searches
+	 * @param sigma standard deviation of log cost factor
+	 * @param seed random seed
+	 * @return this instance
+	 */
+	public ChoiceSetGenerator setPerturbation(int draws,double sigma,long seed) {
+		if( draws <= 0 || !(sigma >= 0d) ) { throw new IllegalArgumentException("unavailable value: " + draws + "," + sigma); }
+		_draws = draws;
+		_sigma = sigma;
+		_seed  = seed;
+		clearCache();
+		return this;
+	}
+
+	/**
+	 * set maximum depth of breadth-first link elimination. cached choice sets are cleared
+	 * @param maxDepth maximum depth
+	 * @return this instance
+	 */
+	public ChoiceSetGenerator setMaxDepth(int maxDepth) {
+		if( maxDepth <= 0 ) { throw new IllegalArgumentException("unavailable value: " + maxDepth); }
+		_maxDepth = maxDepth;
+		clearCache();
+		return this;
+	}
+
+	/**
+	 * set parameters of path-size logit. cached choice sets are cleared
+	 * @param theta cost coefficient
+	 * @param beta path-size coefficient
+	 * @return this instance
+	 */
+	public ChoiceSetGenerator setLogitParameters(double theta,double beta) {
+		_theta = theta;
+		_beta  = beta;
+		clearCache();
+		return this;
+	}
+
+	/**
+	 * get base cost profile
+	 * @return cost profile
+	 */
+	public CostProfile getProfile() {
+		return _profile;
+	}
+
+	/**
+	 * clear cached choice sets
+	 */
+	public void clearCache() {
+		if( _cache != null ) { _cache.clear(); }
+	}
+
+	/**
+	 * get hit rate of choice set cache
+	 * @return hit rate. 0 if cache is disabled
+	 */
+	public double getCacheHitRate() {
+		return _cache == null ? 0d : _cache.getHitRate();
+	}
+
+	/**
+	 * stop the thread pool
+	 */
+	public void shutdown() {
+		if( _pool != null ) { _pool.shutdownNow(); }
+	}
+
+	/**
+	 * draw route of the OD pair by path-size logit
+	 * @param depnode origin node
+	 * @param arrnode destination node
+	 * @param rand random generator
+	 * @return route. null if not reachable
+	 */
+	public Route sample(Node depnode,Node arrnode,Random rand) {
+		ChoiceSet set = generate(depnode,arrnode);
+		int       idx = set.sample(rand);
+		return idx < 0 ? null : set.getRoute(idx);
+	}
+
+	/**
+	 * get choice set of the OD pair
+	 * @param depnode origin node
+	 * @param arrnode destination node
+	 * @return choice set. empty if not reachable
+	 */
+	public ChoiceSet generate(Node depnode,Node arrnode) {
+		int dep = _graph.indexOf(depnode);
+		int arr = _graph.indexOf(arrnode);
+		if( dep < 0 || arr < 0 ) { throw new IllegalArgumentException("node not in graph: " + (dep < 0 ? depnode : arrnode)); }
+		return generate(dep,arr);
+	}
+
+	/**
+	 * get choice set of the OD pair
+	 * @param dep origin node index
+	 * @param arr destination node index
+	 * @return choice set. empty if not reachable
+	 */
+	public ChoiceSet generate(int dep,int arr) {
+		Long      key = ((long)dep << 32) | (arr & 0xffffffffL);
+		ChoiceSet set = _cache == null ? null : _cache.get(key);
+		if( set != null ) { return set; }
+
+		List<int[]> routes = new ArrayList<int[]>();
+		int[]       base   = search(dep,arr,null,-1);
+		if( base != null ) {
+			routes.add(base);
+			switch( _method ) {
+			case LINK_ELIMINATION:               eliminate(dep,arr,base,routes); break;
+			case PERTURBATION:                   perturb(dep,arr,routes);        break;
+			case BREADTH_FIRST_LINK_ELIMINATION: eliminateBreadthFirst(dep,arr,base,routes); break;
+			}
+		}
+		set = new ChoiceSet(_profile,dep,select(routes),_theta,_beta);
+		if( _cache != null ) { _cache.put(key,set); }
+		return set;
+	}
+
+	/**
+	 * add routes found by removing each edge of the shortest path
+	 * @param dep origin node index
+	 * @param arr destination node index
+	 * @param base shortest path
+	 * @param routes found routes
+	 */
+	private void eliminate(int dep,int arr,int[] base,List<int[]> routes) {
+		List<int[]> bans = new ArrayList<int[]>(base.length);
+		for(int e:base) { bans.add(new int[]{e}); }
+		for(int[] route:searchAll(dep,arr,bans,null)) { addUnique(routes,route); }
+	}
+
+	/**
+	 * add routes found with perturbed costs
+	 * @param dep origin node index
+	 * @param arr destination node index
+	 * @param routes found routes
+	 */
+	private void perturb(int dep,int arr,List<int[]> routes) {
+		int[] draws = new int[_draws];
+		for(int i=0;i<_draws;i++) { draws[i] = i; }
+		for(int[] route:searchAll(dep,arr,null,draws)) { addUnique(routes,route); }
+	}
+
+	/**
+	 * add routes found by removing edges level by level
+	 * @param dep origin node index
+	 * @param arr destination node index
+	 * @param base shortest path
+	 * @param routes found routes
+	 */
+	private void eliminateBreadthFirst(int dep,int arr,int[] base,List<int[]> routes) {
+		Set<String> visited  = new HashSet<String>();
+		List<int[]> frontier = new ArrayList<int[]>();	// pairs of removed edges and route, flattened as [n, removed..., route...]
+		frontier.add(pack(new int[0],base));
+		for(int depth=0;depth<_maxDepth && !frontier.isEmpty() && routes.size() < _maxRoutes;depth++) {
+			// elimination sets of the next level =========
+			List<int[]> bans = new ArrayList<int[]>();
+			for(int[] node:frontier) {
+				int[] removed = Arrays.copyOfRange(node,1,1+node[0]);
+				int[] route   = Arrays.copyOfRange(node,1+node[0],node.length);
+				for(int e:route) {
+					int[] ban = Arrays.copyOf(removed,removed.length+1);
+					ban[removed.length] = e;
+					Arrays.sort(ban);
+					if( visited.add(Arrays.toString(ban)) ) { bans.add(ban); }
+				}
+			}
+			// search in batches until enough routes ======
+			List<int[]> next = new ArrayList<int[]>();
+			for(int from=0;from<bans.size() && routes.size() < _maxRoutes;from+=BATCH) {
+				List<int[]> part  = bans.subList(from,Math.min(from+BATCH,bans.size()));
+				List<int[]> found = searchAll(dep,arr,part,null);
+				for(int i=0;i<part.size();i++) {
+					if( found.get(i) == null ) { continue; }
+					if( addUnique(routes,found.get(i)) ) { next.add(pack(part.get(i),found.get(i))); }
+				}
+			}
+			frontier = next;
+		}
+	}
+
+	/**
+	 * run searches with threads
+	 * @param dep origin node index
+	 * @param arr destination node index
+	 * @param bans removed edges of each search. null for none
+	 * @param draws perturbation draw of each search. null for none
+	 * @return routes in the order of searches. null if not found
+	 */
+	private List<int[]> searchAll(final int dep,final int arr,final List<int[]> bans,final int[] draws) {
+		int         n      = bans != null ? bans.size() : draws.length;
+		List<int[]> routes = new ArrayList<int[]>(n);
+		if( _pool == null ) {
+			for(int i=0;i<n;i++) { routes.add(search(dep,arr,bans == null ? null : bans.get(i),draws == null ? -1 : draws[i])); }
+			return routes;
+		}
+		List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>(n);
+		for(int i=0;i<n;i++) {
+			final int[] ban  = bans == null ? null : bans.get(i);
+			final int   draw = draws == null ? -1 : draws[i];
+			tasks.add(new Callable<int[]>() {
+				public int[] call() {
+					return search(dep,arr,ban,draw);
+				}
+			});
+		}
+		try {
+			for(Future<int[]> future:_pool.invokeAll(tasks)) { routes.add(future.get()); }
+			return routes;
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("search interrupted",exp);
+		}
+		catch(ExecutionException exp) {
+			throw new IllegalStateException("fail to search alternatives",exp.getCause());
+		}
+	}
+
+	/**
+	 * search the shortest path on modified costs
+	 * @param dep origin node index
+	 * @param arr destination node index
+	 * @param ban removed edges. null for none
+	 * @param draw perturbation draw. negative for base costs
+	 * @return edges of the route. null if not found
+	 */
+	private int[] search(int dep,int arr,int[] ban,int draw) {
+		int[]          start  = _graph.getOutStart();
+		int[]          head   = _graph.getEdgeHead();
+		int[]          tail   = _graph.getEdgeTail();
+		double[]       cost   = _profile.getEdgeCosts();
+		Workspace      ws     = _workspace.get();
+		double[]       dist   = ws.__dist;
+		int[]          prev   = ws.__prev;
+		int[]          stamp  = ws.__stamp;
+		int[]          banned = ws.__banned;
+		IndexedMinHeap heap   = ws.__heap;
+		int            gen    = ws.next();
+		long           salt   = draw < 0 ? 0L : mix(_seed ^ mix(((long)dep << 32) ^ arr) ^ mix(draw + 1L));
+		if( ban != null ) {
+			for(int e:ban) { banned[e] = gen; }
+		}
+		heap.clear();
+		dist[dep]  = 0d;
+		prev[dep]  = -1;
+		stamp[dep] = gen;
+		heap.push(dep,0d);
+		while( !heap.isEmpty() ) {
+			int    u  = heap.poll();
+			double du = dist[u];
+			if( u == arr ) { break; }
+			for(int e=start[u];e<start[u+1];e++) {
+				if( banned[e] == gen ) { continue; }
+				double c = cost[e];
+				if( c == Double.POSITIVE_INFINITY ) { continue; }
+				if( draw >= 0 ) { c *= factor(salt,e); }
+				int    v  = head[e];
+				double dv = du + c;
+				if( stamp[v] != gen || dv < dist[v] ) {
+					stamp[v] = gen;
+					dist[v]  = dv;
+					prev[v]  = e;
+					heap.push(v,dv);
+				}
+			}
+		}
+		if( stamp[arr] != gen ) { return null; }
+		// trace back edges ///////////////////////////////
+		int n = 0;
+		for(int v=arr;v!=dep;v=tail[prev[v]]) { n++; }
+		int[] edges = new int[n];
+		for(int v=arr;v!=dep;v=tail[prev[v]]) { edges[--n] = prev[v]; }
+		return edges;
+	}
+
+	/**
+	 * get log-normal cost factor with mean 1
+	 * @param salt hash of seed, OD pair and draw
+	 * @param e edge index
+	 * @return factor
+	 */
+	private double factor(long salt,int e) {
+		long   h1 = mix(salt + e);
+		long   h2 = mix(h1);
+		double u1 = ((h1 >>> 11) + 1L) * 0x1.0p-53;	// (0,1]
+		double u2 = (h2 >>> 11) * 0x1.0p-53;
+		double z  = Math.sqrt(-2d * Math.log(u1)) * Math.cos(2d * Math.PI * u2);
+		return Math.exp(_sigma * z - _sigma * _sigma / 2d);
+	}
+
+	/**
+	 * keep unique routes up to the maximum in cost order
+	 * @param routes found routes. the first one is the shortest path
+	 * @return selected routes sorted by cost
+	 */
+	private int[][] select(List<int[]> routes) {
+		final double[] cost   = _profile.getEdgeCosts();
+		List<int[]>    sorted = new ArrayList<int[]>(routes);
+		Collections.sort(sorted,new Comparator<int[]>() {
+			public int compare(int[] a,int[] b) {
+				return Double.compare(sum(a),sum(b));
+			}
+			private double sum(int[] edges) {
+				double total = 0d;
+				for(int e:edges) { total += cost[e]; }
+				return total;
+			}
+		});
+		return sorted.subList(0,Math.min(_maxRoutes,sorted.size())).toArray(new int[0][]);
+	}
+
+	/**
+	 * add route if not found yet
+	 * @param routes found routes
+	 * @param route route
+	 * @return true if added
+	 */
+	private static boolean addUnique(List<int[]> routes,int[] route) {
+		if( route == null ) { return false; }
+		for(int[] r:routes) {
+			if( Arrays.equals(r,route) ) { return false; }
+		}
+		routes.add(route);
+		return true;
+	}
+
+	/**
+	 * flatten removed edges and route
+	 * @param removed removed edges
+	 * @param route route
+	 * @return [n, removed..., route...]
+	 */
+	private static int[] pack(int[] removed,int[] route) {
+		int[] node = new int[1 + removed.length + route.length];
+		node[0] = removed.length;
+		System.arraycopy(removed,0,node,1,removed.length);
+		System.arraycopy(route,0,node,1+removed.length,route.length);
+		return node;
+	}
+
+	/**
+	 * 64bit hash mixer(splitmix64)
+	 * @param z value
+	 * @return hash
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** per-thread working arrays. entries are valid only when stamped with the current generation */
+	private static class Workspace {
+		/** cost from origin		*/	private double[]       __dist;
+		/** last edge				*/	private int[]          __prev;
+		/** generation stamp		*/	private int[]          __stamp;
+		/** removed edge stamp		*/	private int[]          __banned;
+		/** priority queue			*/	private IndexedMinHeap __heap;
+		/** current generation		*/	private int            __gen;
+		/**
+		 * initialization
+		 * @param N the number of nodes
+		 * @param E the number of edges
+		 */
+		private Workspace(int N,int E) {
+			__dist   = new double[N];
+			__prev   = new int[N];
+			__stamp  = new int[N];
+			__banned = new int[E];
+			__heap   = new IndexedMinHeap(N);
+			__gen    = 0;
+		}
+		/**
+		 * start new generation. stamps are reset when the counter wraps around
+		 * @return generation
+		 */
+		private int next() {
+			if( ++__gen == Integer.MAX_VALUE ) {
+				Arrays.fill(__stamp,0);
+				Arrays.fill(__banned,0);
+				__gen = 1;
+			}
+			return __gen;
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+
+/**
+ * Shortest path search with Dijkstra over {@link CompactGraph}. <br />
+ * link costs are read from the named {@link CostProfile} of the graph, so the inner loop touches only
+ * primitive arrays and does not call {@link LinkCost}. working arrays are kept per thread and reused
+ * across queries. the same instance can be shared between threads. <br />
+ * each query takes the profile published at its start and keeps it until the end, so costs updated by
+ * {@link jp.ac.ut.csis.pflow.routing2.res.CostUpdate} never mix into a running search. returned routes
+ * record the profile version by {@link Route#getCostVersion()}.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class CompiledDijkstra extends ARoutingLogic {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph		*/	private CompactGraph             _graph;
+	/** profile name		*/	private String                   _profile;
+	/** working arrays		*/	private ThreadLocal<Workspace>   _workspace;
+	/** view of profile		*/	private volatile ProfileLinkCost _linkcost;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization
+	 * @param graph compact graph
+	 * @param profile cost profile name
+	 * @param minDist minimum search distance
+	 */
+	public CompiledDijkstra(CompactGraph graph,String profile,double minDist) {
+		super(1,minDist,null);
+		_graph     = graph;
+		_profile   = profile;
+		_workspace = new ThreadLocal<Workspace>() {
+			@Override
+			protected Workspace initialValue() {
+				return new Workspace(_graph.numNodes());
+			}
+		};
+	}
+
+	/**
+	 * initialization
+	 * @param graph compact graph
+	 * @param profile cost profile name
+	 */
+	public CompiledDijkstra(CompactGraph graph,String profile) {
+		this(graph,profile,MIN_DIST);
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.IRoutingLogic#getName() */
+	@Override
+	public String getName() {
+		return "CompiledDijkstra";
+	}
+
+	/**
+	 * get compact graph
+	 * @return graph
+	 */
+	public CompactGraph getGraph() {
+		return _graph;
+	}
+
+	/**
+	 * get name of cost profile
+	 * @return profile name
+	 */
+	public String getProfileName() {
+		return _profile;
+	}
+
+	/**
+	 * set name of cost profile
+	 * @param profile profile name
+	 */
+	public void setProfileName(String profile) {
+		_profile = profile;
+	}
+
+	/**
+	 * get cost profile used for route search
+	 * @return cost profile
+	 */
+	public CostProfile getProfile() {
+		CostProfile profile = _graph.getProfile(_profile);
+		if( profile == null ) { throw new IllegalArgumentException("unavailable profile: " + _profile); }
+		return profile;
+	}
+
+	/**
+	 * get link cost operator of the current profile. the instance is renewed when a new version is published
+	 * @return link cost
+	 */
+	@Override
+	public LinkCost getLinkCost() {
+		CostProfile     profile  = getProfile();
+		ProfileLinkCost linkcost = _linkcost;
+		if( linkcost == null || linkcost.getProfile() != profile ) { _linkcost = linkcost = new ProfileLinkCost(profile); }
+		return linkcost;
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.IRoutingLogic#getRoutes(jp.ac.ut.csis.pflow.routing2.res.Network, jp.ac.ut.csis.pflow.routing2.res.Node, jp.ac.ut.csis.pflow.routing2.res.Node, int) */
+	@Override
+	public List<Route> getRoutes(Network network,Node depnode,Node arrnode,int N) {
+		// error handle ///////////////////////////////////
+		if( network != _graph.getNetwork() ) { throw new IllegalArgumentException("network is not the source of compact graph"); }
+		int dep = _graph.indexOf(depnode);
+		int arr = _graph.indexOf(arrnode);
+		if( dep < 0 || arr < 0 ) { return new ArrayList<Route>(); }
+
+		// search /////////////////////////////////////////
+		CostProfile profile = getProfile();	// pin the version for this query
+		Workspace   ws      = _workspace.get();
+		Monitor     monitor = monitor();
+		search(profile,dep,arr,Double.POSITIVE_INFINITY,ws,monitor);
+		if( monitor.isExceeded() || !ws.isReached(arr) ) { return new ArrayList<Route>(); }
+
+		// extract route //////////////////////////////////
+		List<Route> routes = new ArrayList<Route>(1);
+		routes.add(ws.getRoute(_graph,arr,profile.getVersion()));
+		return routes;
+	}
+
+	/**
+	 * calculate minimum costs from the node to all nodes within the indicated cost
+	 * @param depnode origin node
+	 * @param maxCost cost constrain. positive infinity for no constrain
+	 * @return costs indexed by node index of the graph. positive infinity if not reached
+	 */
+	public double[] getCosts(Node depnode,double maxCost) {
+		double[] costs = new double[_graph.numNodes()];
+		Arrays.fill(costs,Double.POSITIVE_INFINITY);
+		int dep = _graph.indexOf(depnode);
+		if( dep < 0 ) { return costs; }
+
+		Workspace ws = _workspace.get();
+		search(getProfile(),dep,-1,maxCost,ws,monitor());
+		for(int i=0;i<costs.length;i++) {
+			if( ws.isReached(i) ) { costs[i] = ws.__dist[i]; }
+		}
+		return costs;
+	}
+
+	/**
+	 * run Dijkstra on primitive arrays. results are left in the workspace
+	 * @param profile cost profile
+	 * @param dep origin node index
+	 * @param arr destination node index. -1 to search all nodes
+	 * @param maxCost cost constrain
+	 * @param ws workspace
+	 * @param monitor budget monitor
+	 */
+	protected void search(CostProfile profile,int dep,int arr,double maxCost,Workspace ws,Monitor monitor) {
+		search(profile,dep,arr,maxCost,ws,monitor,null,0,0);
+	}
+
+	/**
+	 * run Dijkstra on primitive arrays relaxing only flagged edges. results are left in the workspace
+	 * @param profile cost profile
+	 * @param dep origin node index
+	 * @param arr destination node index. -1 to search all nodes
+	 * @param maxCost cost constrain
+	 * @param ws workspace
+	 * @param monitor budget monitor
+	 * @param flags bitsets of edges({@code words} longs per edge). null to relax all edges
+	 * @param words the number of longs per edge
+	 * @param flag bit position to check
+	 */
+	protected void search(CostProfile profile,int dep,int arr,double maxCost,Workspace ws,Monitor monitor,long[] flags,int words,int flag) {
+		// local references for the inner loop ////////////
+		int[]          start = _graph.getOutStart();
+		int[]          head  = _graph.getEdgeHead();
+		double[]       cost  = profile.getEdgeCosts();
+		double[]       dist  = ws.__dist;
+		int[]          prev  = ws.__prev;
+		int[]          stamp = ws.__stamp;
+		boolean[]      fixed = ws.__fixed;
+		IndexedMinHeap heap  = ws.__heap;
+		int            gen   = ws.next();
+		int            word  = flag >>> 6;
+		long           bit   = 1L << (flag & 63);
+
+		heap.clear();
+		dist[dep]  = 0d;
+		prev[dep]  = -1;
+		stamp[dep] = gen;
+		fixed[dep] = false;
+		heap.push(dep,0d);
+		while( !heap.isEmpty() ) {
+			int    u  = heap.poll();
+			double du = dist[u];
+			if( du > maxCost ) { break; }	// beyond constrain
+			if( !monitor.settle(du) ) { break; }	// budget exceeded
+			fixed[u] = true;
+			if( u == arr ) { break; }
+			// relax out-flow edges =======================
+			for(int e=start[u],end=start[u+1];e<end;e++) {
+				if( flags != null && (flags[e*words+word] & bit) == 0L ) { continue; }	// not flagged
+				int    v  = head[e];
+				double dv = du + cost[e];
+				if( dv == Double.POSITIVE_INFINITY ) { continue; }	// excluded edge
+				if( stamp[v] != gen ) {
+					stamp[v] = gen;
+					fixed[v] = false;
+					dist[v]  = dv;
+					prev[v]  = u;
+					heap.push(v,dv);
+				}
+				else if( !fixed[v] && dv < dist[v] ) {
+					dist[v] = dv;
+					prev[v] = u;
+					heap.push(v,dv);
+				}
+			}
+		}
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** per-thread working arrays. entries are valid only when stamped with the current generation */
+	protected static class Workspace {
+		/** cost from origin		*/	private double[]       __dist;
+		/** previous node			*/	private int[]          __prev;
+		/** generation stamp		*/	private int[]          __stamp;
+		/** fixed flag				*/	private boolean[]      __fixed;
+		/** priority queue			*/	private IndexedMinHeap __heap;
+		/** current generation		*/	private int            __gen;
+		/**
+		 * initialization
+		 * @param N the number of nodes
+		 */
+		protected Workspace(int N) {
+			__dist  = new double[N];
+			__prev  = new int[N];
+			__stamp = new int[N];
+			__fixed = new boolean[N];
+			__heap  = new IndexedMinHeap(N);
+			__gen   = 0;
+		}
+		/**
+		 * start new generation. stamps are reset when the counter wraps around
+		 * @return generation
+		 */
+		private int next() {
+			if( ++__gen == Integer.MAX_VALUE ) {
+				Arrays.fill(__stamp,0);
+				__gen = 1;
+			}
+			return __gen;
+		}
+		/**
+		 * check if the node is fixed in the last search
+		 * @param idx node index
+		 * @return result
+		 */
+		protected boolean isReached(int idx) {
+			return __stamp[idx] == __gen && __fixed[idx];
+		}
+		/**
+		 * get cost to the node in the last search
+		 * @param idx node index
+		 * @return cost
+		 */
+		protected double getCost(int idx) {
+			return __dist[idx];
+		}
+		/**
+		 * get route to the node in the last search
+		 * @param graph compact graph
+		 * @param idx node index
+		 * @param version version of cost profile
+		 * @return route
+		 */
+		protected Route getRoute(CompactGraph graph,int idx,long version) {
+			List<Node> nodes = new ArrayList<Node>();
+			for(int v=idx;v>=0;v=__prev[v]) { nodes.add(graph.getNode(v)); }
+			Collections.reverse(nodes);
+			return new Route(nodes,__dist[idx],version);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+
+/**
+ * Utility class for standard cost profiles of {@link CompactGraph}
+ * 
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public final class CostProfileUtils {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** profile of link cost as it is(distance)	*/	public static final String DISTANCE = "distance";
+	/** profile of car travel time				*/	public static final String CAR      = "car";
+	/** profile of walking time					*/	public static final String WALK     = "walk";
+	
+	
+	/* ==============================================================
+	 * static methods
+	 * ============================================================== */
+	/**
+	 * compile standard profiles: {@link #DISTANCE} by {@link LinkCost}, {@link #CAR} by {@link OsmLinkCost}, 
+	 * and {@link #WALK} by {@link WalkingLinkCost}
+	 * @param graph compact graph
+	 * @return the graph
+	 */
+	public static CompactGraph compileDefaults(CompactGraph graph) { 
+		new LinkCost().compile(graph,DISTANCE);
+		new OsmLinkCost().compile(graph,CAR);
+		new WalkingLinkCost().compile(graph,WALK);
+		return graph;
+	}
+	
+	/**
+	 * compile profile weighted by road class
+	 * @param graph compact graph
+	 * @param name profile name
+	 * @param base base link cost operator
+	 * @param factors factors indexed by road class(0-127). positive infinity excludes the class
+	 * @return the graph
+	 */
+	public static CompactGraph compileRoadClass(CompactGraph graph,String name,LinkCost base,double[] factors) { 
+		RoadClassLinkCost linkcost = new RoadClassLinkCost(base);
+		for(int i=0;i<factors.length;i++) { linkcost.setFactor(i,factors[i]); }
+		linkcost.compile(graph,name);
+		return graph;
+	}
+}
@@ -0,0 +1,336 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+
+/**
+ * Parallel single source shortest path search with delta-stepping over {@link CompactGraph}. <br />
+ * nodes are kept in buckets of width delta by their tentative costs. the smallest bucket is settled by
+ * relaxing light edges(cost &lt;= delta) repeatedly, then heavy edges once, and the edges of each phase are
+ * relaxed by threads with lock-free atomic minimum on the cost bits. costs are the unique solution of the
+ * same recurrence as Dijkstra, so they are identical to {@link CompiledDijkstra} bit by bit. <br />
+ * small frontiers are relaxed in the calling thread. the thread pool is kept by the instance; call
+ * {@link #shutdown()} when finished. an instance runs one query at a time.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class DeltaStepping {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** minimum frontier size for threads	*/	private static final int  PARALLEL_THRESHOLD = 1024;
+	/** bits of positive infinity			*/	private static final long INFINITY           = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** cost profile		*/	private CostProfile     _profile;
+	/** compact graph		*/	private CompactGraph    _graph;
+	/** bucket width		*/	private double          _delta;
+	/** the number of threads*/	private int             _numThreads;
+	/** thread pool			*/	private ExecutorService _pool;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization with mean edge cost as bucket width and default threads
+	 * @param profile cost profile
+	 */
+	public DeltaStepping(CostProfile profile) {
+		this(profile,meanCost(profile),ARoutingLogic.NUM_THREADS);
+	}
+
+	/**
+	 * initialization
+	 * @param profile cost profile
+	 * @param delta bucket width
+	 * @param numThreads the number of threads
+	 */
+	public DeltaStepping(CostProfile profile,double delta,int numThreads) {
+		// error handle ///////////////////////////////////
+		if( !(delta > 0d) || delta == Double.POSITIVE_INFINITY || numThreads <= 0 ) {
+			throw new IllegalArgumentException("unavailable value: " + delta + "," + numThreads);
+		}
+		// initialization /////////////////////////////////
+		_profile    = profile;
+		_graph      = profile.getGraph();
+		_delta      = delta;
+		_numThreads = numThreads;
+		_pool       = numThreads == 1 ? null : Executors.newFixedThreadPool(numThreads,new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r,"delta-stepping");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get bucket width
+	 * @return delta
+	 */
+	public double getDelta() {
+		return _delta;
+	}
+
+	/**
+	 * get cost profile
+	 * @return cost profile
+	 */
+	public CostProfile getProfile() {
+		return _profile;
+	}
+
+	/**
+	 * stop the thread pool
+	 */
+	public void shutdown() {
+		if( _pool != null ) { _pool.shutdownNow(); }
+	}
+
+	/**
+	 * calculate minimum costs from the node to all nodes
+	 * @param depnode origin node
+	 * @return costs indexed by node index. positive infinity if unreachable
+	 */
+	public double[] getCosts(Node depnode) {
+		int dep = _graph.indexOf(depnode);
+		if( dep < 0 ) { throw new IllegalArgumentException("node not in graph: " + (depnode == null ? null : depnode.getNodeID())); }
+		return getCosts(dep);
+	}
+
+	/**
+	 * calculate minimum costs from the node to all nodes
+	 * @param dep origin node index
+	 * @return costs indexed by node index. positive infinity if unreachable
+	 */
+	public synchronized double[] getCosts(int dep) {
+		// initialization /////////////////////////////////
+		int                   N       = _graph.numNodes();
+		AtomicLongArray       dist    = new AtomicLongArray(N);
+		long[]                marker  = new long[N];	// bucket holding the node, -1 if none
+		TreeMap<Long,IntList> buckets = new TreeMap<Long,IntList>();
+		for(int i=0;i<N;i++) { dist.set(i,INFINITY); }
+		Arrays.fill(marker,-1L);
+		dist.set(dep,Double.doubleToLongBits(0d));
+		marker[dep] = 0L;
+		insert(buckets,0L,dep);
+
+		// settle buckets in order ////////////////////////
+		while( !buckets.isEmpty() ) {
+			long    i = buckets.firstKey();
+			IntList B = buckets.remove(i);
+			IntList R = new IntList();
+			IntList S = new IntList();
+			for(int k=0;k<B.__size;k++) {
+				int v = B.__data[k];
+				if( marker[v] == i ) { marker[v] = -1L; R.add(v); }	// skip stale and duplicated entries
+			}
+			// light edges until the bucket is empty ======
+			while( R.__size > 0 ) {
+				S.addAll(R);
+				IntList improved = relax(R,true,dist);
+				R = new IntList();
+				for(int k=0;k<improved.__size;k++) {
+					int  v = improved.__data[k];
+					long b = bucketOf(dist,v);
+					if( marker[v] == b ) { continue; }
+					marker[v] = b;
+					if( b == i ) { R.add(v); }
+					else { insert(buckets,b,v); }
+				}
+				for(int k=0;k<R.__size;k++) { marker[R.__data[k]] = -1L; }
+			}
+			// heavy edges once ===========================
+			IntList improved = relax(S,false,dist);
+			for(int k=0;k<improved.__size;k++) {
+				int  v = improved.__data[k];
+				long b = bucketOf(dist,v);
+				if( marker[v] == b ) { continue; }
+				marker[v] = b;
+				insert(buckets,b,v);
+			}
+		}
+		// output /////////////////////////////////////////
+		double[] costs = new double[N];
+		for(int v=0;v<N;v++) { costs[v] = Double.longBitsToDouble(dist.get(v)); }
+		return costs;
+	}
+
+	/**
+	 * get shortest path tree edges consistent with the costs. the first in-edge achieving the cost is taken
+	 * @param dep origin node index
+	 * @param costs costs from {@link #getCosts(int)}
+	 * @return edge to each node. -1 for the origin and unreachable nodes
+	 */
+	public int[] getParentEdges(int dep,double[] costs) {
+		int[]    tail    = _graph.getEdgeTail();
+		int[]    inStart = _graph.getInStart();
+		int[]    inEdges = _graph.getInEdges();
+		double[] cost    = _profile.getEdgeCosts();
+		int[]    parents = new int[costs.length];
+		Arrays.fill(parents,-1);
+		for(int v=0;v<costs.length;v++) {
+			if( v == dep || costs[v] == Double.POSITIVE_INFINITY ) { continue; }
+			for(int k=inStart[v];k<inStart[v+1];k++) {
+				int e = inEdges[k];
+				if( costs[tail[e]] + cost[e] == costs[v] ) { parents[v] = e; break; }
+			}
+		}
+		return parents;
+	}
+
+	/**
+	 * relax light or heavy edges of the nodes, with threads if the frontier is large
+	 * @param nodes frontier nodes
+	 * @param light true for light edges, false for heavy edges
+	 * @param dist cost bits
+	 * @return improved nodes(may contain duplicates)
+	 */
+	private IntList relax(final IntList nodes,final boolean light,final AtomicLongArray dist) {
+		if( _pool == null || nodes.__size < PARALLEL_THRESHOLD ) { return relax(nodes,0,nodes.__size,light,dist); }
+		// relax chunks with threads //////////////////////
+		int                     T     = _numThreads;
+		List<Callable<IntList>> tasks = new ArrayList<Callable<IntList>>(T);
+		for(int t=0;t<T;t++) {
+			final int from = (int)((long)nodes.__size * t / T);
+			final int to   = (int)((long)nodes.__size * (t+1) / T);
+			tasks.add(new Callable<IntList>() {
+				public IntList call() {
+					return relax(nodes,from,to,light,dist);
+				}
+			});
+		}
+		try {
+			IntList improved = new IntList();
+			for(Future<IntList> future:_pool.invokeAll(tasks)) { improved.addAll(future.get()); }
+			return improved;
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("search interrupted",exp);
+		}
+		catch(ExecutionException exp) {
+			throw new IllegalStateException("fail to relax edges",exp.getCause());
+		}
+	}
+
+	/**
+	 * relax light or heavy edges of nodes[from..to-1]
+	 * @param nodes frontier nodes
+	 * @param from first position
+	 * @param to last position(exclusive)
+	 * @param light true for light edges, false for heavy edges
+	 * @param dist cost bits
+	 * @return improved nodes
+	 */
+	private IntList relax(IntList nodes,int from,int to,boolean light,AtomicLongArray dist) {
+		int[]    start    = _graph.getOutStart();
+		int[]    head     = _graph.getEdgeHead();
+		double[] cost     = _profile.getEdgeCosts();
+		double   delta    = _delta;
+		IntList  improved = new IntList();
+		for(int k=from;k<to;k++) {
+			int    u  = nodes.__data[k];
+			double du = Double.longBitsToDouble(dist.get(u));
+			for(int e=start[u],end=start[u+1];e<end;e++) {
+				if( (cost[e] <= delta) != light ) { continue; }
+				double dv = du + cost[e];
+				if( dv == Double.POSITIVE_INFINITY ) { continue; }
+				// atomic minimum. bits of non-negative doubles are ordered as the values
+				int  v    = head[e];
+				long bits = Double.doubleToLongBits(dv);
+				long cur;
+				while( bits < (cur = dist.get(v)) ) {
+					if( dist.compareAndSet(v,cur,bits) ) { improved.add(v); break; }
+				}
+			}
+		}
+		return improved;
+	}
+
+	/**
+	 * get bucket index of the node
+	 * @param dist cost bits
+	 * @param v node index
+	 * @return bucket index
+	 */
+	private long bucketOf(AtomicLongArray dist,int v) {
+		return (long)(Double.longBitsToDouble(dist.get(v)) / _delta);
+	}
+
+	/**
+	 * add node to the bucket
+	 * @param buckets buckets
+	 * @param b bucket index
+	 * @param v node index
+	 */
+	private static void insert(TreeMap<Long,IntList> buckets,long b,int v) {
+		IntList list = buckets.get(b);
+		if( list == null ) { buckets.put(b,list = new IntList()); }
+		list.add(v);
+	}
+
+	/**
+	 * get mean of finite edge costs
+	 * @param profile cost profile
+	 * @return mean cost. 1 if no edges
+	 */
+	private static double meanCost(CostProfile profile) {
+		double sum   = 0d;
+		int    count = 0;
+		for(double c:profile.getEdgeCosts()) {
+			if( c == Double.POSITIVE_INFINITY ) { continue; }
+			sum += c;
+			count++;
+		}
+		return count == 0 || sum <= 0d ? 1d : sum / count;
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** growable list of primitive int */
+	private static class IntList {
+		/** values			*/	private int[] __data = new int[16];
+		/** the number		*/	private int   __size = 0;
+		/**
+		 * append value
+		 * @param v value
+		 */
+		private void add(int v) {
+			if( __size == __data.length ) { __data = Arrays.copyOf(__data,__size*2); }
+			__data[__size++] = v;
+		}
+		/**
+		 * append all values
+		 * @param list list
+		 */
+		private void addAll(IntList list) {
+			if( __size + list.__size > __data.length ) { __data = Arrays.copyOf(__data,Math.max(__data.length*2,__size+list.__size)); }
+			System.arraycopy(list.__data,0,__data,__size,list.__size);
+			__size += list.__size;
+		}
+	}
+}
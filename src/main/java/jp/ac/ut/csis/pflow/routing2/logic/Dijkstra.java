@@ -67,12 +67,14 @@ public class Dijkstra extends ARoutingLogic {
 			}
 		});
 		
-		Knot           knot  = new Knot(depnode);
-		Map<Node,Knot> knots = new HashMap<Node,Knot>();
+		Monitor        monitor = monitor();
+		Knot           knot    = new Knot(depnode);
+		Map<Node,Knot> knots   = new HashMap<Node,Knot>();
 		knots.put(depnode,knot);
 		queue.add(knot);
 		while( !queue.isEmpty() ) { 
 			knot = queue.poll();
+			if( !monitor.settle(knot.getCost()) ) { break; }	// budget exceeded
 			knot.fix(true);
 			if( knot.getNode().equals(arrnode) ) { break; }
 			// check connecting links =====================
@@ -90,7 +92,7 @@ public class Dijkstra extends ARoutingLogic {
 			}
 		}
 		// extract routes(not null) ///////////////////////
-		return !knot.getNode().equals(arrnode) ? new ArrayList<Route>() : Arrays.asList(knot.getRoute());
+		return monitor.isExceeded() || !knot.getNode().equals(arrnode) ? new ArrayList<Route>() : Arrays.asList(knot.getRoute());
 	}
 		
 	/**
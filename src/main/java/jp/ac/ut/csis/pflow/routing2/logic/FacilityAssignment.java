@@ -0,0 +1,153 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.Arrays;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+
+/**
+ * Class for result of {@link MultiSourceDijkstra}: the facility assigned to every node of
+ * {@link CompactGraph}(network Voronoi partition), the cost to it and the last edge of the path.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class FacilityAssignment {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph				*/	private CompactGraph _graph;
+	/** facility nodes				*/	private int[]        _facilities;
+	/** assigned facility of node	*/	private int[]        _assigned;
+	/** cost to facility			*/	private double[]     _costs;
+	/** last edge of path			*/	private int[]        _parents;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create result
+	 * @param graph compact graph
+	 * @param facilities facility node indexes
+	 * @param assigned facility index(position in facilities) of each node. -1 if not assigned
+	 * @param costs cost from the assigned facility
+	 * @param parents last edge of the path from the assigned facility
+	 */
+	protected FacilityAssignment(CompactGraph graph,int[] facilities,int[] assigned,double[] costs,int[] parents) {
+		_graph      = graph;
+		_facilities = facilities;
+		_assigned   = assigned;
+		_costs      = costs;
+		_parents    = parents;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get compact graph
+	 * @return graph
+	 */
+	public CompactGraph getGraph() {
+		return _graph;
+	}
+
+	/**
+	 * get the number of facilities
+	 * @return the number of facilities
+	 */
+	public int numFacilities() {
+		return _facilities.length;
+	}
+
+	/**
+	 * get node of the facility
+	 * @param fac facility index
+	 * @return facility node
+	 */
+	public Node getFacilityNode(int fac) {
+		return _graph.getNode(_facilities[fac]);
+	}
+
+	/**
+	 * get facility assigned to the node
+	 * @param idx node index
+	 * @return facility index. -1 if unreachable or not assigned
+	 */
+	public int getFacility(int idx) {
+		return _assigned[idx];
+	}
+
+	/**
+	 * get facility assigned to the node
+	 * @param node node
+	 * @return facility index. -1 if unreachable, not assigned or not in graph
+	 */
+	public int getFacility(Node node) {
+		int idx = _graph.indexOf(node);
+		return idx < 0 ? -1 : _assigned[idx];
+	}
+
+	/**
+	 * get cost from the assigned facility
+	 * @param idx node index
+	 * @return cost including facility offset. positive infinity if not assigned
+	 */
+	public double getCost(int idx) {
+		return _costs[idx];
+	}
+
+	/**
+	 * get last edge of the path from the assigned facility
+	 * @param idx node index
+	 * @return edge index. -1 for facility nodes and unassigned nodes
+	 */
+	public int getParentEdge(int idx) {
+		return _parents[idx];
+	}
+
+	/**
+	 * get facilities of all nodes
+	 * @return facility indexes(not copied)
+	 */
+	public int[] getFacilities() {
+		return _assigned;
+	}
+
+	/**
+	 * get costs of all nodes
+	 * @return costs(not copied)
+	 */
+	public double[] getCosts() {
+		return _costs;
+	}
+
+	/**
+	 * get nodes assigned to the facility
+	 * @param fac facility index
+	 * @return node indexes in ascending order
+	 */
+	public int[] getCatchment(int fac) {
+		int[] nodes = new int[16];
+		int   size  = 0;
+		for(int i=0;i<_assigned.length;i++) {
+			if( _assigned[i] != fac ) { continue; }
+			if( size == nodes.length ) { nodes = Arrays.copyOf(nodes,size*2); }
+			nodes[size++] = i;
+		}
+		return Arrays.copyOf(nodes,size);
+	}
+
+	/**
+	 * count nodes assigned to each facility
+	 * @return the number of nodes by facility index
+	 */
+	public int[] countNodes() {
+		int[] counts = new int[_facilities.length];
+		for(int fac:_assigned) {
+			if( fac >= 0 ) { counts[fac]++; }
+		}
+		return counts;
+	}
+}
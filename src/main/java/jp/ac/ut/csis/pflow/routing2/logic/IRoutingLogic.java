@@ -32,6 +32,18 @@ public interface IRoutingLogic {
 	 */
 	public List<Route> getRoutes(Network network,Node depnode,Node arrnode,int n);
 	
+	/**
+	 * execute route search within the budget. the search stops when the budget is exceeded, and 
+	 * routes found so far are returned with the status and statistics
+	 * @param network network data for search
+	 * @param depnode departure node
+	 * @param arrnode arrival node
+	 * @param n the number of routes to explore
+	 * @param budget work limits of this query
+	 * @return search result
+	 */
+	public SearchResult searchRoutes(Network network,Node depnode,Node arrnode,int n,SearchBudget budget);
+	
 	/**
 	 * execute route search to get the default number of routes
 	 * @param network network data for search
@@ -0,0 +1,186 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.Arrays;
+
+/**
+ * Class for binary min-heap of integer items 0..N-1 with decrease-key. <br />
+ * keys are held in primitive arrays, so push/poll never allocate. an instance is not thread-safe.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class IndexedMinHeap {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** heap of items		*/	private int[]    _heap;
+	/** position in heap	*/	private int[]    _pos;
+	/** key of item			*/	private double[] _keys;
+	/** the number of items	*/	private int      _size;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create heap for items 0..capacity-1
+	 * @param capacity the number of items
+	 */
+	public IndexedMinHeap(int capacity) {
+		_heap = new int[capacity];
+		_pos  = new int[capacity];
+		_keys = new double[capacity];
+		_size = 0;
+		Arrays.fill(_pos,-1);
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get capacity
+	 * @return the number of items
+	 */
+	public int capacity() {
+		return _pos.length;
+	}
+
+	/**
+	 * get the number of items in the heap
+	 * @return the number of items
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * check if the heap is empty
+	 * @return result
+	 */
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	/**
+	 * check if the item is in the heap
+	 * @param item item
+	 * @return result
+	 */
+	public boolean contains(int item) {
+		return _pos[item] >= 0;
+	}
+
+	/**
+	 * get key of the item in the heap
+	 * @param item item
+	 * @return key
+	 */
+	public double getKey(int item) {
+		return _keys[item];
+	}
+
+	/**
+	 * insert item, or decrease its key if already in the heap. a larger key is ignored
+	 * @param item item
+	 * @param key key
+	 * @return true if inserted or updated
+	 */
+	public boolean push(int item,double key) {
+		int p = _pos[item];
+		if( p < 0 ) {
+			_keys[item] = key;
+			_pos[item]  = _size;
+			_heap[_size++] = item;
+			siftUp(_size-1);
+			return true;
+		}
+		if( key < _keys[item] ) {
+			_keys[item] = key;
+			siftUp(p);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * get the item of minimum key without removal
+	 * @return item. -1 if empty
+	 */
+	public int peek() {
+		return _size == 0 ? -1 : _heap[0];
+	}
+
+	/**
+	 * get minimum key
+	 * @return minimum key. positive infinity if empty
+	 */
+	public double peekKey() {
+		return _size == 0 ? Double.POSITIVE_INFINITY : _keys[_heap[0]];
+	}
+
+	/**
+	 * remove the item of minimum key
+	 * @return item. -1 if empty
+	 */
+	public int poll() {
+		if( _size == 0 ) { return -1; }
+		int top = _heap[0];
+		_pos[top] = -1;
+		if( --_size > 0 ) {
+			int last = _heap[_size];
+			_heap[0]   = last;
+			_pos[last] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	/**
+	 * remove all items. cost is proportional to the current size
+	 */
+	public void clear() {
+		for(int i=0;i<_size;i++) { _pos[_heap[i]] = -1; }
+		_size = 0;
+	}
+
+	/**
+	 * move the entry toward the root
+	 * @param p heap position
+	 */
+	private void siftUp(int p) {
+		int    item = _heap[p];
+		double key  = _keys[item];
+		while( p > 0 ) {
+			int parent = (p - 1) >>> 1;
+			int pitem  = _heap[parent];
+			if( _keys[pitem] <= key ) { break; }
+			_heap[p]    = pitem;
+			_pos[pitem] = p;
+			p = parent;
+		}
+		_heap[p]   = item;
+		_pos[item] = p;
+	}
+
+	/**
+	 * move the entry toward leaves
+	 * @param p heap position
+	 */
+	private void siftDown(int p) {
+		int    item = _heap[p];
+		double key  = _keys[item];
+		int    half = _size >>> 1;
+		while( p < half ) {
+			int child = 2 * p + 1;
+			int right = child + 1;
+			if( right < _size && _keys[_heap[right]] < _keys[_heap[child]] ) { child = right; }
+			int citem = _heap[child];
+			if( key <= _keys[citem] ) { break; }
+			_heap[p]    = citem;
+			_pos[citem] = p;
+			p = child;
+		}
+		_heap[p]   = item;
+		_pos[item] = p;
+	}
+}
@@ -1,5 +1,7 @@
 package jp.ac.ut.csis.pflow.routing2.logic;
 
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
 import jp.ac.ut.csis.pflow.routing2.res.Link;
 
 /**
@@ -28,6 +30,32 @@ public class LinkCost {
 	public double getReverseCost(Link link) { 
 		return link.getReverseCost();
 	}
+	
+	/**
+	 * get version of link costs. implementations whose costs change over time must increase the value 
+	 * on every change, so that results computed with older costs can be discarded
+	 * @return version
+	 */
+	public long getVersion() { 
+		return 0L;
+	}
+	
+	/**
+	 * compile link costs of all links in the graph into primitive arrays, and register them as the named profile. 
+	 * route search with the profile reads the arrays without calling this operator
+	 * @param graph compact graph
+	 * @param name profile name
+	 * @return registered profile
+	 */
+	public CostProfile compile(CompactGraph graph,String name) { 
+		int      M        = graph.numLinks();
+		double[] costs    = new double[M];
+		double[] revCosts = new double[M];
+		for(int i=0;i<M;i++) {
+			Link link = graph.getLink(i);
+			costs[i]    = getCost(link);
+			revCosts[i] = getReverseCost(link);
+		}
+		return graph.addProfile(name,costs,revCosts);
+	}
 }
-
-
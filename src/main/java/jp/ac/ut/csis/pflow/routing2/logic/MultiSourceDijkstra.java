@@ -0,0 +1,448 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+
+/**
+ * Multi-source Dijkstra for nearest facility assignment(network Voronoi). <br />
+ * all facilities are seeded into one priority queue with their cost offsets, so one pass over
+ * {@link CompactGraph} gives every node its nearest facility, the cost and the last edge of the path.
+ * ties of cost are resolved to the smaller facility index. <br />
+ * options:
+ * <ul>
+ * <li>capacity: facilities accept nodes in cost order until their capacity is used up, and the rest go to
+ * the next nearest facility with capacity. each facility is expanded separately in this mode</li>
+ * <li>parallel: facilities are split into groups searched by threads sharing the best cost of each node,
+ * so a group stops where another group is already cheaper. results are merged by minimum</li>
+ * </ul>
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class MultiSourceDijkstra {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** cost profile	*/	private CostProfile  _profile;
+	/** compact graph	*/	private CompactGraph _graph;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization
+	 * @param profile cost profile
+	 */
+	public MultiSourceDijkstra(CostProfile profile) {
+		_profile = profile;
+		_graph   = profile.getGraph();
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * assign every node to the nearest facility
+	 * @param facilities facility nodes
+	 * @return assignment result
+	 */
+	public FacilityAssignment assign(List<Node> facilities) {
+		int[] idx = new int[facilities.size()];
+		for(int i=0;i<idx.length;i++) {
+			idx[i] = _graph.indexOf(facilities.get(i));
+			if( idx[i] < 0 ) { throw new IllegalArgumentException("node not in graph: " + facilities.get(i)); }
+		}
+		return assign(idx,null);
+	}
+
+	/**
+	 * assign every node to the nearest facility
+	 * @param facilities facility node indexes
+	 * @param offsets initial cost of each facility(e.g. waiting time). null for zero
+	 * @return assignment result
+	 */
+	public FacilityAssignment assign(int[] facilities,double[] offsets) {
+		validate(facilities,offsets);
+		int      N       = _graph.numNodes();
+		int[]    fac     = new int[N];
+		double[] dist    = new double[N];
+		int[]    parents = new int[N];
+		search(facilities,offsets,0,facilities.length,null,fac,dist,parents);
+		return new FacilityAssignment(_graph,facilities,fac,dist,parents);
+	}
+
+	/**
+	 * assign nodes to the nearest facility with capacity. nodes are assigned in cost order, and a facility
+	 * whose capacity is used up stops accepting nodes. nodes beyond all capacities are left unassigned. <br />
+	 * parent edge of a node is the last edge of the path from its own facility, but the node at its tail
+	 * may belong to another facility.
+	 * @param facilities facility node indexes
+	 * @param offsets initial cost of each facility. null for zero
+	 * @param capacities capacity of each facility
+	 * @param demands demand of each node. null for one
+	 * @return assignment result
+	 */
+	public FacilityAssignment assign(int[] facilities,double[] offsets,double[] capacities,double[] demands) {
+		// error handle ///////////////////////////////////
+		validate(facilities,offsets);
+		int N = _graph.numNodes();
+		int F = facilities.length;
+		if( capacities.length != F ) { throw new IllegalArgumentException("length mismatch: " + F + " and " + capacities.length); }
+		if( demands != null && demands.length != N ) { throw new IllegalArgumentException("length mismatch: " + N + " and " + demands.length); }
+
+		// initialization /////////////////////////////////
+		int[]            start   = _graph.getOutStart();
+		int[]            head    = _graph.getEdgeHead();
+		double[]         cost    = _profile.getEdgeCosts();
+		int[]            fac     = new int[N];
+		double[]         dist    = new double[N];
+		int[]            parents = new int[N];
+		double[]         remain  = capacities.clone();
+		Map<Long,Double> best    = new HashMap<Long,Double>();	// best cost of (node,facility)
+		LabelHeap        heap    = new LabelHeap();
+		Arrays.fill(fac,-1);
+		Arrays.fill(dist,Double.POSITIVE_INFINITY);
+		Arrays.fill(parents,-1);
+		for(int f=0;f<F;f++) {
+			double d = offsets == null ? 0d : offsets[f];
+			best.put((long)facilities[f]*F+f,d);
+			heap.push(d,facilities[f],f,-1);
+		}
+		// expand labels of each facility in cost order ///
+		while( !heap.isEmpty() ) {
+			double d = heap.__key;
+			int    u = heap.__node;
+			int    f = heap.__fac;
+			int    p = heap.__edge;
+			heap.pop();
+			if( remain[f] <= 0d || best.get((long)u*F+f) < d ) { continue; }	// facility full, or stale label
+			double demand = demands == null ? 1d : demands[u];
+			if( fac[u] < 0 && demand <= remain[f] ) {
+				fac[u]     = f;
+				dist[u]    = d;
+				parents[u] = p;
+				remain[f] -= demand;
+				if( remain[f] <= 0d ) { continue; }
+			}
+			for(int e=start[u];e<start[u+1];e++) {
+				int    v  = head[e];
+				double dv = d + cost[e];
+				if( dv == Double.POSITIVE_INFINITY ) { continue; }
+				long   key = (long)v*F+f;
+				Double old = best.get(key);
+				if( old != null && old <= dv ) { continue; }
+				best.put(key,dv);
+				heap.push(dv,v,f,e);
+			}
+		}
+		return new FacilityAssignment(_graph,facilities,fac,dist,parents);
+	}
+
+	/**
+	 * assign every node to the nearest facility with the default number of threads
+	 * @param facilities facility node indexes
+	 * @param offsets initial cost of each facility. null for zero
+	 * @return assignment result, same as {@link #assign(int[], double[])}
+	 */
+	public FacilityAssignment assignParallel(int[] facilities,double[] offsets) {
+		return assignParallel(facilities,offsets,ARoutingLogic.NUM_THREADS);
+	}
+
+	/**
+	 * assign every node to the nearest facility with threads
+	 * @param facilities facility node indexes
+	 * @param offsets initial cost of each facility. null for zero
+	 * @param numThreads the number of threads
+	 * @return assignment result, same as {@link #assign(int[], double[])}
+	 */
+	public FacilityAssignment assignParallel(final int[] facilities,final double[] offsets,int numThreads) {
+		// error handle ///////////////////////////////////
+		validate(facilities,offsets);
+		int F = facilities.length;
+		int G = Math.max(1,Math.min(numThreads,F));
+		if( G == 1 ) { return assign(facilities,offsets); }
+
+		// group facilities into longitude strips /////////
+		final int      N     = _graph.numNodes();
+		final int[]    order = sortByLongitude(facilities);
+		final int[]    sub   = new int[F];
+		final double[] off   = new double[F];
+		for(int g=0;g<G;g++) {	// keep original order in each group for tie-break
+			Arrays.sort(order,(int)((long)F * g / G),(int)((long)F * (g+1) / G));
+		}
+		for(int i=0;i<F;i++) {
+			sub[i] = facilities[order[i]];
+			off[i] = offsets == null ? 0d : offsets[order[i]];
+		}
+		final AtomicLongArray shared = new AtomicLongArray(N);	// best cost bits of each node
+		for(int i=0;i<N;i++) { shared.set(i,Double.doubleToLongBits(Double.POSITIVE_INFINITY)); }
+
+		// search groups //////////////////////////////////
+		final int[][]    facs    = new int[G][N];
+		final double[][] dists   = new double[G][N];
+		final int[][]    parents = new int[G][N];
+		ExecutorService  pool    = Executors.newFixedThreadPool(G);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(G);
+			for(int g=0;g<G;g++) {
+				final int gid  = g;
+				final int from = (int)((long)F * g / G);
+				final int to   = (int)((long)F * (g+1) / G);
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						search(sub,off,from,to,shared,facs[gid],dists[gid],parents[gid]);
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> future:futures) { future.get(); }
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("search interrupted",exp);
+		}
+		catch(ExecutionException exp) {
+			throw new IllegalStateException("fail to search facilities",exp.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		// merge by minimum cost, then facility index /////
+		int[]    fac    = facs[0];
+		double[] dist   = dists[0];
+		int[]    parent = parents[0];
+		for(int i=0;i<N;i++) {
+			int f = fac[i] < 0 ? -1 : order[fac[i]];
+			for(int g=1;g<G;g++) {
+				if( facs[g][i] < 0 ) { continue; }
+				int fg = order[facs[g][i]];
+				if( dists[g][i] < dist[i] || (dists[g][i] == dist[i] && (f < 0 || fg < f)) ) {
+					f         = fg;
+					dist[i]   = dists[g][i];
+					parent[i] = parents[g][i];
+				}
+			}
+			fac[i] = f;
+		}
+		return new FacilityAssignment(_graph,facilities,fac,dist,parent);
+	}
+
+	/**
+	 * multi-source Dijkstra from facilities[from..to-1]
+	 * @param facilities facility node indexes
+	 * @param offsets facility offsets. null for zero
+	 * @param from first facility
+	 * @param to last facility(exclusive)
+	 * @param shared best costs shared between threads. null for single thread
+	 * @param fac output facility of each node
+	 * @param dist output cost of each node
+	 * @param parents output last edge of each node
+	 */
+	private void search(int[] facilities,double[] offsets,int from,int to,AtomicLongArray shared,int[] fac,double[] dist,int[] parents) {
+		// local references for the inner loop ////////////
+		int[]          start = _graph.getOutStart();
+		int[]          head  = _graph.getEdgeHead();
+		double[]       cost  = _profile.getEdgeCosts();
+		boolean[]      fixed = new boolean[_graph.numNodes()];
+		IndexedMinHeap heap  = new IndexedMinHeap(_graph.numNodes());
+		Arrays.fill(fac,-1);
+		Arrays.fill(dist,Double.POSITIVE_INFINITY);
+		Arrays.fill(parents,-1);
+
+		// seed facilities ////////////////////////////////
+		for(int f=from;f<to;f++) {
+			int    v = facilities[f];
+			double d = offsets == null ? 0d : offsets[f];
+			if( d < dist[v] || (d == dist[v] && f < fac[v]) ) {
+				dist[v] = d;
+				fac[v]  = f;
+				heap.push(v,d);
+			}
+		}
+		// expand /////////////////////////////////////////
+		while( !heap.isEmpty() ) {
+			int    u  = heap.poll();
+			double du = dist[u];
+			int    fu = fac[u];
+			fixed[u] = true;
+			if( shared != null && !offer(shared,u,du) ) { continue; }	// another group is cheaper
+			for(int e=start[u],end=start[u+1];e<end;e++) {
+				int    v  = head[e];
+				double dv = du + cost[e];
+				if( fixed[v] || dv == Double.POSITIVE_INFINITY ) { continue; }
+				if( dv < dist[v] || (dv == dist[v] && fu < fac[v]) ) {
+					dist[v]    = dv;
+					fac[v]     = fu;
+					parents[v] = e;
+					heap.push(v,dv);
+				}
+			}
+		}
+	}
+
+	/**
+	 * lower shared best cost of the node
+	 * @param shared shared best costs
+	 * @param idx node index
+	 * @param cost cost found
+	 * @return false if the shared cost is strictly smaller
+	 */
+	private boolean offer(AtomicLongArray shared,int idx,double cost) {
+		long bits = Double.doubleToLongBits(cost);	// order of bits equals order of non-negative values
+		while( true ) {
+			long cur = shared.get(idx);
+			if( cur < bits ) { return false; }
+			if( cur == bits || shared.compareAndSet(idx,cur,bits) ) { return true; }
+		}
+	}
+
+	/**
+	 * sort facilities by longitude of their nodes
+	 * @param facilities facility node indexes
+	 * @return order of facility positions
+	 */
+	private int[] sortByLongitude(int[] facilities) {
+		int    F    = facilities.length;
+		long[] keys = new long[F];
+		for(int i=0;i<F;i++) {
+			long lon = (long)((_graph.getNode(facilities[i]).getLon() + 180d) * 1.0e6);	// 1e-6 degree
+			keys[i]  = (lon << 31) | i;
+		}
+		Arrays.sort(keys);
+		int[] order = new int[F];
+		for(int i=0;i<F;i++) { order[i] = (int)(keys[i] & Integer.MAX_VALUE); }
+		return order;
+	}
+
+	/**
+	 * validate facilities and offsets
+	 * @param facilities facility node indexes
+	 * @param offsets offsets
+	 */
+	private void validate(int[] facilities,double[] offsets) {
+		if( offsets != null && offsets.length != facilities.length ) {
+			throw new IllegalArgumentException("length mismatch: " + facilities.length + " and " + offsets.length);
+		}
+		for(int i=0;i<facilities.length;i++) {
+			if( facilities[i] < 0 || facilities[i] >= _graph.numNodes() ) { throw new IllegalArgumentException("unavailable value: " + facilities[i]); }
+			if( offsets != null && !(offsets[i] >= 0d) )                   { throw new IllegalArgumentException("unavailable value: " + offsets[i]); }
+		}
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** binary heap of (cost,node,facility,edge) labels on primitive arrays. the minimum label is exposed in fields */
+	private static class LabelHeap {
+		/** keys			*/	private double[] __keys  = new double[64];
+		/** nodes			*/	private int[]    __nodes = new int[64];
+		/** facilities		*/	private int[]    __facs  = new int[64];
+		/** edges			*/	private int[]    __edges = new int[64];
+		/** the number		*/	private int      __size  = 0;
+		/** minimum key		*/	private double   __key;
+		/** minimum node	*/	private int      __node;
+		/** minimum facility*/	private int      __fac;
+		/** minimum edge	*/	private int      __edge;
+		/**
+		 * check if empty
+		 * @return result
+		 */
+		private boolean isEmpty() {
+			return __size == 0;
+		}
+		/**
+		 * add label
+		 * @param key cost
+		 * @param node node index
+		 * @param fac facility index
+		 * @param edge last edge
+		 */
+		private void push(double key,int node,int fac,int edge) {
+			if( __size == __keys.length ) {
+				__keys  = Arrays.copyOf(__keys, __size*2);
+				__nodes = Arrays.copyOf(__nodes,__size*2);
+				__facs  = Arrays.copyOf(__facs, __size*2);
+				__edges = Arrays.copyOf(__edges,__size*2);
+			}
+			int p = __size++;
+			while( p > 0 ) {
+				int parent = (p - 1) >>> 1;
+				if( __keys[parent] <= key ) { break; }
+				move(parent,p);
+				p = parent;
+			}
+			set(p,key,node,fac,edge);
+			peek();
+		}
+		/**
+		 * remove the minimum label
+		 */
+		private void pop() {
+			int    last = --__size;
+			double key  = __keys[last];
+			int    node = __nodes[last];
+			int    fac  = __facs[last];
+			int    edge = __edges[last];
+			int    p    = 0;
+			while( 2*p+1 < __size ) {
+				int child = 2*p+1;
+				if( child+1 < __size && __keys[child+1] < __keys[child] ) { child++; }
+				if( key <= __keys[child] ) { break; }
+				move(child,p);
+				p = child;
+			}
+			if( __size > 0 ) { set(p,key,node,fac,edge); }
+			peek();
+		}
+		/**
+		 * expose the minimum label
+		 */
+		private void peek() {
+			if( __size == 0 ) { return; }
+			__key  = __keys[0];
+			__node = __nodes[0];
+			__fac  = __facs[0];
+			__edge = __edges[0];
+		}
+		/**
+		 * move entry
+		 * @param from source position
+		 * @param to destination position
+		 */
+		private void move(int from,int to) {
+			__keys[to]  = __keys[from];
+			__nodes[to] = __nodes[from];
+			__facs[to]  = __facs[from];
+			__edges[to] = __edges[from];
+		}
+		/**
+		 * set entry
+		 * @param p position
+		 * @param key cost
+		 * @param node node index
+		 * @param fac facility index
+		 * @param edge last edge
+		 */
+		private void set(int p,double key,int node,int fac,int edge) {
+			__keys[p]  = key;
+			__nodes[p] = node;
+			__facs[p]  = fac;
+			__edges[p] = edge;
+		}
+	}
+}
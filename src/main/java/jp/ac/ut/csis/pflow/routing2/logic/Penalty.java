@@ -120,7 +120,8 @@ public class Penalty extends ARoutingLogic {
 		
 		Map<String,double[]> costs    = new HashMap<String,double[]>();
 		LinkCost             operator = getLinkCost(); 
-		for(int i=0;i<n;i++) {
+		Monitor              monitor  = monitor();
+		for(int i=0;i<n && !monitor.isExceeded();i++) {	// stop when budget exceeded
 			// conduct routing with Dijkstra ==============
 			Route result = getRoute(network,depnode,arrnode,costs);
 			if( result == null ) { continue; }
@@ -161,12 +162,14 @@ public class Penalty extends ARoutingLogic {
 			}
 		});
 		
-		Knot           knot  = new Knot(depnode);
-		Map<Node,Knot> knots = new HashMap<Node,Knot>();
+		Monitor        monitor = monitor();
+		Knot           knot    = new Knot(depnode);
+		Map<Node,Knot> knots   = new HashMap<Node,Knot>();
 		knots.put(depnode,knot);
 		queue.add(knot);
 		while( !queue.isEmpty() ) { 
 			knot = queue.poll();
+			if( !monitor.settle(knot.getCost()) ) { break; }	// budget exceeded
 			knot.fix(true);
 			if( knot.getNode().equals(arrnode) ) { break; }
 			// check connecting links =====================
@@ -189,6 +192,6 @@ public class Penalty extends ARoutingLogic {
 			}
 		}
 		// extract routes(not null) ///////////////////////
-		return !knot.getNode().equals(arrnode) ? null : knot.getRoute();
+		return monitor.isExceeded() || !knot.getNode().equals(arrnode) ? null : knot.getRoute();
 	}
 }
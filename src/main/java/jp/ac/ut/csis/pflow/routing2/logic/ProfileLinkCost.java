@@ -0,0 +1,62 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+
+/**
+ * Class for link cost operator reading one version of {@link CostProfile}. <br />
+ * the profile is immutable, so route search with this operator sees consistent costs even while 
+ * newer versions are published. {@link #getVersion()} returns the version of the profile
+ * 
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class ProfileLinkCost extends LinkCost {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** cost profile */	private CostProfile _profile;
+	
+	
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization
+	 * @param profile cost profile
+	 */
+	public ProfileLinkCost(CostProfile profile) { 
+		_profile = profile;
+	}
+	
+	
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get cost profile
+	 * @return cost profile
+	 */
+	public CostProfile getProfile() { 
+		return _profile;
+	}
+	
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.LinkCost#getCost(jp.ac.ut.csis.pflow.routing2.res.Link) */
+	@Override
+	public double getCost(Link link) { 
+		int idx = _profile.getGraph().indexOf(link);
+		return idx < 0 ? link.getCost() : _profile.getCost(idx);
+	}
+	
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.LinkCost#getReverseCost(jp.ac.ut.csis.pflow.routing2.res.Link) */
+	@Override
+	public double getReverseCost(Link link) { 
+		int idx = _profile.getGraph().indexOf(link);
+		return idx < 0 ? link.getReverseCost() : _profile.getReverseCost(idx);
+	}
+	
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.LinkCost#getVersion() */
+	@Override
+	public long getVersion() { 
+		return _profile.getVersion();
+	}
+}
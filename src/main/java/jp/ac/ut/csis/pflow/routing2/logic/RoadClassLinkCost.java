@@ -0,0 +1,119 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.Arrays;
+
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.OsmLink;
+
+/**
+ * Class for link cost operator weighted by road class of OSM links. <br />
+ * cost of the base operator is multiplied by the factor of {@link OsmLink#getRoadClass()}. 
+ * set positive infinity to exclude the road class from route search. 
+ * costs of links other than OsmLink are not changed.
+ * 
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class RoadClassLinkCost extends LinkCost {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** base link cost			*/	private LinkCost      _base;
+	/** factors by road class	*/	private double[]      _factors;
+	/** version					*/	private volatile long _version;
+	
+	
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization. all factors are 1
+	 * @param base base link cost operator
+	 */
+	public RoadClassLinkCost(LinkCost base) { 
+		_base    = base == null ? new LinkCost() : base;
+		_factors = new double[OsmLink.ROAD_TYPES.length];
+		_version = 0L;
+		Arrays.fill(_factors,1d);
+	}
+	
+	
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get base link cost operator
+	 * @return base link cost
+	 */
+	public LinkCost getBaseLinkCost() { 
+		return _base;
+	}
+	
+	/**
+	 * get factor of the road class
+	 * @param clazz road class(0-127)
+	 * @return factor
+	 */
+	public double getFactor(int clazz) { 
+		return _factors[clazz];
+	}
+	
+	/**
+	 * set factor of the road class
+	 * @param clazz road class(0-127)
+	 * @param factor multiplier to link cost. positive infinity to exclude
+	 * @return this instance
+	 */
+	public RoadClassLinkCost setFactor(int clazz,double factor) { 
+		if( !(factor >= 0d) ) { throw new IllegalArgumentException("unavailable value: " + factor); }
+		_factors[clazz] = factor;
+		_version++;
+		return this;
+	}
+	
+	/**
+	 * exclude the road classes from route search
+	 * @param classes road classes(0-127)
+	 * @return this instance
+	 */
+	public RoadClassLinkCost exclude(int... classes) { 
+		for(int clazz:classes) { setFactor(clazz,Double.POSITIVE_INFINITY); }
+		return this;
+	}
+	
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.LinkCost#getCost(jp.ac.ut.csis.pflow.routing2.res.Link) */
+	@Override
+	public double getCost(Link link) { 
+		return apply(_base.getCost(link),factorOf(link));
+	}
+	
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.LinkCost#getReverseCost(jp.ac.ut.csis.pflow.routing2.res.Link) */
+	@Override
+	public double getReverseCost(Link link) { 
+		return apply(_base.getReverseCost(link),factorOf(link));
+	}
+	
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.LinkCost#getVersion() */
+	@Override
+	public long getVersion() { 
+		return _version + _base.getVersion();
+	}
+	
+	/**
+	 * multiply the factor to the cost. excluded classes are positive infinity even for zero cost
+	 * @param cost base cost
+	 * @param factor factor
+	 * @return cost
+	 */
+	private double apply(double cost,double factor) { 
+		return factor == Double.POSITIVE_INFINITY ? Double.POSITIVE_INFINITY : cost * factor;
+	}
+	
+	/**
+	 * get factor of the link
+	 * @param link link
+	 * @return factor
+	 */
+	private double factorOf(Link link) { 
+		return link instanceof OsmLink ? _factors[OsmLink.class.cast(link).getRoadClass()] : 1d;
+	}
+}
@@ -0,0 +1,99 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+/**
+ * Class for work limits of one route search query. <br />
+ * a query stops when it settles more nodes than the limit, reaches nodes beyond the cost limit,
+ * passes the wall-clock timeout, or its {@link CancelToken} is cancelled. the settled count and 
+ * timeout are shared by all routes of the query(e.g. n routes of {@link Penalty}). 
+ * the instance is immutable and can be reused for many queries; the timeout starts with each query.
+ * 
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class SearchBudget {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** budget without limits */	public static final SearchBudget UNLIMITED = new SearchBudget(Integer.MAX_VALUE,Double.POSITIVE_INFINITY,Long.MAX_VALUE,null);
+	
+	
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** maximum settled nodes	*/	private int         _maxSettled;
+	/** maximum search cost		*/	private double      _maxCost;
+	/** timeout in millisecond	*/	private long        _timeout;
+	/** cancel token			*/	private CancelToken _token;
+	
+	
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create budget
+	 * @param maxSettled maximum number of settled nodes. Integer.MAX_VALUE for no limit
+	 * @param maxCost maximum cost from departure node. positive infinity for no limit
+	 * @param timeout timeout in millisecond. Long.MAX_VALUE for no limit
+	 * @param token cancel token. null for none
+	 */
+	public SearchBudget(int maxSettled,double maxCost,long timeout,CancelToken token) { 
+		// error handle ///////////////////////////////////
+		if( maxSettled <= 0 || !(maxCost >= 0d) || timeout < 0L ) { 
+			throw new IllegalArgumentException("unavailable value: " + maxSettled + "," + maxCost + "," + timeout);
+		}
+		// initialization /////////////////////////////////
+		_maxSettled = maxSettled;
+		_maxCost    = maxCost;
+		_timeout    = timeout;
+		_token      = token;
+	}
+	
+	/**
+	 * create budget with timeout only
+	 * @param timeout timeout in millisecond
+	 */
+	public SearchBudget(long timeout) { 
+		this(Integer.MAX_VALUE,Double.POSITIVE_INFINITY,timeout,null);
+	}
+	
+	
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get maximum number of settled nodes
+	 * @return maximum settled nodes
+	 */
+	public int getMaxSettled() { 
+		return _maxSettled;
+	}
+	
+	/**
+	 * get maximum cost from departure node
+	 * @return maximum cost
+	 */
+	public double getMaxCost() { 
+		return _maxCost;
+	}
+	
+	/**
+	 * get timeout
+	 * @return timeout in millisecond
+	 */
+	public long getTimeout() { 
+		return _timeout;
+	}
+	
+	/**
+	 * get cancel token
+	 * @return cancel token. null if none
+	 */
+	public CancelToken getCancelToken() { 
+		return _token;
+	}
+	
+	/* @see java.lang.Object#toString() */
+	@Override
+	public String toString() { 
+		return String.format("maxSettled=%d,maxCost=%f,timeout=%d",_maxSettled,_maxCost,_timeout);
+	}
+}
@@ -0,0 +1,125 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+
+/**
+ * Class for result of route search with {@link SearchBudget}. <br />
+ * the status tells whether the search completed or why it stopped, and routes found before 
+ * the stop are kept as a partial result together with the work statistics
+ * 
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class SearchResult {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** status				*/	private Status      _status;
+	/** routes				*/	private List<Route> _routes;
+	/** settled nodes		*/	private long        _settled;
+	/** maximum cost reached*/	private double      _maxCost;
+	/** elapsed time(ns)	*/	private long        _elapsed;
+	
+	
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create result
+	 * @param status status
+	 * @param routes routes found
+	 * @param settled the number of settled nodes
+	 * @param maxCost the maximum cost of settled nodes
+	 * @param elapsed elapsed time in nanosecond
+	 */
+	public SearchResult(Status status,List<Route> routes,long settled,double maxCost,long elapsed) { 
+		_status  = status;
+		_routes  = routes;
+		_settled = settled;
+		_maxCost = maxCost;
+		_elapsed = elapsed;
+	}
+	
+	
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get status
+	 * @return status
+	 */
+	public Status getStatus() { 
+		return _status;
+	}
+	
+	/**
+	 * check if the search finished within the budget
+	 * @return true for {@link Status#COMPLETED} and {@link Status#NOT_FOUND}
+	 */
+	public boolean isComplete() { 
+		return _status == Status.COMPLETED || _status == Status.NOT_FOUND;
+	}
+	
+	/**
+	 * get routes. may be fewer than requested, or empty, when the search stopped
+	 * @return routes
+	 */
+	public List<Route> getRoutes() { 
+		return _routes;
+	}
+	
+	/**
+	 * get the first route
+	 * @return route. null if not found
+	 */
+	public Route getRoute() { 
+		return _routes == null || _routes.isEmpty() ? null : _routes.get(0);
+	}
+	
+	/**
+	 * get the number of settled nodes
+	 * @return settled nodes
+	 */
+	public long getSettledCount() { 
+		return _settled;
+	}
+	
+	/**
+	 * get the maximum cost of settled nodes
+	 * @return maximum cost
+	 */
+	public double getMaxCost() { 
+		return _maxCost;
+	}
+	
+	/**
+	 * get elapsed time
+	 * @return elapsed time in nanosecond
+	 */
+	public long getElapsedTime() { 
+		return _elapsed;
+	}
+	
+	/* @see java.lang.Object#toString() */
+	@Override
+	public String toString() { 
+		return String.format("%s(routes=%d,settled=%d,maxCost=%f,elapsed=%.3fms)",
+				_status,_routes == null ? 0 : _routes.size(),_settled,_maxCost,_elapsed/1.0e6);
+	}
+	
+	
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** status of route search */
+	public enum Status {
+		/** routes found within the budget	*/	COMPLETED,
+		/** finished without route			*/	NOT_FOUND,
+		/** settled node limit exceeded		*/	SETTLED_EXCEEDED,
+		/** cost limit exceeded				*/	COST_EXCEEDED,
+		/** timeout							*/	DEADLINE_EXCEEDED,
+		/** cancelled by token				*/	CANCELLED
+		;
+	}
+}
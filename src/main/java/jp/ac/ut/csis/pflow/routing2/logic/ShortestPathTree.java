@@ -0,0 +1,380 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+
+/**
+ * Class for single source shortest path tree over {@link CompactGraph} which is repaired incrementally. <br />
+ * the tree is built once with Dijkstra. when link costs change, {@link #update(CostProfile)} repairs only the
+ * part of the tree affected by the change: subtrees below links whose costs increased are detached and
+ * reattached from their unaffected neighbors, and decreases are propagated from the improved nodes.
+ * nodes whose costs changed are reported. <br />
+ * the tree holds only costs and tree edges(12 bytes per node); working arrays are shared per thread.
+ * an instance is not thread-safe.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class ShortestPathTree {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** working arrays per thread */
+	private static final ThreadLocal<Workspace> WORKSPACE = new ThreadLocal<Workspace>();
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph		*/	private CompactGraph _graph;
+	/** cost profile		*/	private CostProfile  _profile;
+	/** source node			*/	private int          _source;
+	/** cost from source	*/	private double[]     _dist;
+	/** tree edge to node	*/	private int[]        _parent;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * build tree from the source node
+	 * @param profile cost profile
+	 * @param source source node
+	 */
+	public ShortestPathTree(CostProfile profile,Node source) {
+		_graph   = profile.getGraph();
+		_profile = profile;
+		_source  = _graph.indexOf(source);
+		if( _source < 0 ) { throw new IllegalArgumentException("node not in graph: " + (source == null ? null : source.getNodeID())); }
+		// initialization /////////////////////////////////
+		int N = _graph.numNodes();
+		_dist   = new double[N];
+		_parent = new int[N];
+		Arrays.fill(_dist,Double.POSITIVE_INFINITY);
+		Arrays.fill(_parent,-1);
+		_dist[_source] = 0d;
+
+		// build tree /////////////////////////////////////
+		Workspace ws = workspace(N);
+		ws.__heap.push(_source,0d);
+		propagate(ws);
+		ws.reset();
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get compact graph
+	 * @return graph
+	 */
+	public CompactGraph getGraph() {
+		return _graph;
+	}
+
+	/**
+	 * get cost profile of the current tree
+	 * @return cost profile
+	 */
+	public CostProfile getProfile() {
+		return _profile;
+	}
+
+	/**
+	 * get source node
+	 * @return source node
+	 */
+	public Node getSource() {
+		return _graph.getNode(_source);
+	}
+
+	/**
+	 * get cost from the source
+	 * @param idx node index
+	 * @return cost. positive infinity if unreachable
+	 */
+	public double getCost(int idx) {
+		return _dist[idx];
+	}
+
+	/**
+	 * get cost from the source
+	 * @param node node
+	 * @return cost. positive infinity if unreachable or not in graph
+	 */
+	public double getCost(Node node) {
+		int idx = _graph.indexOf(node);
+		return idx < 0 ? Double.POSITIVE_INFINITY : _dist[idx];
+	}
+
+	/**
+	 * get costs of all nodes
+	 * @return costs indexed by node index(not copied)
+	 */
+	public double[] getCosts() {
+		return _dist;
+	}
+
+	/**
+	 * get tree edge to the node
+	 * @param idx node index
+	 * @return edge index. -1 for the source or unreachable nodes
+	 */
+	public int getParentEdge(int idx) {
+		return _parent[idx];
+	}
+
+	/**
+	 * get route from the source to the node
+	 * @param node destination node
+	 * @return route. null if unreachable
+	 */
+	public Route getRoute(Node node) {
+		int idx = _graph.indexOf(node);
+		if( idx < 0 || _dist[idx] == Double.POSITIVE_INFINITY ) { return null; }
+		int[]      tail  = _graph.getEdgeTail();
+		List<Node> nodes = new ArrayList<Node>();
+		for(int v=idx;v>=0;v=_parent[v] < 0 ? -1 : tail[_parent[v]]) { nodes.add(_graph.getNode(v)); }
+		Collections.reverse(nodes);
+		return new Route(nodes,_dist[idx],_profile.getVersion());
+	}
+
+	/**
+	 * repair the tree with the latest profile of the same name in the graph
+	 * @return indexes of nodes whose costs changed
+	 */
+	public int[] refresh() {
+		CostProfile profile = _graph.getProfile(_profile.getName());
+		if( profile == null ) { throw new IllegalArgumentException("unavailable profile: " + _profile.getName()); }
+		return update(profile);
+	}
+
+	/**
+	 * repair the tree with new link costs. changed edges are found by comparing edge costs
+	 * @param profile new cost profile of the same graph
+	 * @return indexes of nodes whose costs changed
+	 */
+	public int[] update(CostProfile profile) {
+		double[] oldCost = _profile.getEdgeCosts();
+		double[] newCost = profile.getEdgeCosts();
+		int[]    edges   = new int[16];
+		int      size    = 0;
+		for(int e=0;e<newCost.length;e++) {
+			if( Double.compare(oldCost[e],newCost[e]) == 0 ) { continue; }
+			if( size == edges.length ) { edges = Arrays.copyOf(edges,size*2); }
+			edges[size++] = e;
+		}
+		return update(profile,Arrays.copyOf(edges,size));
+	}
+
+	/**
+	 * repair the tree with new link costs of the indicated links
+	 * @param profile new cost profile of the same graph
+	 * @param links indexes of links whose costs changed
+	 * @return indexes of nodes whose costs changed
+	 */
+	public int[] updateLinks(CostProfile profile,int[] links) {
+		int[] edges = new int[2*links.length];
+		int   size  = 0;
+		for(int link:links) {
+			int fwd = _graph.getLinkEdge(link,false);
+			int rev = _graph.getLinkEdge(link,true);
+			if( fwd >= 0 ) { edges[size++] = fwd; }
+			if( rev >= 0 ) { edges[size++] = rev; }
+		}
+		return update(profile,Arrays.copyOf(edges,size));
+	}
+
+	/**
+	 * repair the tree
+	 * @param profile new cost profile
+	 * @param edges changed edges
+	 * @return indexes of nodes whose costs changed
+	 */
+	private int[] update(CostProfile profile,int[] edges) {
+		// error handle ///////////////////////////////////
+		if( profile.getGraph() != _graph ) { throw new IllegalArgumentException("profile of another graph: " + profile); }
+		double[] oldCost = _profile.getEdgeCosts();
+		double[] cost    = profile.getEdgeCosts();
+		int[]    start   = _graph.getOutStart();
+		int[]    tail    = _graph.getEdgeTail();
+		int[]    head    = _graph.getEdgeHead();
+		int[]    inStart = _graph.getInStart();
+		int[]    inEdges = _graph.getInEdges();
+		Workspace ws     = workspace(_graph.numNodes());
+		_profile = profile;
+
+		// detach subtrees below increased tree edges ////
+		int[] stack = new int[16];
+		int   depth = 0;
+		for(int e:edges) {
+			if( cost[e] > oldCost[e] && _parent[head[e]] == e && !ws.isTouched(head[e]) ) {
+				if( depth == stack.length ) { stack = Arrays.copyOf(stack,depth*2); }
+				stack[depth++] = head[e];
+				ws.touch(head[e],_dist[head[e]]);
+				ws.__detached[head[e]] = true;
+			}
+		}
+		int[] detached = new int[16];
+		int   count    = 0;
+		while( depth > 0 ) {
+			int u = stack[--depth];
+			if( count == detached.length ) { detached = Arrays.copyOf(detached,count*2); }
+			detached[count++] = u;
+			for(int e=start[u];e<start[u+1];e++) {
+				int v = head[e];
+				if( _parent[v] != e || ws.__detached[v] ) { continue; }
+				if( !ws.isTouched(v) ) { ws.touch(v,_dist[v]); }
+				ws.__detached[v] = true;
+				if( depth == stack.length ) { stack = Arrays.copyOf(stack,depth*2); }
+				stack[depth++] = v;
+			}
+		}
+		for(int i=0;i<count;i++) {
+			_dist[detached[i]]   = Double.POSITIVE_INFINITY;
+			_parent[detached[i]] = -1;
+		}
+		// reattach detached nodes from attached neighbors
+		for(int i=0;i<count;i++) {
+			int v = detached[i];
+			for(int k=inStart[v];k<inStart[v+1];k++) {
+				int    e  = inEdges[k];
+				int    u  = tail[e];
+				double dv = _dist[u] + cost[e];
+				if( ws.__detached[u] || !(dv < _dist[v]) ) { continue; }
+				_dist[v]   = dv;
+				_parent[v] = e;
+			}
+			if( _dist[v] < Double.POSITIVE_INFINITY ) { ws.__heap.push(v,_dist[v]); }
+		}
+		// seed decreased edges ///////////////////////////
+		for(int e:edges) {
+			if( !(cost[e] < oldCost[e]) ) { continue; }
+			int    u  = tail[e];
+			int    v  = head[e];
+			double dv = _dist[u] + cost[e];
+			if( ws.__detached[u] || !(dv < _dist[v]) ) { continue; }
+			if( !ws.isTouched(v) ) { ws.touch(v,_dist[v]); }
+			_dist[v]   = dv;
+			_parent[v] = e;
+			ws.__heap.push(v,dv);
+		}
+		// propagate and collect changed nodes ////////////
+		propagate(ws);
+		int[] changed = new int[ws.__size];
+		int   num     = 0;
+		for(int i=0;i<ws.__size;i++) {
+			int v = ws.__touched[i];
+			if( Double.compare(ws.__old[i],_dist[v]) != 0 ) { changed[num++] = v; }
+		}
+		ws.reset();
+		return Arrays.copyOf(changed,num);
+	}
+
+	/**
+	 * run Dijkstra from the nodes in the heap. only nodes whose costs improve are visited
+	 * @param ws workspace
+	 */
+	private void propagate(Workspace ws) {
+		int[]          start = _graph.getOutStart();
+		int[]          head  = _graph.getEdgeHead();
+		double[]       cost  = _profile.getEdgeCosts();
+		double[]       dist  = _dist;
+		int[]          prev  = _parent;
+		IndexedMinHeap heap  = ws.__heap;
+		while( !heap.isEmpty() ) {
+			int    u  = heap.poll();
+			double du = dist[u];
+			for(int e=start[u],end=start[u+1];e<end;e++) {
+				int    v  = head[e];
+				double dv = du + cost[e];
+				if( !(dv < dist[v]) ) { continue; }
+				if( !ws.isTouched(v) ) { ws.touch(v,dist[v]); }
+				dist[v] = dv;
+				prev[v] = e;
+				heap.push(v,dv);
+			}
+		}
+	}
+
+	/**
+	 * get workspace of the current thread
+	 * @param N the number of nodes
+	 * @return workspace
+	 */
+	private static Workspace workspace(int N) {
+		Workspace ws = WORKSPACE.get();
+		if( ws == null || ws.__heap.capacity() < N ) { WORKSPACE.set(ws = new Workspace(N)); }
+		return ws;
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** per-thread working arrays. touched nodes are recorded with their costs before the repair */
+	private static class Workspace {
+		/** priority queue		*/	private IndexedMinHeap __heap;
+		/** touched flag		*/	private boolean[]      __mark;
+		/** detached flag		*/	private boolean[]      __detached;
+		/** touched nodes		*/	private int[]          __touched;
+		/** costs before repair	*/	private double[]       __old;
+		/** the number of nodes	*/	private int            __size;
+		/**
+		 * initialization
+		 * @param N the number of nodes
+		 */
+		private Workspace(int N) {
+			__heap     = new IndexedMinHeap(N);
+			__mark     = new boolean[N];
+			__detached = new boolean[N];
+			__touched  = new int[16];
+			__old      = new double[16];
+			__size     = 0;
+		}
+		/**
+		 * check if the node is touched
+		 * @param idx node index
+		 * @return result
+		 */
+		private boolean isTouched(int idx) {
+			return __mark[idx];
+		}
+		/**
+		 * record the node with its cost before the repair
+		 * @param idx node index
+		 * @param cost cost before the repair
+		 */
+		private void touch(int idx,double cost) {
+			if( __size == __touched.length ) {
+				__touched = Arrays.copyOf(__touched,__size*2);
+				__old     = Arrays.copyOf(__old,__size*2);
+			}
+			__mark[idx]       = true;
+			__touched[__size] = idx;
+			__old[__size++]   = cost;
+		}
+		/**
+		 * clear flags of touched nodes
+		 */
+		private void reset() {
+			for(int i=0;i<__size;i++) {
+				__mark[__touched[i]]     = false;
+				__detached[__touched[i]] = false;
+			}
+			__heap.clear();
+			__size = 0;
+			if( __touched.length > 1<<16 ) {	// release large buffers
+				__touched = new int[16];
+				__old     = new double[16];
+			}
+		}
+	}
+}
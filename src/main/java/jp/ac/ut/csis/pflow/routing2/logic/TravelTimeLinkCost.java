@@ -0,0 +1,141 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.traveltime.TravelTimeTable;
+
+/**
+ * Class for link cost operator reading observed travel times(s) of a time bin from {@link TravelTimeTable}. <br />
+ * the cost of each direction is the mean(or the indicated quantile) of travel times of the edge in the bin.
+ * edges with fewer traversals than the minimum count, and links not in the graph of the table, take the cost of
+ * the fallback operator, which should also be in seconds(e.g. {@link OsmLinkCost}).
+ * changing the bin, quantile or minimum count increases {@link #getVersion()}.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class TravelTimeLinkCost extends LinkCost {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default minimum count of traversals	*/	public static final int MIN_COUNT = 5;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** travel time table					*/	private TravelTimeTable _table;
+	/** fallback link cost					*/	private LinkCost        _fallback;
+	/** time bin							*/	private volatile int    _bin;
+	/** quantile. NaN for mean				*/	private volatile double _quantile;
+	/** minimum count of traversals			*/	private volatile int    _minCount;
+	/** version of costs					*/	private volatile long   _version;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization with mean travel times
+	 * @param table travel time table
+	 * @param bin time bin
+	 * @param fallback link cost for edges without enough traversals
+	 */
+	public TravelTimeLinkCost(TravelTimeTable table,int bin,LinkCost fallback) {
+		_table    = table;
+		_fallback = fallback;
+		_quantile = Double.NaN;
+		_minCount = MIN_COUNT;
+		_version  = 0L;
+		setBin(bin);
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get travel time table
+	 * @return travel time table
+	 */
+	public TravelTimeTable getTable() {
+		return _table;
+	}
+
+	/**
+	 * get time bin
+	 * @return time bin
+	 */
+	public int getBin() {
+		return _bin;
+	}
+
+	/**
+	 * set time bin
+	 * @param bin time bin
+	 * @return this instance
+	 */
+	public TravelTimeLinkCost setBin(int bin) {
+		if( bin < 0 || _table.numBins() <= bin ) { throw new IllegalArgumentException("unavailable value: bin=" + bin); }
+		_bin = bin;
+		_version++;
+		return this;
+	}
+
+	/**
+	 * set quantile of travel times used as cost
+	 * @param q quantile(0-1). NaN for mean
+	 * @return this instance
+	 */
+	public TravelTimeLinkCost setQuantile(double q) {
+		if( !Double.isNaN(q) && !(0d <= q && q <= 1d) ) { throw new IllegalArgumentException("unavailable value: q=" + q); }
+		_quantile = q;
+		_version++;
+		return this;
+	}
+
+	/**
+	 * set minimum count of traversals to use observed travel times
+	 * @param minCount minimum count
+	 * @return this instance
+	 */
+	public TravelTimeLinkCost setMinCount(int minCount) {
+		if( minCount < 1 ) { throw new IllegalArgumentException("unavailable value: minCount=" + minCount); }
+		_minCount = minCount;
+		_version++;
+		return this;
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.LinkCost#getCost(jp.ac.ut.csis.pflow.routing2.res.Link) */
+	@Override
+	public double getCost(Link link) {
+		double cost = cost(link,false);
+		return Double.isNaN(cost) ? _fallback.getCost(link) : cost;
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.LinkCost#getReverseCost(jp.ac.ut.csis.pflow.routing2.res.Link) */
+	@Override
+	public double getReverseCost(Link link) {
+		double cost = cost(link,true);
+		return Double.isNaN(cost) ? _fallback.getReverseCost(link) : cost;
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.LinkCost#getVersion() */
+	@Override
+	public long getVersion() {
+		return _version + _fallback.getVersion();
+	}
+
+	/**
+	 * get observed travel time of the link direction
+	 * @param link link
+	 * @param reverse true for reverse direction
+	 * @return travel time(s). NaN if not enough traversals
+	 */
+	private double cost(Link link,boolean reverse) {
+		CompactGraph graph = _table.getGraph();
+		int          idx   = graph.indexOf(link);
+		int          edge  = idx < 0 ? -1 : graph.getLinkEdge(idx,reverse);
+		if( edge < 0 || _table.getCount(edge,_bin) < _minCount ) { return Double.NaN; }
+		return Double.isNaN(_quantile) ? _table.getMean(edge,_bin) : _table.getQuantile(edge,_bin,_quantile);
+	}
+}
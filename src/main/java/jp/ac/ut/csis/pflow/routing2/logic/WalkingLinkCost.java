@@ -0,0 +1,67 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+
+/**
+ * Class for link cost operator as walking time. <br />
+ * link cost(meter) is divided by walking speed, so the cost is time duration in second
+ * 
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class WalkingLinkCost extends LinkCost {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default walking speed(m/s) */	
+	public static final double WALKING_SPEED = Double.parseDouble(System.getProperty("pflow.routing2.logic.walking_speed","1.333"));	// 4.8 km/h
+	
+	
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** walking speed(m/s) */	private double _speed;
+	
+	
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization with default walking speed
+	 */
+	public WalkingLinkCost() { 
+		this(WALKING_SPEED);
+	}
+	
+	/**
+	 * initialization
+	 * @param speed walking speed(m/s)
+	 */
+	public WalkingLinkCost(double speed) { 
+		if( speed <= 0d ) { throw new IllegalArgumentException("unavailable value: " + speed); }
+		_speed = speed;
+	}
+	
+	
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get walking speed
+	 * @return walking speed(m/s)
+	 */
+	public double getSpeed() { 
+		return _speed;
+	}
+	
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.LinkCost#getCost(jp.ac.ut.csis.pflow.routing2.res.Link) */
+	@Override
+	public double getCost(Link link) { 
+		return link.getCost() / _speed;
+	}
+	
+	/* @see jp.ac.ut.csis.pflow.routing2.logic.LinkCost#getReverseCost(jp.ac.ut.csis.pflow.routing2.res.Link) */
+	@Override
+	public double getReverseCost(Link link) { 
+		return link.getReverseCost() / _speed;
+	}
+}
@@ -0,0 +1,350 @@
+package jp.ac.ut.csis.pflow.routing2.matching;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.routing2.loader.ACsvNetworkLoader.Delimiter;
+import jp.ac.ut.csis.pflow.routing2.logic.ARoutingLogic;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+
+/**
+ * Class for parallel map matching of trajectory datasets. <br />
+ * input is a delimited text file of points grouped by user id and sorted by time. each run of lines with
+ * the same user id forms a trajectory, which is matched by the indicated {@link IMatching} on a work-stealing
+ * pool sharing one read-only network. results are written in the input order through a buffered sink, one row
+ * per point({@link MatchingResult#toResultString(String)}, followed by the original fields). <br />
+ * with a checkpoint file, the number of consumed input lines and the length of output are recorded every
+ * indicated number of trajectories after the output is forced to disk. a run with an existing checkpoint
+ * truncates the output to the recorded length and resumes from the recorded line.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class BulkMapMatching {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** Logger */
+	private static final Logger LOGGER = LogManager.getLogger(BulkMapMatching.class);
+
+	/** default checkpoint interval(trajectories)	*/	public static final int CHECKPOINT_INTERVAL = 1000;
+	/** trajectories in flight per thread			*/	private static final int IN_FLIGHT_PER_THREAD = 16;
+	/** size of output buffer						*/	private static final int BUFFER_SIZE          = 1 << 20;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** network						*/	private Network   _network;
+	/** matching logic				*/	private IMatching _matching;
+	/** search range				*/	private double    _range;
+	/** the number of threads		*/	private int       _numThreads;
+	/** delimiter type				*/	private Delimiter _delimiter;
+	/** flag for header				*/	private boolean   _hasHeader;
+	/** column of user id			*/	private int       _idColumn;
+	/** column of longitude			*/	private int       _lonColumn;
+	/** column of latitude			*/	private int       _latColumn;
+	/** checkpoint interval			*/	private int       _interval;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create instance with simple map matching
+	 * @param network network data
+	 */
+	public BulkMapMatching(Network network) {
+		this(network,new MapMatching());
+	}
+
+	/**
+	 * create instance
+	 * @param network network data
+	 * @param matching matching logic. must be safe to call from multiple threads
+	 */
+	public BulkMapMatching(Network network,IMatching matching) {
+		_network    = network;
+		_matching   = matching;
+		_range      = IMatching.SEARCH_RANGE;
+		_numThreads = ARoutingLogic.NUM_THREADS;
+		_delimiter  = Delimiter.CSV;
+		_hasHeader  = false;
+		_idColumn   = 0;
+		_lonColumn  = 2;
+		_latColumn  = 3;
+		_interval   = CHECKPOINT_INTERVAL;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * set search range
+	 * @param range search range(m)
+	 * @return this instance
+	 */
+	public BulkMapMatching setRange(double range) {
+		_range = range;
+		return this;
+	}
+
+	/**
+	 * set the number of threads
+	 * @param numThreads the number of threads
+	 * @return this instance
+	 */
+	public BulkMapMatching setNumThreads(int numThreads) {
+		if( numThreads <= 0 ) { throw new IllegalArgumentException("unavailable value: numThreads=" + numThreads); }
+		_numThreads = numThreads;
+		return this;
+	}
+
+	/**
+	 * set input format
+	 * @param delimiter delimiter type
+	 * @param hasHeader flag for header existence
+	 * @return this instance
+	 */
+	public BulkMapMatching setFormat(Delimiter delimiter,boolean hasHeader) {
+		_delimiter = delimiter;
+		_hasHeader = hasHeader;
+		return this;
+	}
+
+	/**
+	 * set input columns(0-origin). default is user id: 0, longitude: 2, latitude: 3
+	 * @param idColumn column of user id
+	 * @param lonColumn column of longitude
+	 * @param latColumn column of latitude
+	 * @return this instance
+	 */
+	public BulkMapMatching setColumns(int idColumn,int lonColumn,int latColumn) {
+		_idColumn  = idColumn;
+		_lonColumn = lonColumn;
+		_latColumn = latColumn;
+		return this;
+	}
+
+	/**
+	 * set checkpoint interval
+	 * @param interval the number of trajectories between checkpoints
+	 * @return this instance
+	 */
+	public BulkMapMatching setCheckpointInterval(int interval) {
+		if( interval <= 0 ) { throw new IllegalArgumentException("unavailable value: interval=" + interval); }
+		_interval = interval;
+		return this;
+	}
+
+	/**
+	 * conduct map matching of all trajectories without checkpoint
+	 * @param input input file
+	 * @param output output file(overwritten)
+	 * @return the number of matched trajectories
+	 * @throws IOException failed to read or write
+	 */
+	public long run(File input,File output) throws IOException {
+		return run(input,output,null);
+	}
+
+	/**
+	 * conduct map matching of all trajectories. resume from the checkpoint if it exists
+	 * @param input input file
+	 * @param output output file
+	 * @param checkpoint checkpoint file. null for no checkpoint
+	 * @return the number of matched trajectories in this run
+	 * @throws IOException failed to read or write
+	 */
+	public long run(File input,File output,File checkpoint) throws IOException {
+		// restore checkpoint /////////////////////////////
+		long[] state = checkpoint != null && checkpoint.exists() ? readCheckpoint(checkpoint) : new long[]{0L,0L};
+		if( state[0] > 0L ) { LOGGER.info("resume from line " + state[0] + " of " + input); }
+		_network.buildIndex();	// share network between threads
+
+		ForkJoinPool pool = new ForkJoinPool(_numThreads);
+		try(BufferedReader     br  = new BufferedReader(new FileReader(input));
+			FileOutputStream   fos = new FileOutputStream(output,state[0] > 0L)) {
+			fos.getChannel().truncate(state[1]);
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos,StandardCharsets.UTF_8),BUFFER_SIZE);
+			// skip consumed lines ////////////////////////
+			long lines = 0L;
+			if( _hasHeader ) { br.readLine(); lines++; }
+			for(;lines<state[0] && br.readLine()!=null;lines++);
+			// read trajectories and submit ///////////////
+			ArrayDeque<Pending> pendings = new ArrayDeque<Pending>();
+			int                 limit    = _numThreads * IN_FLIGHT_PER_THREAD;
+			long                count    = 0L;
+			String              userid   = null;
+			List<LonLat>        points   = new ArrayList<LonLat>();
+			List<List<String>>  attrs    = new ArrayList<List<String>>();
+			String              line;
+			while( (line=br.readLine()) != null ) {
+				String[] tokens = line.split(_delimiter == Delimiter.TSV ? "\t" : ",",-1);
+				if( tokens.length <= _idColumn ) {
+					lines++;
+					LOGGER.warn("skip invalid line " + lines + ": " + line);
+					continue;
+				}
+				if( userid != null && !userid.equals(tokens[_idColumn]) ) {
+					pendings.add(submit(pool,points,attrs,lines));
+					points = new ArrayList<LonLat>();
+					attrs  = new ArrayList<List<String>>();
+					// commit the oldest trajectories =====
+					while( pendings.size() >= limit ) {
+						commit(pendings.poll(),bw,fos,checkpoint,++count);
+					}
+				}
+				lines++;
+				userid = tokens[_idColumn];
+				try {
+					points.add(new LonLat(Double.parseDouble(tokens[_lonColumn]),Double.parseDouble(tokens[_latColumn])));
+					attrs.add(Arrays.asList(tokens));
+				}
+				catch(NumberFormatException|ArrayIndexOutOfBoundsException exp) {
+					LOGGER.warn("skip invalid line " + lines + ": " + line);
+				}
+			}
+			if( userid != null ) { pendings.add(submit(pool,points,attrs,lines)); }
+			while( !pendings.isEmpty() ) {
+				commit(pendings.poll(),bw,fos,checkpoint,++count);
+			}
+			bw.flush();
+			// all done ///////////////////////////////////
+			if( checkpoint != null ) { checkpoint.delete(); }
+			return count;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * submit matching of the trajectory
+	 * @param pool thread pool
+	 * @param points points of the trajectory
+	 * @param attrs original fields of the points
+	 * @param lines the number of input lines consumed including the trajectory
+	 * @return pending task
+	 */
+	private Pending submit(ForkJoinPool pool,final List<LonLat> points,final List<List<String>> attrs,long lines) {
+		Future<List<MatchingResult>> future = pool.submit(new Callable<List<MatchingResult>>() {
+			@Override
+			public List<MatchingResult> call() throws Exception {
+				List<MatchingResult> matched = _matching.runMatching(_network,points,_range);
+				List<MatchingResult> results = new ArrayList<MatchingResult>(matched.size());
+				for(int i=0;i<matched.size();i++) {
+					MatchingResult r = matched.get(i);
+					results.add(new MatchingResult(r.getInputPoint(),r.getNearestPoint(),r.getNearestLink(),r.getDistance(),attrs.get(i)));
+				}
+				return results;
+			}
+		});
+		return new Pending(future,lines);
+	}
+
+	/**
+	 * write results of the trajectory, and record checkpoint if the interval is reached
+	 * @param pending pending task
+	 * @param bw output writer
+	 * @param fos output stream
+	 * @param checkpoint checkpoint file. null for no checkpoint
+	 * @param count the number of trajectories committed including this one
+	 * @throws IOException failed to write
+	 */
+	private void commit(Pending pending,BufferedWriter bw,FileOutputStream fos,File checkpoint,long count) throws IOException {
+		try {
+			String delim = _delimiter == Delimiter.TSV ? "\t" : ",";
+			for(MatchingResult result:pending.__future.get()) {
+				bw.write(result.toResultString(delim));
+				bw.newLine();
+			}
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted",exp);
+		}
+		catch(ExecutionException exp) {
+			throw new IllegalStateException("failed to match trajectory",exp.getCause());
+		}
+		if( checkpoint != null && count % _interval == 0 ) {
+			bw.flush();
+			fos.getChannel().force(false);
+			writeCheckpoint(checkpoint,pending.__lines,fos.getChannel().size());
+		}
+	}
+
+	/**
+	 * read checkpoint
+	 * @param checkpoint checkpoint file
+	 * @return {consumed lines,output length}
+	 * @throws IOException failed to read
+	 */
+	private long[] readCheckpoint(File checkpoint) throws IOException {
+		try(BufferedReader br = new BufferedReader(new FileReader(checkpoint))) {
+			String[] tokens = br.readLine().split("\t");
+			return new long[]{Long.parseLong(tokens[0]),Long.parseLong(tokens[1])};
+		}
+		catch(NullPointerException|NumberFormatException|ArrayIndexOutOfBoundsException exp) {
+			throw new IOException("invalid checkpoint: " + checkpoint,exp);
+		}
+	}
+
+	/**
+	 * write checkpoint atomically
+	 * @param checkpoint checkpoint file
+	 * @param lines the number of consumed input lines
+	 * @param length length of output
+	 * @throws IOException failed to write
+	 */
+	private void writeCheckpoint(File checkpoint,long lines,long length) throws IOException {
+		File temp = new File(checkpoint.getPath() + ".tmp");
+		try(BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp),StandardCharsets.UTF_8))) {
+			bw.write(lines + "\t" + length);
+			bw.newLine();
+		}
+		Files.move(temp.toPath(),checkpoint.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/**
+	 * trajectory in flight
+	 */
+	private static class Pending {
+		/** result of matching			*/	private Future<List<MatchingResult>> __future;
+		/** consumed lines at the end	*/	private long                         __lines;
+
+		/**
+		 * initialization
+		 * @param future result of matching
+		 * @param lines the number of input lines consumed including the trajectory
+		 */
+		private Pending(Future<List<MatchingResult>> future,long lines) {
+			__future = future;
+			__lines  = lines;
+		}
+	}
+}
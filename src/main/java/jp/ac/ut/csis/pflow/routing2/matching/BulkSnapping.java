@@ -0,0 +1,271 @@
+package jp.ac.ut.csis.pflow.routing2.matching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.PolylineProjection;
+import jp.ac.ut.csis.pflow.routing2.logic.ARoutingLogic;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.NearestNeighborSearch;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+
+/**
+ * Class for snapping large coordinate sets to nodes or links of network. <br />
+ * input points are sorted along Hilbert curve and split into contiguous blocks processed in parallel.
+ * within a block, the snap distance of the previous point plus the distance between both points
+ * bounds the search radius of the next point, so neighboring points prune most of the index traversal.
+ * results are returned in flat arrays({@link SnapResult}) without creating {@link MatchingResult} per point.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class BulkSnapping {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** blocks per thread				*/	private static final int    BLOCKS_PER_THREAD = 8;
+	/** bits of Hilbert grid per axis	*/	private static final int    HILBERT_ORDER     = 16;
+	/** slack for search bound(m)		*/	private static final double BOUND_SLACK       = 1e-3;
+
+
+	/* ==============================================================
+	 * static methods
+	 * ============================================================== */
+	/**
+	 * get Hilbert curve index of the cell
+	 * @param x column of cell(0 - 2^16-1)
+	 * @param y row of cell(0 - 2^16-1)
+	 * @return index along Hilbert curve
+	 */
+	protected static long hilbertIndex(int x,int y) {
+		int  n = 1 << HILBERT_ORDER;
+		long d = 0L;
+		for(int s=n>>1;s>0;s>>=1) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long)s * s * ((3*rx) ^ ry);
+			// rotate quadrant
+			if( ry == 0 ) {
+				if( rx == 1 ) { x = n-1-x; y = n-1-y; }
+				int t = x; x = y; y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * get input indexes sorted along Hilbert curve
+	 * @param lons longitudes
+	 * @param lats latitudes
+	 * @return sorted indexes
+	 */
+	protected static int[] sortByHilbert(double[] lons,double[] lats) {
+		// bounds of input points /////////////////////////
+		int    N    = lons.length;
+		double xmin = Double.MAX_VALUE, xmax = -Double.MAX_VALUE;
+		double ymin = Double.MAX_VALUE, ymax = -Double.MAX_VALUE;
+		for(int i=0;i<N;i++) {
+			if( Double.isNaN(lons[i]) || Double.isNaN(lats[i]) ) { continue; }
+			xmin = Math.min(xmin,lons[i]); xmax = Math.max(xmax,lons[i]);
+			ymin = Math.min(ymin,lats[i]); ymax = Math.max(ymax,lats[i]);
+		}
+		// key = hilbert index(high) + input index(low) ///
+		int    cells = (1 << HILBERT_ORDER) - 1;
+		double w     = xmax > xmin ? cells / (xmax-xmin) : 0d;
+		double h     = ymax > ymin ? cells / (ymax-ymin) : 0d;
+		long[] keys  = new long[N];
+		for(int i=0;i<N;i++) {
+			long d = 0L;
+			if( !Double.isNaN(lons[i]) && !Double.isNaN(lats[i]) ) {
+				d = hilbertIndex((int)((lons[i]-xmin)*w),(int)((lats[i]-ymin)*h));
+			}
+			keys[i] = (d << 31) | i;
+		}
+		Arrays.sort(keys);
+		// extract indexes ////////////////////////////////
+		int[] order = new int[N];
+		for(int i=0;i<N;i++) { order[i] = (int)(keys[i] & Integer.MAX_VALUE); }
+		return order;
+	}
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** the number of threads */	private int _numThreads;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create instance with the default number of threads
+	 */
+	public BulkSnapping() {
+		this(ARoutingLogic.NUM_THREADS);
+	}
+
+	/**
+	 * create instance with the indicated number of threads
+	 * @param numThreads the number of threads
+	 */
+	public BulkSnapping(int numThreads) {
+		_numThreads = Math.max(1,numThreads);
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get the number of threads
+	 * @return the number of threads
+	 */
+	public int getNumThreads() {
+		return _numThreads;
+	}
+
+	/**
+	 * snap points to the nearest nodes
+	 * @param network network data
+	 * @param lons longitudes of input points
+	 * @param lats latitudes of input points
+	 * @param range search range in meter
+	 * @return snapping result in the order of input
+	 */
+	public SnapResult snapToNode(Network network,double[] lons,double[] lats,double range) {
+		SnapResult result = new SnapResult(new Node[lons.length],null,new double[lons.length],null);
+		run(network,lons,lats,range,result);
+		return result;
+	}
+
+	/**
+	 * snap points to the nearest links
+	 * @param network network data
+	 * @param lons longitudes of input points
+	 * @param lats latitudes of input points
+	 * @param range search range in meter
+	 * @return snapping result in the order of input, including projection ratio along links
+	 */
+	public SnapResult snapToLink(Network network,double[] lons,double[] lats,double range) {
+		SnapResult result = new SnapResult(null,new Link[lons.length],new double[lons.length],new double[lons.length]);
+		run(network,lons,lats,range,result);
+		return result;
+	}
+
+	/**
+	 * sort points and snap them block by block in parallel
+	 * @param network network data
+	 * @param lons longitudes of input points
+	 * @param lats latitudes of input points
+	 * @param range search range in meter
+	 * @param result result arrays to fill
+	 */
+	private void run(final Network network,final double[] lons,final double[] lats,final double range,final SnapResult result) {
+		// error handle ///////////////////////////////////
+		if( lons.length != lats.length ) {
+			throw new IllegalArgumentException("length mismatch: " + lons.length + " and " + lats.length);
+		}
+		final int N = lons.length;
+		if( N == 0 ) { return; }
+
+		// sort points along Hilbert curve ////////////////
+		final int[] order = sortByHilbert(lons,lats);
+		network.buildIndex();	// index must be built before shared
+
+		// snap points block by block /////////////////////
+		int             blocks = Math.min(N,_numThreads * BLOCKS_PER_THREAD);
+		ExecutorService pool   = Executors.newFixedThreadPool(_numThreads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(blocks);
+			for(int b=0;b<blocks;b++) {
+				final int from = (int)((long)N * b / blocks);
+				final int to   = (int)((long)N * (b+1) / blocks);
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						snap(network,lons,lats,range,order,from,to,result);
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> future:futures) { future.get(); }
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("snapping interrupted",exp);
+		}
+		catch(ExecutionException exp) {
+			throw new IllegalStateException("fail to snap points",exp.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * snap the block of sorted points
+	 * @param network network data
+	 * @param lons longitudes of input points
+	 * @param lats latitudes of input points
+	 * @param range search range in meter
+	 * @param order indexes sorted along Hilbert curve
+	 * @param from start position in the order(inclusive)
+	 * @param to end position in the order(exclusive)
+	 * @param result result arrays to fill
+	 */
+	private void snap(Network network,double[] lons,double[] lats,double range,int[] order,int from,int to,SnapResult result) {
+		NearestNeighborSearch search     = new NearestNeighborSearch(network);
+		PolylineProjection    projection = new PolylineProjection();
+		Node[]   nodes  = result.getNodes();
+		Link[]   links  = result.getLinks();
+		double[] dists  = result.getDistances();
+		double[] ratios = result.getRatios();
+
+		double px = Double.NaN;	// previous snapped point
+		double py = Double.NaN;
+		double pd = Double.NaN;
+		for(int p=from;p<to;p++) {
+			int    i = order[p];
+			double x = lons[i];
+			double y = lats[i];
+			dists[i] = Double.NaN;
+			if( ratios != null ) { ratios[i] = Double.NaN; }
+			if( Double.isNaN(x) || Double.isNaN(y) ) { continue; }
+
+			// bound search radius with the previous result
+			double r = range;
+			if( !Double.isNaN(pd) ) {
+				r = Math.min(range,pd + DistanceUtils.distance(px,py,x,y) + BOUND_SLACK);
+			}
+			// case node //////////////////////////////////
+			if( nodes != null ) {
+				Node node = search.nearestNode(x,y,r);
+				if( node == null && r < range ) { node = search.nearestNode(x,y,range); }
+				if( node == null ) { pd = Double.NaN; continue; }
+				nodes[i] = node;
+				dists[i] = search.getDistance(0);
+			}
+			// case link //////////////////////////////////
+			else {
+				Link link = search.nearestLink(x,y,r);
+				if( link == null && r < range ) { link = search.nearestLink(x,y,range); }
+				if( link == null ) { pd = Double.NaN; continue; }
+				links[i]  = link;
+				dists[i]  = search.getDistance(0);
+				ratios[i] = link.hasGeometry() ?
+								projection.project(link.getLineString(),x,y).getLineRatio() :
+								projection.project(link.getTailNode().getLon(),link.getTailNode().getLat(),link.getHeadNode().getLon(),link.getHeadNode().getLat(),x,y).getLineRatio();
+			}
+			px = x;
+			py = y;
+			pd = dists[i];
+		}
+	}
+}
@@ -0,0 +1,547 @@
+package jp.ac.ut.csis.pflow.routing2.matching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.geom.PolylineProjection;
+import jp.ac.ut.csis.pflow.geom.TrajectoryUtils;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.NearestNeighborSearch;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+
+/**
+ * Class for trajectory map matching with hidden Markov model. <br />
+ * candidates of each point are the nearest links within the search range, and the most likely sequence
+ * of candidates is determined with Viterbi algorithm. emission probability is Gaussian on the snap distance,
+ * and transition probability is exponential on the difference between the network distance and the
+ * great-circle distance of consecutive points. distances are measured in meter along link geometries,
+ * with the link directions(one-way) respected. <br />
+ * network distances are given by bounded one-to-many searches from the end nodes of candidate links.
+ * search trees are cached while their source nodes remain end nodes of candidates in consecutive steps.
+ * when no candidate pair of consecutive points is connected, the model is restarted from the latter point.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class HmmMapMatching implements IMatching {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default standard deviation of positioning error(m)	*/	public static final double SIGMA          = 10d;
+	/** default scale of transition(m)						*/	public static final double BETA           = 20d;
+	/** default the number of candidates per point			*/	public static final int    MAX_CANDIDATES = 8;
+	/** default factor of search bound						*/	public static final double ROUTE_FACTOR   = 4d;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** standard deviation of positioning error	*/	private double _sigma;
+	/** scale of transition						*/	private double _beta;
+	/** the number of candidates per point		*/	private int    _maxCandidates;
+	/** factor of search bound					*/	private double _routeFactor;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create instance with default parameters
+	 */
+	public HmmMapMatching() {
+		this(SIGMA,BETA,MAX_CANDIDATES);
+	}
+
+	/**
+	 * create instance
+	 * @param sigma standard deviation of positioning error(m)
+	 * @param beta scale of transition(m)
+	 * @param maxCandidates the number of candidates per point
+	 */
+	public HmmMapMatching(double sigma,double beta,int maxCandidates) {
+		if( !(sigma > 0d) )      { throw new IllegalArgumentException("unavailable value: sigma=" + sigma); }
+		if( !(beta > 0d) )       { throw new IllegalArgumentException("unavailable value: beta=" + beta); }
+		if( maxCandidates <= 0 ) { throw new IllegalArgumentException("unavailable value: maxCandidates=" + maxCandidates); }
+		_sigma         = sigma;
+		_beta          = beta;
+		_maxCandidates = maxCandidates;
+		_routeFactor   = ROUTE_FACTOR;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * set factor of search bound. network distance between consecutive points is searched up to
+	 * factor * (great-circle distance + snap distances of both points)
+	 * @param factor factor(>= 1)
+	 * @return this instance
+	 */
+	public HmmMapMatching setRouteFactor(double factor) {
+		if( !(factor >= 1d) ) { throw new IllegalArgumentException("unavailable value: factor=" + factor); }
+		_routeFactor = factor;
+		return this;
+	}
+
+	/**
+	 * get standard deviation of positioning error
+	 * @return sigma(m)
+	 */
+	public double getSigma() {
+		return _sigma;
+	}
+
+	/**
+	 * get scale of transition
+	 * @return beta(m)
+	 */
+	public double getBeta() {
+		return _beta;
+	}
+
+	/**
+	 * get the number of candidates per point
+	 * @return the number of candidates
+	 */
+	public int getMaxCandidates() {
+		return _maxCandidates;
+	}
+
+	/**
+	 * get factor of search bound
+	 * @return factor
+	 */
+	public double getRouteFactor() {
+		return _routeFactor;
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.matching.IMatching#runMatching(jp.ac.ut.csis.pflow.routing2.res.Network, java.util.List) */
+	@Override
+	public <T extends LonLat> List<MatchingResult> runMatching(Network network,List<T> points) {
+		return runMatching(network,points,SEARCH_RANGE);
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.matching.IMatching#runMatching(jp.ac.ut.csis.pflow.routing2.res.Network, java.util.List, double) */
+	@Override
+	public <T extends LonLat> List<MatchingResult> runMatching(Network network,List<T> points,double range) {
+		return runPathMatching(network,points,range).getResults();
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.matching.IMatching#runMatching(jp.ac.ut.csis.pflow.routing2.res.Network, jp.ac.ut.csis.pflow.geom.LonLat) */
+	@Override
+	public <T extends LonLat> MatchingResult runMatching(Network network,T point) {
+		return runMatching(network,point,SEARCH_RANGE);
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.matching.IMatching#runMatching(jp.ac.ut.csis.pflow.routing2.res.Network, jp.ac.ut.csis.pflow.geom.LonLat, double) */
+	@Override
+	public <T extends LonLat> MatchingResult runMatching(Network network,T point,double range) {
+		// single point has no transition: the most likely candidate is the nearest link
+		return new MapMatching().runMatchingToLink(network,point,range);
+	}
+
+	/**
+	 * conduct trajectory map matching with default search range
+	 * @param network network data
+	 * @param points point list in the order of time
+	 * @return matching result with the matched link sequence
+	 */
+	public <T extends LonLat> PathMatchingResult runPathMatching(Network network,List<T> points) {
+		return runPathMatching(network,points,SEARCH_RANGE);
+	}
+
+	/**
+	 * conduct trajectory map matching
+	 * @param network network data
+	 * @param points point list in the order of time
+	 * @param range search range of candidates from each point
+	 * @return matching result with the matched link sequence
+	 */
+	public <T extends LonLat> PathMatchingResult runPathMatching(Network network,List<T> points,double range) {
+		int                   N       = points.size();
+		NearestNeighborSearch search  = new NearestNeighborSearch(network);
+		Map<Link,Double>      lengths = new HashMap<Link,Double>();
+		Map<String,Tree>      trees   = new HashMap<String,Tree>();
+		Candidate[]           best    = new Candidate[N];
+		Candidate[]           prev    = null;
+		boolean               matched = false;
+		int                   breaks  = 0;
+		// forward pass of Viterbi ////////////////////////
+		for(int t=0;t<N;t++) {
+			T           point = points.get(t);
+			Candidate[] curr  = listCandidates(search,lengths,point,range,t);
+			boolean     cont  = curr.length > 0 && prev != null && transit(trees,lengths,prev,curr,DistanceUtils.distance(points.get(t-1),point));
+			if( !cont ) {
+				if( prev != null )                 { backtrack(prev,best); }
+				if( curr.length > 0 && matched )   { breaks++; }	// restart after the previous sequence
+				restart(trees,curr);
+			}
+			matched |= curr.length > 0;
+			prev = curr.length > 0 ? curr : null;
+			if( prev != null ) { retainTrees(trees,prev); }
+		}
+		if( prev != null ) { backtrack(prev,best); }
+		// collect results ////////////////////////////////
+		List<MatchingResult> results = new ArrayList<MatchingResult>(N);
+		List<Link>           links   = new ArrayList<Link>();
+		for(int t=0;t<N;t++) {
+			Candidate c = best[t];
+			if( c == null ) {
+				results.add(new MatchingResult(points.get(t),null,null,Double.MAX_VALUE));
+				continue;
+			}
+			results.add(new MatchingResult(points.get(t),c.__point,c.__link,c.__dist));
+			if( c.__route != null ) {
+				for(Link link:c.__route) { append(links,link); }
+			}
+			append(links,c.__link);
+		}
+		return new PathMatchingResult(results,links,breaks);
+	}
+
+	/**
+	 * list candidates of the point
+	 * @param search nearest neighbor search
+	 * @param lengths cache of link lengths
+	 * @param point input point
+	 * @param range search range
+	 * @param step index of the point
+	 * @return candidates
+	 */
+	protected <T extends LonLat> Candidate[] listCandidates(NearestNeighborSearch search,Map<Link,Double> lengths,T point,double range,int step) {
+		List<Link>         links      = search.nearestLinks(point.getLon(),point.getLat(),_maxCandidates,range);
+		Candidate[]        result     = new Candidate[links.size()];
+		PolylineProjection projection = new PolylineProjection();
+		for(int i=0;i<result.length;i++) {
+			Link   link = links.get(i);
+			double len  = length(lengths,link);
+			MapMatching.project(projection,link,point);
+			result[i] = new Candidate(step,link,projection.getPoint(),projection.getDistance(),len * projection.getLineRatio(),len);
+		}
+		return result;
+	}
+
+	/**
+	 * update scores of the current candidates with transitions from the previous candidates
+	 * @param trees cache of search trees
+	 * @param lengths cache of link lengths
+	 * @param prev previous candidates
+	 * @param curr current candidates
+	 * @param gc great-circle distance between the points
+	 * @return true if any current candidate is reachable
+	 */
+	protected boolean transit(Map<String,Tree> trees,Map<Link,Double> lengths,Candidate[] prev,Candidate[] curr,double gc) {
+		// search bound ///////////////////////////////////
+		double snap = 0d;
+		for(Candidate c:prev) { snap = Math.max(snap,c.__dist); }
+		for(Candidate c:curr) { snap = Math.max(snap,c.__dist); }
+		double bound = _routeFactor * (gc + 2d * snap);
+		// one-to-many searches from exit nodes ///////////
+		for(Candidate a:prev) {
+			if( Double.isInfinite(a.__score) ) { continue; }
+			search(trees,lengths,a.__link.getHeadNode(),bound);
+			if( !a.__link.isOneWay() ) { search(trees,lengths,a.__link.getTailNode(),bound); }
+		}
+		// Viterbi update /////////////////////////////////
+		boolean reachable = false;
+		for(Candidate b:curr) {
+			b.__score = Double.NEGATIVE_INFINITY;
+			b.__prev  = null;
+			b.__route = null;
+			for(Candidate a:prev) {
+				if( Double.isInfinite(a.__score) ) { continue; }
+				Object[] route = route(trees,a,b);
+				if( route == null ) { continue; }
+				double score = a.__score + transition(Math.abs((Double)route[0] - gc));
+				if( score > b.__score ) {
+					b.__score = score;
+					b.__prev  = a;
+					b.__route = route.length > 1 ? (Link[])route[1] : null;
+				}
+			}
+			if( b.__prev != null ) {
+				b.__score += emission(b.__dist);
+				reachable  = true;
+			}
+		}
+		return reachable;
+	}
+
+	/**
+	 * restart the model from the candidates
+	 * @param trees cache of search trees
+	 * @param curr candidates of the first point
+	 */
+	protected void restart(Map<String,Tree> trees,Candidate[] curr) {
+		for(Candidate c:curr) {
+			c.__score = emission(c.__dist);
+			c.__prev  = null;
+			c.__route = null;
+		}
+		trees.clear();
+	}
+
+	/**
+	 * keep search trees of end nodes of the candidates only
+	 * @param trees cache of search trees
+	 * @param curr candidates of the latest point
+	 */
+	protected void retainTrees(Map<String,Tree> trees,Candidate[] curr) {
+		trees.keySet().retainAll(exitNodes(curr));
+	}
+
+	/**
+	 * get the shortest route between candidates
+	 * @param trees search trees
+	 * @param a candidate of the previous point
+	 * @param b candidate of the current point
+	 * @return {distance,links between the candidate links}. null if unreachable
+	 */
+	private Object[] route(Map<String,Tree> trees,Candidate a,Candidate b) {
+		double dist   = Double.POSITIVE_INFINITY;
+		Node   source = null;
+		Node   target = null;
+		// case along the same link ///////////////////////
+		if( a.__link == b.__link ) {
+			if( a.__offset <= b.__offset )  { dist = b.__offset - a.__offset; }
+			else if( !a.__link.isOneWay() ) { dist = a.__offset - b.__offset; }
+		}
+		// case via end nodes /////////////////////////////
+		Node[]   exits   = a.__link.isOneWay() ? new Node[]{a.__link.getHeadNode()} : new Node[]{a.__link.getHeadNode(),a.__link.getTailNode()};
+		double[] exitLen = {a.__length - a.__offset,a.__offset};
+		Node[]   enters  = b.__link.isOneWay() ? new Node[]{b.__link.getTailNode()} : new Node[]{b.__link.getTailNode(),b.__link.getHeadNode()};
+		double[] enterLen= {b.__offset,b.__length - b.__offset};
+		for(int i=0;i<exits.length;i++) {
+			Tree tree = trees.get(exits[i].getNodeID());
+			if( tree == null ) { continue; }
+			for(int j=0;j<enters.length;j++) {
+				Double d = tree.__dists.get(enters[j].getNodeID());
+				if( d == null ) { continue; }
+				double total = exitLen[i] + d + enterLen[j];
+				if( total < dist ) {
+					dist   = total;
+					source = exits[i];
+					target = enters[j];
+				}
+			}
+		}
+		if( Double.isInfinite(dist) ) { return null; }
+		return source == null ? new Object[]{dist} : new Object[]{dist,trees.get(source.getNodeID()).listLinks(target)};
+	}
+
+	/**
+	 * get the search tree from the node, reusing the cached tree if its bound is enough
+	 * @param trees cache of search trees
+	 * @param lengths cache of link lengths
+	 * @param source source node
+	 * @param bound search bound(m)
+	 */
+	private void search(Map<String,Tree> trees,Map<Link,Double> lengths,Node source,double bound) {
+		Tree tree = trees.get(source.getNodeID());
+		if( tree != null && tree.__bound >= bound ) { return; }
+		trees.put(source.getNodeID(),new Tree(lengths,source,bound));
+	}
+
+	/**
+	 * trace back the most likely sequence ending at the candidates
+	 * @param last candidates of the last point of the sequence
+	 * @param best most likely candidate by point
+	 */
+	private void backtrack(Candidate[] last,Candidate[] best) {
+		Candidate c = null;
+		for(Candidate k:last) {
+			if( c == null || k.__score > c.__score ) { c = k; }
+		}
+		for(;c!=null;c=c.__prev) { best[c.__step] = c; }
+	}
+
+	/**
+	 * log emission probability
+	 * @param dist snap distance(m)
+	 * @return log probability
+	 */
+	private double emission(double dist) {
+		double z = dist / _sigma;
+		return -0.5d * z * z - Math.log(Math.sqrt(2d * Math.PI) * _sigma);
+	}
+
+	/**
+	 * log transition probability
+	 * @param diff difference between network distance and great-circle distance(m)
+	 * @return log probability
+	 */
+	private double transition(double diff) {
+		return -diff / _beta - Math.log(_beta);
+	}
+
+	/**
+	 * get ids of nodes the candidates can exit through
+	 * @param candidates candidates
+	 * @return node ids
+	 */
+	private Set<String> exitNodes(Candidate[] candidates) {
+		Set<String> ids = new HashSet<String>();
+		for(Candidate c:candidates) {
+			ids.add(c.__link.getHeadNode().getNodeID());
+			if( !c.__link.isOneWay() ) { ids.add(c.__link.getTailNode().getNodeID()); }
+		}
+		return ids;
+	}
+
+	/**
+	 * append link unless it is the same as the last one
+	 * @param links link sequence
+	 * @param link adding link
+	 */
+	private static void append(List<Link> links,Link link) {
+		if( links.isEmpty() || links.get(links.size()-1) != link ) { links.add(link); }
+	}
+
+	/**
+	 * get geometry of the link
+	 * @param link link
+	 * @return line string from tail to head
+	 */
+	private static List<LonLat> geometry(Link link) {
+		return link.hasGeometry() ? link.getLineString() : Arrays.<LonLat>asList(link.getTailNode(),link.getHeadNode());
+	}
+
+	/**
+	 * get length of the link
+	 * @param lengths cache of link lengths
+	 * @param link link
+	 * @return length(m)
+	 */
+	protected static double length(Map<Link,Double> lengths,Link link) {
+		Double len = lengths.get(link);
+		if( len == null ) { lengths.put(link,len = TrajectoryUtils.length(geometry(link))); }
+		return len;
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/**
+	 * candidate of a point
+	 */
+	protected static class Candidate {
+		/** index of the point			*/	protected int       __step;
+		/** candidate link				*/	protected Link      __link;
+		/** snapped point				*/	protected LonLat    __point;
+		/** snap distance				*/	protected double    __dist;
+		/** offset from the tail node	*/	protected double    __offset;
+		/** length of the link			*/	protected double    __length;
+		/** log probability				*/	protected double    __score;
+		/** best previous candidate		*/	protected Candidate __prev;
+		/** links from the previous one	*/	protected Link[]    __route;
+
+		/**
+		 * initialization
+		 * @param step index of the point
+		 * @param link candidate link
+		 * @param point snapped point
+		 * @param dist snap distance
+		 * @param offset offset from the tail node
+		 * @param length length of the link
+		 */
+		private Candidate(int step,Link link,LonLat point,double dist,double offset,double length) {
+			__step   = step;
+			__link   = link;
+			__point  = point;
+			__dist   = dist;
+			__offset = offset;
+			__length = length;
+			__score  = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * bounded shortest path tree by link length
+	 */
+	protected static class Tree {
+		/** search bound				*/	private double             __bound;
+		/** distances by node id		*/	private Map<String,Double> __dists;
+		/** parent links by node id		*/	private Map<String,Link>   __parents;
+
+		/**
+		 * search nodes within the bound from the source
+		 * @param lengths cache of link lengths
+		 * @param source source node
+		 * @param bound search bound(m)
+		 */
+		private Tree(Map<Link,Double> lengths,Node source,double bound) {
+			__bound   = bound;
+			__dists   = new HashMap<String,Double>();
+			__parents = new HashMap<String,Link>();
+			PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+			__dists.put(source.getNodeID(),0d);
+			queue.add(new Entry(source,0d));
+			while( !queue.isEmpty() ) {
+				Entry entry = queue.poll();
+				if( entry.__cost > __dists.get(entry.__node.getNodeID()) ) { continue; }	// obsolete entry
+				for(Link link:entry.__node.listOutLinks()) {
+					boolean rev  = entry.__node.equals(link.getHeadNode());
+					Node    next = rev ? link.getTailNode() : link.getHeadNode();
+					double  cost = entry.__cost + length(lengths,link);
+					if( cost > bound ) { continue; }
+					Double  curr = __dists.get(next.getNodeID());
+					if( curr != null && curr <= cost ) { continue; }
+					__dists.put(next.getNodeID(),cost);
+					__parents.put(next.getNodeID(),link);
+					queue.add(new Entry(next,cost));
+				}
+			}
+		}
+
+		/**
+		 * list links from the source to the target
+		 * @param target target node in the tree
+		 * @return links in the order of traversal
+		 */
+		private Link[] listLinks(Node target) {
+			List<Link> links = new ArrayList<Link>();
+			Node       node  = target;
+			for(Link link=__parents.get(node.getNodeID());link!=null;link=__parents.get(node.getNodeID())) {
+				links.add(link);
+				node = node.equals(link.getHeadNode()) ? link.getTailNode() : link.getHeadNode();
+			}
+			Collections.reverse(links);
+			return links.toArray(new Link[links.size()]);
+		}
+	}
+
+	/**
+	 * entry of search queue
+	 */
+	private static class Entry implements Comparable<Entry> {
+		/** node	*/	private Node   __node;
+		/** cost	*/	private double __cost;
+
+		/**
+		 * initialization
+		 * @param node node
+		 * @param cost cost from the source
+		 */
+		private Entry(Node node,double cost) {
+			__node = node;
+			__cost = cost;
+		}
+
+		/* @see java.lang.Comparable#compareTo(java.lang.Object) */
+		@Override
+		public int compareTo(Entry entry) {
+			return Double.compare(__cost,entry.__cost);
+		}
+	}
+}
@@ -1,12 +1,12 @@
 package jp.ac.ut.csis.pflow.routing2.matching;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
-import jp.ac.ut.csis.pflow.geom.DistanceUtils;
 import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.geom.PolylineProjection;
 import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.NearestNeighborSearch;
 import jp.ac.ut.csis.pflow.routing2.res.Network;
 import jp.ac.ut.csis.pflow.routing2.res.Node;
 
@@ -28,10 +28,11 @@ public class MapMatching implements IMatching {
 	/* @see jp.ac.ut.csis.pflow.routing2.matching.IMatching#runMatching(jp.ac.ut.csis.pflow.routing2.res.Network, java.util.List, double) */
 	@Override
 	public <T extends LonLat> List<MatchingResult> runMatching(Network network,List<T> points,double range) {
-		List<MatchingResult> result = new ArrayList<MatchingResult>(points.size());
+		List<MatchingResult>  result = new ArrayList<MatchingResult>(points.size());
+		NearestNeighborSearch search = new NearestNeighborSearch(network);
 		// conduct matching one by one
 		for(T point:points) {
-			result.add( runMatching(network,point,range) );
+			result.add( runMatchingToLink(search,point,range) );
 		}
 		// return results
 		return result;
@@ -57,32 +58,43 @@ public class MapMatching implements IMatching {
 	 * @return matching result
 	 */
 	public <T extends LonLat> MatchingResult runMatchingToLink(Network network,T point,double range) {
-		// get candidate links ////////////////////////////
-		List<Link> links = network.queryLink(point.getLon(),point.getLat(),range);
-		
-		// look for nearest link from the candidates //////
-		double         distance     = Double.MAX_VALUE;
-		Link           nearestLink  = null;
-		LonLat         nearestPoint = null;
-		Iterator<Link> itr          = links.iterator();
-		while(itr.hasNext()) {
-			// get candidate link 
-			Link candidate = itr.next();
-			
-			// calculate distance from input point to road link
-			LonLat p = DistanceUtils.nearestPoint(candidate.getLineString(),point);
-			if( p == null ) { continue; }	// when the nearest point is not found
-			
-			double d = DistanceUtils.distance(p,point);
-			// compare distance
-			if( d < distance ) { 
-				nearestLink  = candidate;
-				nearestPoint = p;
-				distance     = d;
-			}
+		return runMatchingToLink(new NearestNeighborSearch(network),point,range);
+	}
+	
+	/**
+	 * conduct map matching to link with the indicated search instance
+	 * @param search nearest neighbor search of network
+	 * @param point source point
+	 * @param range search range in meter
+	 * @return matching result
+	 */
+	private <T extends LonLat> MatchingResult runMatchingToLink(NearestNeighborSearch search,T point,double range) {
+		// look for nearest link within range /////////////
+		Link nearestLink = search.nearestLink(point.getLon(),point.getLat(),range);
+		if( nearestLink == null ) {
+			return new MatchingResult(point,null,null,Double.MAX_VALUE);
 		}
+		// calculate the nearest point on the link ////////
+		int                segment    = search.getSegment(0);
+		PolylineProjection projection = segment < 0 || !nearestLink.hasGeometry() ?
+											project(new PolylineProjection(),nearestLink,point) :
+											new PolylineProjection().project(nearestLink.getLineString(),segment,segment+1,point.getLon(),point.getLat());
 		// create matching result and return.
-		return new MatchingResult(point,nearestPoint,nearestLink,distance);
+		return new MatchingResult(point,projection.getPoint(),nearestLink,projection.getDistance());
+	}
+
+	/**
+	 * project the point onto the link
+	 * @param projection projection kernel
+	 * @param link link
+	 * @param point point
+	 * @return projection kernel holding the result
+	 */
+	protected static PolylineProjection project(PolylineProjection projection,Link link,LonLat point) {
+		Node tail = link.getTailNode();
+		Node head = link.getHeadNode();
+		return link.hasGeometry() ? projection.project(link.getLineString(),point.getLon(),point.getLat()) :
+									projection.project(tail.getLon(),tail.getLat(),head.getLon(),head.getLat(),point.getLon(),point.getLat());
 	}
 
 	/**
@@ -93,25 +105,11 @@ public class MapMatching implements IMatching {
 	 * @return matching result
 	 */
 	public <T extends LonLat> MatchingResult runMatchingToNode(Network network,T point,double range) {
-		// get candidate links ////////////////////////////
-		List<Node> nodes = network.queryNode(point.getLon(),point.getLat(),range);
-		
-		// look for nearest link from the candidates //////
-		double         distance     = Double.MAX_VALUE;
-		LonLat         nearestPoint = null;
-		Iterator<Node> itr          = nodes.iterator();
-		while(itr.hasNext()) {
-			// get candidate node 
-			Node candidate = itr.next();
-			
-			double d = DistanceUtils.distance(candidate,point);
-			// compare distance
-			if( d < distance ) { 
-				nearestPoint = candidate;
-				distance     = d;
-			}
-		}
+		// look for nearest node within range /////////////
+		NearestNeighborSearch search      = new NearestNeighborSearch(network);
+		Node                  nearestNode = search.nearestNode(point.getLon(),point.getLat(),range);
 		// create matching result and return.
-		return new MatchingResult(point,nearestPoint,distance);
+		return nearestNode == null ? new MatchingResult(point,null,Double.MAX_VALUE) :
+									 new MatchingResult(point,nearestNode,search.getDistance(0));
 	}
 }
@@ -0,0 +1,67 @@
+package jp.ac.ut.csis.pflow.routing2.matching;
+
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+
+/**
+ * Class for result of trajectory map matching. <br />
+ * the result consists of per-point matching results and the sequence of links traversed by the trajectory,
+ * including links between the matched links of consecutive points. where the trajectory is broken
+ * (no candidate or no connecting route), links of the separated parts are simply concatenated.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ * @see HmmMapMatching
+ */
+public class PathMatchingResult {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** per-point matching results	*/	private List<MatchingResult> _results;
+	/** matched link sequence		*/	private List<Link>           _links;
+	/** the number of breaks		*/	private int                  _breaks;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization
+	 * @param results per-point matching results
+	 * @param links matched link sequence
+	 * @param breaks the number of breaks of the trajectory
+	 */
+	protected PathMatchingResult(List<MatchingResult> results,List<Link> links,int breaks) {
+		_results = results;
+		_links   = links;
+		_breaks  = breaks;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get per-point matching results
+	 * @return matching results in the order of input points
+	 */
+	public List<MatchingResult> getResults() {
+		return _results;
+	}
+
+	/**
+	 * get matched link sequence
+	 * @return links without consecutive duplication
+	 */
+	public List<Link> getLinks() {
+		return _links;
+	}
+
+	/**
+	 * get the number of breaks where the trajectory could not be connected
+	 * @return the number of breaks
+	 */
+	public int numBreaks() {
+		return _breaks;
+	}
+}
@@ -0,0 +1,274 @@
+package jp.ac.ut.csis.pflow.routing2.matching;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.geom.PolylineProjection;
+import jp.ac.ut.csis.pflow.routing2.cache.LruCache;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.NearestNeighborSearch;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+
+/**
+ * Class for caching node/link snapping of repeated coordinates. <br />
+ * coordinates are quantized to fixed-point grid(default 1.0e-5 degree, approx. 1 m), and the grid cell plus
+ * search range is the cache key. only the nearest node/link is cached; distance and the nearest point
+ * are recalculated for the actual input, so a hit costs one projection instead of a spatial search.
+ * points in the same cell share the node/link found for the first of them. <br />
+ * the cache is bound to one network. it is cleared when queried with another network instance,
+ * or when nodes/links of the network are added or removed({@link Network#getVersion()}).
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class SnapCache implements IMatching {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default cache size		*/	public static final int    CACHE_SIZE = Integer.getInteger("pflow.routing2.matching.snap_cache_size",500000);
+	/** default grid precision	*/	public static final double PRECISION  = 1.0e-5;	// approx. 1 m
+
+	/** marker of no result		*/	private static final Object NONE = new Object();
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** cache of nodes/links	*/	private LruCache<Key,Object> _cache;
+	/** grid precision(degree)	*/	private double               _precision;
+	/** bound network			*/	private volatile Network     _network;
+	/** version of network		*/	private volatile long        _version;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create cache with default settings
+	 */
+	public SnapCache() {
+		this(CACHE_SIZE);
+	}
+
+	/**
+	 * create cache with the indicated size
+	 * @param maxSize maximum number of cached entries
+	 */
+	public SnapCache(int maxSize) {
+		this(maxSize,PRECISION);
+	}
+
+	/**
+	 * create cache with the indicated parameters
+	 * @param maxSize maximum number of cached entries
+	 * @param precision grid precision in degree
+	 */
+	public SnapCache(int maxSize,double precision) {
+		if( precision <= 0d ) { throw new IllegalArgumentException("unavailable value: " + precision); }
+		_cache     = new LruCache<Key,Object>(maxSize);
+		_precision = precision;
+		_network   = null;
+		_version   = -1L;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * explore the nearest node within range through the cache
+	 * @param network network data
+	 * @param x longitude
+	 * @param y latitude
+	 * @param range search range in meter
+	 * @return the nearest node if found, otherwise null
+	 */
+	public Node getNearestNode(Network network,double x,double y,double range) {
+		bind(network);
+		Key    key = new Key(false,quantize(x),quantize(y),range);
+		Object val = _cache.get(key);
+		if( val == null ) {
+			Node node = new NearestNeighborSearch(network).nearestNode(x,y,range);
+			_cache.put(key,val = node == null ? NONE : node);
+		}
+		if( val == NONE ) { return null; }
+		Node node = Node.class.cast(val);
+		return DistanceUtils.distance(x,y,node.getLon(),node.getLat()) <= range ? node : null;
+	}
+
+	/**
+	 * conduct map matching to node through the cache
+	 * @param network network
+	 * @param point source point
+	 * @param range search range in meter
+	 * @return matching result
+	 */
+	public <T extends LonLat> MatchingResult runMatchingToNode(Network network,T point,double range) {
+		Node node = getNearestNode(network,point.getLon(),point.getLat(),range);
+		return node == null ? new MatchingResult(point,null,Double.MAX_VALUE) :
+							  new MatchingResult(point,node,DistanceUtils.distance(node,point));
+	}
+
+	/**
+	 * conduct map matching to link through the cache
+	 * @param network network
+	 * @param point source point
+	 * @param range search range in meter
+	 * @return matching result
+	 */
+	public <T extends LonLat> MatchingResult runMatchingToLink(Network network,T point,double range) {
+		bind(network);
+		Key    key = new Key(true,quantize(point.getLon()),quantize(point.getLat()),range);
+		Object val = _cache.get(key);
+		if( val == null ) {
+			Link link = new NearestNeighborSearch(network).nearestLink(point.getLon(),point.getLat(),range);
+			_cache.put(key,val = link == null ? NONE : link);
+		}
+		if( val == NONE ) { return new MatchingResult(point,null,null,Double.MAX_VALUE); }
+		// project the actual point onto the cached link //
+		Link   link = Link.class.cast(val);
+		PolylineProjection foot = MapMatching.project(new PolylineProjection(),link,point);
+		double             dist = foot.getDistance();
+		return dist <= range ? new MatchingResult(point,foot.getPoint(),link,dist) : new MatchingResult(point,null,null,Double.MAX_VALUE);
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.matching.IMatching#runMatching(jp.ac.ut.csis.pflow.routing2.res.Network, java.util.List) */
+	@Override
+	public <T extends LonLat> List<MatchingResult> runMatching(Network network,List<T> points) {
+		return runMatching(network,points,SEARCH_RANGE);
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.matching.IMatching#runMatching(jp.ac.ut.csis.pflow.routing2.res.Network, java.util.List, double) */
+	@Override
+	public <T extends LonLat> List<MatchingResult> runMatching(Network network,List<T> points,double range) {
+		List<MatchingResult> result = new ArrayList<MatchingResult>(points.size());
+		for(T point:points) {
+			result.add( runMatchingToLink(network,point,range) );
+		}
+		return result;
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.matching.IMatching#runMatching(jp.ac.ut.csis.pflow.routing2.res.Network, jp.ac.ut.csis.pflow.geom.LonLat) */
+	@Override
+	public <T extends LonLat> MatchingResult runMatching(Network network,T point) {
+		return runMatching(network,point,SEARCH_RANGE);
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.matching.IMatching#runMatching(jp.ac.ut.csis.pflow.routing2.res.Network, jp.ac.ut.csis.pflow.geom.LonLat, double) */
+	@Override
+	public <T extends LonLat> MatchingResult runMatching(Network network,T point,double range) {
+		return runMatchingToLink(network,point,range);
+	}
+
+	/**
+	 * remove all cached entries
+	 */
+	public void invalidate() {
+		_cache.clear();
+	}
+
+	/**
+	 * get the number of cached entries
+	 * @return the number of entries
+	 */
+	public int size() {
+		return _cache.size();
+	}
+
+	/**
+	 * get hit count
+	 * @return hit count
+	 */
+	public long getHitCount() {
+		return _cache.getHitCount();
+	}
+
+	/**
+	 * get miss count
+	 * @return miss count
+	 */
+	public long getMissCount() {
+		return _cache.getMissCount();
+	}
+
+	/**
+	 * get eviction count
+	 * @return eviction count
+	 */
+	public long getEvictionCount() {
+		return _cache.getEvictionCount();
+	}
+
+	/**
+	 * get hit rate
+	 * @return hit rate(0-1). NaN if never requested
+	 */
+	public double getHitRate() {
+		return _cache.getHitRate();
+	}
+
+	/**
+	 * bind the cache to the network. cached entries are cleared if the network is replaced or modified
+	 * @param network network data
+	 */
+	private void bind(Network network) {
+		if( _network == network && _version == network.getVersion() ) { return; }
+		synchronized(this) {
+			if( _network != network || _version != network.getVersion() ) {
+				_cache.clear();
+				_version = network.getVersion();
+				_network = network;
+			}
+		}
+	}
+
+	/**
+	 * quantize coordinate to fixed-point grid
+	 * @param v coordinate in degree
+	 * @return grid index
+	 */
+	private long quantize(double v) {
+		return Math.round(v / _precision);
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** cache key of quantized coordinate and search range */
+	private static class Key {
+		/** link or node	*/	private boolean __link;
+		/** grid x			*/	private long    __x;
+		/** grid y			*/	private long    __y;
+		/** search range	*/	private double  __range;
+		/**
+		 * initialization
+		 * @param link true for link snapping
+		 * @param x grid x
+		 * @param y grid y
+		 * @param range search range
+		 */
+		private Key(boolean link,long x,long y,double range) {
+			__link  = link;
+			__x     = x;
+			__y     = y;
+			__range = range;
+		}
+		/* @see java.lang.Object#hashCode() */
+		@Override
+		public int hashCode() {
+			long h = __x * 0x9E3779B97F4A7C15L + __y;
+			h = h * 31 + Double.doubleToLongBits(__range);
+			return (int)(h ^ (h >>> 32)) ^ (__link ? 1 : 0);
+		}
+		/* @see java.lang.Object#equals(java.lang.Object) */
+		@Override
+		public boolean equals(Object obj) {
+			if( !(obj instanceof Key) ) { return false; }
+			Key key = Key.class.cast(obj);
+			return __link == key.__link && __x == key.__x && __y == key.__y && __range == key.__range;
+		}
+	}
+}
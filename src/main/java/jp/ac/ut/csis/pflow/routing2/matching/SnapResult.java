@@ -0,0 +1,129 @@
+package jp.ac.ut.csis.pflow.routing2.matching;
+
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+
+/**
+ * Class for result of bulk snapping. <br />
+ * results are kept in flat arrays in the order of the input coordinates.
+ * entries of points not snapped within the search range are null(node/link) and NaN(distance/ratio).
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ * @see BulkSnapping
+ */
+public class SnapResult {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** snapped nodes(null for link snapping)	*/	private Node[]   _nodes;
+	/** snapped links(null for node snapping)	*/	private Link[]   _links;
+	/** snap distances(m)						*/	private double[] _dists;
+	/** projection ratios(null for node snapping)*/	private double[] _ratios;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization
+	 * @param nodes snapped nodes
+	 * @param links snapped links
+	 * @param dists snap distances
+	 * @param ratios projection ratios along links
+	 */
+	protected SnapResult(Node[] nodes,Link[] links,double[] dists,double[] ratios) {
+		_nodes  = nodes;
+		_links  = links;
+		_dists  = dists;
+		_ratios = ratios;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get the number of input points
+	 * @return the number of points
+	 */
+	public int size() {
+		return _dists.length;
+	}
+
+	/**
+	 * check if the i-th point is snapped
+	 * @param i index of input point
+	 * @return result
+	 */
+	public boolean isValid(int i) {
+		return !Double.isNaN(_dists[i]);
+	}
+
+	/**
+	 * get snapped node of the i-th point
+	 * @param i index of input point
+	 * @return snapped node. null if not snapped or this is result of link snapping
+	 */
+	public Node getNode(int i) {
+		return _nodes == null ? null : _nodes[i];
+	}
+
+	/**
+	 * get snapped link of the i-th point
+	 * @param i index of input point
+	 * @return snapped link. null if not snapped or this is result of node snapping
+	 */
+	public Link getLink(int i) {
+		return _links == null ? null : _links[i];
+	}
+
+	/**
+	 * get snap distance of the i-th point
+	 * @param i index of input point
+	 * @return distance in meter. NaN if not snapped
+	 */
+	public double getDistance(int i) {
+		return _dists[i];
+	}
+
+	/**
+	 * get projection ratio(0-1) along the snapped link of the i-th point
+	 * @param i index of input point
+	 * @return ratio from the first point of link geometry. NaN if not snapped or this is result of node snapping
+	 */
+	public double getRatio(int i) {
+		return _ratios == null ? Double.NaN : _ratios[i];
+	}
+
+	/**
+	 * get array of snapped nodes
+	 * @return nodes(not copied). null for link snapping
+	 */
+	public Node[] getNodes() {
+		return _nodes;
+	}
+
+	/**
+	 * get array of snapped links
+	 * @return links(not copied). null for node snapping
+	 */
+	public Link[] getLinks() {
+		return _links;
+	}
+
+	/**
+	 * get array of snap distances
+	 * @return distances(not copied)
+	 */
+	public double[] getDistances() {
+		return _dists;
+	}
+
+	/**
+	 * get array of projection ratios
+	 * @return ratios(not copied). null for node snapping
+	 */
+	public double[] getRatios() {
+		return _ratios;
+	}
+}
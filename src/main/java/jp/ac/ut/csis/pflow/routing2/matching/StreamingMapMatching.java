@@ -0,0 +1,357 @@
+package jp.ac.ut.csis.pflow.routing2.matching;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.routing2.matching.HmmMapMatching.Candidate;
+import jp.ac.ut.csis.pflow.routing2.matching.HmmMapMatching.Tree;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.NearestNeighborSearch;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+
+/**
+ * Class for online map matching of point streams with fixed-lag Viterbi decoding. <br />
+ * points are pushed one at a time per device, and each device session keeps the Viterbi lattice of the
+ * points not finalized yet with the model of {@link HmmMapMatching}. matches are finalized and returned
+ * when all surviving paths share the same ancestor(convergence), or when the lattice exceeds the lag;
+ * in the latter case the ancestor of the current best candidate is chosen and inconsistent paths are pruned.
+ * memory of a session is bounded by lag * the number of candidates per point. <br />
+ * sessions not accessed within the idle timeout are closed by {@link #evictIdle()}, which finalizes
+ * their remaining points. pushes to different devices can be called from multiple threads,
+ * while points of one device must be pushed in the order of time.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class StreamingMapMatching {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default lag(the number of points)	*/	public static final int    LAG          = 10;
+	/** default idle timeout(ms)			*/	public static final long   IDLE_TIMEOUT = 300000L;	// 5 min
+	/** default search range(m)				*/	public static final double SEARCH_RANGE = 200d;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** network						*/	private Network                              _network;
+	/** model of map matching		*/	private HmmMapMatching                       _model;
+	/** search range of candidates	*/	private double                               _range;
+	/** lag							*/	private int                                  _lag;
+	/** idle timeout				*/	private long                                 _idleTimeout;
+	/** keep search trees			*/	private boolean                              _cacheTrees;
+	/** sessions by device id		*/	private ConcurrentHashMap<String,Session>    _sessions;
+	/** cache of link lengths		*/	private ConcurrentHashMap<Link,Double>       _lengths;
+	/** search instances by thread	*/	private ThreadLocal<NearestNeighborSearch>   _searches;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create instance with default parameters
+	 * @param network network data
+	 */
+	public StreamingMapMatching(Network network) {
+		this(network,new HmmMapMatching(),SEARCH_RANGE,LAG,IDLE_TIMEOUT);
+	}
+
+	/**
+	 * create instance
+	 * @param network network data
+	 * @param model model of map matching
+	 * @param range search range of candidates(m)
+	 * @param lag the maximum number of points kept unfinalized(>= 1)
+	 * @param idleTimeout idle timeout of sessions(ms)
+	 */
+	public StreamingMapMatching(final Network network,HmmMapMatching model,double range,int lag,long idleTimeout) {
+		if( lag < 1 ) { throw new IllegalArgumentException("unavailable value: lag=" + lag); }
+		_network     = network;
+		_model       = model;
+		_range       = range;
+		_lag         = lag;
+		_idleTimeout = idleTimeout;
+		_cacheTrees  = false;
+		_sessions    = new ConcurrentHashMap<String,Session>();
+		_lengths     = new ConcurrentHashMap<Link,Double>();
+		_searches    = new ThreadLocal<NearestNeighborSearch>() {
+			@Override
+			protected NearestNeighborSearch initialValue() {
+				return new NearestNeighborSearch(network);
+			}
+		};
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * set whether search trees are kept in the session between pushes. trees are always shared
+	 * among the candidates of one push; keeping them saves searches of the next push at the cost of
+	 * memory per session, so it is disabled by default for large numbers of sessions.
+	 * @param cacheTrees flag
+	 * @return this instance
+	 */
+	public StreamingMapMatching setCacheTrees(boolean cacheTrees) {
+		_cacheTrees = cacheTrees;
+		return this;
+	}
+
+	/**
+	 * get network
+	 * @return network
+	 */
+	public Network getNetwork() {
+		return _network;
+	}
+
+	/**
+	 * get lag
+	 * @return the maximum number of points kept unfinalized
+	 */
+	public int getLag() {
+		return _lag;
+	}
+
+	/**
+	 * get the number of open sessions
+	 * @return the number of sessions
+	 */
+	public int numSessions() {
+		return _sessions.size();
+	}
+
+	/**
+	 * push point of the device
+	 * @param device device id
+	 * @param point point
+	 * @return matching results finalized by this push in the order of points. empty if none
+	 */
+	public List<MatchingResult> push(String device,LonLat point) {
+		while( true ) {
+			Session session = _sessions.get(device);
+			if( session == null ) {
+				Session created = new Session();
+				session = _sessions.putIfAbsent(device,created);
+				if( session == null ) { session = created; }
+			}
+			synchronized(session) {
+				if( session.__closed ) { continue; }	// evicted concurrently
+				session.__access = System.currentTimeMillis();
+				return push(session,point);
+			}
+		}
+	}
+
+	/**
+	 * close the session of the device and finalize all remaining points
+	 * @param device device id
+	 * @return matching results of the remaining points. empty if no session
+	 */
+	public List<MatchingResult> flush(String device) {
+		Session session = _sessions.remove(device);
+		if( session == null ) { return new ArrayList<MatchingResult>(); }
+		synchronized(session) {
+			session.__closed = true;
+			List<MatchingResult> out = new ArrayList<MatchingResult>();
+			finalizeAll(session,out);
+			return out;
+		}
+	}
+
+	/**
+	 * close sessions idle longer than the timeout
+	 * @return matching results of the remaining points by device
+	 */
+	public Map<String,List<MatchingResult>> evictIdle() {
+		return evictIdle(System.currentTimeMillis());
+	}
+
+	/**
+	 * close sessions idle longer than the timeout at the indicated time
+	 * @param now current time(ms)
+	 * @return matching results of the remaining points by device
+	 */
+	public Map<String,List<MatchingResult>> evictIdle(long now) {
+		Map<String,List<MatchingResult>> result = new HashMap<String,List<MatchingResult>>();
+		for(Iterator<Map.Entry<String,Session>> itr=_sessions.entrySet().iterator();itr.hasNext();) {
+			Map.Entry<String,Session> entry   = itr.next();
+			Session                   session = entry.getValue();
+			synchronized(session) {
+				if( session.__closed || now - session.__access <= _idleTimeout ) { continue; }
+				session.__closed = true;
+				itr.remove();
+				List<MatchingResult> out = new ArrayList<MatchingResult>();
+				finalizeAll(session,out);
+				if( !out.isEmpty() ) { result.put(entry.getKey(),out); }
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * push point into the session
+	 * @param session device session
+	 * @param point point
+	 * @return finalized matching results
+	 */
+	private List<MatchingResult> push(Session session,LonLat point) {
+		List<MatchingResult> out  = new ArrayList<MatchingResult>();
+		Candidate[]          curr = _model.listCandidates(_searches.get(),_lengths,point,_range,0);
+		// case no candidate: close the lattice ///////////
+		if( curr.length == 0 ) {
+			finalizeAll(session,out);
+			out.add(new MatchingResult(point,null,null,Double.MAX_VALUE));
+			return out;
+		}
+		// Viterbi update /////////////////////////////////
+		Map<String,Tree> trees = session.__trees != null ? session.__trees : new HashMap<String,Tree>();
+		Step             last  = session.__steps.peekLast();
+		if( last == null || !_model.transit(trees,_lengths,last.__candidates,curr,DistanceUtils.distance(last.__point,point)) ) {
+			finalizeAll(session,out);
+			_model.restart(trees,curr);
+		}
+		session.__steps.addLast(new Step(point,curr));
+		_model.retainTrees(trees,curr);
+		session.__trees = _cacheTrees ? trees : null;
+		// finalize converged or lagged points ////////////
+		converge(session,out);
+		while( session.__steps.size() > _lag ) {
+			force(session,out);
+			converge(session,out);
+		}
+		return out;
+	}
+
+	/**
+	 * finalize points before the latest step where all surviving paths share the ancestor
+	 * @param session device session
+	 * @param out output results
+	 */
+	private void converge(Session session,List<MatchingResult> out) {
+		Step[]         steps = session.__steps.toArray(new Step[session.__steps.size()]);
+		Set<Candidate> live  = new HashSet<Candidate>();
+		for(Candidate c:steps[steps.length-1].__candidates) {
+			if( !Double.isInfinite(c.__score) ) { live.add(c); }
+		}
+		for(int i=steps.length-1;i>0;i--) {
+			Set<Candidate> prevs = new HashSet<Candidate>();
+			for(Candidate c:live) { prevs.add(c.__prev); }
+			live = prevs;
+			if( live.size() == 1 ) {
+				emit(session,i,live.iterator().next(),out);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * finalize the oldest point with the ancestor of the current best candidate
+	 * @param session device session
+	 * @param out output results
+	 */
+	private void force(Session session,List<MatchingResult> out) {
+		Candidate[] latest = session.__steps.peekLast().__candidates;
+		int         depth  = session.__steps.size() - 1;
+		Candidate   best   = null;
+		for(Candidate c:latest) {
+			if( best == null || c.__score > best.__score ) { best = c; }
+		}
+		Candidate root = ancestor(best,depth);
+		// prune paths not descending from the chosen one
+		for(Candidate c:latest) {
+			if( ancestor(c,depth) != root ) { c.__score = Double.NEGATIVE_INFINITY; }
+		}
+		emit(session,1,root,out);
+	}
+
+	/**
+	 * finalize all points of the session with the current best path
+	 * @param session device session
+	 * @param out output results
+	 */
+	private void finalizeAll(Session session,List<MatchingResult> out) {
+		if( session.__steps.isEmpty() ) { return; }
+		Candidate best = null;
+		for(Candidate c:session.__steps.peekLast().__candidates) {
+			if( best == null || c.__score > best.__score ) { best = c; }
+		}
+		emit(session,session.__steps.size(),best,out);
+		session.__trees = null;
+	}
+
+	/**
+	 * emit the oldest points of the session
+	 * @param session device session
+	 * @param count the number of points to emit
+	 * @param last chosen candidate of the last emitted point
+	 * @param out output results
+	 */
+	private void emit(Session session,int count,Candidate last,List<MatchingResult> out) {
+		List<Candidate> chain = new ArrayList<Candidate>(count);
+		for(Candidate c=last;chain.size()<count;c=c.__prev) { chain.add(c); }
+		Collections.reverse(chain);
+		for(Candidate c:chain) {
+			Step step = session.__steps.pollFirst();
+			out.add(new MatchingResult(step.__point,c.__point,c.__link,c.__dist));
+		}
+		// cut links to the finalized points
+		if( !session.__steps.isEmpty() ) {
+			for(Candidate c:session.__steps.peekFirst().__candidates) { c.__prev = null; c.__route = null; }
+		}
+	}
+
+	/**
+	 * get ancestor of the candidate
+	 * @param c candidate
+	 * @param depth the number of steps to trace back
+	 * @return ancestor
+	 */
+	private Candidate ancestor(Candidate c,int depth) {
+		for(int i=0;i<depth && c!=null;i++) { c = c.__prev; }
+		return c;
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/**
+	 * session of a device
+	 */
+	private static class Session {
+		/** unfinalized steps		*/	private ArrayDeque<Step>  __steps  = new ArrayDeque<Step>();
+		/** cached search trees		*/	private Map<String,Tree>  __trees  = null;
+		/** last access time		*/	private long              __access = 0L;
+		/** closed flag				*/	private boolean           __closed = false;
+	}
+
+	/**
+	 * step of Viterbi lattice
+	 */
+	private static class Step {
+		/** input point	*/	private LonLat      __point;
+		/** candidates	*/	private Candidate[] __candidates;
+
+		/**
+		 * initialization
+		 * @param point input point
+		 * @param candidates candidates of the point
+		 */
+		private Step(LonLat point,Candidate[] candidates) {
+			__point      = point;
+			__candidates = candidates;
+		}
+	}
+}
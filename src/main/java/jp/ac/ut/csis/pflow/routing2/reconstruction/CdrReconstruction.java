@@ -0,0 +1,623 @@
+package jp.ac.ut.csis.pflow.routing2.reconstruction;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.STPoint;
+import jp.ac.ut.csis.pflow.routing2.cache.LruCache;
+import jp.ac.ut.csis.pflow.routing2.loader.ACsvNetworkLoader.Delimiter;
+import jp.ac.ut.csis.pflow.routing2.logic.ARoutingLogic;
+import jp.ac.ut.csis.pflow.routing2.logic.IRoutingLogic;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+import jp.ac.ut.csis.pflow.routing2.sink.DelimitedSink;
+import jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder;
+
+/**
+ * Class for reconstructing trajectories from sparse observations at cell tower locations(call detail records). <br />
+ * each observed position is snapped to the nearest network node once per grid cell of {@link #TOWER_RESOLUTION}
+ * degrees(the snapped nodes of cells are kept in a bounded LRU cache), and the route between
+ * the snapped nodes of consecutive observations is searched once per node pair and kept in a bounded LRU cache as
+ * a compact polyline with cumulative distances. every observation gap is then interpolated on the polyline
+ * from the earlier to the later observation, at the points of the unit time grid(multiples of the unit time from
+ * the epoch) between them. by default the movement is at constant speed over the whole gap; with a travel speed,
+ * the subscriber stays at the earlier position and departs so as to arrive at the later observation in time. <br />
+ * an instance can be shared between threads, provided that the routing logic is safe to call from multiple threads.
+ * {@link #run(File,File)} reconstructs a file of records for many subscribers on a work-stealing pool.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class CdrReconstruction {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** Logger */
+	private static final Logger LOGGER = LogManager.getLogger(CdrReconstruction.class);
+
+	/** default unit time(s)						*/	public static final int    UNIT_TIME      = 60;
+	/** default cache size(tower pairs)			*/	public static final int    CACHE_SIZE     = Integer.getInteger("pflow.routing2.reconstruction.route_cache_size",1000000);
+	/** default cache weight(points)				*/	public static final long   CACHE_WEIGHT   = Long.getLong("pflow.routing2.reconstruction.route_cache_weight",50000000L);
+	/** cache size of snapped towers(cells)		*/	public static final int    TOWER_CACHE_SIZE = Integer.getInteger("pflow.routing2.reconstruction.tower_cache_size",1000000);
+	/** grid resolution of tower positions(deg)	*/	public static final double TOWER_RESOLUTION = 1e-5;
+	/** default time format						*/	public static final String TIME_FORMAT    = "yyyy-MM-dd HH:mm:ss";
+	/** subscribers in flight per thread			*/	private static final int   IN_FLIGHT_PER_THREAD = 16;
+
+	/** weight of cached paths */
+	private static final LruCache.Weigher<Pair,Path> WEIGHER = new LruCache.Weigher<Pair,Path>() {
+		public long weigh(Pair key,Path path) {
+			return 1L + path.__lons.length;
+		}
+	};
+
+	/** path of failed route search */
+	private static final Path NO_ROUTE = new Path(new double[0],new double[0],new double[0]);
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** network						*/	private Network                            _network;
+	/** routing logic				*/	private IRoutingLogic                      _logic;
+	/** unit time(ms)				*/	private long                               _unit;
+	/** travel speed(m/s)			*/	private double                             _speed;
+	/** the number of threads		*/	private int                                _numThreads;
+	/** delimiter type				*/	private Delimiter                          _delimiter;
+	/** flag for header				*/	private boolean                            _hasHeader;
+	/** column of subscriber id		*/	private int                                _idColumn;
+	/** column of time				*/	private int                                _timeColumn;
+	/** column of longitude			*/	private int                                _lonColumn;
+	/** column of latitude			*/	private int                                _latColumn;
+	/** time format					*/	private String                             _timeFormat;
+	/** snapped nodes of cells		*/	private LruCache<Cell,Tower>               _towers;
+	/** cache of tower-pair paths	*/	private LruCache<Pair,Path>                _paths;
+	/** the number of failed routes	*/	private AtomicLong                         _failures;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create instance with default cache bounds
+	 * @param network network data
+	 * @param logic routing logic. must be safe to call from multiple threads
+	 */
+	public CdrReconstruction(Network network,IRoutingLogic logic) {
+		this(network,logic,CACHE_SIZE,CACHE_WEIGHT);
+	}
+
+	/**
+	 * create instance with the indicated cache bounds
+	 * @param network network data
+	 * @param logic routing logic. must be safe to call from multiple threads
+	 * @param maxSize maximum number of cached tower pairs
+	 * @param maxWeight maximum total number of points in cached paths
+	 */
+	public CdrReconstruction(Network network,IRoutingLogic logic,int maxSize,long maxWeight) {
+		_network    = network;
+		_logic      = logic;
+		_unit       = UNIT_TIME * 1000L;
+		_speed      = 0d;
+		_numThreads = ARoutingLogic.NUM_THREADS;
+		_delimiter  = Delimiter.CSV;
+		_hasHeader  = false;
+		_idColumn   = 0;
+		_timeColumn = 1;
+		_lonColumn  = 2;
+		_latColumn  = 3;
+		_timeFormat = TIME_FORMAT;
+		_towers     = new LruCache<Cell,Tower>(TOWER_CACHE_SIZE);
+		_paths      = new LruCache<Pair,Path>(maxSize,maxWeight,WEIGHER);
+		_failures   = new AtomicLong();
+		_network.buildIndex();	// share network between threads
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * set unit time of interpolation
+	 * @param unitTimeInSecond unit time(s)
+	 * @return this instance
+	 */
+	public CdrReconstruction setUnitTime(int unitTimeInSecond) {
+		if( unitTimeInSecond <= 0 ) { throw new IllegalArgumentException("unavailable value: unitTimeInSecond=" + unitTimeInSecond); }
+		_unit = unitTimeInSecond * 1000L;
+		return this;
+	}
+
+	/**
+	 * set travel speed. with positive speed, the subscriber stays until departing to arrive at the next observation in time.
+	 * with 0, the subscriber moves at constant speed over the whole gap(default)
+	 * @param speed travel speed(m/s)
+	 * @return this instance
+	 */
+	public CdrReconstruction setTravelSpeed(double speed) {
+		if( speed < 0d ) { throw new IllegalArgumentException("unavailable value: speed=" + speed); }
+		_speed = speed;
+		return this;
+	}
+
+	/**
+	 * set the number of threads of {@link #run(File,File)}
+	 * @param numThreads the number of threads
+	 * @return this instance
+	 */
+	public CdrReconstruction setNumThreads(int numThreads) {
+		if( numThreads <= 0 ) { throw new IllegalArgumentException("unavailable value: numThreads=" + numThreads); }
+		_numThreads = numThreads;
+		return this;
+	}
+
+	/**
+	 * set input format of {@link #run(File,File)}. output is written in the same format
+	 * @param delimiter delimiter type
+	 * @param hasHeader flag for header existence
+	 * @param timeFormat time format of {@link SimpleDateFormat}
+	 * @return this instance
+	 */
+	public CdrReconstruction setFormat(Delimiter delimiter,boolean hasHeader,String timeFormat) {
+		new SimpleDateFormat(timeFormat);	// validate pattern
+		_delimiter  = delimiter;
+		_hasHeader  = hasHeader;
+		_timeFormat = timeFormat;
+		return this;
+	}
+
+	/**
+	 * set input columns(0-origin). default is subscriber id: 0, time: 1, longitude: 2, latitude: 3
+	 * @param idColumn column of subscriber id
+	 * @param timeColumn column of time
+	 * @param lonColumn column of longitude
+	 * @param latColumn column of latitude
+	 * @return this instance
+	 */
+	public CdrReconstruction setColumns(int idColumn,int timeColumn,int lonColumn,int latColumn) {
+		_idColumn   = idColumn;
+		_timeColumn = timeColumn;
+		_lonColumn  = lonColumn;
+		_latColumn  = latColumn;
+		return this;
+	}
+
+	/**
+	 * get the number of cached tower pairs
+	 * @return the number of entries
+	 */
+	public int numCachedRoutes() {
+		return _paths.size();
+	}
+
+	/**
+	 * get the number of snapped towers in the cache
+	 * @return the number of cached grid cells of observed positions
+	 */
+	public int numTowers() {
+		return _towers.size();
+	}
+
+	/**
+	 * get hit rate of the route cache
+	 * @return hit rate(0-1)
+	 */
+	public double getCacheHitRate() {
+		return _paths.getHitRate();
+	}
+
+	/**
+	 * get the number of tower pairs whose route was not found. such gaps are interpolated on the straight line
+	 * @return the number of failed route searches
+	 */
+	public long numFailedRoutes() {
+		return _failures.get();
+	}
+
+	/**
+	 * remove all cached routes. call this after changing link costs
+	 */
+	public void invalidate() {
+		_paths.clear();
+	}
+
+	/**
+	 * reconstruct the trajectory of a subscriber
+	 * @param observations observed points(time stamp or time span). sorted by time in the result
+	 * @return observed points and interpolated points of the unit time grid in the order of time
+	 */
+	public List<STPoint> reconstruct(List<? extends STPoint> observations) {
+		List<STPoint> result = new ArrayList<STPoint>();
+		if( observations.isEmpty() ) { return result; }
+		List<STPoint> sorted = new ArrayList<STPoint>(observations);
+		Collections.sort(sorted);
+
+		STPoint o0 = sorted.get(0);
+		Tower   w0 = snap(o0.getLon(),o0.getLat());
+		result.add(o0.clone());
+		for(int i=1;i<sorted.size();i++) {
+			STPoint o1 = sorted.get(i);
+			Tower   w1 = snap(o1.getLon(),o1.getLat());
+			long    t0 = (o0.getDtEnd() != null ? o0.getDtEnd() : o0.getDtStart()).getTime();
+			long    t1 = o1.getDtStart().getTime();
+			if( t0 < t1 ) { interpolate(result,w0,w1,t0,t1); }
+			result.add(o1.clone());
+			o0 = o1;
+			w0 = w1;
+		}
+		return result;
+	}
+
+	/**
+	 * interpolate the gap at the points of unit time grid
+	 * @param result output points
+	 * @param w0 earlier tower
+	 * @param w1 later tower
+	 * @param t0 departure time limit(ms)
+	 * @param t1 arrival time(ms)
+	 */
+	private void interpolate(List<STPoint> result,Tower w0,Tower w1,long t0,long t1) {
+		long g = (t0 >= 0L ? t0 / _unit : (t0 - _unit + 1L) / _unit) * _unit + _unit;	// first grid point after t0
+		if( g >= t1 ) { return; }
+		// composite polyline: w0 -> path -> w1 ///////////
+		Path   path = route(w0,w1);
+		int    M    = path.__lons.length;
+		double a    = M == 0 ? 0d : DistanceUtils.distance(w0.__lon,w0.__lat,path.__lons[0],path.__lats[0]);
+		double b    = M == 0 ? 0d : path.__cum[M-1];
+		double c    = M == 0 ? DistanceUtils.distance(w0.__lon,w0.__lat,w1.__lon,w1.__lat)
+						     : DistanceUtils.distance(path.__lons[M-1],path.__lats[M-1],w1.__lon,w1.__lat);
+		double L    = a + b + c;
+		double dep  = _speed > 0d ? Math.max(t0,t1 - 1000d * L / _speed) : t0;
+		// walk along the polyline with grid points ///////
+		int idx = 1;
+		for(;g<t1;g+=_unit) {
+			double s = g <= dep ? 0d : L * (g - dep) / (t1 - dep);
+			double lon,lat;
+			if( M == 0 || s <= a ) {	// first leg
+				double ex = M == 0 ? w1.__lon : path.__lons[0];
+				double ey = M == 0 ? w1.__lat : path.__lats[0];
+				double r  = M == 0 ? (L > 0d ? s / L : 0d) : (a > 0d ? s / a : 0d);
+				lon = w0.__lon + r * (ex - w0.__lon);
+				lat = w0.__lat + r * (ey - w0.__lat);
+			}
+			else if( s - a < b ) {		// along the route
+				double d = s - a;
+				while( path.__cum[idx] < d ) { idx++; }
+				double l = path.__cum[idx] - path.__cum[idx-1];
+				double r = l > 0d ? (d - path.__cum[idx-1]) / l : 0d;
+				lon = path.__lons[idx-1] + r * (path.__lons[idx] - path.__lons[idx-1]);
+				lat = path.__lats[idx-1] + r * (path.__lats[idx] - path.__lats[idx-1]);
+			}
+			else {						// last leg
+				double r = c > 0d ? (s - a - b) / c : 1d;
+				lon = path.__lons[M-1] + r * (w1.__lon - path.__lons[M-1]);
+				lat = path.__lats[M-1] + r * (w1.__lat - path.__lats[M-1]);
+			}
+			result.add(new STPoint(new Date(g),lon,lat));
+		}
+	}
+
+	/**
+	 * snap the observed position to the nearest node once per grid cell
+	 * @param lon longitude
+	 * @param lat latitude
+	 * @return tower at the position with the snapped node of the cell(null node if not found)
+	 */
+	private Tower snap(double lon,double lat) {
+		Cell  cell  = new Cell(lon,lat);
+		Tower tower = _towers.get(cell);
+		if( tower == null ) {
+			tower = new Tower(lon,lat,_logic.getNearestNode(_network,lon,lat));
+			_towers.put(cell,tower);
+		}
+		return tower.__lon == lon && tower.__lat == lat ? tower : new Tower(lon,lat,tower.__node);
+	}
+
+	/**
+	 * get the path between snapped nodes of the towers from the cache, or search it
+	 * @param w0 earlier tower
+	 * @param w1 later tower
+	 * @return path. empty if the towers share the node or no route is found
+	 */
+	private Path route(Tower w0,Tower w1) {
+		if( w0.__node == null || w1.__node == null || w0.__node.equals(w1.__node) ) { return NO_ROUTE; }
+		Pair pair = new Pair(w0.__node.getNodeID(),w1.__node.getNodeID());
+		Path path = _paths.get(pair);
+		if( path == null ) {
+			Route route = _logic.getRoute(_network,w0.__node,w1.__node);
+			if( route == null || route.numNodes() == 0 ) {
+				_failures.incrementAndGet();
+				path = NO_ROUTE;
+			}
+			else {
+				int      N    = route.numNodes();
+				double[] lons = new double[N];
+				double[] lats = new double[N];
+				double[] cum  = new double[N];
+				for(int i=0;i<N;i++) {
+					Node node = route.getNode(i);
+					lons[i] = node.getLon();
+					lats[i] = node.getLat();
+					cum[i]  = i == 0 ? 0d : cum[i-1] + DistanceUtils.distance(lons[i-1],lats[i-1],lons[i],lats[i]);
+				}
+				path = new Path(lons,lats,cum);
+			}
+			_paths.put(pair,path);
+		}
+		return path;
+	}
+
+	/**
+	 * reconstruct trajectories of all subscribers in the file. records must be grouped by subscriber id.
+	 * output has subscriber id, time, longitude and latitude of each point in the input format and subscriber order
+	 * @param input input file
+	 * @param output output file(overwritten)
+	 * @return the number of subscribers
+	 * @throws IOException failed to read or write
+	 */
+	public long run(File input,File output) throws IOException {
+		DateFormat   format = new SimpleDateFormat(_timeFormat);
+		ForkJoinPool pool   = new ForkJoinPool(_numThreads);
+		try(BufferedReader           br   = new BufferedReader(new FileReader(input));
+			DelimitedSink<Trajectory> sink = new DelimitedSink<Trajectory>(output,new Encoder(),_delimiter,_hasHeader)) {
+			ArrayDeque<Future<Trajectory>> pendings = new ArrayDeque<Future<Trajectory>>();
+			int                            limit    = _numThreads * IN_FLIGHT_PER_THREAD;
+			long                           lines    = 0L;
+			String                         userid   = null;
+			List<STPoint>                  points   = new ArrayList<STPoint>();
+			String                         line;
+			if( _hasHeader ) { br.readLine(); lines++; }
+			while( (line=br.readLine()) != null ) {
+				lines++;
+				String[] tokens = line.split(_delimiter == Delimiter.TSV ? "\t" : ",",-1);
+				if( tokens.length <= _idColumn ) {
+					LOGGER.warn("skip invalid line " + lines + ": " + line);
+					continue;
+				}
+				if( userid != null && !userid.equals(tokens[_idColumn]) ) {
+					pendings.add(submit(pool,userid,points));
+					points = new ArrayList<STPoint>();
+					// commit the oldest subscribers ======
+					while( pendings.size() >= limit ) { commit(pendings.poll(),sink); }
+				}
+				userid = tokens[_idColumn];
+				try {
+					points.add(new STPoint(format.parse(tokens[_timeColumn]),Double.parseDouble(tokens[_lonColumn]),Double.parseDouble(tokens[_latColumn])));
+				}
+				catch(ParseException|NumberFormatException|ArrayIndexOutOfBoundsException exp) {
+					LOGGER.warn("skip invalid line " + lines + ": " + line);
+				}
+			}
+			if( userid != null ) { pendings.add(submit(pool,userid,points)); }
+			while( !pendings.isEmpty() ) { commit(pendings.poll(),sink); }
+			LOGGER.info("reconstructed " + sink.numRecords() + " subscribers, " + sink.numRows() + " points(cache hit rate " + getCacheHitRate() + ")");
+			return sink.numRecords();
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * submit reconstruction of the subscriber
+	 * @param pool thread pool
+	 * @param userid subscriber id
+	 * @param points observations
+	 * @return pending task
+	 */
+	private Future<Trajectory> submit(ForkJoinPool pool,final String userid,final List<STPoint> points) {
+		return pool.submit(new Callable<Trajectory>() {
+			@Override
+			public Trajectory call() throws Exception {
+				List<STPoint> result = reconstruct(points);
+				String[]      times  = new String[result.size()];
+				DateFormat    format = new SimpleDateFormat(_timeFormat);
+				for(int i=0;i<times.length;i++) { times[i] = format.format(result.get(i).getDtStart()); }
+				return new Trajectory(userid,result,times);
+			}
+		});
+	}
+
+	/**
+	 * write the reconstructed trajectory
+	 * @param pending pending task
+	 * @param sink output sink
+	 * @throws IOException failed to write
+	 */
+	private void commit(Future<Trajectory> pending,DelimitedSink<Trajectory> sink) throws IOException {
+		try {
+			sink.write(pending.get());
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted",exp);
+		}
+		catch(ExecutionException exp) {
+			throw new IllegalStateException("failed to reconstruct trajectory",exp.getCause());
+		}
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/**
+	 * observed position with the snapped node
+	 */
+	private static class Tower {
+		/** longitude		*/	private double __lon;
+		/** latitude		*/	private double __lat;
+		/** snapped node	*/	private Node   __node;
+
+		/**
+		 * initialization
+		 * @param lon longitude
+		 * @param lat latitude
+		 * @param node snapped node
+		 */
+		private Tower(double lon,double lat,Node node) {
+			__lon  = lon;
+			__lat  = lat;
+			__node = node;
+		}
+	}
+
+	/**
+	 * key of grid cell of {@link CdrReconstruction#TOWER_RESOLUTION} degrees
+	 */
+	private static class Cell {
+		/** column	*/	private long __x;
+		/** row		*/	private long __y;
+
+		/**
+		 * initialization
+		 * @param lon longitude
+		 * @param lat latitude
+		 */
+		private Cell(double lon,double lat) {
+			__x = Math.round(lon / TOWER_RESOLUTION);
+			__y = Math.round(lat / TOWER_RESOLUTION);
+		}
+
+		/* @see java.lang.Object#hashCode() */
+		@Override
+		public int hashCode() {
+			long bits = __x * 31L + __y;
+			return (int)(bits ^ (bits >>> 32));
+		}
+
+		/* @see java.lang.Object#equals(java.lang.Object) */
+		@Override
+		public boolean equals(Object obj) {
+			if( !(obj instanceof Cell) ) { return false; }
+			Cell cell = Cell.class.cast(obj);
+			return __x == cell.__x && __y == cell.__y;
+		}
+	}
+
+	/**
+	 * key of node pair
+	 */
+	private static class Pair {
+		/** departure node id	*/	private String __dep;
+		/** arrival node id		*/	private String __arr;
+
+		/**
+		 * initialization
+		 * @param dep departure node id
+		 * @param arr arrival node id
+		 */
+		private Pair(String dep,String arr) {
+			__dep = dep;
+			__arr = arr;
+		}
+
+		/* @see java.lang.Object#hashCode() */
+		@Override
+		public int hashCode() {
+			return __dep.hashCode() * 31 + __arr.hashCode();
+		}
+
+		/* @see java.lang.Object#equals(java.lang.Object) */
+		@Override
+		public boolean equals(Object obj) {
+			if( !(obj instanceof Pair) ) { return false; }
+			Pair pair = Pair.class.cast(obj);
+			return __dep.equals(pair.__dep) && __arr.equals(pair.__arr);
+		}
+	}
+
+	/**
+	 * compact polyline of route with cumulative distances
+	 */
+	private static class Path {
+		/** longitudes				*/	private double[] __lons;
+		/** latitudes				*/	private double[] __lats;
+		/** cumulative distances(m)	*/	private double[] __cum;
+
+		/**
+		 * initialization
+		 * @param lons longitudes
+		 * @param lats latitudes
+		 * @param cum cumulative distances(m)
+		 */
+		private Path(double[] lons,double[] lats,double[] cum) {
+			__lons = lons;
+			__lats = lats;
+			__cum  = cum;
+		}
+	}
+
+	/**
+	 * reconstructed trajectory of a subscriber
+	 */
+	private static class Trajectory {
+		/** subscriber id		*/	private String        __id;
+		/** points				*/	private List<STPoint> __points;
+		/** formatted times		*/	private String[]      __times;
+
+		/**
+		 * initialization
+		 * @param id subscriber id
+		 * @param points points
+		 * @param times formatted times of the points
+		 */
+		private Trajectory(String id,List<STPoint> points,String[] times) {
+			__id     = id;
+			__points = points;
+			__times  = times;
+		}
+	}
+
+	/**
+	 * encoder of reconstructed trajectories: one row per point
+	 */
+	private static class Encoder implements IRecordEncoder<Trajectory> {
+		/** column names	*/	private static final List<String>     NAMES = Arrays.asList("id","time","lon","lat");
+		/** column types	*/	private static final List<ColumnType> TYPES = Arrays.asList(ColumnType.STRING,ColumnType.STRING,ColumnType.DOUBLE,ColumnType.DOUBLE);
+
+		/* @see jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder#getColumnNames() */
+		@Override
+		public List<String> getColumnNames() {
+			return NAMES;
+		}
+
+		/* @see jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder#getColumnTypes() */
+		@Override
+		public List<ColumnType> getColumnTypes() {
+			return TYPES;
+		}
+
+		/* @see jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder#encode(long, java.lang.Object, jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.RowWriter) */
+		@Override
+		public void encode(long index,Trajectory record,RowWriter row) {
+			for(int i=0;i<record.__times.length;i++) {
+				STPoint p = record.__points.get(i);
+				row.putString(record.__id);
+				row.putString(record.__times[i]);
+				row.putDouble(p.getLon());
+				row.putDouble(p.getLat());
+				row.endRow();
+			}
+		}
+	}
+}
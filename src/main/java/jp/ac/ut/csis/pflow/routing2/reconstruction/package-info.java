@@ -0,0 +1,6 @@
+/**
+ * package for trajectory reconstruction from sparse observations
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+package jp.ac.ut.csis.pflow.routing2.reconstruction;
@@ -0,0 +1,347 @@
+package jp.ac.ut.csis.pflow.routing2.res;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Class for compact, read-only representation of {@link Network} for fast route search. <br />
+ * nodes and links are numbered 0..N-1 and 0..M-1, and out-flow edges of each node are stored in
+ * CSR(compressed sparse row) arrays. an edge is one traversable direction of a link, so a two-way link
+ * yields two edges. edges of node i are {@code getOutStart()[i]} to {@code getOutStart()[i+1]-1}, and
+ * in-flow edges are indexed by {@link #getInStart()}/{@link #getInEdges()}. <br />
+ * the graph holds named {@link CostProfile}s, primitive cost arrays compiled from link costs.
+ * profiles are immutable and replaced atomically by {@link #update(String)}, so a query holding a profile
+ * keeps consistent costs while newer versions are published. arrays returned by getters are not copied
+ * and must not be modified.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class CompactGraph {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** source network			*/	private Network                           _network;
+	/** network version			*/	private long                              _version;
+	/** nodes by index			*/	private Node[]                            _nodes;
+	/** links by index			*/	private Link[]                            _links;
+	/** node index by ID		*/	private Map<String,Integer>               _nodeIds;
+	/** link index by ID		*/	private Map<String,Integer>               _linkIds;
+	/** first edge of node		*/	private int[]                             _outStart;
+	/** tail node of edge		*/	private int[]                             _edgeTail;
+	/** head node of edge		*/	private int[]                             _edgeHead;
+	/** link of edge			*/	private int[]                             _edgeLink;
+	/** reverse flag of edge	*/	private boolean[]                         _edgeRev;
+	/** edges of link			*/	private int[]                             _linkEdges;
+	/** first in-edge of node	*/	private int[]                             _inStart;
+	/** in-edges by head node	*/	private int[]                             _inEdges;
+	/** cost profiles			*/	private ConcurrentMap<String,CostProfile> _profiles;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create compact graph from the network. later modification of the network is not reflected
+	 * @param network network data
+	 */
+	public CompactGraph(Network network) {
+		_network  = network;
+		_version  = network.getVersion();
+		_profiles = new ConcurrentHashMap<String,CostProfile>();
+
+		// number nodes and links /////////////////////////
+		List<Node> nodes = network.listNodes();
+		List<Link> links = network.listLinks();
+		int N = nodes.size();
+		int M = links.size();
+		_nodes   = nodes.toArray(new Node[N]);
+		_links   = links.toArray(new Link[M]);
+		_nodeIds = new HashMap<String,Integer>(N*4/3+1);
+		_linkIds = new HashMap<String,Integer>(M*4/3+1);
+		for(int i=0;i<N;i++) { _nodeIds.put(_nodes[i].getNodeID(),i); }
+		for(int i=0;i<M;i++) { _linkIds.put(_links[i].getLinkID(),i); }
+
+		// build CSR arrays of out-flow edges /////////////
+		_outStart = new int[N+1];
+		List<int[]> edges = new ArrayList<int[]>();	// {head,link,rev}
+		for(int i=0;i<N;i++) {
+			_outStart[i] = edges.size();
+			Node node = _nodes[i];
+			for(Link link:node.listOutLinks()) {
+				Integer lid = _linkIds.get(link.getLinkID());
+				if( lid == null ) { continue; }	// link out of network
+				boolean rev  = node.equals(link.getHeadNode());
+				Integer head = _nodeIds.get(rev ? link.getTailNode().getNodeID() : link.getHeadNode().getNodeID());
+				if( head == null ) { continue; }
+				edges.add(new int[]{head,lid,rev?1:0});
+			}
+		}
+		_outStart[N] = edges.size();
+		int E = edges.size();
+		_edgeTail = new int[E];
+		_edgeHead = new int[E];
+		_edgeLink = new int[E];
+		_edgeRev  = new boolean[E];
+		for(int i=0;i<N;i++) {
+			for(int e=_outStart[i];e<_outStart[i+1];e++) {
+				int[] edge = edges.get(e);
+				_edgeTail[e] = i;
+				_edgeHead[e] = edge[0];
+				_edgeLink[e] = edge[1];
+				_edgeRev[e]  = edge[2] == 1;
+			}
+		}
+		// build in-edge arrays grouped by head node //////
+		_inStart = new int[N+1];
+		_inEdges = new int[E];
+		for(int e=0;e<E;e++) { _inStart[_edgeHead[e]+1]++; }
+		for(int i=0;i<N;i++) { _inStart[i+1] += _inStart[i]; }
+		int[] fill = Arrays.copyOf(_inStart,N);
+		for(int e=0;e<E;e++) { _inEdges[fill[_edgeHead[e]]++] = e; }
+		_linkEdges = new int[2*M];
+		Arrays.fill(_linkEdges,-1);
+		for(int e=0;e<E;e++) { _linkEdges[2*_edgeLink[e]+(_edgeRev[e]?1:0)] = e; }
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get source network
+	 * @return network
+	 */
+	public Network getNetwork() {
+		return _network;
+	}
+
+	/**
+	 * check if the source network is modified after building this graph
+	 * @return result
+	 */
+	public boolean isStale() {
+		return _version != _network.getVersion();
+	}
+
+	/**
+	 * get the number of nodes
+	 * @return the number of nodes
+	 */
+	public int numNodes() {
+		return _nodes.length;
+	}
+
+	/**
+	 * get the number of links
+	 * @return the number of links
+	 */
+	public int numLinks() {
+		return _links.length;
+	}
+
+	/**
+	 * get the number of edges(traversable link directions)
+	 * @return the number of edges
+	 */
+	public int numEdges() {
+		return _edgeHead.length;
+	}
+
+	/**
+	 * get node of the index
+	 * @param idx node index
+	 * @return node
+	 */
+	public Node getNode(int idx) {
+		return _nodes[idx];
+	}
+
+	/**
+	 * get link of the index
+	 * @param idx link index
+	 * @return link
+	 */
+	public Link getLink(int idx) {
+		return _links[idx];
+	}
+
+	/**
+	 * get index of the node
+	 * @param node node
+	 * @return node index. -1 if not included
+	 */
+	public int indexOf(Node node) {
+		return node == null ? -1 : indexOfNode(node.getNodeID());
+	}
+
+	/**
+	 * get index of the link
+	 * @param link link
+	 * @return link index. -1 if not included
+	 */
+	public int indexOf(Link link) {
+		return link == null ? -1 : indexOfLink(link.getLinkID());
+	}
+
+	/**
+	 * get index of the node ID
+	 * @param nodeid node ID
+	 * @return node index. -1 if not included
+	 */
+	public int indexOfNode(String nodeid) {
+		Integer idx = _nodeIds.get(nodeid);
+		return idx == null ? -1 : idx;
+	}
+
+	/**
+	 * get index of the link ID
+	 * @param linkid link ID
+	 * @return link index. -1 if not included
+	 */
+	public int indexOfLink(String linkid) {
+		Integer idx = _linkIds.get(linkid);
+		return idx == null ? -1 : idx;
+	}
+
+	/**
+	 * get first edge index of each node. the array has N+1 elements
+	 * @return first edge indexes(not copied)
+	 */
+	public int[] getOutStart() {
+		return _outStart;
+	}
+
+	/**
+	 * get tail node index of each edge
+	 * @return tail node indexes(not copied)
+	 */
+	public int[] getEdgeTail() {
+		return _edgeTail;
+	}
+
+	/**
+	 * get head node index of each edge
+	 * @return head node indexes(not copied)
+	 */
+	public int[] getEdgeHead() {
+		return _edgeHead;
+	}
+
+	/**
+	 * get link index of each edge
+	 * @return link indexes(not copied)
+	 */
+	public int[] getEdgeLink() {
+		return _edgeLink;
+	}
+
+	/**
+	 * get direction of each edge
+	 * @return true if the edge runs from head node to tail node of the link(not copied)
+	 */
+	public boolean[] getEdgeReverse() {
+		return _edgeRev;
+	}
+
+	/**
+	 * get first in-edge position of each node in {@link #getInEdges()}. the array has N+1 elements
+	 * @return first in-edge positions(not copied)
+	 */
+	public int[] getInStart() {
+		return _inStart;
+	}
+
+	/**
+	 * get edge indexes grouped by head node. in-edges of node i are {@code getInEdges()[getInStart()[i]]}
+	 * to {@code getInEdges()[getInStart()[i+1]-1]}
+	 * @return edge indexes(not copied)
+	 */
+	public int[] getInEdges() {
+		return _inEdges;
+	}
+
+	/**
+	 * get edge of the link direction
+	 * @param idx link index
+	 * @param rev true for head to tail direction
+	 * @return edge index. -1 if the direction is not traversable
+	 */
+	public int getLinkEdge(int idx,boolean rev) {
+		return _linkEdges[2*idx+(rev?1:0)];
+	}
+
+	/**
+	 * register cost profile with per-link costs. an existing profile of the same name is replaced,
+	 * and the new profile gets the next version
+	 * @param name profile name
+	 * @param costs link costs(tail to head) indexed by link index
+	 * @param revCosts reverse link costs(head to tail) indexed by link index
+	 * @return registered profile
+	 */
+	public CostProfile addProfile(String name,double[] costs,double[] revCosts) {
+		while( true ) {
+			CostProfile old     = _profiles.get(name);
+			CostProfile profile = new CostProfile(this,name,old == null ? 0L : old.getVersion()+1,costs,revCosts);
+			if( old == null ? _profiles.putIfAbsent(name,profile) == null : _profiles.replace(name,old,profile) ) { return profile; }
+		}
+	}
+
+	/**
+	 * start batch update of the profile. updates are published atomically by {@link CostUpdate#publish()}
+	 * @param name profile name
+	 * @return cost update
+	 */
+	public CostUpdate update(String name) {
+		return new CostUpdate(this,name);
+	}
+
+	/**
+	 * replace profile if it is not replaced by others
+	 * @param base current profile
+	 * @param next new profile
+	 * @return true if replaced
+	 */
+	boolean replaceProfile(CostProfile base,CostProfile next) {
+		return _profiles.replace(base.getName(),base,next);
+	}
+
+	/**
+	 * get cost profile
+	 * @param name profile name
+	 * @return cost profile. null if not registered
+	 */
+	public CostProfile getProfile(String name) {
+		return _profiles.get(name);
+	}
+
+	/**
+	 * check if the profile is registered
+	 * @param name profile name
+	 * @return result
+	 */
+	public boolean hasProfile(String name) {
+		return _profiles.containsKey(name);
+	}
+
+	/**
+	 * list names of registered profiles
+	 * @return profile names
+	 */
+	public List<String> listProfileNames() {
+		return new ArrayList<String>(_profiles.keySet());
+	}
+
+	/**
+	 * remove cost profile
+	 * @param name profile name
+	 * @return removed profile. null if not registered
+	 */
+	public CostProfile removeProfile(String name) {
+		return _profiles.remove(name);
+	}
+}
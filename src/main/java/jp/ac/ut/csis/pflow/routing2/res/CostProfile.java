@@ -0,0 +1,175 @@
+package jp.ac.ut.csis.pflow.routing2.res;
+
+/**
+ * Class for link costs of {@link CompactGraph} compiled into primitive arrays. <br />
+ * costs are held per link(forward/reverse) and per edge, so route search reads the edge array
+ * in its inner loop without virtual calls. an instance is immutable; arrays returned by getters
+ * are not copied and must not be modified.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class CostProfile {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** graph				*/	private CompactGraph _graph;
+	/** profile name		*/	private String       _name;
+	/** version				*/	private long         _version;
+	/** link costs			*/	private double[]     _costs;
+	/** reverse link costs	*/	private double[]     _revCosts;
+	/** edge costs			*/	private double[]     _edgeCosts;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create profile
+	 * @param graph graph
+	 * @param name profile name
+	 * @param version version
+	 * @param costs link costs indexed by link index
+	 * @param revCosts reverse link costs indexed by link index
+	 */
+	protected CostProfile(CompactGraph graph,String name,long version,double[] costs,double[] revCosts) {
+		// error handle ///////////////////////////////////
+		if( costs.length != graph.numLinks() || revCosts.length != graph.numLinks() ) {
+			throw new IllegalArgumentException("array length must be " + graph.numLinks());
+		}
+		// initialization /////////////////////////////////
+		_graph    = graph;
+		_name     = name;
+		_version  = version;
+		_costs    = costs;
+		_revCosts = revCosts;
+
+		// expand link costs to edges /////////////////////
+		int[]     edgeLink = graph.getEdgeLink();
+		boolean[] edgeRev  = graph.getEdgeReverse();
+		_edgeCosts = new double[edgeLink.length];
+		for(int e=0;e<edgeLink.length;e++) {
+			_edgeCosts[e] = edgeRev[e] ? revCosts[edgeLink[e]] : costs[edgeLink[e]];
+		}
+	}
+
+	/**
+	 * create profile with edge costs already expanded
+	 * @param base base profile
+	 * @param version version
+	 * @param costs link costs
+	 * @param revCosts reverse link costs
+	 * @param edgeCosts edge costs
+	 */
+	private CostProfile(CostProfile base,long version,double[] costs,double[] revCosts,double[] edgeCosts) {
+		_graph     = base._graph;
+		_name      = base._name;
+		_version   = version;
+		_costs     = costs;
+		_revCosts  = revCosts;
+		_edgeCosts = edgeCosts;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get graph of this profile
+	 * @return graph
+	 */
+	public CompactGraph getGraph() {
+		return _graph;
+	}
+
+	/**
+	 * get profile name
+	 * @return profile name
+	 */
+	public String getName() {
+		return _name;
+	}
+
+	/**
+	 * get version of this profile
+	 * @return version
+	 */
+	public long getVersion() {
+		return _version;
+	}
+
+	/**
+	 * get cost of the link(tail to head)
+	 * @param idx link index
+	 * @return link cost
+	 */
+	public double getCost(int idx) {
+		return _costs[idx];
+	}
+
+	/**
+	 * get reverse cost of the link(head to tail)
+	 * @param idx link index
+	 * @return reverse link cost
+	 */
+	public double getReverseCost(int idx) {
+		return _revCosts[idx];
+	}
+
+	/**
+	 * get link costs
+	 * @return link costs indexed by link index(not copied)
+	 */
+	public double[] getCosts() {
+		return _costs;
+	}
+
+	/**
+	 * get reverse link costs
+	 * @return reverse link costs indexed by link index(not copied)
+	 */
+	public double[] getReverseCosts() {
+		return _revCosts;
+	}
+
+	/**
+	 * get edge costs
+	 * @return edge costs indexed by edge index(not copied)
+	 */
+	public double[] getEdgeCosts() {
+		return _edgeCosts;
+	}
+
+	/**
+	 * create the next version of this profile with updated link costs. this profile is not modified
+	 * @param links link indexes
+	 * @param costs new link costs. NaN to keep
+	 * @param revCosts new reverse link costs. NaN to keep
+	 * @param size the number of updates
+	 * @return new profile
+	 */
+	CostProfile apply(int[] links,double[] costs,double[] revCosts,int size) {
+		double[] c  = _costs.clone();
+		double[] rc = _revCosts.clone();
+		double[] ec = _edgeCosts.clone();
+		for(int i=0;i<size;i++) {
+			int idx = links[i];
+			if( !Double.isNaN(costs[i]) ) {
+				c[idx] = costs[i];
+				int e  = _graph.getLinkEdge(idx,false);
+				if( e >= 0 ) { ec[e] = costs[i]; }
+			}
+			if( !Double.isNaN(revCosts[i]) ) {
+				rc[idx] = revCosts[i];
+				int e   = _graph.getLinkEdge(idx,true);
+				if( e >= 0 ) { ec[e] = revCosts[i]; }
+			}
+		}
+		return new CostProfile(this,_version+1,c,rc,ec);
+	}
+
+	/* @see java.lang.Object#toString() */
+	@Override
+	public String toString() {
+		return String.format("%s(version=%d)",_name,_version);
+	}
+}
@@ -0,0 +1,137 @@
+package jp.ac.ut.csis.pflow.routing2.res;
+
+import java.util.Arrays;
+
+/**
+ * Class for batch update of {@link CostProfile}. <br />
+ * per-link cost changes are collected, then {@link #publish()} copies the current profile, applies the
+ * changes and replaces the profile atomically with the next version. queries that already hold the old
+ * profile continue with it, and queries started after publication see the new one. if the profile is
+ * replaced by another thread in the meantime, the changes are applied again on top of it. <br />
+ * an instance is not thread-safe; use one instance per updating thread.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class CostUpdate {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** graph				*/	private CompactGraph _graph;
+	/** profile name		*/	private String       _name;
+	/** updated links		*/	private int[]        _links;
+	/** new costs			*/	private double[]     _costs;
+	/** new reverse costs	*/	private double[]     _revCosts;
+	/** the number of updates*/	private int          _size;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create update of the profile
+	 * @param graph graph
+	 * @param name profile name
+	 */
+	protected CostUpdate(CompactGraph graph,String name) {
+		_graph    = graph;
+		_name     = name;
+		_links    = new int[16];
+		_costs    = new double[16];
+		_revCosts = new double[16];
+		_size     = 0;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * set link cost(tail to head)
+	 * @param link link
+	 * @param cost new cost. positive infinity to close the direction
+	 * @return this instance
+	 */
+	public CostUpdate setCost(Link link,double cost) {
+		return set(indexOf(link),cost,Double.NaN);
+	}
+
+	/**
+	 * set reverse link cost(head to tail)
+	 * @param link link
+	 * @param cost new reverse cost. positive infinity to close the direction
+	 * @return this instance
+	 */
+	public CostUpdate setReverseCost(Link link,double cost) {
+		return set(indexOf(link),Double.NaN,cost);
+	}
+
+	/**
+	 * set link costs of both directions
+	 * @param idx link index
+	 * @param cost new cost
+	 * @param revCost new reverse cost
+	 * @return this instance
+	 */
+	public CostUpdate setCosts(int idx,double cost,double revCost) {
+		return set(idx,cost,revCost);
+	}
+
+	/**
+	 * get the number of collected changes
+	 * @return the number of changes
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * apply the changes and publish the next version of the profile atomically
+	 * @return published profile
+	 */
+	public CostProfile publish() {
+		while( true ) {
+			CostProfile base = _graph.getProfile(_name);
+			if( base == null ) { throw new IllegalArgumentException("unavailable profile: " + _name); }
+			CostProfile next = base.apply(_links,_costs,_revCosts,_size);
+			if( _graph.replaceProfile(base,next) ) {
+				_size = 0;
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * get link index
+	 * @param link link
+	 * @return link index
+	 */
+	private int indexOf(Link link) {
+		int idx = _graph.indexOf(link);
+		if( idx < 0 ) { throw new IllegalArgumentException("link not in graph: " + (link == null ? null : link.getLinkID())); }
+		return idx;
+	}
+
+	/**
+	 * record change. later changes of the same link override earlier ones
+	 * @param idx link index
+	 * @param cost new cost. NaN to keep
+	 * @param revCost new reverse cost. NaN to keep
+	 * @return this instance
+	 */
+	private CostUpdate set(int idx,double cost,double revCost) {
+		// error handle ///////////////////////////////////
+		if( idx < 0 || idx >= _graph.numLinks() ) { throw new IllegalArgumentException("unavailable value: " + idx); }
+		if( cost < 0d || revCost < 0d ) { throw new IllegalArgumentException("unavailable value: " + cost + "," + revCost); }
+		// append /////////////////////////////////////////
+		if( _size == _links.length ) {
+			_links    = Arrays.copyOf(_links,_size*2);
+			_costs    = Arrays.copyOf(_costs,_size*2);
+			_revCosts = Arrays.copyOf(_revCosts,_size*2);
+		}
+		_links[_size]    = idx;
+		_costs[_size]    = cost;
+		_revCosts[_size] = revCost;
+		_size++;
+		return this;
+	}
+}
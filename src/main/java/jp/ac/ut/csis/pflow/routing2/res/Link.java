@@ -2,6 +2,7 @@ package jp.ac.ut.csis.pflow.routing2.res;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import jp.ac.ut.csis.pflow.geom.DistanceUtils;
 import jp.ac.ut.csis.pflow.geom.LonLat;
@@ -18,6 +19,9 @@ public class Link implements Serializable, Cloneable {
 	 * ============================================================== */
 	/** Serial */	private static final long serialVersionUID = -9058532949182281951L;
 	
+	/** modification count of link costs of all links */
+	private static final AtomicLong COST_VERSION = new AtomicLong(0L);
+	
 	
 	/* ==============================================================
 	 * instance fields
@@ -31,6 +35,19 @@ public class Link implements Serializable, Cloneable {
 	/** link geometry(Line)    */	private List<LonLat> _geometry;
 	
 	
+	/* ==============================================================
+	 * static methods
+	 * ============================================================== */
+	/**
+	 * get modification count of link costs. the value increases whenever {@link #setCost(double)} or 
+	 * {@link #setReverseCost(double)} is called on any link
+	 * @return cost version
+	 */
+	public static long getCostVersion() {
+		return COST_VERSION.get();
+	}
+	
+	
 	/* ==============================================================
 	 * constructors
 	 * ============================================================== */
@@ -177,6 +194,7 @@ public class Link implements Serializable, Cloneable {
 	 */
 	public void setCost(double cost) {
 		_cost = cost;
+		COST_VERSION.incrementAndGet();
 	}
 	
 	/**
@@ -193,6 +211,7 @@ public class Link implements Serializable, Cloneable {
 	 */
 	public void setReverseCost(double revCost) { 
 		_revCost = revCost;
+		COST_VERSION.incrementAndGet();
 	}
 	
 	/**
@@ -0,0 +1,351 @@
+package jp.ac.ut.csis.pflow.routing2.res;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.SpatialIndex;
+import com.vividsolutions.jts.index.strtree.AbstractNode;
+import com.vividsolutions.jts.index.strtree.ItemBoundable;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.PolylineProjection;
+
+/**
+ * Class for k-nearest node/link search over the spatial indexes of {@link Network}. <br />
+ * the index tree is traversed best-first, ordered by the distance from the query point to each envelope,
+ * and exact point-to-polyline distance is evaluated only for the link candidates popped from the queue.
+ * the search radius thus grows from zero until k items are found or the bound exceeds the maximum distance.
+ * when the network has {@link SegmentIndex}, chunks of link geometries are traversed instead of whole links,
+ * and only the segments of popped chunks are evaluated. <br />
+ * an instance keeps its traversal queue between queries. reuse it for successive queries in one thread,
+ * but do not share it between threads.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class NearestNeighborSearch {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** target network				*/	private Network              _network;
+	/** traversal queue				*/	private PriorityQueue<Entry> _queue;
+	/** distances of the last result*/	private double[]             _dists;
+	/** segments of the last result	*/	private int[]                _segments;
+	/** size of the last result		*/	private int                  _size;
+	/** longitude of current query	*/	private double               _x;
+	/** latitude of current query	*/	private double               _y;
+	/** projection kernel			*/	private PolylineProjection   _projection;
+	/** segment of the last distance*/	private int                  _segment;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create instance for the indicated network
+	 * @param network network data
+	 */
+	public NearestNeighborSearch(Network network) {
+		_network    = network;
+		_queue      = new PriorityQueue<Entry>();
+		_dists      = new double[8];
+		_segments   = new int[8];
+		_size       = 0;
+		_projection = new PolylineProjection();
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get target network
+	 * @return network
+	 */
+	public Network getNetwork() {
+		return _network;
+	}
+
+	/**
+	 * explore the nearest node within maxdist
+	 * @param x longitude
+	 * @param y latitude
+	 * @param maxdist maximum distance in meter
+	 * @return the nearest node if found, otherwise null
+	 */
+	public Node nearestNode(double x,double y,double maxdist) {
+		List<Node> nodes = nearestNodes(x,y,1,maxdist);
+		return nodes.isEmpty() ? null : nodes.get(0);
+	}
+
+	/**
+	 * explore k-nearest nodes within maxdist
+	 * @param x longitude
+	 * @param y latitude
+	 * @param k the number of nodes
+	 * @param maxdist maximum distance in meter
+	 * @return nodes in ascending order of distance. the list contains k nodes at most
+	 */
+	public List<Node> nearestNodes(double x,double y,int k,double maxdist) {
+		List<Node> result = new ArrayList<Node>(Math.min(k,16));
+		SpatialIndex index = _network.getNodeIndex();
+		// case index unavailable: examine all nodes //////
+		if( !(index instanceof STRtree) ) {
+			scan(_network.nodeCollection(),x,y,maxdist);
+		}
+		// case index available: best-first traversal /////
+		else {
+			traverse(STRtree.class.cast(index),x,y);
+		}
+		collect(result,Node.class,k,maxdist);
+		return result;
+	}
+
+	/**
+	 * explore the nearest link within maxdist
+	 * @param x longitude
+	 * @param y latitude
+	 * @param maxdist maximum distance in meter
+	 * @return the nearest link if found, otherwise null
+	 */
+	public Link nearestLink(double x,double y,double maxdist) {
+		List<Link> links = nearestLinks(x,y,1,maxdist);
+		return links.isEmpty() ? null : links.get(0);
+	}
+
+	/**
+	 * explore k-nearest links within maxdist
+	 * @param x longitude
+	 * @param y latitude
+	 * @param k the number of links
+	 * @param maxdist maximum distance in meter
+	 * @return links in ascending order of distance. the list contains k links at most
+	 */
+	public List<Link> nearestLinks(double x,double y,int k,double maxdist) {
+		List<Link>   result = new ArrayList<Link>(Math.min(k,16));
+		SpatialIndex index  = _network.getLinkIndex();
+		SegmentIndex chunks = _network.getSegmentIndex();
+		// case index unavailable: examine all links //////
+		if( !(index instanceof STRtree) ) {
+			scan(_network.linkCollection(),x,y,maxdist);
+		}
+		// case segment index available: traverse chunks //
+		else if( chunks != null ) {
+			traverse(chunks.getTree(),x,y);
+		}
+		// case index available: best-first traversal /////
+		else {
+			traverse(STRtree.class.cast(index),x,y);
+		}
+		collect(result,Link.class,k,maxdist);
+		return result;
+	}
+
+	/**
+	 * get distance of the i-th item in the last result
+	 * @param i index of the last result
+	 * @return distance in meter
+	 */
+	public double getDistance(int i) {
+		if( i < 0 || _size <= i ) { throw new IndexOutOfBoundsException("index: " + i); }
+		return _dists[i];
+	}
+
+	/**
+	 * get segment of the nearest point on the i-th link in the last result
+	 * @param i index of the last result
+	 * @return segment index of link geometry(segment j connects point j and j+1). -1 for node
+	 */
+	public int getSegment(int i) {
+		if( i < 0 || _size <= i ) { throw new IndexOutOfBoundsException("index: " + i); }
+		return _segments[i];
+	}
+
+	/**
+	 * get distances of the last result
+	 * @return distances in meter
+	 */
+	public double[] getDistances() {
+		return Arrays.copyOf(_dists,_size);
+	}
+
+	/**
+	 * push all items within maxdist into the queue
+	 * @param items nodes or links
+	 * @param x longitude
+	 * @param y latitude
+	 * @param maxdist maximum distance in meter
+	 */
+	private void scan(Collection<?> items,double x,double y,double maxdist) {
+		_queue.clear();
+		for(Object item:items) {
+			double d = distance(item,x,y);
+			if( d <= maxdist ) { _queue.add(new Entry(item,d,_segment)); }
+		}
+	}
+
+	/**
+	 * prepare best-first traversal from the root of the index
+	 * @param tree spatial index
+	 * @param x longitude
+	 * @param y latitude
+	 */
+	private void traverse(STRtree tree,double x,double y) {
+		_queue.clear();
+		_x = x;
+		_y = y;
+		AbstractNode root = tree.getRoot();
+		if( !root.isEmpty() ) {
+			_queue.add(new Entry(root,distance(Envelope.class.cast(root.getBounds()),x,y)));
+		}
+	}
+
+	/**
+	 * pop items from the queue in ascending order of distance, expanding index nodes on the way
+	 * @param result list for result
+	 * @param type item class
+	 * @param k the number of items
+	 * @param maxdist maximum distance in meter
+	 */
+	private <T> void collect(List<T> result,Class<T> type,int k,double maxdist) {
+		_size = 0;
+		while( !_queue.isEmpty() && result.size() < k ) {
+			Entry entry = _queue.poll();
+			if( maxdist < entry.__dist ) { break; }
+			// case index node: expand children ///////////
+			if( entry.__item instanceof AbstractNode ) {
+				for(Object child:AbstractNode.class.cast(entry.__item).getChildBoundables()) {
+					double d;
+					Object o;
+					if( child instanceof AbstractNode ) {
+						o = child;
+						d = distance(Envelope.class.cast(AbstractNode.class.cast(child).getBounds()),_x,_y);
+						_segment = -1;
+					}
+					else {
+						o = ItemBoundable.class.cast(child).getItem();
+						if( !isAlive(o) ) { continue; }	// removed from network
+						d = distance(o,_x,_y);
+					}
+					if( d <= maxdist ) { _queue.add(new Entry(o,d,_segment)); }
+				}
+			}
+			// case item: exact distance //////////////////
+			else {
+				Object item = entry.__item;
+				if( item instanceof SegmentIndex.Chunk ) {
+					item = SegmentIndex.Chunk.class.cast(item).getLink();
+					if( result.contains(item) ) { continue; }	// farther chunk of the found link
+				}
+				result.add(type.cast(item));
+				if( _size == _dists.length ) {
+					_dists    = Arrays.copyOf(_dists,_size*2);
+					_segments = Arrays.copyOf(_segments,_size*2);
+				}
+				_segments[_size] = entry.__segment;
+				_dists[_size++]  = entry.__dist;
+			}
+		}
+		_queue.clear();
+	}
+
+	/**
+	 * check if the item still belongs to the network. spatial indexes keep items removed from the network
+	 * @param item node, link or chunk of link
+	 * @return result
+	 */
+	private boolean isAlive(Object item) {
+		if( item instanceof SegmentIndex.Chunk ) {
+			item = SegmentIndex.Chunk.class.cast(item).getLink();
+		}
+		if( item instanceof Link ) {
+			return _network.getLink(Link.class.cast(item).getLinkID()) == item;
+		}
+		else {
+			return _network.getNode(Node.class.cast(item).getNodeID()) == item;
+		}
+	}
+
+	/**
+	 * get exact distance from the point to node/link. segment of the nearest point is kept in the field
+	 * @param item node, link or chunk of link
+	 * @param x longitude
+	 * @param y latitude
+	 * @return distance in meter
+	 */
+	private double distance(Object item,double x,double y) {
+		// case node //////////////////////////////////////
+		if( item instanceof Node ) {
+			Node node = Node.class.cast(item);
+			_segment = -1;
+			return DistanceUtils.distance(x,y,node.getLon(),node.getLat());
+		}
+		// case chunk: segments of the chunk only /////////
+		if( item instanceof SegmentIndex.Chunk ) {
+			SegmentIndex.Chunk chunk = SegmentIndex.Chunk.class.cast(item);
+			_projection.project(chunk.getLink().getLineString(),chunk.getFrom(),chunk.getTo(),x,y);
+		}
+		// case link //////////////////////////////////////
+		else {
+			Link link = Link.class.cast(item);
+			Node tail = link.getTailNode();
+			Node head = link.getHeadNode();
+			if( link.hasGeometry() ) { _projection.project(link.getLineString(),x,y); }
+			else { _projection.project(tail.getLon(),tail.getLat(),head.getLon(),head.getLat(),x,y); }
+		}
+		_segment = _projection.getSegment();
+		return _projection.getDistance();
+	}
+
+	/**
+	 * get distance from the point to the envelope. this is a lower bound of distances to the items in the envelope
+	 * @param env envelope
+	 * @param x longitude
+	 * @param y latitude
+	 * @return distance in meter
+	 */
+	private double distance(Envelope env,double x,double y) {
+		double cx = Math.max(env.getMinX(),Math.min(x,env.getMaxX()));
+		double cy = Math.max(env.getMinY(),Math.min(y,env.getMaxY()));
+		return cx == x && cy == y ? 0d : DistanceUtils.distance(x,y,cx,cy);
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** queue entry of index node or item */
+	private static class Entry implements Comparable<Entry> {
+		/** index node or item	*/	private Object __item;
+		/** distance			*/	private double __dist;
+		/** segment of item		*/	private int    __segment;
+		/**
+		 * initialization
+		 * @param item index node or item
+		 * @param dist distance(lower bound for index node)
+		 */
+		private Entry(Object item,double dist) {
+			this(item,dist,-1);
+		}
+		/**
+		 * initialization
+		 * @param item index node or item
+		 * @param dist distance(lower bound for index node)
+		 * @param segment segment of the nearest point on link. -1 otherwise
+		 */
+		private Entry(Object item,double dist,int segment) {
+			__item    = item;
+			__dist    = dist;
+			__segment = segment;
+		}
+		/* @see java.lang.Comparable#compareTo(java.lang.Object) */
+		@Override
+		public int compareTo(Entry entry) {
+			return Double.compare(__dist,entry.__dist);
+		}
+	}
+}
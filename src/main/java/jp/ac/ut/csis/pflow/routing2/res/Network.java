@@ -1,10 +1,13 @@
 package jp.ac.ut.csis.pflow.routing2.res;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.LineString;
@@ -18,6 +21,7 @@ import com.vividsolutions.jts.index.strtree.STRtree;
 import jp.ac.ut.csis.pflow.geom.DistanceUtils;
 import jp.ac.ut.csis.pflow.geom.GeometryUtils;
 import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.geom.PolylineProjection;
 import jp.ac.ut.csis.pflow.routing2.loader.INetworkLoader;
 
 /**
@@ -40,6 +44,8 @@ public class Network {
 	/** list for links	*/	private Map<String,Link> _links;
 	/** index for nodes	*/	private SpatialIndex     _nodeIndex;
 	/** index for links	*/	private SpatialIndex     _linkIndex;
+	/** index for segments*/	private SegmentIndex     _segmentIndex;
+	/** modification count*/	private long             _version;
 	
 
 	/* ==============================================================
@@ -58,10 +64,12 @@ public class Network {
 	 * @param makeLinkIndex flag for spatial index of road links 
 	 */
 	public Network(boolean makeNodeIndex,boolean makeLinkIndex) {
-		_nodes     = new HashMap<String,Node>();
-		_links     = new HashMap<String,Link>();
-		_nodeIndex = makeNodeIndex ? new STRtree() : null;
-		_linkIndex = makeLinkIndex ? new STRtree() : null;
+		_nodes        = new HashMap<String,Node>();
+		_links        = new HashMap<String,Link>();
+		_nodeIndex    = makeNodeIndex ? new STRtree() : null;
+		_linkIndex    = makeLinkIndex ? new STRtree() : null;
+		_segmentIndex = null;
+		_version      = 0L;
 	}
 	
 	
@@ -76,6 +84,14 @@ public class Network {
 		return _nodes.isEmpty() || _links.isEmpty();
 	}
 	
+	/**
+	 * get modification count. the value increases whenever nodes or links are added or removed
+	 * @return modification count
+	 */
+	public long getVersion() {
+		return _version;
+	}
+	
 	/**
 	 * returns node list
 	 * @return node list
@@ -94,7 +110,8 @@ public class Network {
 		if(!_nodes.containsKey(tail.getNodeID())) { _nodes.put(tail.getNodeID(),tail); addIndex(tail); }  
 		if(!_nodes.containsKey(head.getNodeID())) { _nodes.put(head.getNodeID(),head); addIndex(head); }
 		
-		if(!_links.containsKey(link.getLinkID())) { _links.put(link.getLinkID(),link); addIndex(link); } 
+		if(!_links.containsKey(link.getLinkID())) { _links.put(link.getLinkID(),link); addIndex(link); _segmentIndex = null; } 
+		_version++;
 	}
 	
 	/**
@@ -103,6 +120,7 @@ public class Network {
 	 */
 	public void addNode(Node node) { 
 		if(!_nodes.containsKey(node.getNodeID())) { _nodes.put(node.getNodeID(),node); addIndex(node); }  
+		_version++;
 	}
 	
 	/**
@@ -250,6 +268,12 @@ public class Network {
 			}
 			return links;
 		}
+		// case segment index available ///////////////////
+		else if( _segmentIndex != null ) {
+			Set<Link> links = new LinkedHashSet<Link>();
+			for(SegmentIndex.Chunk chunk:_segmentIndex.query(x0,y0,x1,y1)) { links.add(chunk.getLink()); }
+			return new ArrayList<Link>(links);
+		}
 		// case spatial indexing available ////////////////
 		else {
 			Envelope   search = new Envelope(x0,x1,y0,y1);	// CAUTION: parameter order
@@ -269,6 +293,17 @@ public class Network {
 	public List<Link> queryLink(double x,double y,double r) { 
 		double w  = r*APPROX_1KM;
 		double h  = r*APPROX_1KM;
+		// case segment index available: evaluate segments of hit chunks only
+		if( _linkIndex != null && _segmentIndex != null ) {
+			PolylineProjection projection = new PolylineProjection();
+			Set<Link>          links      = new LinkedHashSet<Link>();
+			for(SegmentIndex.Chunk chunk:_segmentIndex.query(x-w,y-h,x+w,y+h)) {
+				Link link = chunk.getLink();
+				if( links.contains(link) ) { continue; }
+				if( projection.project(link.getLineString(),chunk.getFrom(),chunk.getTo(),x,y).getDistance() <= r ) { links.add(link); }
+			}
+			return new ArrayList<Link>(links);
+		}
 		
 		LonLat         cntr  = new LonLat(x,y);
 		List<Link>     links = queryLink(x-w,y-h,x+w,y+h);
@@ -280,6 +315,127 @@ public class Network {
 		return links;
 	}
 	
+	/**
+	 * explore the nearest node within the indicated distance, with best-first search over the spatial index
+	 * @param x longitude
+	 * @param y latitude
+	 * @param maxdist maximum distance in meter
+	 * @return the nearest node if found, otherwise null
+	 * @see NearestNeighborSearch
+	 */
+	public Node queryNearestNode(double x,double y,double maxdist) {
+		return new NearestNeighborSearch(this).nearestNode(x,y,maxdist);
+	}
+	
+	/**
+	 * explore k-nearest nodes within the indicated distance, with best-first search over the spatial index
+	 * @param x longitude
+	 * @param y latitude
+	 * @param k the number of nodes
+	 * @param maxdist maximum distance in meter
+	 * @return nodes in ascending order of distance
+	 * @see NearestNeighborSearch
+	 */
+	public List<Node> queryNearestNodes(double x,double y,int k,double maxdist) {
+		return new NearestNeighborSearch(this).nearestNodes(x,y,k,maxdist);
+	}
+	
+	/**
+	 * explore the nearest link within the indicated distance, with best-first search over the spatial index
+	 * @param x longitude
+	 * @param y latitude
+	 * @param maxdist maximum distance in meter
+	 * @return the nearest link if found, otherwise null
+	 * @see NearestNeighborSearch
+	 */
+	public Link queryNearestLink(double x,double y,double maxdist) {
+		return new NearestNeighborSearch(this).nearestLink(x,y,maxdist);
+	}
+	
+	/**
+	 * explore k-nearest links within the indicated distance, with best-first search over the spatial index
+	 * @param x longitude
+	 * @param y latitude
+	 * @param k the number of links
+	 * @param maxdist maximum distance in meter
+	 * @return links in ascending order of distance
+	 * @see NearestNeighborSearch
+	 */
+	public List<Link> queryNearestLinks(double x,double y,int k,double maxdist) {
+		return new NearestNeighborSearch(this).nearestLinks(x,y,k,maxdist);
+	}
+	
+	/**
+	 * build spatial indexes in advance. call this before sharing the network between threads, 
+	 * because the indexes are otherwise built lazily by the first query. 
+	 * nodes and links cannot be added to the indexes after building.
+	 */
+	public void buildIndex() { 
+		if( _nodeIndex instanceof STRtree ) { STRtree.class.cast(_nodeIndex).build(); }
+		if( _linkIndex instanceof STRtree ) { STRtree.class.cast(_linkIndex).build(); }
+	}
+	
+	/**
+	 * build spatial index over chunks of link geometries with default chunk length
+	 * @return segment index
+	 * @see #buildSegmentIndex(double)
+	 */
+	public SegmentIndex buildSegmentIndex() {
+		return buildSegmentIndex(SegmentIndex.CHUNK_LENGTH);
+	}
+
+	/**
+	 * build spatial index over chunks of link geometries. once built, link queries and nearest link search
+	 * use this index instead of the link index. the index is discarded when a link is added afterward.
+	 * requires the link index(see {@link #Network(boolean, boolean)})
+	 * @param chunkLength maximum length of chunk(m)
+	 * @return segment index
+	 */
+	public SegmentIndex buildSegmentIndex(double chunkLength) {
+		if( _linkIndex == null ) { throw new IllegalStateException("link index unavailable"); }
+		return _segmentIndex = new SegmentIndex(_links.values(),chunkLength);
+	}
+
+	/**
+	 * get spatial index of link segments
+	 * @return segment index. null if not built
+	 */
+	public SegmentIndex getSegmentIndex() {
+		return _segmentIndex;
+	}
+
+	/**
+	 * get spatial index of nodes
+	 * @return spatial index. null if unavailable
+	 */
+	SpatialIndex getNodeIndex() {
+		return _nodeIndex;
+	}
+	
+	/**
+	 * get spatial index of links
+	 * @return spatial index. null if unavailable
+	 */
+	SpatialIndex getLinkIndex() {
+		return _linkIndex;
+	}
+	
+	/**
+	 * get nodes without copy
+	 * @return node collection(read only)
+	 */
+	Collection<Node> nodeCollection() {
+		return _nodes.values();
+	}
+	
+	/**
+	 * get links without copy
+	 * @return link collection(read only)
+	 */
+	Collection<Link> linkCollection() {
+		return _links.values();
+	}
+	
 	/**
 	 * returns link list
 	 * @return link list
@@ -296,6 +452,8 @@ public class Network {
 		_nodes.clear();
 		if( _nodeIndex != null ) { _nodeIndex = new STRtree(); }
 		if( _linkIndex != null ) { _linkIndex = new STRtree(); }
+		_segmentIndex = null;
+		_version++;
 	}
 	
 	/**
@@ -313,6 +471,7 @@ public class Network {
 		}
 		// remove the node ////////////////////////////////
 		_nodes.remove(node.getNodeID()); //removeIndex(node);
+		_version++;
 	}
 
 	/**
@@ -334,6 +493,7 @@ public class Network {
 		
 		// remove the link ////////////////////////////////
 		_links.remove(link.getLinkID()); // removeIndex(link);
+		_version++;
 	}
 	
 	/**
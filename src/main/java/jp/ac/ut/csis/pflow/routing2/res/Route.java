@@ -14,6 +14,7 @@ public class Route implements Cloneable{
 	 * ============================================================== */
 	/** route consisting of Node list */	private List<Node> _route;
 	/** total cost of route	          */	private double     _cost;
+	/** version of link costs         */	private long       _version;
 
 	
 	/* ==============================================================
@@ -33,8 +34,19 @@ public class Route implements Cloneable{
 	 * @param cost total cost
 	 */
 	public Route(List<Node> points,double cost) {
-		_route = points;
-		_cost  = cost;
+		this(points,cost,0L);
+	}
+	
+	/**
+	 * create route with the specified parameters
+	 * @param list Node list
+	 * @param cost total cost
+	 * @param version version of link costs used in route search
+	 */
+	public Route(List<Node> points,double cost,long version) {
+		_route   = points;
+		_cost    = cost;
+		_version = version;
 	}
 	
 
@@ -59,6 +71,14 @@ public class Route implements Cloneable{
 		return _cost;
 	}
 	
+	/**
+	 * get version of link costs which this route was computed against
+	 * @return version
+	 */
+	public long getCostVersion() {
+		return _version;
+	}
+	
 	/**
 	 * get the number of nodes in the route
 	 * @return the number of nodes
@@ -115,6 +135,12 @@ public class Route implements Cloneable{
 		return _route.contains(node);
 	}
 	
+	/* @see java.lang.Object#clone() */
+	@Override
+	public Route clone() {
+		return new Route(new ArrayList<Node>(_route),_cost,_version);
+	}
+	
 	/* @see java.lang.Object#equals(java.lang.Object) */
 	@Override
 	public boolean equals(Object obj) {
@@ -0,0 +1,165 @@
+package jp.ac.ut.csis.pflow.routing2.res;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.LonLat;
+
+/**
+ * Class for spatial index over chunks of link geometries. <br />
+ * each link geometry is split into chunks of consecutive segments up to the indicated length, and
+ * the envelope of each chunk is put into an STRtree. long links thus have many small envelopes instead of one
+ * huge envelope, and a query hit is mapped back to the link and the segment range of the chunk,
+ * so distance evaluation only touches segments near the query point. <br />
+ * the index is read only after building. see {@link Network#buildSegmentIndex(double)}.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class SegmentIndex {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default length of chunk(m)			*/	public static final double CHUNK_LENGTH = 200d;
+	/** maximum segments per chunk			*/	private static final int   MAX_SEGMENTS = 32;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** index of chunks				*/	private STRtree _tree;
+	/** length of chunk				*/	private double  _chunkLength;
+	/** the number of chunks		*/	private int     _size;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * build index of the links
+	 * @param links links. links without geometry are not indexed as well as the link index
+	 * @param chunkLength maximum length of chunk(m)
+	 */
+	protected SegmentIndex(Collection<Link> links,double chunkLength) {
+		if( !(chunkLength > 0d) ) { throw new IllegalArgumentException("unavailable value: chunkLength=" + chunkLength); }
+		_tree        = new STRtree();
+		_chunkLength = chunkLength;
+		_size        = 0;
+		for(Link link:links) {
+			if( !link.hasGeometry() ) { continue; }
+			List<LonLat> line = link.getLineString();
+			int          len  = line.size();
+			if( len < 2 ) { continue; }
+			// split into chunks //////////////////////////
+			int      from = 0;
+			double   acc  = 0d;
+			Envelope env  = new Envelope(line.get(0).getLon(),line.get(0).getLon(),line.get(0).getLat(),line.get(0).getLat());
+			for(int i=1;i<len;i++) {
+				LonLat p = line.get(i);
+				env.expandToInclude(p.getLon(),p.getLat());
+				acc += DistanceUtils.distance(line.get(i-1),p);
+				if( acc >= chunkLength || i - from >= MAX_SEGMENTS || i == len - 1 ) {
+					_tree.insert(env,new Chunk(link,from,i));
+					_size++;
+					from = i;
+					acc  = 0d;
+					env  = new Envelope(p.getLon(),p.getLon(),p.getLat(),p.getLat());
+				}
+			}
+		}
+		_tree.build();
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get maximum length of chunk
+	 * @return length(m)
+	 */
+	public double getChunkLength() {
+		return _chunkLength;
+	}
+
+	/**
+	 * get the number of chunks
+	 * @return the number of chunks
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * query chunks intersecting the bounds
+	 * @param x0 min longitude
+	 * @param y0 min latitude
+	 * @param x1 max longitude
+	 * @param y1 max latitude
+	 * @return chunks
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Chunk> query(double x0,double y0,double x1,double y1) {
+		return _tree.query(new Envelope(x0,x1,y0,y1));	// CAUTION: parameter order
+	}
+
+	/**
+	 * get index tree
+	 * @return STRtree of chunks
+	 */
+	STRtree getTree() {
+		return _tree;
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/**
+	 * chunk of consecutive segments of a link
+	 */
+	public static class Chunk {
+		/** link						*/	private Link __link;
+		/** first segment(inclusive)	*/	private int  __from;
+		/** last segment(exclusive)		*/	private int  __to;
+
+		/**
+		 * initialization
+		 * @param link link
+		 * @param from first segment(inclusive)
+		 * @param to last segment(exclusive)
+		 */
+		private Chunk(Link link,int from,int to) {
+			__link = link;
+			__from = from;
+			__to   = to;
+		}
+
+		/**
+		 * get link
+		 * @return link
+		 */
+		public Link getLink() {
+			return __link;
+		}
+
+		/**
+		 * get the first segment
+		 * @return segment index(inclusive). segment i connects point i and i+1 of the link geometry
+		 */
+		public int getFrom() {
+			return __from;
+		}
+
+		/**
+		 * get the last segment
+		 * @return segment index(exclusive)
+		 */
+		public int getTo() {
+			return __to;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package jp.ac.ut.csis.pflow.routing2.simulation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+
+/**
+ * Class for time series of link volumes and travel times. <br />
+ * vehicles are counted in the time bin they entered the edge, and travel time is the time from entering to
+ * leaving the edge. values are per edge, so the two directions of a link are kept separately.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class LinkTimeSeries {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph				*/	private CompactGraph _graph;
+	/** width of time bin			*/	private double       _binSize;
+	/** the number of bins			*/	private int          _numBins;
+	/** volume by edge and bin		*/	private int[]        _volumes;
+	/** sum of travel times			*/	private double[]     _times;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create empty time series
+	 * @param graph compact graph
+	 * @param binSize width of time bin
+	 * @param numBins the number of bins
+	 */
+	protected LinkTimeSeries(CompactGraph graph,double binSize,int numBins) {
+		_graph   = graph;
+		_binSize = binSize;
+		_numBins = numBins;
+		_volumes = new int[graph.numEdges() * numBins];
+		_times   = new double[graph.numEdges() * numBins];
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * add vehicle passing the edge
+	 * @param edge edge index
+	 * @param enter time entering the edge
+	 * @param leave time leaving the edge
+	 */
+	protected void add(int edge,double enter,double leave) {
+		int bin = Math.max(0,Math.min(_numBins-1,(int)(enter / _binSize)));
+		int idx = edge * _numBins + bin;
+		_volumes[idx]++;
+		_times[idx] += leave - enter;
+	}
+
+	/**
+	 * get width of time bin
+	 * @return bin size
+	 */
+	public double getBinSize() {
+		return _binSize;
+	}
+
+	/**
+	 * get the number of bins
+	 * @return the number of bins
+	 */
+	public int numBins() {
+		return _numBins;
+	}
+
+	/**
+	 * get volume of the edge in the bin
+	 * @param edge edge index
+	 * @param bin bin index
+	 * @return the number of vehicles entered in the bin and left the edge
+	 */
+	public int getVolume(int edge,int bin) {
+		return _volumes[edge * _numBins + bin];
+	}
+
+	/**
+	 * get mean travel time of the edge in the bin
+	 * @param edge edge index
+	 * @param bin bin index
+	 * @return mean travel time. NaN if no vehicle
+	 */
+	public double getMeanTime(int edge,int bin) {
+		int idx = edge * _numBins + bin;
+		return _volumes[idx] == 0 ? Double.NaN : _times[idx] / _volumes[idx];
+	}
+
+	/**
+	 * write non-empty bins as CSV(link id, reverse flag, bin start time, volume, mean travel time)
+	 * @param file output file
+	 * @throws IOException failed to write
+	 */
+	public void write(File file) throws IOException {
+		int[]     links = _graph.getEdgeLink();
+		boolean[] revs  = _graph.getEdgeReverse();
+		try(BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
+			bw.write("linkid,reverse,time,volume,travel_time");
+			bw.newLine();
+			for(int e=0;e<links.length;e++) {
+				String linkid = _graph.getLink(links[e]).getLinkID();
+				for(int b=0;b<_numBins;b++) {
+					int idx = e * _numBins + b;
+					if( _volumes[idx] == 0 ) { continue; }
+					bw.write(linkid + "," + revs[e] + "," + (b * _binSize) + "," + _volumes[idx] + "," + (_times[idx] / _volumes[idx]));
+					bw.newLine();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,758 @@
+package jp.ac.ut.csis.pflow.routing2.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.Mesh;
+import jp.ac.ut.csis.pflow.geom.TrajectoryUtils;
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import jp.ac.ut.csis.pflow.routing2.res.OsmLink;
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+
+/**
+ * Mesoscopic event-driven traffic simulation over {@link CompactGraph}. <br />
+ * each edge is a FIFO queue. a vehicle can leave the edge after the free-flow time, no earlier than the
+ * headway of the flow capacity after the previous vehicle, and only when the next edge has storage space.
+ * a vehicle blocked longer than the stuck time moves anyway, so gridlock is resolved. vehicles depart onto
+ * their first edge without storage check. free-flow times come from a cost profile(e.g. car profile of
+ * {@link jp.ac.ut.csis.pflow.routing2.logic.CostProfileUtils}); flow capacity and lanes are set by
+ * {@link OsmLink#getRoadClass()}, with defaults for road classes of osm2po(motorway 11 to living street 63),
+ * and storage of an edge is its geometric length times lanes. <br />
+ * events are processed in time order by a priority queue, keeping one pending event per edge. with
+ * threads, edges are partitioned into regions by {@link Mesh} cells of their head nodes, and the regions
+ * advance in time windows no longer than the free-flow time of edges crossing regions. vehicles crossing
+ * regions are handed over at the end of each window. storage of an edge in another region is checked
+ * against its current count, and a vehicle blocked by such an edge retries at the next window, so spillback
+ * across regions is approximate. single thread runs are exact and deterministic.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class MesoSimulation {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default flow capacity per lane(/h)	*/	public static final double  FLOW_CAPACITY = 1800d;
+	/** space of a vehicle in queue(m)		*/	public static final double  VEHICLE_SPACE = 7.5d;
+
+	/** default flow capacity per lane(/h) and lanes by osm2po road class */
+	private static final double[][] ROAD_CAPACITY = {
+		{11, 2000d, 2d},	// motorway
+		{12, 1800d, 1d},	// motorway_link
+		{13, 1800d, 2d},	// trunk
+		{14, 1500d, 1d},	// trunk_link
+		{15, 1500d, 2d},	// primary
+		{16, 1200d, 1d},	// primary_link
+		{21, 1200d, 1d},	// secondary
+		{22, 1000d, 1d},	// secondary_link
+		{31, 1000d, 1d},	// tertiary
+		{32,  600d, 1d},	// residential
+		{41,  600d, 1d},	// road
+		{42,  600d, 1d},	// unclassified
+		{51,  300d, 1d},	// service
+		{62,  300d, 1d},	// pedestrian
+		{63,  300d, 1d},	// living_street
+	};
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph					*/	private CompactGraph _graph;
+	/** free-flow profile				*/	private CostProfile  _profile;
+	/** flow capacity by road class		*/	private double[]     _capacity;
+	/** lanes by road class				*/	private double[]     _lanes;
+	/** stuck time						*/	private double       _stuckTime;
+	/** width of time series bin		*/	private double       _binSize;
+	/** the number of agents			*/	private int          _numAgents;
+	/** departure time of agent			*/	private double[]     _departures;
+	/** route start of agent			*/	private int[]        _routeStart;
+	/** route edges						*/	private int[]        _routeEdges;
+
+	// state of the last run ////////////////////////////////
+	/** free-flow time of edge			*/	private double[]           _t0;
+	/** headway of edge					*/	private double[]           _headway;
+	/** storage of edge					*/	private int[]              _storage;
+	/** region of edge					*/	private int[]              _regions;
+	/** vehicles on edge				*/	private AtomicIntegerArray _counts;
+	/** first agent in edge queue		*/	private int[]              _qHead;
+	/** last agent in edge queue		*/	private int[]              _qTail;
+	/** earliest time of next exit		*/	private double[]           _nextFree;
+	/** time of pending edge event		*/	private double[]           _scheduled;
+	/** edges waiting for storage		*/	private IntList[]          _waits;
+	/** edge waited for by edge			*/	private int[]              _waitOn;
+	/** current position in route		*/	private int[]              _pos;
+	/** time entering current edge		*/	private double[]           _enter;
+	/** next agent in edge queue		*/	private int[]              _next;
+	/** arrival time of agent			*/	private double[]           _arrivals;
+	/** time series						*/	private LinkTimeSeries     _series;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization
+	 * @param profile cost profile of free-flow travel times
+	 */
+	public MesoSimulation(CostProfile profile) {
+		_graph      = profile.getGraph();
+		_profile    = profile;
+		_capacity   = new double[OsmLink.ROAD_TYPES.length];
+		_lanes      = new double[OsmLink.ROAD_TYPES.length];
+		_stuckTime  = 10d;
+		_binSize    = 900d;
+		_numAgents  = 0;
+		_departures = new double[16];
+		_routeStart = new int[17];
+		_routeEdges = new int[64];
+		Arrays.fill(_capacity,FLOW_CAPACITY);
+		Arrays.fill(_lanes,1d);
+		for(double[] row:ROAD_CAPACITY) {
+			_capacity[(int)row[0]] = row[1];
+			_lanes[(int)row[0]]    = row[2];
+		}
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * set capacity of the road class
+	 * @param clazz road class(0-127)
+	 * @param capacity flow capacity per lane(vehicles per hour)
+	 * @param lanes the number of lanes
+	 * @return this instance
+	 */
+	public MesoSimulation setCapacity(int clazz,double capacity,double lanes) {
+		if( clazz < 0 || _capacity.length <= clazz ) { throw new IllegalArgumentException("unavailable value: clazz=" + clazz); }
+		if( !(capacity > 0d) || !(lanes > 0d) ) { throw new IllegalArgumentException("unavailable value: " + capacity + "," + lanes); }
+		_capacity[clazz] = capacity;
+		_lanes[clazz]    = lanes;
+		return this;
+	}
+
+	/**
+	 * set stuck time after which a blocked vehicle moves anyway
+	 * @param stuckTime stuck time
+	 * @return this instance
+	 */
+	public MesoSimulation setStuckTime(double stuckTime) {
+		if( !(stuckTime > 0d) ) { throw new IllegalArgumentException("unavailable value: " + stuckTime); }
+		_stuckTime = stuckTime;
+		return this;
+	}
+
+	/**
+	 * set width of time bin of link time series
+	 * @param binSize bin size
+	 * @return this instance
+	 */
+	public MesoSimulation setBinSize(double binSize) {
+		if( !(binSize > 0d) ) { throw new IllegalArgumentException("unavailable value: " + binSize); }
+		_binSize = binSize;
+		return this;
+	}
+
+	/**
+	 * get the number of agents
+	 * @return the number of agents
+	 */
+	public int numAgents() {
+		return _numAgents;
+	}
+
+	/**
+	 * add agent following the route. among parallel edges between nodes, the one with the least free-flow time is taken
+	 * @param route route
+	 * @param departure departure time
+	 * @return agent index
+	 */
+	public int addAgent(Route route,double departure) {
+		List<Node> nodes = route.listNodes();
+		int[]      edges = new int[Math.max(0,nodes.size()-1)];
+		for(int i=0;i<edges.length;i++) {
+			edges[i] = findEdge(_graph.indexOf(nodes.get(i)),_graph.indexOf(nodes.get(i+1)));
+			if( edges[i] < 0 ) { throw new IllegalArgumentException("no edge between nodes: " + nodes.get(i).getNodeID() + "," + nodes.get(i+1).getNodeID()); }
+		}
+		return addAgent(edges,departure);
+	}
+
+	/**
+	 * add agent following the edges
+	 * @param edges edge indexes of the route
+	 * @param departure departure time
+	 * @return agent index
+	 */
+	public int addAgent(int[] edges,double departure) {
+		// error handle ///////////////////////////////////
+		if( !(departure >= 0d) || departure == Double.POSITIVE_INFINITY ) { throw new IllegalArgumentException("unavailable value: " + departure); }
+		int[] head = _graph.getEdgeHead();
+		int[] tail = _graph.getEdgeTail();
+		for(int i=1;i<edges.length;i++) {
+			if( head[edges[i-1]] != tail[edges[i]] ) { throw new IllegalArgumentException("edges are not connected: " + edges[i-1] + "," + edges[i]); }
+		}
+		// append /////////////////////////////////////////
+		int a    = _numAgents;
+		int from = _routeStart[a];
+		if( a + 1 == _departures.length ) {
+			_departures = Arrays.copyOf(_departures,_departures.length*2);
+			_routeStart = Arrays.copyOf(_routeStart,_routeStart.length*2);
+		}
+		if( from + edges.length > _routeEdges.length ) { _routeEdges = Arrays.copyOf(_routeEdges,Math.max(_routeEdges.length*2,from+edges.length)); }
+		System.arraycopy(edges,0,_routeEdges,from,edges.length);
+		_departures[a]   = departure;
+		_routeStart[a+1] = from + edges.length;
+		_numAgents++;
+		return a;
+	}
+
+	/**
+	 * get arrival time of the agent in the last run
+	 * @param agent agent index
+	 * @return arrival time. NaN if not arrived by the end time
+	 */
+	public double getArrivalTime(int agent) {
+		return _arrivals[agent];
+	}
+
+	/**
+	 * get the number of agents arrived in the last run
+	 * @return the number of agents
+	 */
+	public int countArrived() {
+		int count = 0;
+		for(int a=0;a<_numAgents;a++) {
+			if( !Double.isNaN(_arrivals[a]) ) { count++; }
+		}
+		return count;
+	}
+
+	/**
+	 * run simulation in a single thread
+	 * @param endTime end time
+	 * @return link time series
+	 */
+	public LinkTimeSeries run(double endTime) {
+		return run(endTime,0,1);
+	}
+
+	/**
+	 * run simulation with regions by mesh cells
+	 * @param endTime end time
+	 * @param level mesh level of partition. ignored for single thread
+	 * @param numThreads the number of threads(regions)
+	 * @return link time series
+	 */
+	public LinkTimeSeries run(double endTime,int level,int numThreads) {
+		// error handle ///////////////////////////////////
+		if( !(endTime > 0d) || numThreads <= 0 ) { throw new IllegalArgumentException("unavailable value: " + endTime + "," + numThreads); }
+
+		// initialization /////////////////////////////////
+		initialize(endTime);
+		int      R       = numThreads == 1 ? 1 : partition(level,numThreads);
+		double   window  = R == 1 ? endTime : lookahead();
+		if( !(window > 0d) ) {	// zero free-flow time across regions leaves no safe window
+			Arrays.fill(_regions,0);
+			R      = 1;
+			window = endTime;
+		}
+		Region[] regions = new Region[R];
+		for(int r=0;r<R;r++) { regions[r] = new Region(r,R); }
+		for(int a=0;a<_numAgents;a++) {
+			if( _routeStart[a] == _routeStart[a+1] ) { _arrivals[a] = _departures[a]; continue; }	// no move
+			if( _departures[a] < endTime ) { regions[_regions[_routeEdges[_routeStart[a]]]].__events.push(_departures[a],-(a+1)); }
+		}
+		// advance regions window by window ///////////////
+		if( R == 1 ) { regions[0].process(endTime,0,regions); }
+		else { runParallel(regions,endTime,window); }
+		return _series;
+	}
+
+	/**
+	 * run regions in parallel windows
+	 * @param regions regions
+	 * @param endTime end time
+	 * @param window width of time window
+	 */
+	private void runParallel(final Region[] regions,double endTime,double window) {
+		ExecutorService pool = Executors.newFixedThreadPool(regions.length);
+		try {
+			double start = 0d;
+			int    count = 0;
+			while( start < endTime ) {
+				// skip idle time =========================
+				double next = Double.POSITIVE_INFINITY;
+				for(Region region:regions) { next = Math.min(next,region.nextTime((count+1) & 1)); }
+				if( next == Double.POSITIVE_INFINITY ) { break; }
+				start = Math.max(start,Math.min(next,endTime));
+				if( start >= endTime ) { break; }
+				// process a window =======================
+				final double end    = Math.min(start + window,endTime);
+				final int    parity = count & 1;
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(regions.length);
+				for(final Region region:regions) {
+					tasks.add(new Callable<Void>() {
+						public Void call() {
+							region.receive(regions,parity ^ 1);
+							region.process(end,parity,regions);
+							return null;
+						}
+					});
+				}
+				for(Future<Void> future:pool.invokeAll(tasks)) { future.get(); }
+				start = end;
+				count++;
+			}
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("simulation interrupted",exp);
+		}
+		catch(ExecutionException exp) {
+			throw new IllegalStateException("fail to simulate",exp.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * initialize edge and agent states
+	 * @param endTime end time
+	 */
+	private void initialize(double endTime) {
+		int   E     = _graph.numEdges();
+		int[] links = _graph.getEdgeLink();
+		_t0        = _profile.getEdgeCosts();
+		_headway   = new double[E];
+		_storage   = new int[E];
+		_regions   = new int[E];
+		_counts    = new AtomicIntegerArray(E);
+		_qHead     = new int[E];
+		_qTail     = new int[E];
+		_nextFree  = new double[E];
+		_scheduled = new double[E];
+		_waits     = new IntList[E];
+		_waitOn    = new int[E];
+		Arrays.fill(_qHead,-1);
+		Arrays.fill(_qTail,-1);
+		Arrays.fill(_scheduled,Double.POSITIVE_INFINITY);
+		Arrays.fill(_waitOn,-1);
+		for(int e=0;e<E;e++) {
+			Link   link   = _graph.getLink(links[e]);
+			int    clazz  = link instanceof OsmLink ? OsmLink.class.cast(link).getRoadClass() : 0;
+			double length = link.hasGeometry() ? TrajectoryUtils.length(link.getLineString()) : DistanceUtils.distance(link.getTailNode(),link.getHeadNode());
+			_headway[e] = 3600d / (_capacity[clazz] * _lanes[clazz]);
+			_storage[e] = (int)Math.max(1d,Math.floor(length * _lanes[clazz] / VEHICLE_SPACE));
+		}
+		_pos      = new int[_numAgents];
+		_enter    = new double[_numAgents];
+		_next     = new int[_numAgents];
+		_arrivals = new double[_numAgents];
+		Arrays.fill(_arrivals,Double.NaN);
+		_series   = new LinkTimeSeries(_graph,_binSize,Math.max(1,(int)Math.ceil(endTime / _binSize)));
+	}
+
+	/**
+	 * partition edges into regions by mesh cells of head nodes. cells are sorted by code and split into
+	 * contiguous groups of similar number of edges
+	 * @param level mesh level
+	 * @param numRegions the number of regions
+	 * @return the number of regions
+	 */
+	private int partition(int level,int numRegions) {
+		int[]                   head  = _graph.getEdgeHead();
+		String[]                codes = new String[_graph.numNodes()];
+		TreeMap<String,Integer> cells = new TreeMap<String,Integer>();
+		for(int e=0;e<head.length;e++) {
+			int v = head[e];
+			if( codes[v] == null ) {
+				Node node = _graph.getNode(v);
+				codes[v] = new Mesh(level,node.getLon(),node.getLat()).getCode();
+			}
+			Integer count = cells.get(codes[v]);
+			cells.put(codes[v],count == null ? 1 : count + 1);
+		}
+		int R = Math.max(1,Math.min(numRegions,cells.size()));
+		TreeMap<String,Integer> groups = new TreeMap<String,Integer>();
+		long sum = 0L;
+		for(String code:cells.keySet()) {
+			groups.put(code,(int)Math.min(R-1,sum * R / Math.max(1,head.length)));
+			sum += cells.get(code);
+		}
+		for(int e=0;e<head.length;e++) { _regions[e] = groups.get(codes[head[e]]); }
+		return R;
+	}
+
+	/**
+	 * get width of time window: minimum free-flow time of edges entered from another region, so that no
+	 * vehicle handed over in a window can leave the next edge within the same window
+	 * @return window width. positive infinity if no edge crosses regions
+	 */
+	private double lookahead() {
+		int[]  tail    = _graph.getEdgeTail();
+		int[]  inStart = _graph.getInStart();
+		int[]  inEdges = _graph.getInEdges();
+		double window  = Double.POSITIVE_INFINITY;
+		for(int f=0;f<tail.length;f++) {
+			for(int k=inStart[tail[f]];k<inStart[tail[f]+1];k++) {
+				if( _regions[inEdges[k]] != _regions[f] ) { window = Math.min(window,_t0[f]); break; }
+			}
+		}
+		return window;
+	}
+
+	/**
+	 * find edge between nodes with the least free-flow time
+	 * @param u tail node index
+	 * @param v head node index
+	 * @return edge index. -1 if not found
+	 */
+	private int findEdge(int u,int v) {
+		if( u < 0 || v < 0 ) { return -1; }
+		int[]    start = _graph.getOutStart();
+		int[]    head  = _graph.getEdgeHead();
+		double[] cost  = _profile.getEdgeCosts();
+		int      best  = -1;
+		for(int e=start[u];e<start[u+1];e++) {
+			if( head[e] == v && (best < 0 || cost[e] < cost[best]) ) { best = e; }
+		}
+		return best;
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/** edges simulated by one thread, with its event queue and outgoing vehicles to other regions */
+	private class Region {
+		/** region index					*/	private int         __id;
+		/** events(edge, or -(agent+1))		*/	private EventQueue  __events;
+		/** agents to regions by parity		*/	private IntList[][] __outbox;
+		/**
+		 * initialization
+		 * @param id region index
+		 * @param R the number of regions
+		 */
+		private Region(int id,int R) {
+			__id     = id;
+			__events = new EventQueue();
+			__outbox = new IntList[2][R];
+			for(int p=0;p<2;p++) {
+				for(int r=0;r<R;r++) { __outbox[p][r] = new IntList(); }
+			}
+		}
+		/**
+		 * get time of the next work
+		 * @param parity parity of outboxes to check
+		 * @return time of the next event. negative infinity if vehicles are waiting for hand over
+		 */
+		private double nextTime(int parity) {
+			for(IntList list:__outbox[parity]) {
+				if( list.__size > 0 ) { return Double.NEGATIVE_INFINITY; }
+			}
+			return __events.isEmpty() ? Double.POSITIVE_INFINITY : __events.peekTime();
+		}
+		/**
+		 * take vehicles handed over by other regions in the last window, in order of entering time
+		 * @param regions all regions
+		 * @param parity parity of the last window
+		 */
+		private void receive(Region[] regions,int parity) {
+			IntList agents = new IntList();
+			for(Region region:regions) {
+				IntList list = region.__outbox[parity][__id];
+				agents.addAll(list);
+				list.__size = 0;
+			}
+			Integer[] order = new Integer[agents.__size];
+			for(int i=0;i<order.length;i++) { order[i] = agents.__data[i]; }
+			Arrays.sort(order,new Comparator<Integer>() {
+				public int compare(Integer a,Integer b) {
+					int c = Double.compare(_enter[a],_enter[b]);
+					return c != 0 ? c : a.compareTo(b);
+				}
+			});
+			for(int a:order) { insert(_routeEdges[_pos[a]],a); }
+		}
+		/**
+		 * process events before the end of window
+		 * @param end end of window(exclusive)
+		 * @param parity parity of this window
+		 * @param regions all regions
+		 */
+		private void process(double end,int parity,Region[] regions) {
+			while( !__events.isEmpty() && __events.peekTime() < end ) {
+				double time = __events.peekTime();
+				int    id   = __events.poll();
+				if( id < 0 ) { depart(-id-1,time); }
+				else { tryExit(id,time,end,parity); }
+			}
+		}
+		/**
+		 * put agent on the first edge
+		 * @param a agent index
+		 * @param time departure time
+		 */
+		private void depart(int a,double time) {
+			int e = _routeEdges[_routeStart[a]];
+			_pos[a]   = _routeStart[a];
+			_enter[a] = time;
+			_counts.incrementAndGet(e);
+			append(e,a);
+		}
+		/**
+		 * move the first vehicle of the edge if it is ready and the next edge has space
+		 * @param e edge index
+		 * @param now current time
+		 * @param end end of window
+		 * @param parity parity of this window
+		 */
+		private void tryExit(int e,double now,double end,int parity) {
+			if( _scheduled[e] != now ) { return; }	// replaced by another event
+			_scheduled[e] = Double.POSITIVE_INFINITY;
+			int a = _qHead[e];
+			if( a < 0 ) { return; }
+			double ready = Math.max(_enter[a] + _t0[e],_nextFree[e]);
+			if( ready > now ) { schedule(e,ready); return; }
+			// move to the next edge or arrive ============
+			boolean last = _pos[a] + 1 == _routeStart[a+1];
+			int     f    = last ? -1 : _routeEdges[_pos[a]+1];
+			if( !last && !reserve(f,now >= ready + _stuckTime) ) {
+				if( _regions[f] == __id ) {
+					if( _waitOn[e] != f ) {	// not in the waiting list yet
+						if( _waits[f] == null ) { _waits[f] = new IntList(); }
+						_waits[f].add(e);
+						_waitOn[e] = f;
+					}
+					schedule(e,ready + _stuckTime);
+				}
+				else { schedule(e,Math.min(end,ready + _stuckTime)); }	// retry at the next window
+				return;
+			}
+			// leave the edge =============================
+			_qHead[e] = _next[a];
+			if( _qHead[e] < 0 ) { _qTail[e] = -1; }
+			_nextFree[e] = now + _headway[e];
+			_counts.decrementAndGet(e);
+			_series.add(e,_enter[a],now);
+			wake(e,now);
+			if( _qHead[e] >= 0 ) { schedule(e,Math.max(_enter[_qHead[e]] + _t0[e],_nextFree[e])); }
+			// enter the next edge ========================
+			if( last ) { _arrivals[a] = now; return; }
+			_pos[a]++;
+			_enter[a] = now;
+			if( _regions[f] == __id ) { append(f,a); }
+			else { __outbox[parity][_regions[f]].add(a); }
+		}
+		/**
+		 * reserve space on the edge
+		 * @param f edge index
+		 * @param force true to ignore storage
+		 * @return true if reserved
+		 */
+		private boolean reserve(int f,boolean force) {
+			while( true ) {
+				int c = _counts.get(f);
+				if( c >= _storage[f] && !force ) { return false; }
+				if( _counts.compareAndSet(f,c,c+1) ) { return true; }
+			}
+		}
+		/**
+		 * let edges waiting for the edge retry
+		 * @param f edge index with space
+		 * @param now current time
+		 */
+		private void wake(int f,double now) {
+			IntList waits = _waits[f];
+			if( waits == null || waits.__size == 0 ) { return; }
+			for(int k=0;k<waits.__size;k++) {
+				int e = waits.__data[k];
+				if( _waitOn[e] != f ) { continue; }	// now waiting for another edge
+				_waitOn[e] = -1;
+				schedule(e,now);
+			}
+			waits.__size = 0;
+		}
+		/**
+		 * append agent at the end of the edge queue
+		 * @param f edge index
+		 * @param a agent index
+		 */
+		private void append(int f,int a) {
+			_next[a] = -1;
+			if( _qTail[f] < 0 ) {
+				_qHead[f] = _qTail[f] = a;
+				schedule(f,Math.max(_enter[a] + _t0[f],_nextFree[f]));
+			}
+			else {
+				_next[_qTail[f]] = a;
+				_qTail[f] = a;
+			}
+		}
+		/**
+		 * insert agent handed over from another region into the edge queue in order of entering time
+		 * @param f edge index
+		 * @param a agent index
+		 */
+		private void insert(int f,int a) {
+			int prev = -1;
+			int cur  = _qHead[f];
+			while( cur >= 0 && _enter[cur] <= _enter[a] ) { prev = cur; cur = _next[cur]; }
+			if( cur < 0 ) { append(f,a); return; }
+			_next[a] = cur;
+			if( prev < 0 ) {
+				_qHead[f] = a;
+				schedule(f,Math.max(_enter[a] + _t0[f],_nextFree[f]));
+			}
+			else { _next[prev] = a; }
+		}
+		/**
+		 * schedule event of the edge, if earlier than the pending one
+		 * @param e edge index
+		 * @param time event time
+		 */
+		private void schedule(int e,double time) {
+			if( time < _scheduled[e] ) {
+				_scheduled[e] = time;
+				__events.push(time,e);
+			}
+		}
+	}
+
+	/** priority queue of events ordered by time, then by insertion */
+	private static class EventQueue {
+		/** event times		*/	private double[] __times = new double[64];
+		/** insertion order	*/	private long[]   __seqs  = new long[64];
+		/** event ids		*/	private int[]    __ids   = new int[64];
+		/** the number		*/	private int      __size  = 0;
+		/** sequence		*/	private long     __seq   = 0L;
+		/**
+		 * check if empty
+		 * @return result
+		 */
+		private boolean isEmpty() {
+			return __size == 0;
+		}
+		/**
+		 * get time of the first event
+		 * @return time
+		 */
+		private double peekTime() {
+			return __times[0];
+		}
+		/**
+		 * add event
+		 * @param time event time
+		 * @param id event id
+		 */
+		private void push(double time,int id) {
+			if( __size == __times.length ) {
+				__times = Arrays.copyOf(__times,__size*2);
+				__seqs  = Arrays.copyOf(__seqs,__size*2);
+				__ids   = Arrays.copyOf(__ids,__size*2);
+			}
+			int  i   = __size++;
+			long seq = __seq++;
+			while( i > 0 ) {
+				int p = (i - 1) >>> 1;
+				if( !less(time,seq,p) ) { break; }
+				set(i,__times[p],__seqs[p],__ids[p]);
+				i = p;
+			}
+			set(i,time,seq,id);
+		}
+		/**
+		 * remove the first event
+		 * @return event id
+		 */
+		private int poll() {
+			int    top  = __ids[0];
+			int    n    = --__size;
+			double time = __times[n];
+			long   seq  = __seqs[n];
+			int    id   = __ids[n];
+			int    i    = 0;
+			while( true ) {
+				int c = 2 * i + 1;
+				if( c >= n ) { break; }
+				if( c + 1 < n && less(__times[c+1],__seqs[c+1],c) ) { c++; }
+				if( !less(__times[c],__seqs[c],time,seq) ) { break; }
+				set(i,__times[c],__seqs[c],__ids[c]);
+				i = c;
+			}
+			if( n > 0 ) { set(i,time,seq,id); }
+			return top;
+		}
+		/**
+		 * compare event with the event at the position
+		 * @param time event time
+		 * @param seq insertion order
+		 * @param pos position in heap
+		 * @return true if the event comes first
+		 */
+		private boolean less(double time,long seq,int pos) {
+			return less(time,seq,__times[pos],__seqs[pos]);
+		}
+		/**
+		 * compare events
+		 * @param t0 time of the first event
+		 * @param s0 insertion order of the first event
+		 * @param t1 time of the second event
+		 * @param s1 insertion order of the second event
+		 * @return true if the first event comes first
+		 */
+		private static boolean less(double t0,long s0,double t1,long s1) {
+			return t0 < t1 || (t0 == t1 && s0 < s1);
+		}
+		/**
+		 * set event at the position
+		 * @param pos position in heap
+		 * @param time event time
+		 * @param seq insertion order
+		 * @param id event id
+		 */
+		private void set(int pos,double time,long seq,int id) {
+			__times[pos] = time;
+			__seqs[pos]  = seq;
+			__ids[pos]   = id;
+		}
+	}
+
+	/** growable list of primitive int */
+	private static class IntList {
+		/** values			*/	private int[] __data = new int[4];
+		/** the number		*/	private int   __size = 0;
+		/**
+		 * append value
+		 * @param v value
+		 */
+		private void add(int v) {
+			if( __size == __data.length ) { __data = Arrays.copyOf(__data,__size*2); }
+			__data[__size++] = v;
+		}
+		/**
+		 * append all values
+		 * @param list list
+		 */
+		private void addAll(IntList list) {
+			if( __size + list.__size > __data.length ) { __data = Arrays.copyOf(__data,Math.max(__data.length*2,__size+list.__size)); }
+			System.arraycopy(list.__data,0,__data,__size,list.__size);
+			__size += list.__size;
+		}
+	}
+}
@@ -0,0 +1,6 @@
+/**
+ * package for traffic simulation on routing networks
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+package jp.ac.ut.csis.pflow.routing2.simulation;
@@ -0,0 +1,516 @@
+package jp.ac.ut.csis.pflow.routing2.sink;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.ColumnType;
+import jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.RowWriter;
+
+/**
+ * Abstract class for result sinks writing through a writer thread. <br />
+ * records are encoded by {@link IRecordEncoder} into bytes of reused buffers, and filled buffers are handed to
+ * the writer thread which writes them to the output stream. the number of buffers is fixed, so the caller blocks
+ * when all buffers are waiting for the writer(backpressure) and memory is bounded by the buffer size * the number
+ * of buffers. failures of the writer thread are thrown on the next write, flush or close. <br />
+ * if the encoder fails in the middle of a row, the partial row is discarded: its bytes are kept in the current
+ * buffer until the row ends, so they are rewound, and only a row longer than a buffer leaves the sink failed.
+ * rows finished before the failure are kept. <br />
+ * an instance must be used from one thread.
+ *
+ * @param <T> record type
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public abstract class ARecordSink<T> implements IResultSink<T> {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default buffer size(byte)			*/	public static final int BUFFER_SIZE = 1 << 20;	// 1 MiB
+	/** default the number of buffers		*/	public static final int NUM_BUFFERS = 4;
+	/** minimum buffer size(byte)			*/	private static final int MIN_BUFFER_SIZE = 64;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** record encoder						*/	private IRecordEncoder<T>      _encoder;
+	/** column types						*/	private ColumnType[]           _types;
+	/** row writer							*/	private Row                    _row;
+	/** the number of records				*/	private long                   _records;
+	/** the number of rows					*/	private long                   _rows;
+	/** current buffer						*/	private byte[]                 _buffer;
+	/** position in current buffer			*/	private int                    _position;
+	/** start of current row. -1 if none	*/	private int                    _mark;
+	/** free buffers						*/	private BlockingQueue<byte[]>  _free;
+	/** buffers waiting for writer			*/	private BlockingQueue<Chunk>   _queue;
+	/** writer thread						*/	private Thread                 _writer;
+	/** failure of writer thread			*/	private volatile IOException   _error;
+	/** closed flag							*/	private boolean                _closed;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create sink and start writer thread
+	 * @param out output stream. closed when the sink is closed
+	 * @param encoder record encoder
+	 * @param bufferSize buffer size(byte)
+	 * @param numBuffers the number of buffers(>= 2)
+	 */
+	protected ARecordSink(final OutputStream out,IRecordEncoder<T> encoder,int bufferSize,int numBuffers) {
+		if( bufferSize < MIN_BUFFER_SIZE ) { throw new IllegalArgumentException("unavailable value: bufferSize=" + bufferSize); }
+		if( numBuffers < 2 )               { throw new IllegalArgumentException("unavailable value: numBuffers=" + numBuffers); }
+		_encoder  = encoder;
+		_types    = encoder.getColumnTypes().toArray(new ColumnType[0]);
+		_row      = new Row();
+		_records  = 0L;
+		_rows     = 0L;
+		_closed   = false;
+		_free     = new ArrayBlockingQueue<byte[]>(numBuffers);
+		_queue    = new ArrayBlockingQueue<Chunk>(numBuffers + 2);	// buffers + flush/end markers
+		for(int i=1;i<numBuffers;i++) { _free.add(new byte[bufferSize]); }
+		_buffer   = new byte[bufferSize];
+		_position = 0;
+		_mark     = -1;
+		_writer   = new Thread("pflow-sink-writer") {
+			@Override
+			public void run() {
+				drain(out);
+			}
+		};
+		_writer.setDaemon(true);
+		_writer.start();
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get record encoder
+	 * @return encoder
+	 */
+	public IRecordEncoder<T> getEncoder() {
+		return _encoder;
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.IResultSink#write(java.lang.Object) */
+	@Override
+	public void write(T record) throws IOException {
+		if( _closed ) { throw new IOException("sink closed"); }
+		int column = 0;
+		try {
+			_encoder.encode(_records,record,_row);
+		}
+		catch(SinkException exp) {
+			throw IOException.class.cast(exp.getCause());
+		}
+		finally {
+			column = _row.__column;
+			if( column != 0 ) { discardRow(); }
+		}
+		_records++;
+		if( column != 0 ) { throw new IllegalStateException("row not finished: record=" + (_records - 1)); }
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.IResultSink#writeAll(java.lang.Iterable) */
+	@Override
+	public void writeAll(Iterable<? extends T> records) throws IOException {
+		for(T record:records) { write(record); }
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.IResultSink#flush() */
+	@Override
+	public void flush() throws IOException {
+		if( _closed ) { throw new IOException("sink closed"); }
+		flushRows();
+		handoff(false);
+		CountDownLatch latch = new CountDownLatch(1);
+		enqueue(new Chunk(null,0,latch));
+		try {
+			while( !latch.await(100L,TimeUnit.MILLISECONDS) ) {
+				if( !_writer.isAlive() ) { throw new IOException("writer thread terminated",_error); }
+			}
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while flushing");
+		}
+		checkError();
+	}
+
+	/* @see java.io.Closeable#close() */
+	@Override
+	public void close() throws IOException {
+		if( _closed ) { return; }
+		try {
+			flushRows();
+			finish();
+			handoff(false);
+		}
+		finally {
+			_closed = true;
+			enqueue(new Chunk(null,0,null));
+			try {
+				_writer.join();
+			}
+			catch(InterruptedException exp) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while closing");
+			}
+		}
+		checkError();
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.IResultSink#numRecords() */
+	@Override
+	public long numRecords() {
+		return _records;
+	}
+
+	/**
+	 * get the number of rows
+	 * @return the number of rows
+	 */
+	public long numRows() {
+		return _rows;
+	}
+
+	/**
+	 * get the number of columns
+	 * @return the number of columns
+	 */
+	protected int numColumns() {
+		return _types.length;
+	}
+
+	/**
+	 * get column type
+	 * @param column column index
+	 * @return column type
+	 */
+	protected ColumnType getColumnType(int column) {
+		return _types[column];
+	}
+
+	/**
+	 * put double value of the column
+	 * @param column column index
+	 * @param value value. NaN for null
+	 * @throws IOException failed to write
+	 */
+	protected abstract void putDouble(int column,double value) throws IOException;
+
+	/**
+	 * put long value of the column
+	 * @param column column index
+	 * @param value value. Long.MIN_VALUE for null
+	 * @throws IOException failed to write
+	 */
+	protected abstract void putLong(int column,long value) throws IOException;
+
+	/**
+	 * put string value of the column
+	 * @param column column index
+	 * @param value value(nullable)
+	 * @throws IOException failed to write
+	 */
+	protected abstract void putString(int column,String value) throws IOException;
+
+	/**
+	 * finish the current row
+	 * @throws IOException failed to write
+	 */
+	protected abstract void endRow() throws IOException;
+
+	/**
+	 * write out rows kept by the sink before flush. nothing by default
+	 * @throws IOException failed to write
+	 */
+	protected void flushRows() throws IOException {
+		// nothing
+	}
+
+	/**
+	 * write trailer before close. nothing by default
+	 * @throws IOException failed to write
+	 */
+	protected void finish() throws IOException {
+		// nothing
+	}
+
+	/**
+	 * write a byte
+	 * @param b byte
+	 * @throws IOException failed to write
+	 */
+	protected void writeByte(int b) throws IOException {
+		if( _position == _buffer.length ) { handoff(true); }
+		_buffer[_position++] = (byte)b;
+	}
+
+	/**
+	 * write bytes. the bytes may span buffers
+	 * @param src source bytes
+	 * @param off offset
+	 * @param len length
+	 * @throws IOException failed to write
+	 */
+	protected void writeBytes(byte[] src,int off,int len) throws IOException {
+		while( len > 0 ) {
+			if( _position == _buffer.length ) { handoff(true); }
+			int n = Math.min(len,_buffer.length - _position);
+			System.arraycopy(src,off,_buffer,_position,n);
+			_position += n;
+			off       += n;
+			len       -= n;
+		}
+	}
+
+	/**
+	 * write 4 byte integer in little endian
+	 * @param v value
+	 * @throws IOException failed to write
+	 */
+	protected void writeIntLE(int v) throws IOException {
+		while( _buffer.length - _position < 4 ) { handoff(true); }
+		byte[] b = _buffer;
+		int    p = _position;
+		b[p  ] = (byte) v;
+		b[p+1] = (byte)(v >>>  8);
+		b[p+2] = (byte)(v >>> 16);
+		b[p+3] = (byte)(v >>> 24);
+		_position = p + 4;
+	}
+
+	/**
+	 * hand the current buffer to the writer thread and take a free buffer. blocks while no buffer is free.
+	 * bytes of the current row are carried over to the new buffer unless the row starts at the head of the buffer
+	 * @param force hand the buffer even if empty
+	 * @throws IOException failed to write
+	 */
+	private void handoff(boolean force) throws IOException {
+		checkError();
+		if( _position == 0 && !force ) { return; }
+		int length = _mark > 0 ? _mark : _position;
+		enqueue(new Chunk(_buffer,length,null));
+		try {
+			byte[] buffer;
+			while( (buffer = _free.poll(100L,TimeUnit.MILLISECONDS)) == null ) {
+				if( !_writer.isAlive() ) { throw new IOException("writer thread terminated",_error); }
+			}
+			int carry = _position - length;
+			System.arraycopy(_buffer,length,buffer,0,carry);	// the writer reads only the bytes before the length
+			_buffer   = buffer;
+			_position = carry;
+			_mark     = _mark > 0 ? 0 : -1;						// a row filling the whole buffer is handed off
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for writer");
+		}
+	}
+
+	/**
+	 * discard the partial row left by a failed encoder
+	 */
+	private void discardRow() {
+		if( _mark >= 0 ) { _position = _mark; }
+		else if( _error == null ) { _error = new IOException("partial row already handed to writer: row=" + _rows); }
+		_mark         = -1;
+		_row.__column = 0;
+	}
+
+	/**
+	 * put chunk into the queue of the writer thread
+	 * @param chunk chunk
+	 * @throws IOException interrupted
+	 */
+	private void enqueue(Chunk chunk) throws IOException {
+		try {
+			_queue.put(chunk);
+		}
+		catch(InterruptedException exp) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for writer");
+		}
+	}
+
+	/**
+	 * throw failure of the writer thread if any
+	 * @throws IOException failure of writer thread
+	 */
+	private void checkError() throws IOException {
+		if( _error != null ) { throw new IOException("failed to write",_error); }
+	}
+
+	/**
+	 * loop of the writer thread. after a failure, chunks are discarded until the end marker
+	 * @param out output stream
+	 */
+	private void drain(OutputStream out) {
+		try {
+			while( true ) {
+				Chunk chunk = _queue.take();
+				// case data //////////////////////////////////
+				if( chunk.__data != null ) {
+					try {
+						if( _error == null ) { out.write(chunk.__data,0,chunk.__length); }
+					}
+					catch(IOException exp) {
+						_error = exp;
+					}
+					_free.add(chunk.__data);
+				}
+				// case flush /////////////////////////////////
+				else if( chunk.__latch != null ) {
+					try {
+						if( _error == null ) { out.flush(); }
+					}
+					catch(IOException exp) {
+						_error = exp;
+					}
+					chunk.__latch.countDown();
+				}
+				// case end ///////////////////////////////////
+				else {
+					break;
+				}
+			}
+		}
+		catch(InterruptedException exp) {
+			_error = new InterruptedIOException("writer thread interrupted");
+		}
+		finally {
+			try {
+				out.close();
+			}
+			catch(IOException exp) {
+				if( _error == null ) { _error = exp; }
+			}
+		}
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/**
+	 * buffer handed to the writer thread, or marker of flush/end
+	 */
+	private static class Chunk {
+		/** bytes(null for marker)		*/	private byte[]         __data;
+		/** length of bytes				*/	private int            __length;
+		/** latch of flush marker		*/	private CountDownLatch __latch;
+
+		/**
+		 * initialization
+		 * @param data bytes
+		 * @param length length of bytes
+		 * @param latch latch of flush marker
+		 */
+		private Chunk(byte[] data,int length,CountDownLatch latch) {
+			__data   = data;
+			__length = length;
+			__latch  = latch;
+		}
+	}
+
+	/**
+	 * row writer checking the column types
+	 */
+	private class Row implements RowWriter {
+		/** index of the next column	*/	private int __column = 0;
+
+		/* @see jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.RowWriter#putDouble(double) */
+		@Override
+		public void putDouble(double value) {
+			try {
+				ARecordSink.this.putDouble(next(ColumnType.DOUBLE),value);
+			}
+			catch(IOException exp) {
+				throw new SinkException(exp);
+			}
+		}
+
+		/* @see jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.RowWriter#putLong(long) */
+		@Override
+		public void putLong(long value) {
+			try {
+				ARecordSink.this.putLong(next(ColumnType.LONG),value);
+			}
+			catch(IOException exp) {
+				throw new SinkException(exp);
+			}
+		}
+
+		/* @see jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.RowWriter#putString(java.lang.String) */
+		@Override
+		public void putString(String value) {
+			try {
+				ARecordSink.this.putString(next(ColumnType.STRING),value);
+			}
+			catch(IOException exp) {
+				throw new SinkException(exp);
+			}
+		}
+
+		/* @see jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.RowWriter#putNull() */
+		@Override
+		public void putNull() {
+			if( __column >= _types.length ) { throw new IllegalStateException("too many values: column=" + __column); }
+			switch( _types[__column] ) {
+			case DOUBLE: putDouble(Double.NaN);     break;
+			case LONG:   putLong(Long.MIN_VALUE);   break;
+			default:     putString(null);           break;
+			}
+		}
+
+		/* @see jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.RowWriter#endRow() */
+		@Override
+		public void endRow() {
+			if( __column != _types.length ) { throw new IllegalStateException("missing values: column=" + __column); }
+			__column = 0;
+			_mark    = -1;
+			try {
+				ARecordSink.this.endRow();
+			}
+			catch(IOException exp) {
+				throw new SinkException(exp);
+			}
+			_rows++;
+		}
+
+		/**
+		 * advance to the next column
+		 * @param type type of value
+		 * @return column index
+		 */
+		private int next(ColumnType type) {
+			if( __column >= _types.length ) { throw new IllegalStateException("too many values: column=" + __column); }
+			if( _types[__column] != type )  { throw new IllegalStateException("type mismatch: column=" + __column + ", type=" + type); }
+			if( __column == 0 ) { _mark = _position; }	// start of row
+			return __column++;
+		}
+	}
+
+	/**
+	 * unchecked wrapper of IOException thrown through the row writer
+	 */
+	private static class SinkException extends RuntimeException {
+		/** serial version */	private static final long serialVersionUID = 1L;
+
+		/**
+		 * initialization
+		 * @param cause IO failure
+		 */
+		private SinkException(IOException cause) {
+			super(cause);
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package jp.ac.ut.csis.pflow.routing2.sink;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.ColumnType;
+
+/**
+ * Class for reading files written by {@link ColumnarSink} block by block. <br />
+ * call {@link #next()} to load the next block, then read values by column and row in the block.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class ColumnarReader implements Closeable {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** input stream					*/	private DataInputStream  _in;
+	/** column names					*/	private List<String>     _names;
+	/** column types					*/	private List<ColumnType> _types;
+	/** the number of rows in the block	*/	private int              _size;
+	/** values of DOUBLE columns		*/	private double[][]       _doubles;
+	/** values of LONG columns			*/	private long[][]         _longs;
+	/** values of STRING columns		*/	private String[][]       _strings;
+	/** buffer of column bytes			*/	private byte[]           _buffer;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * open the file
+	 * @param file file written by {@link ColumnarSink}
+	 * @throws IOException failed to read or not a columnar file
+	 */
+	public ColumnarReader(File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+
+	/**
+	 * read header of the stream
+	 * @param in input stream. closed when the reader is closed
+	 * @throws IOException failed to read or not a columnar file
+	 */
+	public ColumnarReader(InputStream in) throws IOException {
+		_in = new DataInputStream(new BufferedInputStream(in,1<<16));
+		try {
+			if( readInt() != ColumnarSink.MAGIC )   { throw new IOException("not columnar result file"); }
+			if( readInt() != ColumnarSink.VERSION ) { throw new IOException("unsupported columnar result format"); }
+			int C = readInt();
+			_names   = new ArrayList<String>(C);
+			_types   = new ArrayList<ColumnType>(C);
+			for(int c=0;c<C;c++) {
+				_types.add(ColumnType.values()[_in.readUnsignedByte()]);
+				byte[] name = new byte[(int)readVarLong(_in)];
+				_in.readFully(name);
+				_names.add(new String(name,StandardCharsets.UTF_8));
+			}
+		}
+		catch(IOException exp) {
+			_in.close();
+			throw exp;
+		}
+		_names   = Collections.unmodifiableList(_names);
+		_types   = Collections.unmodifiableList(_types);
+		_size    = 0;
+		_doubles = new double[_types.size()][];
+		_longs   = new long[_types.size()][];
+		_strings = new String[_types.size()][];
+		_buffer  = new byte[1024];
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get column names
+	 * @return column names
+	 */
+	public List<String> getColumnNames() {
+		return _names;
+	}
+
+	/**
+	 * get column types
+	 * @return column types
+	 */
+	public List<ColumnType> getColumnTypes() {
+		return _types;
+	}
+
+	/**
+	 * get index of the column
+	 * @param name column name
+	 * @return column index. -1 if not found
+	 */
+	public int getColumnIndex(String name) {
+		return _names.indexOf(name);
+	}
+
+	/**
+	 * load the next block
+	 * @return false at the end of file
+	 * @throws IOException failed to read or file truncated
+	 */
+	public boolean next() throws IOException {
+		int size;
+		try {
+			size = readInt();
+		}
+		catch(EOFException exp) {
+			throw new IOException("columnar result file truncated",exp);
+		}
+		if( size <= 0 ) {
+			_size = 0;
+			return false;
+		}
+		_size = size;
+		for(int c=0;c<_types.size();c++) {
+			int len = readInt();
+			if( _buffer.length < len ) { _buffer = new byte[Math.max(len,_buffer.length*2)]; }
+			_in.readFully(_buffer,0,len);
+			ByteBuffer buf = ByteBuffer.wrap(_buffer,0,len).order(ByteOrder.LITTLE_ENDIAN);
+			switch( _types.get(c) ) {
+			// case DOUBLE: raw values ////////////////////
+			case DOUBLE: {
+				if( _doubles[c] == null || _doubles[c].length < size ) { _doubles[c] = new double[size]; }
+				buf.asDoubleBuffer().get(_doubles[c],0,size);
+				break;
+			}
+			// case LONG: zigzag varint of difference /////
+			case LONG: {
+				if( _longs[c] == null || _longs[c].length < size ) { _longs[c] = new long[size]; }
+				long prev = 0L;
+				for(int i=0;i<size;i++) {
+					long z = readVarLong(buf);
+					prev += (z >>> 1) ^ -(z & 1L);
+					_longs[c][i] = prev;
+				}
+				break;
+			}
+			// case STRING: dictionary and codes //////////
+			default: {
+				if( _strings[c] == null || _strings[c].length < size ) { _strings[c] = new String[size]; }
+				String[] dictionary = new String[(int)readVarLong(buf)];
+				for(int i=0;i<dictionary.length;i++) {
+					int n = (int)readVarLong(buf);
+					dictionary[i] = new String(_buffer,buf.position(),n,StandardCharsets.UTF_8);
+					buf.position(buf.position() + n);
+				}
+				for(int i=0;i<size;i++) {
+					int code = (int)readVarLong(buf);
+					_strings[c][i] = code == 0 ? null : dictionary[code-1];
+				}
+				break;
+			}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * get the number of rows in the current block
+	 * @return the number of rows
+	 */
+	public int numRows() {
+		return _size;
+	}
+
+	/**
+	 * get value of DOUBLE column
+	 * @param column column index
+	 * @param row row index in the block
+	 * @return value. NaN for null
+	 */
+	public double getDouble(int column,int row) {
+		check(column,row,ColumnType.DOUBLE);
+		return _doubles[column][row];
+	}
+
+	/**
+	 * get value of LONG column
+	 * @param column column index
+	 * @param row row index in the block
+	 * @return value. Long.MIN_VALUE for null
+	 */
+	public long getLong(int column,int row) {
+		check(column,row,ColumnType.LONG);
+		return _longs[column][row];
+	}
+
+	/**
+	 * get value of STRING column
+	 * @param column column index
+	 * @param row row index in the block
+	 * @return value(nullable)
+	 */
+	public String getString(int column,int row) {
+		check(column,row,ColumnType.STRING);
+		return _strings[column][row];
+	}
+
+	/* @see java.io.Closeable#close() */
+	@Override
+	public void close() throws IOException {
+		_in.close();
+	}
+
+	/**
+	 * check the column and row
+	 * @param column column index
+	 * @param row row index
+	 * @param type expected type
+	 */
+	private void check(int column,int row,ColumnType type) {
+		if( _types.get(column) != type ) { throw new IllegalArgumentException("type mismatch: column=" + column + ", type=" + type); }
+		if( row < 0 || _size <= row )    { throw new IndexOutOfBoundsException("row: " + row); }
+	}
+
+	/**
+	 * read 4 byte integer in little endian
+	 * @return value
+	 * @throws IOException failed to read
+	 */
+	private int readInt() throws IOException {
+		return Integer.reverseBytes(_in.readInt());
+	}
+
+	/**
+	 * read unsigned varint from the stream
+	 * @param in input stream
+	 * @return value
+	 * @throws IOException failed to read
+	 */
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long v = 0L;
+		for(int shift=0;;shift+=7) {
+			int b = in.readUnsignedByte();
+			v |= (long)(b & 0x7F) << shift;
+			if( (b & 0x80) == 0 ) { return v; }
+		}
+	}
+
+	/**
+	 * read unsigned varint from the buffer
+	 * @param buf buffer
+	 * @return value
+	 */
+	private static long readVarLong(ByteBuffer buf) {
+		long v = 0L;
+		for(int shift=0;;shift+=7) {
+			int b = buf.get() & 0xFF;
+			v |= (long)(b & 0x7F) << shift;
+			if( (b & 0x80) == 0 ) { return v; }
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package jp.ac.ut.csis.pflow.routing2.sink;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.ColumnType;
+
+/**
+ * Class for result sink writing compact binary columnar format. <br />
+ * rows are kept per column and written in blocks of the indicated number of rows. in a block, DOUBLE columns
+ * are raw 8 byte values, LONG columns are zigzag varints of the difference from the previous row, and STRING
+ * columns are a dictionary of the block followed by varint codes(0 for null), so sequence numbers, times and
+ * repeated link/node ids take a few bytes per row. <br />
+ * file layout: magic, format version, the number of columns, type and name of each column, blocks of
+ * (the number of rows, byte length and bytes of each column), and 0 as the end marker, all in little endian.
+ * files are read by {@link ColumnarReader}.
+ *
+ * @param <T> record type
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class ColumnarSink<T> extends ARecordSink<T> {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** file signature							*/	protected static final int MAGIC      = 0x50465243;	// "PFRC"
+	/** format version							*/	protected static final int VERSION    = 1;
+	/** default the number of rows per block	*/	public static final int    BLOCK_ROWS = 65536;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** the number of rows per block		*/	private int                   _blockRows;
+	/** the number of rows in the block		*/	private int                   _size;
+	/** values of DOUBLE columns			*/	private double[][]            _doubles;
+	/** values of LONG columns				*/	private long[][]              _longs;
+	/** values of STRING columns			*/	private String[][]            _strings;
+	/** dictionary of the block				*/	private Map<String,Integer>   _dictionary;
+	/** encoded column						*/	private Bytes                 _bytes;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create sink on the file with default parameters
+	 * @param file output file
+	 * @param encoder record encoder
+	 * @throws IOException failed to open or write
+	 */
+	public ColumnarSink(File file,IRecordEncoder<T> encoder) throws IOException {
+		this(new FileOutputStream(file),encoder,BLOCK_ROWS,BUFFER_SIZE,NUM_BUFFERS);
+	}
+
+	/**
+	 * create sink on the stream
+	 * @param out output stream. closed when the sink is closed
+	 * @param encoder record encoder
+	 * @param blockRows the number of rows per block
+	 * @param bufferSize buffer size(byte)
+	 * @param numBuffers the number of buffers
+	 * @throws IOException failed to write
+	 */
+	public ColumnarSink(OutputStream out,IRecordEncoder<T> encoder,int blockRows,int bufferSize,int numBuffers) throws IOException {
+		super(out,encoder,bufferSize,numBuffers);
+		if( blockRows < 1 ) {
+			close();
+			throw new IllegalArgumentException("unavailable value: blockRows=" + blockRows);
+		}
+		int C = numColumns();
+		_blockRows  = blockRows;
+		_size       = 0;
+		_doubles    = new double[C][];
+		_longs      = new long[C][];
+		_strings    = new String[C][];
+		_dictionary = new HashMap<String,Integer>();
+		_bytes      = new Bytes();
+		for(int c=0;c<C;c++) {
+			switch( getColumnType(c) ) {
+			case DOUBLE: _doubles[c] = new double[blockRows]; break;
+			case LONG:   _longs[c]   = new long[blockRows];   break;
+			default:     _strings[c] = new String[blockRows]; break;
+			}
+		}
+		// header /////////////////////////////////////////
+		List<String> names = encoder.getColumnNames();
+		_bytes.clear();
+		_bytes.putInt(MAGIC);
+		_bytes.putInt(VERSION);
+		_bytes.putInt(C);
+		for(int c=0;c<C;c++) {
+			_bytes.put(getColumnType(c).ordinal());
+			_bytes.putString(names.get(c));
+		}
+		writeBytes(_bytes.__data,0,_bytes.__size);
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.ARecordSink#putDouble(int, double) */
+	@Override
+	protected void putDouble(int column,double value) {
+		_doubles[column][_size] = value;
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.ARecordSink#putLong(int, long) */
+	@Override
+	protected void putLong(int column,long value) {
+		_longs[column][_size] = value;
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.ARecordSink#putString(int, java.lang.String) */
+	@Override
+	protected void putString(int column,String value) {
+		_strings[column][_size] = value;
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.ARecordSink#endRow() */
+	@Override
+	protected void endRow() throws IOException {
+		if( ++_size == _blockRows ) { writeBlock(); }
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.ARecordSink#flushRows() */
+	@Override
+	protected void flushRows() throws IOException {
+		writeBlock();
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.ARecordSink#finish() */
+	@Override
+	protected void finish() throws IOException {
+		writeIntLE(0);	// end marker
+	}
+
+	/**
+	 * write rows of the block
+	 * @throws IOException failed to write
+	 */
+	private void writeBlock() throws IOException {
+		if( _size == 0 ) { return; }
+		writeIntLE(_size);
+		for(int c=0;c<numColumns();c++) {
+			_bytes.clear();
+			switch( getColumnType(c) ) {
+			// case DOUBLE: raw values ////////////////////
+			case DOUBLE: {
+				double[] values = _doubles[c];
+				for(int i=0;i<_size;i++) { _bytes.putLong(Double.doubleToRawLongBits(values[i])); }
+				break;
+			}
+			// case LONG: zigzag varint of difference /////
+			case LONG: {
+				long[] values = _longs[c];
+				long   prev   = 0L;
+				for(int i=0;i<_size;i++) {
+					long d = values[i] - prev;
+					_bytes.putVarLong((d << 1) ^ (d >> 63));
+					prev = values[i];
+				}
+				break;
+			}
+			// case STRING: dictionary and codes //////////
+			default: {
+				String[] values = _strings[c];
+				int[]    codes  = new int[_size];
+				int      count  = 0;
+				_dictionary.clear();
+				for(int i=0;i<_size;i++) {
+					if( values[i] == null ) { continue; }
+					Integer code = _dictionary.get(values[i]);
+					if( code == null ) { _dictionary.put(values[i],code=++count); }
+					codes[i] = code;
+				}
+				String[] dictionary = new String[count];
+				for(Map.Entry<String,Integer> entry:_dictionary.entrySet()) { dictionary[entry.getValue()-1] = entry.getKey(); }
+				_bytes.putVarLong(count);
+				for(String str:dictionary) { _bytes.putString(str); }
+				for(int i=0;i<_size;i++) { _bytes.putVarLong(codes[i]); }
+				Arrays.fill(values,0,_size,null);
+				break;
+			}
+			}
+			writeIntLE(_bytes.__size);
+			writeBytes(_bytes.__data,0,_bytes.__size);
+		}
+		_size = 0;
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/**
+	 * growable byte array in little endian
+	 */
+	private static class Bytes {
+		/** bytes				*/	private byte[] __data = new byte[1024];
+		/** the number of bytes	*/	private int    __size = 0;
+
+		/** clear bytes */
+		private void clear() {
+			__size = 0;
+		}
+
+		/**
+		 * ensure capacity
+		 * @param n the number of bytes to append
+		 */
+		private void ensure(int n) {
+			if( __data.length - __size < n ) { __data = Arrays.copyOf(__data,Math.max(__data.length*2,__size+n)); }
+		}
+
+		/**
+		 * append a byte
+		 * @param b byte
+		 */
+		private void put(int b) {
+			ensure(1);
+			__data[__size++] = (byte)b;
+		}
+
+		/**
+		 * append 4 byte integer
+		 * @param v value
+		 */
+		private void putInt(int v) {
+			ensure(4);
+			for(int i=0;i<4;i++) { __data[__size++] = (byte)(v >>> (i*8)); }
+		}
+
+		/**
+		 * append 8 byte integer
+		 * @param v value
+		 */
+		private void putLong(long v) {
+			ensure(8);
+			for(int i=0;i<8;i++) { __data[__size++] = (byte)(v >>> (i*8)); }
+		}
+
+		/**
+		 * append unsigned varint
+		 * @param v value
+		 */
+		private void putVarLong(long v) {
+			ensure(10);
+			while( (v & ~0x7FL) != 0L ) {
+				__data[__size++] = (byte)((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			__data[__size++] = (byte)v;
+		}
+
+		/**
+		 * append UTF-8 string with varint length
+		 * @param str string
+		 */
+		private void putString(String str) {
+			byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			putVarLong(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes,0,__data,__size,bytes.length);
+			__size += bytes.length;
+		}
+	}
+}
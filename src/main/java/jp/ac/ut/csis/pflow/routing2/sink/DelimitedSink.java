@@ -0,0 +1,230 @@
+package jp.ac.ut.csis.pflow.routing2.sink;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.routing2.loader.ACsvNetworkLoader.Delimiter;
+
+/**
+ * Class for result sink writing CSV/TSV text. <br />
+ * values are formatted directly into bytes without creating strings: doubles are written in fixed-point with
+ * the indicated number of fraction digits at most and trailing zeros removed(same form as
+ * <code>DecimalFormat("###.######")</code> for 6 digits, except that the last digit of a value exactly on the
+ * rounding boundary may differ, negative values rounded to zero are written as 0, and huge values are written in
+ * exponent form), longs in decimal, and nulls as empty fields. in CSV, strings containing the
+ * delimiter, quote or line break are quoted. lines end with LF.
+ *
+ * @param <T> record type
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class DelimitedSink<T> extends ARecordSink<T> {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default the number of fraction digits	*/	public static final int DECIMALS     = 6;
+	/** maximum the number of fraction digits	*/	private static final int MAX_DECIMALS = 9;
+	/** powers of ten							*/	private static final long[] POW10    = {1L,10L,100L,1000L,10000L,100000L,1000000L,10000000L,100000000L,1000000000L};
+	/** upper bound of fixed-point path			*/	private static final double LIMIT    = 1e18;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** delimiter byte					*/	private byte    _delimiter;
+	/** quote strings if necessary		*/	private boolean _quote;
+	/** the number of fraction digits	*/	private int     _decimals;
+	/** scratch for formatting			*/	private byte[]  _scratch;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create sink on the file with default parameters
+	 * @param file output file
+	 * @param encoder record encoder
+	 * @param delimiter delimiter type
+	 * @param hasHeader write header line of column names
+	 * @throws IOException failed to open or write
+	 */
+	public DelimitedSink(File file,IRecordEncoder<T> encoder,Delimiter delimiter,boolean hasHeader) throws IOException {
+		this(new FileOutputStream(file),encoder,delimiter,hasHeader,DECIMALS,BUFFER_SIZE,NUM_BUFFERS);
+	}
+
+	/**
+	 * create sink on the stream with default parameters
+	 * @param out output stream. closed when the sink is closed
+	 * @param encoder record encoder
+	 * @param delimiter delimiter type
+	 * @param hasHeader write header line of column names
+	 * @throws IOException failed to write
+	 */
+	public DelimitedSink(OutputStream out,IRecordEncoder<T> encoder,Delimiter delimiter,boolean hasHeader) throws IOException {
+		this(out,encoder,delimiter,hasHeader,DECIMALS,BUFFER_SIZE,NUM_BUFFERS);
+	}
+
+	/**
+	 * create sink on the stream
+	 * @param out output stream. closed when the sink is closed
+	 * @param encoder record encoder
+	 * @param delimiter delimiter type
+	 * @param hasHeader write header line of column names
+	 * @param decimals maximum the number of fraction digits of doubles(0-9)
+	 * @param bufferSize buffer size(byte)
+	 * @param numBuffers the number of buffers
+	 * @throws IOException failed to write
+	 */
+	public DelimitedSink(OutputStream out,IRecordEncoder<T> encoder,Delimiter delimiter,boolean hasHeader,int decimals,int bufferSize,int numBuffers) throws IOException {
+		super(out,encoder,bufferSize,numBuffers);
+		if( decimals < 0 || MAX_DECIMALS < decimals ) {
+			close();
+			throw new IllegalArgumentException("unavailable value: decimals=" + decimals);
+		}
+		_delimiter = (byte)(delimiter == Delimiter.TSV ? '\t' : ',');
+		_quote     = delimiter == Delimiter.CSV;
+		_decimals  = decimals;
+		_scratch   = new byte[32];
+		if( hasHeader ) {
+			List<String> names = encoder.getColumnNames();
+			for(int i=0;i<names.size();i++) { putString(i,names.get(i)); }
+			writeByte('\n');
+		}
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.ARecordSink#putDouble(int, double) */
+	@Override
+	protected void putDouble(int column,double value) throws IOException {
+		if( column > 0 ) { writeByte(_delimiter); }
+		if( Double.isNaN(value) ) { return; }
+		writeBytes(_scratch,0,format(value,_decimals,_scratch));
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.ARecordSink#putLong(int, long) */
+	@Override
+	protected void putLong(int column,long value) throws IOException {
+		if( column > 0 ) { writeByte(_delimiter); }
+		if( value == Long.MIN_VALUE ) { return; }
+		writeBytes(_scratch,0,format(value,_scratch));
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.ARecordSink#putString(int, java.lang.String) */
+	@Override
+	protected void putString(int column,String value) throws IOException {
+		if( column > 0 ) { writeByte(_delimiter); }
+		if( value == null ) { return; }
+		int     len    = value.length();
+		boolean ascii  = true;
+		boolean quoted = false;
+		for(int i=0;i<len;i++) {
+			char c = value.charAt(i);
+			if( c >= 0x80 ) { ascii = false; }
+			else if( c == _delimiter || c == '"' || c == '\n' || c == '\r' ) { quoted = _quote; }
+		}
+		if( quoted ) { writeByte('"'); }
+		// case ASCII: write chars as bytes ///////////////
+		if( ascii ) {
+			for(int i=0;i<len;i++) {
+				char c = value.charAt(i);
+				if( quoted && c == '"' ) { writeByte('"'); }
+				writeByte(c);
+			}
+		}
+		// case others: encode in UTF-8 ///////////////////
+		else {
+			byte[] bytes = (quoted ? value.replace("\"","\"\"") : value).getBytes(StandardCharsets.UTF_8);
+			writeBytes(bytes,0,bytes.length);
+		}
+		if( quoted ) { writeByte('"'); }
+	}
+
+	/* @see jp.ac.ut.csis.pflow.routing2.sink.ARecordSink#endRow() */
+	@Override
+	protected void endRow() throws IOException {
+		writeByte('\n');
+	}
+
+	/**
+	 * format double into ASCII bytes in fixed-point
+	 * @param value value(not NaN)
+	 * @param decimals maximum the number of fraction digits
+	 * @param buf output bytes(32 bytes at least)
+	 * @return the number of bytes
+	 */
+	static int format(double value,int decimals,byte[] buf) {
+		double abs = Math.abs(value);
+		// case out of fixed-point range //////////////////
+		if( Double.isInfinite(value) || abs * POW10[decimals] >= LIMIT ) {
+			return ascii(Double.toString(value),buf);
+		}
+		long scaled = Math.round(abs * POW10[decimals]);
+		long ipart  = scaled / POW10[decimals];
+		long fpart  = scaled % POW10[decimals];
+		int  pos    = 0;
+		if( value < 0d && scaled != 0L ) { buf[pos++] = '-'; }
+		pos = digits(ipart,buf,pos);
+		if( fpart != 0L ) {
+			int n = decimals;
+			while( fpart % 10L == 0L ) { fpart /= 10L; n--; }	// drop trailing zeros
+			buf[pos++] = '.';
+			for(int i=pos+n-1;i>=pos;i--) {
+				buf[i] = (byte)('0' + fpart % 10L);
+				fpart /= 10L;
+			}
+			pos += n;
+		}
+		return pos;
+	}
+
+	/**
+	 * format long into ASCII bytes
+	 * @param value value
+	 * @param buf output bytes(32 bytes at least)
+	 * @return the number of bytes
+	 */
+	static int format(long value,byte[] buf) {
+		if( value == Long.MIN_VALUE ) { return ascii(Long.toString(value),buf); }
+		int pos = 0;
+		if( value < 0L ) {
+			buf[pos++] = '-';
+			value      = -value;
+		}
+		return digits(value,buf,pos);
+	}
+
+	/**
+	 * write decimal digits of non-negative value
+	 * @param value value
+	 * @param buf output bytes
+	 * @param pos start position
+	 * @return end position
+	 */
+	private static int digits(long value,byte[] buf,int pos) {
+		int n = 1;
+		for(long v=value/10L;v>0L;v/=10L) { n++; }
+		for(int i=pos+n-1;i>=pos;i--) {
+			buf[i] = (byte)('0' + value % 10L);
+			value /= 10L;
+		}
+		return pos + n;
+	}
+
+	/**
+	 * copy ASCII string into bytes
+	 * @param str string
+	 * @param buf output bytes
+	 * @return the number of bytes
+	 */
+	private static int ascii(String str,byte[] buf) {
+		int len = str.length();
+		for(int i=0;i<len;i++) { buf[i] = (byte)str.charAt(i); }
+		return len;
+	}
+}
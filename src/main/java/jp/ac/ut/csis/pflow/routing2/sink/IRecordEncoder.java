@@ -0,0 +1,75 @@
+package jp.ac.ut.csis.pflow.routing2.sink;
+
+import java.util.List;
+
+/**
+ * Interface for encoding records into rows of typed columns. <br />
+ * a record is encoded into zero or more rows, and each row has a value of every column in the order of columns.
+ *
+ * @param <T> record type
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public interface IRecordEncoder<T> {
+	/**
+	 * get column names
+	 * @return column names
+	 */
+	public List<String> getColumnNames();
+
+	/**
+	 * get column types
+	 * @return column types in the order of columns
+	 */
+	public List<ColumnType> getColumnTypes();
+
+	/**
+	 * encode record into rows
+	 * @param index index of the record in the sink(0-)
+	 * @param record record
+	 * @param row row writer
+	 */
+	public void encode(long index,T record,RowWriter row);
+
+
+	/**
+	 * column type
+	 */
+	public enum ColumnType {
+		/** 8 byte float. NaN for null						*/	DOUBLE,
+		/** 8 byte integer. Long.MIN_VALUE for null			*/	LONG,
+		/** string											*/	STRING;
+	}
+
+	/**
+	 * writer of row values
+	 */
+	public interface RowWriter {
+		/**
+		 * put value of the next DOUBLE column
+		 * @param value value
+		 */
+		public void putDouble(double value);
+
+		/**
+		 * put value of the next LONG column
+		 * @param value value
+		 */
+		public void putLong(long value);
+
+		/**
+		 * put value of the next STRING column
+		 * @param value value(nullable)
+		 */
+		public void putString(String value);
+
+		/**
+		 * put null of the next column
+		 */
+		public void putNull();
+
+		/**
+		 * finish the current row
+		 */
+		public void endRow();
+	}
+}
@@ -0,0 +1,38 @@
+package jp.ac.ut.csis.pflow.routing2.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Interface for sink of result records
+ *
+ * @param <T> record type
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public interface IResultSink<T> extends Closeable {
+	/**
+	 * write record
+	 * @param record record
+	 * @throws IOException failed to write
+	 */
+	public void write(T record) throws IOException;
+
+	/**
+	 * write all records
+	 * @param records records
+	 * @throws IOException failed to write
+	 */
+	public void writeAll(Iterable<? extends T> records) throws IOException;
+
+	/**
+	 * write out all records written so far to the underlying stream
+	 * @throws IOException failed to write
+	 */
+	public void flush() throws IOException;
+
+	/**
+	 * get the number of records written
+	 * @return the number of records
+	 */
+	public long numRecords();
+}
@@ -0,0 +1,162 @@
+package jp.ac.ut.csis.pflow.routing2.sink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.geom.STPoint;
+import jp.ac.ut.csis.pflow.routing2.matching.MatchingResult;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+import jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.ColumnType;
+
+/**
+ * Class for record encoders of matching and routing results
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public final class ResultEncoders {
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * no instance
+	 */
+	private ResultEncoders() {}
+
+
+	/* ==============================================================
+	 * static methods
+	 * ============================================================== */
+	/**
+	 * encoder of matching results. one row per result with columns in the same order as
+	 * {@link MatchingResult#toResultString(String)}: in_lon, in_lat, out_lon, out_lat, distance, link_id,
+	 * followed by the indicated attribute columns. values of a failed result are null.
+	 * @param attributes names of attribute columns. the i-th attribute of the result is written to the i-th column(null if missing)
+	 * @return encoder
+	 */
+	public static IRecordEncoder<MatchingResult> matchingResults(String... attributes) {
+		List<String> names = new ArrayList<String>(Arrays.asList("in_lon","in_lat","out_lon","out_lat","distance","link_id"));
+		names.addAll(Arrays.asList(attributes));
+		final int        A     = attributes.length;
+		List<ColumnType> types = new ArrayList<ColumnType>();
+		types.addAll(Collections.nCopies(5,ColumnType.DOUBLE));
+		types.addAll(Collections.nCopies(1+A,ColumnType.STRING));
+		return new Encoder<MatchingResult>(names,types) {
+			@Override
+			public void encode(long index,MatchingResult record,RowWriter row) {
+				LonLat in  = record.getInputPoint();
+				LonLat out = record.getNearestPoint();
+				Link   link = record.getNearestLink();
+				row.putDouble(in.getLon());
+				row.putDouble(in.getLat());
+				if( out != null ) {
+					row.putDouble(out.getLon());
+					row.putDouble(out.getLat());
+					row.putDouble(record.getDistance());
+				}
+				else {
+					row.putNull();
+					row.putNull();
+					row.putNull();
+				}
+				row.putString(link != null ? link.getLinkID() : null);
+				List<String> attrs = record.getAttributes();
+				for(int i=0;i<A;i++) { row.putString(attrs != null && i < attrs.size() ? attrs.get(i) : null); }
+				row.endRow();
+			}
+		};
+	}
+
+	/**
+	 * encoder of routes. one row per node with columns: route(index of the route), seq(index of the node),
+	 * node_id, lon, lat, cost(total cost of the route)
+	 * @return encoder
+	 */
+	public static IRecordEncoder<Route> routes() {
+		List<String>     names = Arrays.asList("route","seq","node_id","lon","lat","cost");
+		List<ColumnType> types = Arrays.asList(ColumnType.LONG,ColumnType.LONG,ColumnType.STRING,ColumnType.DOUBLE,ColumnType.DOUBLE,ColumnType.DOUBLE);
+		return new Encoder<Route>(names,types) {
+			@Override
+			public void encode(long index,Route record,RowWriter row) {
+				int N = record.numNodes();
+				for(int i=0;i<N;i++) {
+					Node node = record.getNode(i);
+					row.putLong(index);
+					row.putLong(i);
+					row.putString(node.getNodeID());
+					row.putDouble(node.getLon());
+					row.putDouble(node.getLat());
+					row.putDouble(record.getCost());
+					row.endRow();
+				}
+			}
+		};
+	}
+
+	/**
+	 * encoder of point sequences(trajectories). one row per point with columns: trajectory(index of the sequence),
+	 * seq(index of the point), dtstart, dtend(epoch milliseconds, both the time stamp for time-stamp points), lon, lat
+	 * @return encoder
+	 */
+	public static IRecordEncoder<List<? extends STPoint>> trajectories() {
+		List<String>     names = Arrays.asList("trajectory","seq","dtstart","dtend","lon","lat");
+		List<ColumnType> types = Arrays.asList(ColumnType.LONG,ColumnType.LONG,ColumnType.LONG,ColumnType.LONG,ColumnType.DOUBLE,ColumnType.DOUBLE);
+		return new Encoder<List<? extends STPoint>>(names,types) {
+			@Override
+			public void encode(long index,List<? extends STPoint> record,RowWriter row) {
+				int seq = 0;
+				for(STPoint p:record) {
+					Date ts = p.getDtStart();
+					Date te = p.getDtEnd();
+					row.putLong(index);
+					row.putLong(seq++);
+					if( ts != null ) { row.putLong(ts.getTime()); } else { row.putNull(); }
+					if( te != null ) { row.putLong(te.getTime()); } else { row.putNull(); }
+					row.putDouble(p.getLon());
+					row.putDouble(p.getLat());
+					row.endRow();
+				}
+			}
+		};
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/**
+	 * encoder with fixed columns
+	 * @param <T> record type
+	 */
+	private static abstract class Encoder<T> implements IRecordEncoder<T> {
+		/** column names	*/	private List<String>     __names;
+		/** column types	*/	private List<ColumnType> __types;
+
+		/**
+		 * initialization
+		 * @param names column names
+		 * @param types column types
+		 */
+		private Encoder(List<String> names,List<ColumnType> types) {
+			__names = Collections.unmodifiableList(names);
+			__types = Collections.unmodifiableList(types);
+		}
+
+		/* @see jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder#getColumnNames() */
+		@Override
+		public List<String> getColumnNames() {
+			return __names;
+		}
+
+		/* @see jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder#getColumnTypes() */
+		@Override
+		public List<ColumnType> getColumnTypes() {
+			return __types;
+		}
+	}
+}
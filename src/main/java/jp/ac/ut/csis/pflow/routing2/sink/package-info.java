@@ -0,0 +1,6 @@
+/**
+ * package for result sinks writing matching and routing results in delimited text or binary columnar format
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+package jp.ac.ut.csis.pflow.routing2.sink;
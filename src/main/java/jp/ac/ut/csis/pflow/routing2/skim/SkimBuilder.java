@@ -0,0 +1,281 @@
+package jp.ac.ut.csis.pflow.routing2.skim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.geom.Mesh;
+import jp.ac.ut.csis.pflow.routing2.logic.ARoutingLogic;
+import jp.ac.ut.csis.pflow.routing2.logic.LinkCost;
+import jp.ac.ut.csis.pflow.routing2.logic.ShortestPathTree;
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+
+/**
+ * Builder of {@link SkimMatrix}. <br />
+ * each zone is represented by a centroid node. one-to-all searches from the centroids run with threads
+ * under the routing cost profile, and the other measures(distance, time, ...) are summed along the same
+ * shortest path tree. rows are written directly into the memory-mapped file. cost within a zone is 0.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class SkimBuilder {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph				*/	private CompactGraph      _graph;
+	/** measures(routing cost first)*/	private List<CostProfile> _measures;
+	/** zone ids					*/	private List<String>      _zones;
+	/** centroid node indexes		*/	private List<Integer>     _centroids;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization
+	 * @param profile cost profile used for routing. also the first measure
+	 */
+	public SkimBuilder(CostProfile profile) {
+		_graph     = profile.getGraph();
+		_measures  = new ArrayList<CostProfile>();
+		_zones     = new ArrayList<String>();
+		_centroids = new ArrayList<Integer>();
+		_measures.add(profile);
+	}
+
+	/**
+	 * initialization with link cost compiled into the graph
+	 * @param graph compact graph
+	 * @param name profile name
+	 * @param linkcost link cost used for routing
+	 */
+	public SkimBuilder(CompactGraph graph,String name,LinkCost linkcost) {
+		this(linkcost.compile(graph,name));
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * add measure summed along the routes
+	 * @param profile cost profile of the same graph
+	 * @return this builder
+	 */
+	public SkimBuilder addMeasure(CostProfile profile) {
+		if( profile.getGraph() != _graph ) { throw new IllegalArgumentException("profile of another graph: " + profile.getName()); }
+		_measures.add(profile);
+		return this;
+	}
+
+	/**
+	 * add measure summed along the routes, with link cost compiled into the graph
+	 * @param name profile name
+	 * @param linkcost link cost
+	 * @return this builder
+	 */
+	public SkimBuilder addMeasure(String name,LinkCost linkcost) {
+		return addMeasure(linkcost.compile(_graph,name));
+	}
+
+	/**
+	 * add zone with the centroid node
+	 * @param zone zone id
+	 * @param centroid centroid node
+	 * @return this builder
+	 */
+	public SkimBuilder addZone(String zone,Node centroid) {
+		int idx = _graph.indexOf(centroid);
+		if( idx < 0 ) { throw new IllegalArgumentException("node not in graph: " + (centroid == null ? null : centroid.getNodeID())); }
+		_zones.add(zone);
+		_centroids.add(idx);
+		return this;
+	}
+
+	/**
+	 * add zone with the node nearest to the point as centroid
+	 * @param zone zone id
+	 * @param point zone centroid
+	 * @param maxDist maximum distance to the node
+	 * @return this builder
+	 */
+	public SkimBuilder addZone(String zone,LonLat point,double maxDist) {
+		Node node = _graph.getNetwork().queryNearestNode(point.getLon(),point.getLat(),maxDist);
+		if( node == null ) { throw new IllegalArgumentException("no node near zone: " + zone); }
+		return addZone(zone,node);
+	}
+
+	/**
+	 * add mesh cells having nodes as zones. the node nearest to the center of each cell is the centroid
+	 * @param level mesh level
+	 * @return this builder
+	 */
+	public SkimBuilder addMeshZones(int level) {
+		TreeMap<String,Node>   centroids = new TreeMap<String,Node>();
+		TreeMap<String,Double> distances = new TreeMap<String,Double>();
+		for(int i=0;i<_graph.numNodes();i++) {
+			Node   node = _graph.getNode(i);
+			Mesh   mesh = new Mesh(level,node.getLon(),node.getLat());
+			String code = mesh.getCode();
+			double dist = DistanceUtils.distance(mesh.getCenter(),node);
+			Double best = distances.get(code);
+			if( best == null || dist < best ) {
+				centroids.put(code,node);
+				distances.put(code,dist);
+			}
+		}
+		for(String code:centroids.keySet()) { addZone(code,centroids.get(code)); }
+		return this;
+	}
+
+	/**
+	 * get the number of zones
+	 * @return the number of zones
+	 */
+	public int numZones() {
+		return _zones.size();
+	}
+
+	/**
+	 * build float skim matrix with default threads
+	 * @param file output file
+	 * @return skim matrix mapped from the file
+	 * @throws IOException failed to write
+	 */
+	public SkimMatrix build(File file) throws IOException {
+		return build(file,SkimMatrix.CellType.FLOAT,1d,ARoutingLogic.NUM_THREADS);
+	}
+
+	/**
+	 * build skim matrix
+	 * @param file output file
+	 * @param type cell type
+	 * @param scale multiplier of fixed-point cells. ignored for float
+	 * @param numThreads the number of threads
+	 * @return skim matrix mapped from the file
+	 * @throws IOException failed to write
+	 */
+	public SkimMatrix build(File file,final SkimMatrix.CellType type,final double scale,int numThreads) throws IOException {
+		// error handle ///////////////////////////////////
+		if( _zones.isEmpty() || numThreads <= 0 || !(scale > 0d) ) {
+			throw new IllegalArgumentException("unavailable value: " + _zones.size() + "," + numThreads + "," + scale);
+		}
+		final int Z = _zones.size();
+		final int M = _measures.size();
+		List<String> names = new ArrayList<String>(M);
+		for(CostProfile measure:_measures) { names.add(measure.getName()); }
+
+		try(RandomAccessFile raf = new RandomAccessFile(file,"rw")) {
+			// map output blocks //////////////////////////
+			MappedByteBuffer[] blocks = SkimMatrix.create(raf,_zones,names,type,scale,_measures.get(0).getVersion());
+			final FloatBuffer[] floats = new FloatBuffer[M];
+			final IntBuffer[]   fixed  = new IntBuffer[M];
+			for(int m=0;m<M;m++) {
+				if( type == SkimMatrix.CellType.FLOAT ) { floats[m] = blocks[m].order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer(); }
+				else { fixed[m] = blocks[m].order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(); }
+			}
+			// search from centroids with threads /////////
+			ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads,Z));
+			try {
+				List<Future<Void>> futures = new ArrayList<Future<Void>>(Z);
+				for(int o=0;o<Z;o++) {
+					final int org = o;
+					futures.add(pool.submit(new Callable<Void>() {
+						public Void call() {
+							double[][] row = searchRow(org);
+							for(int m=0;m<M;m++) {
+								for(int d=0;d<Z;d++) {	// absolute puts into disjoint rows
+									if( floats[m] != null ) { floats[m].put(org*Z+d,(float)row[m][d]); }
+									else { fixed[m].put(org*Z+d,encode(row[m][d],scale)); }
+								}
+							}
+							return null;
+						}
+					}));
+				}
+				for(Future<Void> future:futures) { future.get(); }
+			}
+			catch(InterruptedException exp) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("build interrupted",exp);
+			}
+			catch(ExecutionException exp) {
+				throw new IllegalStateException("fail to build skim matrix",exp.getCause());
+			}
+			finally {
+				pool.shutdownNow();
+			}
+			for(MappedByteBuffer block:blocks) { block.force(); }
+		}
+		return SkimMatrix.open(file);
+	}
+
+	/**
+	 * search from the centroid of the zone and sum measures along the shortest path tree
+	 * @param org origin zone index
+	 * @return values by measure and destination zone
+	 */
+	private double[][] searchRow(int org) {
+		int              Z       = _zones.size();
+		int              N       = _graph.numNodes();
+		int              src     = _centroids.get(org);
+		ShortestPathTree tree    = new ShortestPathTree(_measures.get(0),_graph.getNode(src));
+		int[]            tail    = _graph.getEdgeTail();
+		double[][]       row     = new double[_measures.size()][Z];
+		double[]         sum     = new double[N];
+		boolean[]        done    = new boolean[N];
+		int[]            stack   = new int[16];
+		for(int d=0;d<Z;d++) { row[0][d] = tree.getCost(_centroids.get(d)); }
+		for(int m=1;m<_measures.size();m++) {
+			double[] cost = _measures.get(m).getEdgeCosts();
+			Arrays.fill(done,false);
+			sum[src]  = 0d;
+			done[src] = true;
+			for(int d=0;d<Z;d++) {
+				int dst = _centroids.get(d);
+				if( tree.getCost(dst) == Double.POSITIVE_INFINITY ) { row[m][d] = Double.POSITIVE_INFINITY; continue; }
+				// climb up to a summed node, then sum down ==
+				int size = 0;
+				for(int v=dst;!done[v];v=tail[tree.getParentEdge(v)]) {
+					if( size == stack.length ) { stack = Arrays.copyOf(stack,size*2); }
+					stack[size++] = v;
+				}
+				while( size > 0 ) {
+					int v = stack[--size];
+					sum[v]  = sum[tail[tree.getParentEdge(v)]] + cost[tree.getParentEdge(v)];
+					done[v] = true;
+				}
+				row[m][d] = sum[dst];
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * encode value into fixed-point cell
+	 * @param value value
+	 * @param scale multiplier
+	 * @return cell. saturated below the unreachable mark
+	 */
+	private static int encode(double value,double scale) {
+		if( value == Double.POSITIVE_INFINITY ) { return SkimMatrix.UNREACHABLE; }
+		return (int)Math.min(Math.round(value * scale),SkimMatrix.UNREACHABLE - 1L);
+	}
+}
@@ -0,0 +1,282 @@
+package jp.ac.ut.csis.pflow.routing2.skim;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for zone-to-zone skim matrices kept in a memory-mapped file. <br />
+ * the file holds one Z x Z block per measure(time, distance, generalized cost, ...) and each cell is a
+ * 4 byte float or a fixed-point int, so a lookup is one read from the mapped buffer without routing.
+ * unreachable pairs are positive infinity. <br />
+ * file layout: magic, header length, header(format version, cell type, scale, cost version, zone ids,
+ * measure names), padding to 8 bytes, then measure blocks in row-major order(origin, destination), all in
+ * little endian. matrices are written by {@link SkimBuilder} and read by {@link #open(File)}. the instance
+ * can be shared between threads.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class SkimMatrix {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** file signature				*/	protected static final int MAGIC       = 0x50465348;	// "PFSH"
+	/** format version				*/	protected static final int VERSION     = 1;
+	/** fixed-point unreachable		*/	protected static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	/** cell type */
+	public enum CellType {
+		/** 4 byte float											*/	FLOAT,
+		/** 4 byte int of value multiplied by scale(saturated)		*/	FIXED;
+	}
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** zone ids				*/	private List<String>        _zones;
+	/** zone index by id		*/	private Map<String,Integer> _index;
+	/** measure names			*/	private List<String>        _measures;
+	/** cell type				*/	private CellType            _type;
+	/** fixed-point scale		*/	private double              _scale;
+	/** version of costs		*/	private long                _version;
+	/** float cells by measure	*/	private FloatBuffer[]       _floats;
+	/** fixed cells by measure	*/	private IntBuffer[]         _fixed;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create skim matrix over mapped blocks
+	 * @param zones zone ids
+	 * @param measures measure names
+	 * @param type cell type
+	 * @param scale fixed-point scale
+	 * @param version version of routing costs
+	 * @param blocks mapped block of each measure
+	 */
+	protected SkimMatrix(List<String> zones,List<String> measures,CellType type,double scale,long version,MappedByteBuffer[] blocks) {
+		_zones    = Collections.unmodifiableList(zones);
+		_measures = Collections.unmodifiableList(measures);
+		_type     = type;
+		_scale    = scale;
+		_version  = version;
+		_index    = new HashMap<String,Integer>();
+		for(int i=0;i<zones.size();i++) { _index.put(zones.get(i),i); }
+		if( type == CellType.FLOAT ) {
+			_floats = new FloatBuffer[blocks.length];
+			for(int m=0;m<blocks.length;m++) { _floats[m] = blocks[m].order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer(); }
+		}
+		else {
+			_fixed = new IntBuffer[blocks.length];
+			for(int m=0;m<blocks.length;m++) { _fixed[m] = blocks[m].order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(); }
+		}
+	}
+
+
+	/* ==============================================================
+	 * static methods
+	 * ============================================================== */
+	/**
+	 * open skim matrix file with read-only mapping
+	 * @param file skim matrix file
+	 * @return skim matrix
+	 * @throws IOException failed to read or not a skim matrix file
+	 */
+	public static SkimMatrix open(File file) throws IOException {
+		try(RandomAccessFile raf = new RandomAccessFile(file,"r")) {
+			if( raf.readInt() != MAGIC ) { throw new IOException("not skim matrix file: " + file); }
+			byte[] header = new byte[raf.readInt()];
+			raf.readFully(header);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+			if( in.readInt() != VERSION ) { throw new IOException("unsupported skim matrix format: " + file); }
+			CellType type    = CellType.values()[in.readInt()];
+			double   scale   = in.readDouble();
+			long     version = in.readLong();
+			String[] zones   = new String[in.readInt()];
+			for(int i=0;i<zones.length;i++) { zones[i] = in.readUTF(); }
+			String[] measures = new String[in.readInt()];
+			for(int m=0;m<measures.length;m++) { measures[m] = in.readUTF(); }
+
+			MappedByteBuffer[] blocks = map(raf.getChannel(),FileChannel.MapMode.READ_ONLY,dataOffset(header.length),zones.length,measures.length);
+			return new SkimMatrix(Arrays.asList(zones),Arrays.asList(measures),type,scale,version,blocks);
+		}
+	}
+
+	/**
+	 * write header and map measure blocks for writing
+	 * @param raf output file
+	 * @param zones zone ids
+	 * @param measures measure names
+	 * @param type cell type
+	 * @param scale fixed-point scale
+	 * @param version version of routing costs
+	 * @return mapped block of each measure
+	 * @throws IOException failed to write
+	 */
+	protected static MappedByteBuffer[] create(RandomAccessFile raf,List<String> zones,List<String> measures,CellType type,double scale,long version) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream      out   = new DataOutputStream(bytes);
+		out.writeInt(VERSION);
+		out.writeInt(type.ordinal());
+		out.writeDouble(scale);
+		out.writeLong(version);
+		out.writeInt(zones.size());
+		for(String zone:zones) { out.writeUTF(zone); }
+		out.writeInt(measures.size());
+		for(String measure:measures) { out.writeUTF(measure); }
+		out.flush();
+
+		byte[] header = bytes.toByteArray();
+		long   offset = dataOffset(header.length);
+		raf.setLength(0L);
+		raf.writeInt(MAGIC);
+		raf.writeInt(header.length);
+		raf.write(header);
+		raf.setLength(offset + 4L * zones.size() * zones.size() * measures.size());
+		return map(raf.getChannel(),FileChannel.MapMode.READ_WRITE,offset,zones.size(),measures.size());
+	}
+
+	/**
+	 * map measure blocks
+	 * @param channel file channel
+	 * @param mode map mode
+	 * @param offset position of the first block
+	 * @param Z the number of zones
+	 * @param M the number of measures
+	 * @return mapped block of each measure
+	 * @throws IOException failed to map
+	 */
+	private static MappedByteBuffer[] map(FileChannel channel,FileChannel.MapMode mode,long offset,int Z,int M) throws IOException {
+		long block = 4L * Z * Z;
+		if( block > Integer.MAX_VALUE ) { throw new IllegalArgumentException("too many zones: " + Z); }
+		MappedByteBuffer[] blocks = new MappedByteBuffer[M];
+		for(int m=0;m<M;m++) { blocks[m] = channel.map(mode,offset + block * m,block); }
+		return blocks;
+	}
+
+	/**
+	 * get position of the first block
+	 * @param headerLength header length
+	 * @return offset aligned to 8 bytes
+	 */
+	private static long dataOffset(int headerLength) {
+		return (8L + headerLength + 7L) & ~7L;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get the number of zones
+	 * @return the number of zones
+	 */
+	public int numZones() {
+		return _zones.size();
+	}
+
+	/**
+	 * get zone ids
+	 * @return zone ids in index order
+	 */
+	public List<String> listZones() {
+		return _zones;
+	}
+
+	/**
+	 * get zone index
+	 * @param zone zone id
+	 * @return zone index. -1 if not found
+	 */
+	public int indexOf(String zone) {
+		Integer idx = _index.get(zone);
+		return idx == null ? -1 : idx;
+	}
+
+	/**
+	 * get measure names. the first one is the cost used for routing
+	 * @return measure names
+	 */
+	public List<String> listMeasures() {
+		return _measures;
+	}
+
+	/**
+	 * get measure index
+	 * @param measure measure name
+	 * @return measure index. -1 if not found
+	 */
+	public int indexOfMeasure(String measure) {
+		return _measures.indexOf(measure);
+	}
+
+	/**
+	 * get cell type
+	 * @return cell type
+	 */
+	public CellType getCellType() {
+		return _type;
+	}
+
+	/**
+	 * get version of routing costs the matrix was built from
+	 * @return version of cost profile
+	 */
+	public long getCostVersion() {
+		return _version;
+	}
+
+	/**
+	 * get routing cost between zones
+	 * @param org origin zone index
+	 * @param dst destination zone index
+	 * @return cost. positive infinity if unreachable
+	 */
+	public double get(int org,int dst) {
+		return get(0,org,dst);
+	}
+
+	/**
+	 * get value of the measure between zones
+	 * @param measure measure index
+	 * @param org origin zone index
+	 * @param dst destination zone index
+	 * @return value. positive infinity if unreachable
+	 */
+	public double get(int measure,int org,int dst) {
+		int idx = org * _zones.size() + dst;
+		if( _floats != null ) { return _floats[measure].get(idx); }
+		int v = _fixed[measure].get(idx);
+		return v == UNREACHABLE ? Double.POSITIVE_INFINITY : v / _scale;
+	}
+
+	/**
+	 * get value of the measure between zones
+	 * @param measure measure name
+	 * @param org origin zone id
+	 * @param dst destination zone id
+	 * @return value. positive infinity if unreachable. NaN if zone or measure is not found
+	 */
+	public double get(String measure,String org,String dst) {
+		int m = indexOfMeasure(measure);
+		int o = indexOf(org);
+		int d = indexOf(dst);
+		return m < 0 || o < 0 || d < 0 ? Double.NaN : get(m,o,d);
+	}
+}
@@ -0,0 +1,6 @@
+/**
+ * package for zone-to-zone skim matrices
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+package jp.ac.ut.csis.pflow.routing2.skim;
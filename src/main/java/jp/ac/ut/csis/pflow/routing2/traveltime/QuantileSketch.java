@@ -0,0 +1,183 @@
+package jp.ac.ut.csis.pflow.routing2.traveltime;
+
+/**
+ * Class for mergeable quantile sketch with relative accuracy. <br />
+ * positive values are counted in logarithmic buckets (gamma^(i-1), gamma^i] with gamma = (1+a)/(1-a), so any quantile
+ * is returned within the relative error a of the true value, and two sketches of the same accuracy are merged by
+ * adding bucket counts. values not greater than {@link #MIN_VALUE} are counted as zero. memory is proportional to
+ * log(max/min) / a, independent of the number of values. <br />
+ * an instance is not thread-safe.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class QuantileSketch {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default relative accuracy		*/	public static final double ACCURACY  = 0.01d;
+	/** values counted as zero			*/	public static final double MIN_VALUE = 1e-9;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** relative accuracy				*/	private double _accuracy;
+	/** log of bucket ratio				*/	private double _logGamma;
+	/** bucket counts					*/	private long[] _counts;
+	/** bucket index of counts[0]		*/	private int    _offset;
+	/** count of zero					*/	private long   _zeros;
+	/** the number of values			*/	private long   _count;
+	/** minimum value					*/	private double _min;
+	/** maximum value					*/	private double _max;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create empty sketch with default accuracy
+	 */
+	public QuantileSketch() {
+		this(ACCURACY);
+	}
+
+	/**
+	 * create empty sketch
+	 * @param accuracy relative accuracy(0-1)
+	 */
+	public QuantileSketch(double accuracy) {
+		if( !(0d < accuracy && accuracy < 1d) ) { throw new IllegalArgumentException("unavailable value: accuracy=" + accuracy); }
+		_accuracy = accuracy;
+		_logGamma = Math.log((1d + accuracy) / (1d - accuracy));
+		_counts   = null;
+		_offset   = 0;
+		_zeros    = 0L;
+		_count    = 0L;
+		_min      = Double.POSITIVE_INFINITY;
+		_max      = Double.NEGATIVE_INFINITY;
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get relative accuracy
+	 * @return accuracy
+	 */
+	public double getAccuracy() {
+		return _accuracy;
+	}
+
+	/**
+	 * add value
+	 * @param value value(not NaN)
+	 */
+	public void add(double value) {
+		if( Double.isNaN(value) ) { throw new IllegalArgumentException("unavailable value: value=" + value); }
+		if( value <= MIN_VALUE ) { _zeros++; }
+		else {
+			int i = index(value);
+			ensure(i,i);
+			_counts[i-_offset]++;
+		}
+		_count++;
+		_min = Math.min(_min,value);
+		_max = Math.max(_max,value);
+	}
+
+	/**
+	 * add all values of the other sketch
+	 * @param sketch sketch of the same accuracy
+	 */
+	public void merge(QuantileSketch sketch) {
+		if( sketch._accuracy != _accuracy ) { throw new IllegalArgumentException("accuracy mismatch: " + sketch._accuracy); }
+		if( sketch._counts != null ) {
+			ensure(sketch._offset,sketch._offset+sketch._counts.length-1);
+			for(int i=0;i<sketch._counts.length;i++) { _counts[sketch._offset+i-_offset] += sketch._counts[i]; }
+		}
+		_zeros += sketch._zeros;
+		_count += sketch._count;
+		_min    = Math.min(_min,sketch._min);
+		_max    = Math.max(_max,sketch._max);
+	}
+
+	/**
+	 * get the number of values
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return _count;
+	}
+
+	/**
+	 * get minimum value
+	 * @return minimum value. NaN if empty
+	 */
+	public double getMin() {
+		return _count == 0L ? Double.NaN : _min;
+	}
+
+	/**
+	 * get maximum value
+	 * @return maximum value. NaN if empty
+	 */
+	public double getMax() {
+		return _count == 0L ? Double.NaN : _max;
+	}
+
+	/**
+	 * get quantile
+	 * @param q quantile(0-1)
+	 * @return value of the quantile within the relative accuracy. NaN if empty
+	 */
+	public double getQuantile(double q) {
+		if( !(0d <= q && q <= 1d) ) { throw new IllegalArgumentException("unavailable value: q=" + q); }
+		if( _count == 0L ) { return Double.NaN; }
+		long rank = (long)Math.floor(q * (_count - 1));
+		if( rank < _zeros ) { return Math.max(_min,0d); }
+		long acc = _zeros;
+		for(int i=0;i<_counts.length;i++) {
+			acc += _counts[i];
+			if( rank < acc ) {
+				double gamma = Math.exp(_logGamma);
+				double value = 2d * Math.exp((i + _offset) * _logGamma) / (gamma + 1d);
+				return Math.max(_min,Math.min(_max,value));
+			}
+		}
+		return _max;
+	}
+
+	/**
+	 * get bucket index of the value
+	 * @param value positive value
+	 * @return bucket index
+	 */
+	private int index(double value) {
+		return (int)Math.ceil(Math.log(value) / _logGamma);
+	}
+
+	/**
+	 * ensure buckets of the index range
+	 * @param lo minimum bucket index
+	 * @param hi maximum bucket index
+	 */
+	private void ensure(int lo,int hi) {
+		if( _counts == null ) {
+			_counts = new long[Math.max(16,hi-lo+1)];
+			_offset = lo - (_counts.length - (hi - lo + 1)) / 2;
+			return;
+		}
+		int end = _offset + _counts.length - 1;
+		if( lo >= _offset && hi <= end ) { return; }
+		int newLo  = Math.min(lo,_offset);
+		int newHi  = Math.max(hi,end);
+		int len    = Math.max(newHi - newLo + 1,_counts.length * 2);
+		int slack  = len - (newHi - newLo + 1);
+		int offset = lo < _offset ? newLo - slack : newLo;	// grow toward the side of the new index
+		long[] counts = new long[len];
+		System.arraycopy(_counts,0,counts,_offset-offset,_counts.length);
+		_counts = counts;
+		_offset = offset;
+	}
+}
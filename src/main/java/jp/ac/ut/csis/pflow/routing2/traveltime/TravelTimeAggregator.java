@@ -0,0 +1,275 @@
+package jp.ac.ut.csis.pflow.routing2.traveltime;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.geom.PolylineProjection;
+import jp.ac.ut.csis.pflow.geom.STPoint;
+import jp.ac.ut.csis.pflow.geom.TrajectoryUtils;
+import jp.ac.ut.csis.pflow.routing2.matching.MatchingResult;
+import jp.ac.ut.csis.pflow.routing2.matching.PathMatchingResult;
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import jp.ac.ut.csis.pflow.routing2.traveltime.TravelTimeTable.Cell;
+
+/**
+ * Class for streaming aggregation of link travel times from matched trajectories. <br />
+ * a matched trajectory is a link sequence with per-point matching results whose input points are {@link STPoint}s.
+ * each point is located on the sequence by the distance along it, and the times entering and leaving each link
+ * are interpolated between the points around the link ends. only links fully covered by the points are counted,
+ * in the time bin they were entered; the sequence is cut where consecutive links are not connected. <br />
+ * {@link #add(PathMatchingResult)} can be called from multiple threads without locks: every thread accumulates
+ * into its own cells, which are merged by {@link #build()} after all additions are finished.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class TravelTimeAggregator {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default width of time bin(s)		*/	public static final int BIN_SIZE = 900;	// 15 min
+	/** default the number of bins			*/	public static final int NUM_BINS = 96;	// 1 day
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph						*/	private CompactGraph                           _graph;
+	/** width of time bin(ms)				*/	private long                                   _binSize;
+	/** the number of bins					*/	private int                                    _numBins;
+	/** time zone of bins					*/	private TimeZone                               _timeZone;
+	/** accuracy of quantile sketches		*/	private double                                 _accuracy;
+	/** length of links(m)					*/	private double[]                               _lengths;
+	/** cells of the current thread			*/	private ThreadLocal<Map<Long,Cell>>            _locals;
+	/** cells of all threads				*/	private ConcurrentLinkedQueue<Map<Long,Cell>>  _all;
+	/** projection kernels by thread		*/	private ThreadLocal<PolylineProjection>        _projections;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create instance with 15 minutes bins of the day in the default time zone
+	 * @param graph compact graph
+	 */
+	public TravelTimeAggregator(CompactGraph graph) {
+		this(graph,BIN_SIZE,NUM_BINS,TimeZone.getDefault(),QuantileSketch.ACCURACY);
+	}
+
+	/**
+	 * create instance
+	 * @param graph compact graph
+	 * @param binSizeInSecond width of time bin(s)
+	 * @param numBins the number of bins. bins are repeated every bin size * the number of bins
+	 * @param timeZone time zone of bins
+	 * @param accuracy relative accuracy of quantile sketches
+	 */
+	public TravelTimeAggregator(CompactGraph graph,int binSizeInSecond,int numBins,TimeZone timeZone,double accuracy) {
+		if( binSizeInSecond <= 0 ) { throw new IllegalArgumentException("unavailable value: binSizeInSecond=" + binSizeInSecond); }
+		if( numBins <= 0 )         { throw new IllegalArgumentException("unavailable value: numBins=" + numBins); }
+		new QuantileSketch(accuracy);	// validate accuracy
+		_graph       = graph;
+		_binSize     = binSizeInSecond * 1000L;
+		_numBins     = numBins;
+		_timeZone    = timeZone;
+		_accuracy    = accuracy;
+		_lengths     = new double[graph.numLinks()];
+		_all         = new ConcurrentLinkedQueue<Map<Long,Cell>>();
+		_locals      = new ThreadLocal<Map<Long,Cell>>() {
+			@Override
+			protected Map<Long,Cell> initialValue() {
+				Map<Long,Cell> cells = new HashMap<Long,Cell>();
+				_all.add(cells);
+				return cells;
+			}
+		};
+		_projections = new ThreadLocal<PolylineProjection>() {
+			@Override
+			protected PolylineProjection initialValue() {
+				return new PolylineProjection();
+			}
+		};
+		for(int i=0;i<_lengths.length;i++) {
+			Link link = graph.getLink(i);
+			_lengths[i] = link.hasGeometry() ? TrajectoryUtils.length(link.getLineString()) : DistanceUtils.distance(link.getTailNode(),link.getHeadNode());
+		}
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get time bin of the time
+	 * @param time time(ms)
+	 * @return bin index
+	 */
+	public int getBin(long time) {
+		return TravelTimeTable.bin(time,_binSize,_numBins,_timeZone);
+	}
+
+	/**
+	 * add travel time of the edge
+	 * @param edge edge index of the compact graph
+	 * @param enter time entering the edge(ms)
+	 * @param travelTime travel time(s)
+	 */
+	public void add(int edge,long enter,double travelTime) {
+		long           key   = (long)edge * _numBins + getBin(enter);
+		Map<Long,Cell> cells = _locals.get();
+		Cell           cell  = cells.get(key);
+		if( cell == null ) { cells.put(key,cell=new Cell(_accuracy)); }
+		cell.add(travelTime);
+	}
+
+	/**
+	 * add travel times of the matched trajectory
+	 * @param result result of trajectory map matching. input points must be {@link STPoint}
+	 * @return the number of link traversals added
+	 */
+	public int add(PathMatchingResult result) {
+		return add(result.getLinks(),result.getResults());
+	}
+
+	/**
+	 * add travel times of the matched trajectory
+	 * @param links traversed link sequence without consecutive duplication
+	 * @param results per-point matching results in the order of time, whose links appear in the sequence in order.
+	 *                results without link or without time stamp are ignored
+	 * @return the number of link traversals added
+	 */
+	public int add(List<Link> links,List<MatchingResult> results) {
+		int K = links.size();
+		if( K == 0 ) { return 0; }
+		// locate links along the sequence ////////////////
+		int[]     idx   = new int[K];
+		boolean[] rev   = new boolean[K];
+		boolean[] known = new boolean[K];
+		int[]     run   = new int[K];
+		double[]  start = new double[K];
+		for(int j=0;j<K;j++) {
+			Link link = links.get(j);
+			Node exit = j+1 < K ? shared(link,links.get(j+1)) : null;
+			Node ent  = j > 0   ? shared(links.get(j-1),link) : null;
+			idx[j]   = _graph.indexOf(link);
+			rev[j]   = exit != null ? exit.equals(link.getTailNode()) : ent != null && ent.equals(link.getHeadNode());
+			known[j] = exit != null || ent != null;
+			run[j]   = j == 0 ? 0 : run[j-1] + (ent == null || idx[j] < 0 || idx[j-1] < 0 ? 1 : 0);
+			start[j] = j == 0 || run[j] != run[j-1] ? 0d : start[j-1] + _lengths[idx[j-1]];
+		}
+		// locate points on the links /////////////////////
+		int      N     = results.size();
+		int[]    plink = new int[N];
+		double[] ratio = new double[N];
+		long[]   time  = new long[N];
+		int      n     = 0;
+		int      k     = 0;
+		for(MatchingResult r:results) {
+			LonLat in   = r.getInputPoint();
+			Link   link = r.getNearestLink();
+			if( link == null || !(in instanceof STPoint) || STPoint.class.cast(in).getDtStart() == null ) { continue; }
+			int j = k;
+			while( j < K && !links.get(j).equals(link) ) { j++; }
+			if( j == K || idx[j] < 0 ) { continue; }	// not in the sequence
+			k = j;
+			plink[n] = j;
+			ratio[n] = _projections.get().project(geometry(link),r.getNearestPoint()).getLineRatio();
+			time[n]  = STPoint.class.cast(in).getDtStart().getTime();
+			n++;
+		}
+		// direction of links without neighbours: order of the points on them
+		for(int a=0,b;a<n;a=b) {
+			int j = plink[a];
+			for(b=a+1;b<n && plink[b]==j;b++);
+			if( !known[j] ) { rev[j] = ratio[b-1] < ratio[a]; }
+		}
+		// locate points along the sequence ///////////////
+		double[] pos  = new double[N];
+		int[]    prun = new int[N];
+		for(int i=0;i<n;i++) {
+			int    j = plink[i];
+			double p = start[j] + (rev[j] ? 1d - ratio[i] : ratio[i]) * _lengths[idx[j]];
+			if( i > 0 && prun[i-1] == run[j] ) { p = Math.max(p,pos[i-1]); }	// no backward movement
+			pos[i]  = p;
+			prun[i] = run[j];
+		}
+		// interpolate times at link ends /////////////////
+		int count = 0;
+		int a     = 0;
+		for(int j=0;j<K;j++) {
+			if( idx[j] < 0 ) { continue; }
+			double s = start[j];
+			double e = s + _lengths[idx[j]];
+			while( a < n && (prun[a] < run[j] || prun[a] == run[j] && a+1 < n && prun[a+1] == run[j] && pos[a+1] <= s) ) { a++; }
+			if( a == n || prun[a] != run[j] || pos[a] > s ) { continue; }	// entry not covered
+			int b = a;
+			while( b < n && prun[b] == run[j] && pos[b] < e ) { b++; }
+			if( b == n || prun[b] != run[j] ) { continue; }					// exit not covered
+			int    edge  = _graph.getLinkEdge(idx[j],rev[j]);
+			if( edge < 0 ) { continue; }
+			double enter = timeAt(s,pos,time,a);
+			double leave = b == a ? enter : timeAt(e,pos,time,b-1);
+			add(edge,(long)enter,(leave - enter) / 1000d);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * merge cells of all threads into a table. call after all additions are finished
+	 * @return travel time table
+	 */
+	public TravelTimeTable build() {
+		Map<Long,Cell> merged = new HashMap<Long,Cell>();
+		for(Map<Long,Cell> cells:_all) {
+			for(Map.Entry<Long,Cell> entry:cells.entrySet()) {
+				Cell cell = merged.get(entry.getKey());
+				if( cell == null ) { merged.put(entry.getKey(),cell=new Cell(_accuracy)); }
+				cell.merge(entry.getValue());
+			}
+		}
+		return new TravelTimeTable(_graph,_binSize,_numBins,_timeZone,_lengths,merged);
+	}
+
+	/**
+	 * interpolate time at the position between the point and the next point
+	 * @param s position(m)
+	 * @param pos positions of points
+	 * @param time times of points(ms)
+	 * @param i index of the point at or before the position
+	 * @return time(ms)
+	 */
+	private double timeAt(double s,double[] pos,long[] time,int i) {
+		double d = pos[i+1 < pos.length ? i+1 : i] - pos[i];
+		if( !(d > 0d) || s <= pos[i] ) { return time[i]; }
+		return time[i] + (time[i+1] - time[i]) * Math.min(1d,(s - pos[i]) / d);
+	}
+
+	/**
+	 * get node shared by the links
+	 * @param a link
+	 * @param b next link
+	 * @return shared node. null if not connected
+	 */
+	private Node shared(Link a,Link b) {
+		if( a.getHeadNode().equals(b.getTailNode()) || a.getHeadNode().equals(b.getHeadNode()) ) { return a.getHeadNode(); }
+		if( a.getTailNode().equals(b.getTailNode()) || a.getTailNode().equals(b.getHeadNode()) ) { return a.getTailNode(); }
+		return null;
+	}
+
+	/**
+	 * get geometry of link
+	 * @param link link
+	 * @return line string, or tail and head nodes if no geometry
+	 */
+	private List<? extends LonLat> geometry(Link link) {
+		return link.hasGeometry() ? link.getLineString() : Arrays.asList(link.getTailNode(),link.getHeadNode());
+	}
+}
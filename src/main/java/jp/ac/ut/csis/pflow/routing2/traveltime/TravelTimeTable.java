@@ -0,0 +1,267 @@
+package jp.ac.ut.csis.pflow.routing2.traveltime;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TimeZone;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+
+/**
+ * Class for per-edge, per-time-bin travel time statistics. <br />
+ * time bins divide the day(the number of bins * bin size) in the indicated time zone, and each cell keeps the count,
+ * mean and variance of travel times(s) and a {@link QuantileSketch}. values are per edge of {@link CompactGraph}, so the
+ * two directions of a link are kept separately. tables are built by {@link TravelTimeAggregator#build()}, and are read only.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class TravelTimeTable {
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph				*/	private CompactGraph    _graph;
+	/** width of time bin(ms)		*/	private long            _binSize;
+	/** the number of bins			*/	private int             _numBins;
+	/** time zone of bins			*/	private TimeZone        _timeZone;
+	/** length of links(m)			*/	private double[]        _lengths;
+	/** cells by edge and bin		*/	private Map<Long,Cell>  _cells;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * initialization
+	 * @param graph compact graph
+	 * @param binSize width of time bin(ms)
+	 * @param numBins the number of bins
+	 * @param timeZone time zone of bins
+	 * @param lengths length of links(m) indexed by link index
+	 * @param cells cells keyed by edge * the number of bins + bin
+	 */
+	protected TravelTimeTable(CompactGraph graph,long binSize,int numBins,TimeZone timeZone,double[] lengths,Map<Long,Cell> cells) {
+		_graph    = graph;
+		_binSize  = binSize;
+		_numBins  = numBins;
+		_timeZone = timeZone;
+		_lengths  = lengths;
+		_cells    = cells;
+	}
+
+
+	/* ==============================================================
+	 * static methods
+	 * ============================================================== */
+	/**
+	 * get time bin of the time. bins are repeated every bin size * the number of bins of the local time
+	 * @param time time(ms)
+	 * @param binSize width of time bin(ms)
+	 * @param numBins the number of bins
+	 * @param timeZone time zone of bins
+	 * @return bin index
+	 */
+	public static int bin(long time,long binSize,int numBins,TimeZone timeZone) {
+		long local  = time + timeZone.getOffset(time);
+		long period = binSize * numBins;
+		long t      = local % period;
+		if( t < 0L ) { t += period; }
+		return (int)(t / binSize);
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get compact graph
+	 * @return compact graph
+	 */
+	public CompactGraph getGraph() {
+		return _graph;
+	}
+
+	/**
+	 * get width of time bin
+	 * @return bin size(s)
+	 */
+	public int getBinSize() {
+		return (int)(_binSize / 1000L);
+	}
+
+	/**
+	 * get the number of bins
+	 * @return the number of bins
+	 */
+	public int numBins() {
+		return _numBins;
+	}
+
+	/**
+	 * get time zone of bins
+	 * @return time zone
+	 */
+	public TimeZone getTimeZone() {
+		return _timeZone;
+	}
+
+	/**
+	 * get time bin of the time
+	 * @param time time(ms)
+	 * @return bin index
+	 */
+	public int getBin(long time) {
+		return bin(time,_binSize,_numBins,_timeZone);
+	}
+
+	/**
+	 * get the number of non-empty cells
+	 * @return the number of cells
+	 */
+	public int numCells() {
+		return _cells.size();
+	}
+
+	/**
+	 * get the number of travel times of the edge in the bin
+	 * @param edge edge index
+	 * @param bin bin index
+	 * @return the number of traversals entered in the bin
+	 */
+	public long getCount(int edge,int bin) {
+		Cell cell = cell(edge,bin);
+		return cell == null ? 0L : cell.__count;
+	}
+
+	/**
+	 * get mean travel time of the edge in the bin
+	 * @param edge edge index
+	 * @param bin bin index
+	 * @return mean travel time(s). NaN if no traversal
+	 */
+	public double getMean(int edge,int bin) {
+		Cell cell = cell(edge,bin);
+		return cell == null ? Double.NaN : cell.__mean;
+	}
+
+	/**
+	 * get sample variance of travel times of the edge in the bin
+	 * @param edge edge index
+	 * @param bin bin index
+	 * @return variance(s^2). NaN if less than two traversals
+	 */
+	public double getVariance(int edge,int bin) {
+		Cell cell = cell(edge,bin);
+		return cell == null || cell.__count < 2L ? Double.NaN : cell.__m2 / (cell.__count - 1L);
+	}
+
+	/**
+	 * get quantile of travel times of the edge in the bin
+	 * @param edge edge index
+	 * @param bin bin index
+	 * @param q quantile(0-1)
+	 * @return travel time(s) within the accuracy of the sketch. NaN if no traversal
+	 */
+	public double getQuantile(int edge,int bin,double q) {
+		Cell cell = cell(edge,bin);
+		return cell == null ? Double.NaN : cell.__sketch.getQuantile(q);
+	}
+
+	/**
+	 * get mean speed of the edge in the bin, as the link length divided by the mean travel time
+	 * @param edge edge index
+	 * @param bin bin index
+	 * @return speed(m/s). NaN if no traversal
+	 */
+	public double getSpeed(int edge,int bin) {
+		double mean = getMean(edge,bin);
+		return Double.isNaN(mean) ? Double.NaN : _lengths[_graph.getEdgeLink()[edge]] / Math.max(mean,QuantileSketch.MIN_VALUE);
+	}
+
+	/**
+	 * write non-empty cells as CSV(link id, reverse flag, bin start time(s), count, mean, standard deviation,
+	 * median and 90th percentile of travel time, mean speed)
+	 * @param file output file
+	 * @throws IOException failed to write
+	 */
+	public void write(File file) throws IOException {
+		int[]     links = _graph.getEdgeLink();
+		boolean[] revs  = _graph.getEdgeReverse();
+		try(BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
+			bw.write("linkid,reverse,time,count,travel_time,stddev,p50,p90,speed");
+			bw.newLine();
+			for(int e=0;e<links.length;e++) {
+				String linkid = _graph.getLink(links[e]).getLinkID();
+				for(int b=0;b<_numBins;b++) {
+					if( getCount(e,b) == 0L ) { continue; }
+					bw.write(linkid + "," + revs[e] + "," + (b * _binSize / 1000L) + "," + getCount(e,b) + "," + getMean(e,b) + "," +
+							 Math.sqrt(getVariance(e,b)) + "," + getQuantile(e,b,0.5d) + "," + getQuantile(e,b,0.9d) + "," + getSpeed(e,b));
+					bw.newLine();
+				}
+			}
+		}
+	}
+
+	/**
+	 * get cell of the edge in the bin
+	 * @param edge edge index
+	 * @param bin bin index
+	 * @return cell. null if empty
+	 */
+	private Cell cell(int edge,int bin) {
+		if( bin < 0 || _numBins <= bin ) { throw new IndexOutOfBoundsException("bin: " + bin); }
+		return _cells.get((long)edge * _numBins + bin);
+	}
+
+
+	/* ==============================================================
+	 * inner classes
+	 * ============================================================== */
+	/**
+	 * accumulator of travel times of a cell
+	 */
+	static class Cell {
+		/** the number of values		*/	long           __count;
+		/** mean						*/	double         __mean;
+		/** sum of squared deviations	*/	double         __m2;
+		/** quantile sketch				*/	QuantileSketch __sketch;
+
+		/**
+		 * initialization
+		 * @param accuracy accuracy of quantile sketch
+		 */
+		Cell(double accuracy) {
+			__count  = 0L;
+			__mean   = 0d;
+			__m2     = 0d;
+			__sketch = new QuantileSketch(accuracy);
+		}
+
+		/**
+		 * add value(Welford's method)
+		 * @param value travel time(s)
+		 */
+		void add(double value) {
+			__count++;
+			double delta = value - __mean;
+			__mean += delta / __count;
+			__m2   += delta * (value - __mean);
+			__sketch.add(value);
+		}
+
+		/**
+		 * merge the other cell(Chan's method)
+		 * @param cell cell
+		 */
+		void merge(Cell cell) {
+			if( cell.__count == 0L ) { return; }
+			long   n     = __count + cell.__count;
+			double delta = cell.__mean - __mean;
+			__m2   += cell.__m2 + delta * delta * __count * cell.__count / n;
+			__mean += delta * cell.__count / n;
+			__count = n;
+			__sketch.merge(cell.__sketch);
+		}
+	}
+}
@@ -0,0 +1,6 @@
+/**
+ * package for link travel time estimation from matched trajectories
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+package jp.ac.ut.csis.pflow.routing2.traveltime;
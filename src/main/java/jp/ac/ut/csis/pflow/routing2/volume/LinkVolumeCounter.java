@@ -0,0 +1,373 @@
+package jp.ac.ut.csis.pflow.routing2.volume;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.geom.STPoint;
+import jp.ac.ut.csis.pflow.routing2.matching.MatchingResult;
+import jp.ac.ut.csis.pflow.routing2.matching.PathMatchingResult;
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+import jp.ac.ut.csis.pflow.routing2.traveltime.TravelTimeTable;
+
+/**
+ * Class for counting trips using each link by mode and time bin. <br />
+ * counters are dense primitive arrays indexed by (mode, bin, link index of {@link CompactGraph}). every thread
+ * counts into its own array, allocated on its first addition, so additions from many threads need no locks;
+ * counts are the sums over the arrays of all threads. a trip is counted once per consecutive use of a link,
+ * in the bin of the time indicated(or of the time stamp of the matched point). <br />
+ * memory grows with the number of threads that have added counts: each of them holds an array of
+ * 8 * the number of modes * the number of bins * the number of links bytes until the instance is discarded,
+ * so add from a bounded thread pool. read counts after all additions are finished.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class LinkVolumeCounter {
+	/* ==============================================================
+	 * static fields
+	 * ============================================================== */
+	/** default width of time bin(s)		*/	public static final int BIN_SIZE = 3600;	// 1 hour
+	/** default the number of bins			*/	public static final int NUM_BINS = 24;		// 1 day
+	/** signature of binary file			*/	protected static final int MAGIC   = 0x5046564C;	// "PFVL"
+	/** version of binary file				*/	protected static final int VERSION = 1;
+
+
+	/* ==============================================================
+	 * instance fields
+	 * ============================================================== */
+	/** compact graph						*/	private CompactGraph                    _graph;
+	/** width of time bin(ms)				*/	private long                            _binSize;
+	/** the number of bins					*/	private int                             _numBins;
+	/** time zone of bins					*/	private TimeZone                        _timeZone;
+	/** mode names							*/	private String[]                        _modes;
+	/** mode index by name					*/	private Map<String,Integer>             _modeIndex;
+	/** counters of the current thread		*/	private ThreadLocal<long[]>             _locals;
+	/** counters of all threads				*/	private ConcurrentLinkedQueue<long[]>   _all;
+
+
+	/* ==============================================================
+	 * constructors
+	 * ============================================================== */
+	/**
+	 * create instance with hourly bins of the day in the default time zone
+	 * @param graph compact graph
+	 * @param modes mode names
+	 */
+	public LinkVolumeCounter(CompactGraph graph,String... modes) {
+		this(graph,BIN_SIZE,NUM_BINS,TimeZone.getDefault(),modes);
+	}
+
+	/**
+	 * create instance
+	 * @param graph compact graph
+	 * @param binSizeInSecond width of time bin(s)
+	 * @param numBins the number of bins. bins are repeated every bin size * the number of bins
+	 * @param timeZone time zone of bins
+	 * @param modes mode names
+	 * @throws IllegalArgumentException the number of counters of a thread exceeds the maximum array size
+	 */
+	public LinkVolumeCounter(CompactGraph graph,int binSizeInSecond,int numBins,TimeZone timeZone,String... modes) {
+		if( binSizeInSecond <= 0 ) { throw new IllegalArgumentException("unavailable value: binSizeInSecond=" + binSizeInSecond); }
+		if( numBins <= 0 )         { throw new IllegalArgumentException("unavailable value: numBins=" + numBins); }
+		if( modes.length == 0 )    { throw new IllegalArgumentException("no mode"); }
+		_graph     = graph;
+		_binSize   = binSizeInSecond * 1000L;
+		_numBins   = numBins;
+		_timeZone  = timeZone;
+		_modes     = modes.clone();
+		_modeIndex = new HashMap<String,Integer>();
+		_all       = new ConcurrentLinkedQueue<long[]>();
+		for(int m=0;m<modes.length;m++) {
+			if( _modeIndex.put(modes[m],m) != null ) { throw new IllegalArgumentException("duplicate mode: " + modes[m]); }
+		}
+		long counters = (long)modes.length * numBins * graph.numLinks();
+		if( counters > Integer.MAX_VALUE ) { throw new IllegalArgumentException("too many counters: " + counters); }
+		final int size = (int)counters;
+		_locals = new ThreadLocal<long[]>() {
+			@Override
+			protected long[] initialValue() {
+				long[] counts = new long[size];
+				_all.add(counts);
+				return counts;
+			}
+		};
+	}
+
+
+	/* ==============================================================
+	 * instance methods
+	 * ============================================================== */
+	/**
+	 * get compact graph
+	 * @return compact graph
+	 */
+	public CompactGraph getGraph() {
+		return _graph;
+	}
+
+	/**
+	 * get mode names
+	 * @return mode names
+	 */
+	public List<String> listModes() {
+		return Arrays.asList(_modes.clone());
+	}
+
+	/**
+	 * get the number of bins
+	 * @return the number of bins
+	 */
+	public int numBins() {
+		return _numBins;
+	}
+
+	/**
+	 * get time bin of the time
+	 * @param time time(ms)
+	 * @return bin index
+	 */
+	public int getBin(long time) {
+		return TravelTimeTable.bin(time,_binSize,_numBins,_timeZone);
+	}
+
+	/**
+	 * get mode index
+	 * @param mode mode name
+	 * @return mode index
+	 */
+	public int indexOfMode(String mode) {
+		Integer m = _modeIndex.get(mode);
+		if( m == null ) { throw new IllegalArgumentException("unknown mode: " + mode); }
+		return m;
+	}
+
+	/**
+	 * add count of the link
+	 * @param link link index of the compact graph
+	 * @param mode mode index
+	 * @param bin bin index
+	 * @param count count
+	 */
+	public void add(int link,int mode,int bin,long count) {
+		_locals.get()[index(link,mode,bin)] += count;
+	}
+
+	/**
+	 * count a trip using the link
+	 * @param linkid link ID
+	 * @param mode mode name
+	 * @param time time using the link(ms)
+	 * @return true if counted, false if the link is not in the graph
+	 */
+	public boolean add(String linkid,String mode,long time) {
+		int idx = _graph.indexOfLink(linkid);
+		if( idx < 0 ) { return false; }
+		add(idx,indexOfMode(mode),getBin(time),1L);
+		return true;
+	}
+
+	/**
+	 * count a trip using the links
+	 * @param links link sequence
+	 * @param mode mode name
+	 * @param time time of the trip(ms)
+	 * @return the number of links counted
+	 */
+	public int add(List<Link> links,String mode,long time) {
+		int    m      = indexOfMode(mode);
+		int    b      = getBin(time);
+		long[] counts = _locals.get();
+		int    count  = 0;
+		int    prev   = -1;
+		for(Link link:links) {
+			int idx = _graph.indexOf(link);
+			if( idx < 0 || idx == prev ) { continue; }
+			counts[index(idx,m,b)]++;
+			prev = idx;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * count a trip along the route
+	 * @param route route
+	 * @param mode mode name
+	 * @param time departure time(ms)
+	 * @return the number of links counted
+	 */
+	public int add(Route route,String mode,long time) {
+		return add(route.listLinks(),mode,time);
+	}
+
+	/**
+	 * count a trip along the links of the matched trajectory, including links routed between points
+	 * @param result result of trajectory map matching
+	 * @param mode mode name
+	 * @param time time of the trip(ms)
+	 * @return the number of links counted
+	 */
+	public int add(PathMatchingResult result,String mode,long time) {
+		return add(result.getLinks(),mode,time);
+	}
+
+	/**
+	 * count a trip along the nearest links of the matched points. each link is counted in the bin of the time stamp
+	 * of the first point on it
+	 * @param results per-point matching results in the order of time
+	 * @param mode mode name
+	 * @param time time used for points without time stamp(ms)
+	 * @return the number of links counted
+	 */
+	public int addMatches(List<MatchingResult> results,String mode,long time) {
+		int    m      = indexOfMode(mode);
+		long[] counts = _locals.get();
+		int    count  = 0;
+		int    prev   = -1;
+		for(MatchingResult r:results) {
+			Link link = r.getNearestLink();
+			int  idx  = link == null ? -1 : _graph.indexOf(link);
+			if( idx < 0 || idx == prev ) { continue; }
+			LonLat in = r.getInputPoint();
+			long   t  = in instanceof STPoint && STPoint.class.cast(in).getDtStart() != null ? STPoint.class.cast(in).getDtStart().getTime() : time;
+			counts[index(idx,m,getBin(t))]++;
+			prev = idx;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * get count of the link
+	 * @param link link index
+	 * @param mode mode index
+	 * @param bin bin index
+	 * @return count
+	 */
+	public long getCount(int link,int mode,int bin) {
+		int  i     = index(link,mode,bin);
+		long count = 0L;
+		for(long[] counts:_all) { count += counts[i]; }
+		return count;
+	}
+
+	/**
+	 * get count of the link
+	 * @param linkid link ID
+	 * @param mode mode name
+	 * @param bin bin index
+	 * @return count. 0 if the link is not in the graph
+	 */
+	public long getCount(String linkid,String mode,int bin) {
+		int idx = _graph.indexOfLink(linkid);
+		return idx < 0 ? 0L : getCount(idx,indexOfMode(mode),bin);
+	}
+
+	/**
+	 * get total count of the link over all modes and bins
+	 * @param linkid link ID
+	 * @return count. 0 if the link is not in the graph
+	 */
+	public long getTotal(String linkid) {
+		int idx = _graph.indexOfLink(linkid);
+		if( idx < 0 ) { return 0L; }
+		long count = 0L;
+		for(int m=0;m<_modes.length;m++) {
+			for(int b=0;b<_numBins;b++) { count += getCount(idx,m,b); }
+		}
+		return count;
+	}
+
+	/**
+	 * get counts of all threads summed
+	 * @return counts indexed by (mode * the number of bins + bin) * the number of links + link index
+	 */
+	public long[] getCounts() {
+		long[] total = new long[_modes.length * _numBins * _graph.numLinks()];
+		for(long[] counts:_all) {
+			for(int i=0;i<total.length;i++) { total[i] += counts[i]; }
+		}
+		return total;
+	}
+
+	/**
+	 * clear all counts
+	 */
+	public void clear() {
+		for(long[] counts:_all) { Arrays.fill(counts,0L); }
+	}
+
+	/**
+	 * write non-zero counts as CSV(link id, mode, bin start time(s), count)
+	 * @param file output file
+	 * @throws IOException failed to write
+	 */
+	public void writeCsv(File file) throws IOException {
+		long[] counts = getCounts();
+		int    L      = _graph.numLinks();
+		try(BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
+			bw.write("linkid,mode,time,count");
+			bw.newLine();
+			for(int i=0;i<L;i++) {
+				String linkid = _graph.getLink(i).getLinkID();
+				for(int m=0;m<_modes.length;m++) {
+					for(int b=0;b<_numBins;b++) {
+						long count = counts[index(i,m,b)];
+						if( count == 0L ) { continue; }
+						bw.write(linkid + "," + _modes[m] + "," + (b * _binSize / 1000L) + "," + count);
+						bw.newLine();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * write all counts as binary array in big endian: magic, version, the number of links, modes and bins,
+	 * bin size(s), mode names and link IDs(modified UTF-8), and counts(8 byte) in the order of {@link #getCounts()}
+	 * @param file output file
+	 * @throws IOException failed to write
+	 */
+	public void writeBinary(File file) throws IOException {
+		long[] counts = getCounts();
+		int    L      = _graph.numLinks();
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),1<<16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(L);
+			out.writeInt(_modes.length);
+			out.writeInt(_numBins);
+			out.writeInt((int)(_binSize / 1000L));
+			for(String mode:_modes) { out.writeUTF(mode); }
+			for(int i=0;i<L;i++) { out.writeUTF(_graph.getLink(i).getLinkID()); }
+			for(long count:counts) { out.writeLong(count); }
+		}
+	}
+
+	/**
+	 * get index of the counter
+	 * @param link link index
+	 * @param mode mode index
+	 * @param bin bin index
+	 * @return index
+	 */
+	private int index(int link,int mode,int bin) {
+		if( link < 0 || _graph.numLinks() <= link ) { throw new IndexOutOfBoundsException("link: " + link); }
+		if( mode < 0 || _modes.length <= mode )     { throw new IndexOutOfBoundsException("mode: " + mode); }
+		if( bin < 0 || _numBins <= bin )            { throw new IndexOutOfBoundsException("bin: " + bin); }
+		return (int)(((long)mode * _numBins + bin) * _graph.numLinks() + link);
+	}
+}
@@ -0,0 +1,6 @@
+/**
+ * package for counting link volumes of routes and matched trajectories
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+package jp.ac.ut.csis.pflow.routing2.volume;
@@ -0,0 +1,79 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.GridNetwork;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+import junit.framework.TestCase;
+
+/**
+ * Test of {@link ArcFlags} and {@link ArcFlagDijkstra}: routes of the pruned search have the same costs as those
+ * of the unpruned search, and flags survive a write and read.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class ArcFlagsTest extends TestCase {
+	/** network		*/	private Network      _network;
+	/** compact graph	*/	private CompactGraph _graph;
+
+	/* @see junit.framework.TestCase#setUp() */
+	@Override
+	protected void setUp() {
+		_network = GridNetwork.create(20,1L);
+		_graph   = CostProfileUtils.compileDefaults(new CompactGraph(_network));
+	}
+
+	/**
+	 * pruned routes match unpruned routes
+	 */
+	public void testSameRoutes() {
+		for(String name:new String[]{"distance","car"}) {
+			for(int level:new int[]{2,3}) {
+				assertSameRoutes(name,new ArcFlagDijkstra(ArcFlags.build(_graph.getProfile(name),level,2)));
+			}
+		}
+	}
+
+	/**
+	 * flags read from a file are the same
+	 * @throws IOException failed to write or read
+	 */
+	public void testWriteRead() throws IOException {
+		ArcFlags flags = ArcFlags.build(_graph.getProfile("car"),3,2);
+		File     file  = File.createTempFile("arcflags",".bin");
+		try {
+			flags.write(file);
+			ArcFlags read = ArcFlags.read(file,_graph.getProfile("car"));
+			assertTrue(Arrays.equals(flags.getFlags(),read.getFlags()));
+			assertSameRoutes("car",new ArcFlagDijkstra(read));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * compare routes between random node pairs
+	 * @param name profile name
+	 * @param pruned search with arc flags
+	 */
+	private void assertSameRoutes(String name,ArcFlagDijkstra pruned) {
+		CompiledDijkstra dijkstra = new CompiledDijkstra(_graph,name);
+		Random           rand     = new Random(2L);
+		for(int t=0;t<100;t++) {
+			Node        dep      = _graph.getNode(rand.nextInt(_graph.numNodes()));
+			Node        arr      = _graph.getNode(rand.nextInt(_graph.numNodes()));
+			List<Route> expected = dijkstra.getRoutes(_network,dep,arr,1);
+			List<Route> actual   = pruned.getRoutes(_network,dep,arr,1);
+			assertEquals(dep + " to " + arr,expected.size(),actual.size());
+			if( !expected.isEmpty() ) { assertEquals(dep + " to " + arr,expected.get(0).getCost(),actual.get(0).getCost(),1e-9); }
+		}
+	}
+}
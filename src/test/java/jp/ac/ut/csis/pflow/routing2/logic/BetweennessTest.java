@@ -0,0 +1,129 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import junit.framework.TestCase;
+
+/**
+ * Test of {@link Betweenness}: scores equal those counted by enumerating all simple paths of a 5-node graph
+ * with ties of shortest paths and a one-way link.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class BetweennessTest extends TestCase {
+	/** network			*/	private Network      _network;
+	/** compact graph	*/	private CompactGraph _graph;
+	/** edge costs		*/	private double[]     _costs;
+
+	/* @see junit.framework.TestCase#setUp() */
+	@Override
+	protected void setUp() {
+		Node a = new Node("A",139.700,35.600);
+		Node b = new Node("B",139.701,35.600);
+		Node c = new Node("C",139.702,35.600);
+		Node d = new Node("D",139.701,35.601);
+		Node e = new Node("E",139.703,35.600);
+		_network = new Network();
+		_network.addLink(new Link("AB",a,b,1d,1d,false));
+		_network.addLink(new Link("BC",b,c,1d,1d,false));
+		_network.addLink(new Link("AD",a,d,1d,1d,false));
+		_network.addLink(new Link("DC",d,c,1d,1d,false));
+		_network.addLink(new Link("CE",c,e,2d,2d,false));
+		_network.addLink(new Link("BE",b,e,3d,3d,false));
+		_network.addLink(new Link("DB",d,b,1d,1d,true));
+		_graph = new CompactGraph(_network);
+		_costs = new double[_graph.numEdges()];
+		for(int i=0;i<_costs.length;i++) {
+			Link link = _graph.getLink(_graph.getEdgeLink()[i]);
+			_costs[i] = _graph.getEdgeReverse()[i] ? link.getReverseCost() : link.getCost();
+		}
+	}
+
+	/**
+	 * exact scores match brute force
+	 */
+	public void testBruteForce() {
+		BetweennessResult result = new Betweenness(_graph,new LinkCost()).setNumThreads(2).compute();
+		int      N     = _graph.numNodes();
+		double[] nodes = new double[N];
+		double[] edges = new double[_graph.numEdges()];
+		bruteForce(nodes,edges);
+		assertTrue(result.isExact());
+		for(int i=0;i<N;i++) { assertEquals(_graph.getNode(i).getNodeID(),nodes[i],result.getNodeScore(i),1e-9); }
+		for(int e=0;e<edges.length;e++) { assertEquals("edge " + e,edges[e],result.getEdgeScore(e),1e-9); }
+		assertTrue(result.getNodeScore(_graph.indexOfNode("B")) > 0d);
+	}
+
+	/**
+	 * zero costs are rejected
+	 */
+	public void testZeroCost() {
+		_network.addLink(new Link("AE",_network.getNode("A"),_network.getNode("E"),0d,0d,false));
+		try {
+			new Betweenness(new CompactGraph(_network),new LinkCost());
+			fail("zero cost accepted");
+		}
+		catch(IllegalArgumentException exp) {
+			// expected
+		}
+	}
+
+	/**
+	 * count shortest paths of all ordered pairs by enumerating simple paths
+	 * @param nodes node scores(output)
+	 * @param edges edge scores(output)
+	 */
+	private void bruteForce(double[] nodes,double[] edges) {
+		int N = _graph.numNodes();
+		for(int s=0;s<N;s++) {
+			List<List<Integer>> paths = new ArrayList<List<Integer>>();
+			enumerate(s,new boolean[N],new ArrayList<Integer>(),paths);
+			for(int t=0;t<N;t++) {
+				if( t == s ) { continue; }
+				// shortest paths to t ////////////////////
+				double              min      = Double.POSITIVE_INFINITY;
+				List<List<Integer>> shortest = new ArrayList<List<Integer>>();
+				for(List<Integer> path:paths) {
+					if( _graph.getEdgeHead()[path.get(path.size()-1)] != t ) { continue; }
+					double cost = 0d;
+					for(int e:path) { cost += _costs[e]; }
+					if( cost < min ) { min = cost; shortest.clear(); }
+					if( cost == min ) { shortest.add(path); }
+				}
+				// fractions through nodes and edges //////
+				for(List<Integer> path:shortest) {
+					for(int k=0;k<path.size();k++) {
+						int e = path.get(k);
+						edges[e] += 1d / shortest.size();
+						if( k > 0 ) { nodes[_graph.getEdgeTail()[e]] += 1d / shortest.size(); }
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * enumerate simple paths from the node
+	 * @param u current node
+	 * @param visited visited flags
+	 * @param path edges of the current path
+	 * @param paths all paths(output)
+	 */
+	private void enumerate(int u,boolean[] visited,List<Integer> path,List<List<Integer>> paths) {
+		visited[u] = true;
+		for(int e=_graph.getOutStart()[u];e<_graph.getOutStart()[u+1];e++) {
+			int v = _graph.getEdgeHead()[e];
+			if( visited[v] ) { continue; }
+			path.add(e);
+			paths.add(new ArrayList<Integer>(path));
+			enumerate(v,visited,path,paths);
+			path.remove(path.size()-1);
+		}
+		visited[u] = false;
+	}
+}
@@ -0,0 +1,79 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.List;
+import java.util.Random;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.GridNetwork;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import jp.ac.ut.csis.pflow.routing2.res.Route;
+import junit.framework.TestCase;
+
+/**
+ * Test of {@link ChoiceSetGenerator}: routes run from the origin to the destination, the cheapest one is the
+ * shortest path, and the origin alone is the route when the origin is the destination.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class ChoiceSetGeneratorTest extends TestCase {
+	/** network			*/	private Network      _network;
+	/** compact graph	*/	private CompactGraph _graph;
+
+	/* @see junit.framework.TestCase#setUp() */
+	@Override
+	protected void setUp() {
+		_network = GridNetwork.create(10,1L);
+		_graph   = CostProfileUtils.compileDefaults(new CompactGraph(_network));
+	}
+
+	/**
+	 * routes between random node pairs
+	 */
+	public void testRoutes() {
+		CompiledDijkstra dijkstra = new CompiledDijkstra(_graph,"car");
+		Random           rand     = new Random(2L);
+		for(ChoiceSetGenerator.Method method:ChoiceSetGenerator.Method.values()) {
+			ChoiceSetGenerator generator = create(method);
+			for(int t=0;t<20;t++) {
+				Node        dep      = _graph.getNode(rand.nextInt(_graph.numNodes()));
+				Node        arr      = _graph.getNode(rand.nextInt(_graph.numNodes()));
+				List<Route> expected = dijkstra.getRoutes(_network,dep,arr,1);
+				ChoiceSet   set      = generator.generate(dep,arr);
+				assertEquals(method + " " + dep + " to " + arr,expected.isEmpty(),set.numRoutes() == 0);
+				if( expected.isEmpty() ) { continue; }
+				assertEquals(method + " " + dep + " to " + arr,expected.get(0).getCost(),set.getCost(0),1e-9);
+				for(Route route:set.listRoutes()) {
+					assertEquals(dep,route.getNode(0));
+					assertEquals(arr,route.getNode(route.numNodes()-1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * the origin alone is the route to itself
+	 */
+	public void testSameNode() {
+		Node  node     = _graph.getNode(_graph.numNodes() / 2);
+		Route expected = new Dijkstra().getRoute(_network,node,node);
+		for(ChoiceSetGenerator.Method method:ChoiceSetGenerator.Method.values()) {
+			ChoiceSetGenerator generator = create(method);
+			ChoiceSet          set       = generator.generate(node,node);
+			assertEquals(method.toString(),1,set.numRoutes());
+			assertEquals(method.toString(),0d,set.getCost(0),0d);
+			Route route = generator.sample(node,node,new Random(3L));
+			assertEquals(method.toString(),expected.numNodes(),route.numNodes());
+			assertEquals(method.toString(),node,route.getNode(0));
+		}
+	}
+
+	/**
+	 * create generator of the car profile
+	 * @param method generation method
+	 * @return generator
+	 */
+	private ChoiceSetGenerator create(ChoiceSetGenerator.Method method) {
+		return new ChoiceSetGenerator(_graph.getProfile("car"),method,5);
+	}
+}
@@ -0,0 +1,77 @@
+package jp.ac.ut.csis.pflow.routing2.logic;
+
+import java.util.Random;
+
+import jp.ac.ut.csis.pflow.routing2.res.CompactGraph;
+import jp.ac.ut.csis.pflow.routing2.res.CostProfile;
+import jp.ac.ut.csis.pflow.routing2.res.GridNetwork;
+import junit.framework.TestCase;
+
+/**
+ * Test of {@link DeltaStepping}: costs from a source equal those of {@link CompiledDijkstra} on a small grid.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class DeltaSteppingTest extends TestCase {
+	/** compact graph with default profiles */
+	private CompactGraph _graph;
+
+	/* @see junit.framework.TestCase#setUp() */
+	@Override
+	protected void setUp() {
+		_graph = CostProfileUtils.compileDefaults(new CompactGraph(GridNetwork.create(20,1L)));
+	}
+
+	/**
+	 * costs with the default bucket width
+	 */
+	public void testDefaultDelta() {
+		for(String name:new String[]{"distance","car"}) {
+			CostProfile   profile = _graph.getProfile(name);
+			DeltaStepping ds      = new DeltaStepping(profile);
+			try {
+				assertSameCosts(name,ds);
+			}
+			finally {
+				ds.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * costs with narrow and wide buckets on several threads
+	 */
+	public void testBucketWidths() {
+		CostProfile profile = _graph.getProfile("distance");
+		for(double delta:new double[]{1d,50d,1000d}) {
+			DeltaStepping ds = new DeltaStepping(profile,delta,4);
+			try {
+				assertSameCosts("distance",ds);
+			}
+			finally {
+				ds.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * compare costs and parent edges from random sources
+	 * @param name profile name
+	 * @param ds delta stepping
+	 */
+	private void assertSameCosts(String name,DeltaStepping ds) {
+		CompiledDijkstra dijkstra = new CompiledDijkstra(_graph,name);
+		Random           rand     = new Random(2L);
+		for(int t=0;t<5;t++) {
+			int      s        = rand.nextInt(_graph.numNodes());
+			double[] expected = dijkstra.getCosts(_graph.getNode(s),Double.POSITIVE_INFINITY);
+			double[] actual   = ds.getCosts(s);
+			assertEquals(expected.length,actual.length);
+			for(int i=0;i<expected.length;i++) { assertEquals("node " + i + " from " + s,expected[i],actual[i],0d); }
+			int[] parents = ds.getParentEdges(s,actual);
+			for(int i=0;i<parents.length;i++) {
+				if( i != s && actual[i] < Double.POSITIVE_INFINITY ) { assertTrue("no parent of " + i,parents[i] >= 0); }
+			}
+		}
+	}
+}
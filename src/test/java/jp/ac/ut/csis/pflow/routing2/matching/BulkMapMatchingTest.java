@@ -0,0 +1,106 @@
+package jp.ac.ut.csis.pflow.routing2.matching;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.routing2.loader.ACsvNetworkLoader.Delimiter;
+import jp.ac.ut.csis.pflow.routing2.res.GridNetwork;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+import junit.framework.TestCase;
+
+/**
+ * Test of {@link BulkMapMatching}: a run resumed from the checkpoint of a failed run writes the same output
+ * as an uninterrupted run.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class BulkMapMatchingTest extends TestCase {
+	/** the number of trajectories		*/	private static final int TRAJECTORIES = 60;
+	/** trajectory failing the first run	*/	private static final int FAILURE      = 41;
+
+	/** network			*/	private Network _network;
+	/** work directory	*/	private File    _dir;
+	/** input file		*/	private File    _input;
+
+	/* @see junit.framework.TestCase#setUp() */
+	@Override
+	protected void setUp() throws IOException {
+		_network = GridNetwork.create(10,1L);
+		_dir     = Files.createTempDirectory("bulkmatching").toFile();
+		_input   = new File(_dir,"input.csv");
+		Random rand = new Random(5L);
+		try(PrintWriter pw = new PrintWriter(_input)) {
+			pw.println("uid,time,lon,lat");
+			for(int u=0;u<TRAJECTORIES;u++) {
+				double lon = 139.7 + rand.nextDouble() * 0.009;
+				double lat = 35.6 + rand.nextDouble() * 0.009;
+				for(int k=0,n=3+rand.nextInt(10);k<n;k++) {
+					lon += rand.nextGaussian() * 0.0003;
+					lat += rand.nextGaussian() * 0.0003;
+					pw.println("u" + u + "," + k + "," + lon + "," + lat);
+				}
+			}
+		}
+	}
+
+	/* @see junit.framework.TestCase#tearDown() */
+	@Override
+	protected void tearDown() {
+		for(File file:_dir.listFiles()) { file.delete(); }
+		_dir.delete();
+	}
+
+	/**
+	 * resume after a failure in the middle of the input
+	 * @throws IOException failed to read or write
+	 */
+	public void testResume() throws IOException {
+		File expected   = new File(_dir,"expected.csv");
+		File actual     = new File(_dir,"actual.csv");
+		File checkpoint = new File(_dir,"checkpoint");
+		assertEquals(TRAJECTORIES,create(new MapMatching()).run(_input,expected));
+		// first run fails at a trajectory after checkpoints //
+		try {
+			create(new FailingMatching()).run(_input,actual,checkpoint);
+			fail("run did not fail");
+		}
+		catch(IllegalStateException exp) {
+			assertTrue(checkpoint.exists());
+		}
+		// resumed run completes the output ///////////////
+		long count = create(new MapMatching()).run(_input,actual,checkpoint);
+		assertTrue(0 < count && count < TRAJECTORIES);
+		assertFalse(checkpoint.exists());
+		assertTrue(Arrays.equals(Files.readAllBytes(expected.toPath()),Files.readAllBytes(actual.toPath())));
+	}
+
+	/**
+	 * create bulk matching of one thread, so that the failure comes at a fixed trajectory
+	 * @param matching matching logic
+	 * @return bulk matching
+	 */
+	private BulkMapMatching create(IMatching matching) {
+		return new BulkMapMatching(_network,matching).setFormat(Delimiter.CSV,true).setRange(500d).setNumThreads(1).setCheckpointInterval(7);
+	}
+
+	/**
+	 * matching failing at the indicated trajectory
+	 */
+	private static class FailingMatching extends MapMatching {
+		/** the number of calls */	private AtomicInteger __calls = new AtomicInteger();
+
+		/* @see jp.ac.ut.csis.pflow.routing2.matching.MapMatching#runMatching(jp.ac.ut.csis.pflow.routing2.res.Network, java.util.List, double) */
+		@Override
+		public <T extends LonLat> List<MatchingResult> runMatching(Network network,List<T> points,double range) {
+			if( __calls.incrementAndGet() == FAILURE ) { throw new IllegalStateException("failure for test"); }
+			return super.runMatching(network,points,range);
+		}
+	}
+}
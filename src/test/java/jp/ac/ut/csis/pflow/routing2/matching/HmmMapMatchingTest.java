@@ -0,0 +1,86 @@
+package jp.ac.ut.csis.pflow.routing2.matching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.LonLat;
+import jp.ac.ut.csis.pflow.routing2.res.Link;
+import jp.ac.ut.csis.pflow.routing2.res.Network;
+import jp.ac.ut.csis.pflow.routing2.res.Node;
+import junit.framework.TestCase;
+
+/**
+ * Test of {@link HmmMapMatching} on a pair of parallel roads about 44m apart, connected only at both ends.
+ * some points of a trip along the southern road are closer to the northern road, which the nearest link
+ * matching takes, while the model keeps the whole trip on the southern road.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class HmmMapMatchingTest extends TestCase {
+	/** the number of links of a road	*/	private static final int    N     = 5;
+	/** latitude of southern road		*/	private static final double SOUTH = 35.6;
+	/** latitude of northern road		*/	private static final double NORTH = 35.6004;
+
+	/** network			*/	private Network      _network;
+	/** trip points		*/	private List<LonLat> _points;
+
+	/* @see junit.framework.TestCase#setUp() */
+	@Override
+	protected void setUp() {
+		_network = new Network();
+		Node[] south = new Node[N+1];
+		Node[] north = new Node[N+1];
+		for(int k=0;k<=N;k++) {
+			south[k] = new Node("S" + k,139.7 + k * 0.001,SOUTH);
+			north[k] = new Node("N" + k,139.7 + k * 0.001,NORTH);
+		}
+		for(int k=0;k<N;k++) {
+			_network.addLink(link("S" + k,south[k],south[k+1]));
+			_network.addLink(link("N" + k,north[k],north[k+1]));
+		}
+		_network.addLink(link("W",south[0],north[0]));
+		_network.addLink(link("E",south[N],north[N]));
+		// every fourth point is 25m north of the southern road, 19m from the northern one
+		_points = new ArrayList<LonLat>();
+		for(int i=0;i<=16;i++) {
+			_points.add(new LonLat(139.7005 + i * 0.00025,SOUTH + (i % 4 == 2 ? 0.000225 : 0.00005)));
+		}
+	}
+
+	/**
+	 * the nearest link matching jumps to the northern road
+	 */
+	public void testNearestJumps() {
+		int north = 0;
+		for(MatchingResult r:new MapMatching().runMatching(_network,_points,200d)) {
+			if( r.getNearestLink().getLinkID().startsWith("N") ) { north++; }
+		}
+		assertTrue(north > 0);
+	}
+
+	/**
+	 * the model keeps the trip on the southern road
+	 */
+	public void testStaysOnRoad() {
+		PathMatchingResult result = new HmmMapMatching().runPathMatching(_network,_points,200d);
+		assertEquals(0,result.numBreaks());
+		for(MatchingResult r:result.getResults()) {
+			assertTrue(r.getInputPoint().toString(),r.getNearestLink().getLinkID().startsWith("S"));
+		}
+		for(Link link:result.getLinks()) { assertTrue(link.getLinkID(),link.getLinkID().startsWith("S")); }
+	}
+
+	/**
+	 * create two-way link with the distance cost
+	 * @param linkid link ID
+	 * @param tail tail node
+	 * @param head head node
+	 * @return link
+	 */
+	private static Link link(String linkid,Node tail,Node head) {
+		double dist = DistanceUtils.distance(tail,head);
+		return new Link(linkid,tail,head,dist,dist,false,Arrays.<LonLat>asList(tail,head));
+	}
+}
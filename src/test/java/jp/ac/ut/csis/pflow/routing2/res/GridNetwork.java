@@ -0,0 +1,55 @@
+package jp.ac.ut.csis.pflow.routing2.res;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import jp.ac.ut.csis.pflow.geom.DistanceUtils;
+import jp.ac.ut.csis.pflow.geom.LonLat;
+
+/**
+ * Class for small grid networks of tests. <br />
+ * nodes are on a jittered grid of about 100m spacing, identified by "i_j". links connect neighbouring nodes,
+ * with random road classes and speeds, and some of the horizontal links are one-way.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class GridNetwork {
+	/**
+	 * create grid network
+	 * @param n the number of nodes of a side
+	 * @param seed random seed
+	 * @return network
+	 */
+	public static Network create(int n,long seed) {
+		Network  network = new Network();
+		Random   rand    = new Random(seed);
+		Node[][] nodes   = new Node[n][n];
+		for(int i=0;i<n;i++) {
+			for(int j=0;j<n;j++) {
+				nodes[i][j] = new Node(i + "_" + j,139.7 + i * 0.001 + rand.nextDouble() * 0.0002,35.6 + j * 0.001 + rand.nextDouble() * 0.0002);
+			}
+		}
+		int id = 0;
+		for(int i=0;i<n;i++) {
+			for(int j=0;j<n;j++) {
+				if( i+1 < n ) { network.addLink(link("L" + (id++),nodes[i][j],nodes[i+1][j],rand.nextInt(5) == 0,rand)); }
+				if( j+1 < n ) { network.addLink(link("L" + (id++),nodes[i][j],nodes[i][j+1],false,rand)); }
+			}
+		}
+		return network;
+	}
+
+	/**
+	 * create link of the distance cost
+	 * @param linkid link ID
+	 * @param tail tail node
+	 * @param head head node
+	 * @param oneway one-way flag
+	 * @param rand random generator
+	 * @return link
+	 */
+	private static Link link(String linkid,Node tail,Node head,boolean oneway,Random rand) {
+		double dist = DistanceUtils.distance(tail,head);
+		return new OsmLink(linkid,tail,head,dist,dist,oneway,rand.nextInt(10) + 1,10 + rand.nextInt(10),Arrays.<LonLat>asList(tail,head));
+	}
+}
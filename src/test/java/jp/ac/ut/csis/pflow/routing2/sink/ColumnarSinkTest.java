@@ -0,0 +1,81 @@
+package jp.ac.ut.csis.pflow.routing2.sink;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test of {@link ColumnarSink} and {@link ColumnarReader}: values written are read back exactly.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class ColumnarSinkTest extends TestCase {
+	/**
+	 * round trip of records over blocks and small buffers
+	 * @throws IOException failed to write or read
+	 */
+	public void testRoundTrip() throws IOException {
+		List<SampleRecord> records = SampleRecord.list(1000,1L);
+		assertEquals(records,roundTrip(records));
+	}
+
+	/**
+	 * the partial row of a failed encoder is discarded
+	 * @throws IOException failed to write or read
+	 */
+	public void testFailedRecord() throws IOException {
+		List<SampleRecord> records = SampleRecord.list(100,2L);
+		List<SampleRecord> written = new ArrayList<SampleRecord>(records);
+		written.add(50,new SampleRecord(SampleRecord.FAILURE,1L,1d));
+		assertEquals(records,roundTrip(written));
+	}
+
+	/**
+	 * write records and read them back
+	 * @param records records
+	 * @return records read
+	 * @throws IOException failed to write or read
+	 */
+	private List<SampleRecord> roundTrip(List<SampleRecord> records) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try(ColumnarSink<SampleRecord> sink = new ColumnarSink<SampleRecord>(out,SampleRecord.ENCODER,64,256,2)) {
+			for(SampleRecord record:records) {
+				try {
+					sink.write(record);
+				}
+				catch(IllegalArgumentException exp) {
+					assertEquals(SampleRecord.FAILURE,record.__name);
+				}
+			}
+		}
+		List<SampleRecord> read = new ArrayList<SampleRecord>();
+		try(ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(out.toByteArray()))) {
+			assertEquals(SampleRecord.ENCODER.getColumnNames(),reader.getColumnNames());
+			assertEquals(SampleRecord.ENCODER.getColumnTypes(),reader.getColumnTypes());
+			while( reader.next() ) {
+				for(int i=0;i<reader.numRows();i++) {
+					read.add(new SampleRecord(reader.getString(0,i),reader.getLong(1,i),reader.getDouble(2,i)));
+				}
+			}
+		}
+		return read;
+	}
+
+	/**
+	 * compare records exactly
+	 * @param expected expected records
+	 * @param actual actual records
+	 */
+	private static void assertEquals(List<SampleRecord> expected,List<SampleRecord> actual) {
+		assertEquals(expected.size(),actual.size());
+		for(int i=0;i<expected.size();i++) {
+			assertEquals("row " + i,expected.get(i).__name,actual.get(i).__name);
+			assertEquals("row " + i,expected.get(i).__id,actual.get(i).__id);
+			assertEquals("row " + i,Double.doubleToLongBits(expected.get(i).__value),Double.doubleToLongBits(actual.get(i).__value));
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package jp.ac.ut.csis.pflow.routing2.sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.ac.ut.csis.pflow.routing2.loader.ACsvNetworkLoader.Delimiter;
+import junit.framework.TestCase;
+
+/**
+ * Test of {@link DelimitedSink}: CSV written is parsed back to the values, doubles within the fraction digits.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+public class DelimitedSinkTest extends TestCase {
+	/**
+	 * round trip of records over small buffers
+	 * @throws IOException failed to write
+	 */
+	public void testRoundTrip() throws IOException {
+		List<SampleRecord> records = SampleRecord.list(1000,1L);
+		assertEquals(records,roundTrip(records));
+	}
+
+	/**
+	 * the partial row of a failed encoder is discarded
+	 * @throws IOException failed to write
+	 */
+	public void testFailedRecord() throws IOException {
+		List<SampleRecord> records = SampleRecord.list(100,2L);
+		List<SampleRecord> written = new ArrayList<SampleRecord>(records);
+		written.add(50,new SampleRecord(SampleRecord.FAILURE,1L,1d));
+		assertEquals(records,roundTrip(written));
+	}
+
+	/**
+	 * write records as CSV with header and parse them back
+	 * @param records records
+	 * @return records parsed
+	 * @throws IOException failed to write
+	 */
+	private List<SampleRecord> roundTrip(List<SampleRecord> records) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try(DelimitedSink<SampleRecord> sink = new DelimitedSink<SampleRecord>(out,SampleRecord.ENCODER,Delimiter.CSV,true,6,64,2)) {
+			for(SampleRecord record:records) {
+				try {
+					sink.write(record);
+				}
+				catch(IllegalArgumentException exp) {
+					assertEquals(SampleRecord.FAILURE,record.__name);
+				}
+			}
+		}
+		List<List<String>> rows = parse(new String(out.toByteArray(),StandardCharsets.UTF_8));
+		assertEquals(SampleRecord.ENCODER.getColumnNames(),rows.get(0));
+		List<SampleRecord> parsed = new ArrayList<SampleRecord>();
+		for(List<String> row:rows.subList(1,rows.size())) {
+			assertEquals(3,row.size());
+			parsed.add(new SampleRecord(row.get(0),
+										row.get(1).isEmpty() ? Long.MIN_VALUE : Long.parseLong(row.get(1)),
+										row.get(2).isEmpty() ? Double.NaN : Double.parseDouble(row.get(2))));
+		}
+		return parsed;
+	}
+
+	/**
+	 * parse CSV
+	 * @param text CSV text
+	 * @return rows of fields
+	 */
+	private static List<List<String>> parse(String text) {
+		List<List<String>> rows   = new ArrayList<List<String>>();
+		List<String>       row    = new ArrayList<String>();
+		StringBuilder      field  = new StringBuilder();
+		boolean            inside = false;
+		for(int i=0;i<text.length();i++) {
+			char c = text.charAt(i);
+			if( inside ) {
+				if( c != '"' )                                              { field.append(c); }
+				else if( i+1 < text.length() && text.charAt(i+1) == '"' )   { field.append(c); i++; }
+				else                                                        { inside = false; }
+			}
+			else if( c == '"' )                { inside = true; }
+			else if( c == ',' || c == '\n' ) {
+				row.add(field.toString());
+				field.setLength(0);
+				if( c == '\n' ) { rows.add(row); row = new ArrayList<String>(); }
+			}
+			else { field.append(c); }
+		}
+		assertTrue(row.isEmpty() && field.length() == 0);
+		return rows;
+	}
+
+	/**
+	 * compare records. null and empty strings are both written as empty fields, and doubles are rounded to
+	 * 6 fraction digits
+	 * @param expected expected records
+	 * @param actual actual records
+	 */
+	private static void assertEquals(List<SampleRecord> expected,List<SampleRecord> actual) {
+		assertEquals(expected.size(),actual.size());
+		for(int i=0;i<expected.size();i++) {
+			String name  = expected.get(i).__name;
+			double value = expected.get(i).__value;
+			assertEquals("row " + i,name == null ? "" : name,actual.get(i).__name);
+			assertEquals("row " + i,expected.get(i).__id,actual.get(i).__id);
+			if( Double.isNaN(value) ) { assertTrue("row " + i,Double.isNaN(actual.get(i).__value)); }
+			else                      { assertEquals("row " + i,value,actual.get(i).__value,1e-6); }
+		}
+	}
+}
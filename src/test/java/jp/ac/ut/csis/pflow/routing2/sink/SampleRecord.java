@@ -0,0 +1,75 @@
+package jp.ac.ut.csis.pflow.routing2.sink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.ColumnType;
+import jp.ac.ut.csis.pflow.routing2.sink.IRecordEncoder.RowWriter;
+
+/**
+ * Class for records of sink tests: a string, a long and a double column, with nulls, delimiters, quotes,
+ * line breaks and non-ASCII characters in strings. the encoder fails in the middle of the row of
+ * {@link #FAILURE}.
+ *
+ * @author People Flow Project, CSIS, UTokyo.
+ */
+class SampleRecord {
+	/** name of the record failing the encoder */
+	static final String FAILURE = "fail";
+
+	/** encoder of records */
+	static final IRecordEncoder<SampleRecord> ENCODER = new IRecordEncoder<SampleRecord>() {
+		public List<String> getColumnNames() {
+			return Arrays.asList("name","id","value");
+		}
+
+		public List<ColumnType> getColumnTypes() {
+			return Arrays.asList(ColumnType.STRING,ColumnType.LONG,ColumnType.DOUBLE);
+		}
+
+		public void encode(long index,SampleRecord record,RowWriter row) {
+			row.putString(record.__name);
+			row.putLong(record.__id);
+			if( FAILURE.equals(record.__name) ) { throw new IllegalArgumentException("failure for test"); }
+			row.putDouble(record.__value);
+			row.endRow();
+		}
+	};
+
+	/** string value. nullable					*/	String __name;
+	/** long value. Long.MIN_VALUE for null		*/	long   __id;
+	/** double value. NaN for null				*/	double __value;
+
+	/**
+	 * initialization
+	 * @param name string value
+	 * @param id long value
+	 * @param value double value
+	 */
+	SampleRecord(String name,long id,double value) {
+		__name  = name;
+		__id    = id;
+		__value = value;
+	}
+
+	/**
+	 * create random records
+	 * @param n the number of records
+	 * @param seed random seed
+	 * @return records
+	 */
+	static List<SampleRecord> list(int n,long seed) {
+		String[]           names   = {null,"","a","b,c","say \"hi\"","line\nbreak","東京","tab\there"};
+		Random             rand    = new Random(seed);
+		List<SampleRecord> records = new ArrayList<SampleRecord>(n);
+		for(int i=0;i<n;i++) {
+			String name  = rand.nextInt(3) == 0 ? names[rand.nextInt(names.length)] : "r" + i;
+			long   id    = rand.nextInt(10) == 0 ? Long.MIN_VALUE : rand.nextLong() >> rand.nextInt(64);
+			double value = rand.nextInt(10) == 0 ? Double.NaN : (rand.nextDouble() - 0.5d) * Math.pow(10d,rand.nextInt(12) - 4);
+			records.add(new SampleRecord(name,id,value));
+		}
+		return records;
+	}
+}